@@ -5,13 +5,17 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.prefs.Preferences;
 
 import it.unicas.project.template.address.model.Tasks;
 import it.unicas.project.template.address.model.Utenti;
 import it.unicas.project.template.address.model.dao.DAOException;
+import it.unicas.project.template.address.model.dao.mysql.CodaScritture;
 import it.unicas.project.template.address.model.dao.mysql.DAOUtenti;
 import it.unicas.project.template.address.model.dao.mysql.DAOMySQLSettings;
+import it.unicas.project.template.address.util.DiarioTimer;
+import it.unicas.project.template.address.util.PuliziaAllegati;
 import it.unicas.project.template.address.view.*;
 import javafx.application.Application;
 import javafx.collections.FXCollections;
@@ -94,6 +98,13 @@ public class MainApp extends Application {
         initData();
         showUtentiLogin();
 
+        // Rimozione in background dei file allegati non più usati
+        PuliziaAllegati.getInstance().avvia();
+        // Scritture rimaste in coda da un'esecuzione precedente senza database
+        CodaScritture.getInstance().avvia();
+        // Sessioni del timer rimaste aperte da un'esecuzione interrotta
+        CompletableFuture.runAsync(DiarioTimer.getInstance()::recupera);
+
         primaryStage.show();
     }
 
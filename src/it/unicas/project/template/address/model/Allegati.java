@@ -13,6 +13,7 @@ public class Allegati {
     private String tipoFile;
     private int idAllegato;
     private int idTask;
+    private String digest;
 
     /**
      * Costruttore di default.
@@ -94,4 +95,16 @@ public class Allegati {
      * @param tipoFile Il nuovo tipo.
      */
     public void setTipoFile(String tipoFile) { this.tipoFile = tipoFile; }
+
+    /**
+     * Restituisce lo SHA-256 del contenuto, con cui il file è registrato nell'archivio degli allegati.
+     * @return Il digest in esadecimale, oppure null per gli allegati salvati prima dell'archivio.
+     */
+    public String getDigest() { return digest; }
+
+    /**
+     * Imposta lo SHA-256 del contenuto.
+     * @param digest Il digest in esadecimale.
+     */
+    public void setDigest(String digest) { this.digest = digest; }
 }
\ No newline at end of file
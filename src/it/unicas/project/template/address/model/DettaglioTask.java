@@ -0,0 +1,67 @@
+package it.unicas.project.template.address.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Classe Model che raccoglie tutti i dati mostrati nel pannello dettagli di un task.
+ * <p>
+ * Contiene la descrizione completa, i subtask, le sessioni di timer più recenti, il tempo totale registrato e gli allegati,
+ * così che il pannello possa essere popolato con una sola interrogazione al database.
+ * </p>
+ */
+public class DettaglioTask {
+
+    private final int idTask;
+    private final List<SubTasks> subTasks = new ArrayList<>();
+    private final List<TimerSessions> sessioniRecenti = new ArrayList<>();
+    private final List<Allegati> allegati = new ArrayList<>();
+    private long durataTotale;
+    private String descrizione;
+    private final long caricatoIl = System.currentTimeMillis();
+
+    /**
+     * Costruttore.
+     * @param idTask L'ID del task a cui si riferiscono i dati.
+     */
+    public DettaglioTask(int idTask) {
+        this.idTask = idTask;
+    }
+
+    /** @return L'ID del task. */
+    public int getIdTask() { return idTask; }
+
+    /** @return I subtask del task. */
+    public List<SubTasks> getSubTasks() { return subTasks; }
+
+    /** @return Le sessioni più recenti, dalla più nuova alla più vecchia. */
+    public List<TimerSessions> getSessioniRecenti() { return sessioniRecenti; }
+
+    /** @return Gli allegati del task. */
+    public List<Allegati> getAllegati() { return allegati; }
+
+    /** @return Il tempo totale registrato sul task, in secondi. */
+    public long getDurataTotale() { return durataTotale; }
+
+    /**
+     * Imposta il tempo totale registrato sul task.
+     * @param durataTotale Secondi totali.
+     */
+    public void setDurataTotale(long durataTotale) { this.durataTotale = durataTotale; }
+
+    /** @return La descrizione completa del task (gli elenchi ne caricano solo un'anteprima). */
+    public String getDescrizione() { return descrizione; }
+
+    /**
+     * Imposta la descrizione completa del task.
+     * @param descrizione Il testo della descrizione.
+     */
+    public void setDescrizione(String descrizione) { this.descrizione = descrizione; }
+
+    /**
+     * Restituisce l'istante (in millisecondi) in cui i dati sono stati letti dal database.
+     * Serve a scartare i dati precaricati troppo vecchi.
+     * @return Timestamp di caricamento.
+     */
+    public long getCaricatoIl() { return caricatoIl; }
+}
@@ -0,0 +1,63 @@
+package it.unicas.project.template.address.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Classe Model che rappresenta un'istantanea delle statistiche di un utente.
+ * <p>
+ * Raccoglie in un unico oggetto i dati mostrati nella finestra delle statistiche
+ * (distribuzione per priorità, tempo speso per categoria, task aperti e completati),
+ * così che possano essere caricati dal database con una sola interrogazione.
+ * </p>
+ */
+public class Statistiche {
+
+    private final Map<String, Integer> taskPerPriorita = new HashMap<>();
+    private final Map<String, Long> tempoPerCategoria = new HashMap<>();
+    private final Map<String, Integer> taskPerCategoria = new HashMap<>();
+    private int taskAperti;
+    private int taskCompletati;
+
+    /**
+     * Restituisce il numero di task per ogni priorità.
+     * @return Mappa priorità → numero di task.
+     */
+    public Map<String, Integer> getTaskPerPriorita() { return taskPerPriorita; }
+
+    /**
+     * Restituisce il tempo speso (in secondi) per ogni categoria.
+     * @return Mappa nome categoria → secondi totali.
+     */
+    public Map<String, Long> getTempoPerCategoria() { return tempoPerCategoria; }
+
+    /**
+     * Restituisce il numero di task per ogni categoria.
+     * @return Mappa nome categoria → numero di task.
+     */
+    public Map<String, Integer> getTaskPerCategoria() { return taskPerCategoria; }
+
+    /**
+     * Restituisce il numero di task non ancora completati.
+     * @return Task aperti.
+     */
+    public int getTaskAperti() { return taskAperti; }
+
+    /**
+     * Imposta il numero di task non ancora completati.
+     * @param taskAperti Task aperti.
+     */
+    public void setTaskAperti(int taskAperti) { this.taskAperti = taskAperti; }
+
+    /**
+     * Restituisce il numero di task completati.
+     * @return Task completati.
+     */
+    public int getTaskCompletati() { return taskCompletati; }
+
+    /**
+     * Imposta il numero di task completati.
+     * @param taskCompletati Task completati.
+     */
+    public void setTaskCompletati(int taskCompletati) { this.taskCompletati = taskCompletati; }
+}
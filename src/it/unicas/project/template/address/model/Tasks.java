@@ -21,7 +21,12 @@ public class Tasks {
     private IntegerProperty idTask;
     private IntegerProperty idUtente;
     private IntegerProperty idCategoria;
+    private LongProperty durataTotale;
+    private IntegerProperty subTaskTotali;
+    private IntegerProperty subTaskCompletati;
     private StringProperty durataTotaleDisplay;
+    /** False se il task è stato letto con una proiezione ridotta e la descrizione è solo un'anteprima. */
+    private boolean descrizioneCompleta = true;
 
     /**
      * Costruttore di default.
@@ -53,6 +58,9 @@ public class Tasks {
         this.priorita = new SimpleStringProperty(priorita);
         this.data_creazione = new SimpleStringProperty(data_creazione);
         this.completamento = new SimpleObjectProperty<>(completamento);
+        this.durataTotale = new SimpleLongProperty(0);
+        this.subTaskTotali = new SimpleIntegerProperty(0);
+        this.subTaskCompletati = new SimpleIntegerProperty(0);
         this.durataTotaleDisplay = new SimpleStringProperty("00:00:00");
 
         if (idTask != null) {
@@ -135,6 +143,19 @@ public class Tasks {
     public void setDescrizione(String descrizione) { this.descrizione.set(descrizione); }
     public StringProperty descrizioneProperty() { return descrizione; }
 
+    /**
+     * Indica se {@link #getDescrizione()} contiene il testo completo o solo l'anteprima letta
+     * per gli elenchi. Un task con descrizione incompleta non sovrascrive la descrizione sul database.
+     * @return True se la descrizione è completa.
+     */
+    public boolean isDescrizioneCompleta() { return descrizioneCompleta; }
+
+    /**
+     * Imposta se la descrizione contiene il testo completo.
+     * @param descrizioneCompleta True dopo aver letto (o scritto) il testo completo.
+     */
+    public void setDescrizioneCompleta(boolean descrizioneCompleta) { this.descrizioneCompleta = descrizioneCompleta; }
+
     public String getScadenza() { return scadenza.get(); }
     public void setScadenza(String scadenza) { this.scadenza.set(scadenza); }
     public StringProperty scadenzaProperty() { return scadenza; }
@@ -151,6 +172,67 @@ public class Tasks {
     public void setData_creazione(String data_creazione) { this.data_creazione.set(data_creazione); }
     public StringProperty data_creazioneProperty() { return data_creazione; }
 
+    /**
+     * Restituisce il tempo totale registrato sul task (somma delle sessioni concluse).
+     * @return Durata in secondi.
+     */
+    public long getDurataTotale() { return durataTotale.get(); }
+
+    /**
+     * Imposta il tempo totale registrato sul task e aggiorna di conseguenza
+     * la stringa {@link #durataTotaleDisplayProperty()}.
+     * @param secondi Durata in secondi.
+     */
+    public void setDurataTotale(long secondi) {
+        this.durataTotale.set(secondi);
+        this.durataTotaleDisplay.set(String.format("%02d:%02d:%02d", secondi / 3600, (secondi % 3600) / 60, secondi % 60));
+    }
+
+    /**
+     * Restituisce la property del tempo totale in secondi.
+     * @return L'oggetto LongProperty.
+     */
+    public LongProperty durataTotaleProperty() { return durataTotale; }
+
+    /**
+     * Restituisce il numero di subtask del task.
+     * @return Numero di subtask.
+     */
+    public int getSubTaskTotali() { return subTaskTotali.get(); }
+
+    /**
+     * Restituisce il numero di subtask completati.
+     * @return Numero di subtask completati.
+     */
+    public int getSubTaskCompletati() { return subTaskCompletati.get(); }
+
+    /**
+     * Imposta l'avanzamento della checklist del task.
+     * @param totali     Numero di subtask.
+     * @param completati Numero di subtask completati.
+     */
+    public void setProgressoSubTask(int totali, int completati) {
+        this.subTaskTotali.set(totali);
+        this.subTaskCompletati.set(completati);
+    }
+
+    /**
+     * Applica una variazione all'avanzamento della checklist (es. +1/0 all'aggiunta di un subtask,
+     * 0/+1 quando viene spuntato).
+     * @param deltaTotali     Variazione del numero di subtask.
+     * @param deltaCompletati Variazione del numero di subtask completati.
+     */
+    public void addProgressoSubTask(int deltaTotali, int deltaCompletati) {
+        setProgressoSubTask(Math.max(0, getSubTaskTotali() + deltaTotali),
+                Math.max(0, getSubTaskCompletati() + deltaCompletati));
+    }
+
+    /** @return La property del numero di subtask. */
+    public IntegerProperty subTaskTotaliProperty() { return subTaskTotali; }
+
+    /** @return La property del numero di subtask completati. */
+    public IntegerProperty subTaskCompletatiProperty() { return subTaskCompletati; }
+
     /**
      * Restituisce la stringa formattata della durata totale.
      * @return Durata in formato "HH:mm:ss".
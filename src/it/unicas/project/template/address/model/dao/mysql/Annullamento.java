@@ -0,0 +1,66 @@
+package it.unicas.project.template.address.model.dao.mysql;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Permette di annullare una lettura in corso quando il suo risultato non serve più
+ * (ad esempio perché l'utente ha già cambiato filtro).
+ * <p>
+ * Il DAO registra lo Statement prima di eseguire la query: {@link #annulla()} lo interrompe con
+ * {@link Statement#cancel()}, così anche il server smette di lavorarci. Se l'annullamento arriva
+ * prima che la query parta, la connessione non viene nemmeno aperta.
+ * </p>
+ */
+public class Annullamento {
+
+    private volatile boolean annullato = false;
+    private Statement statement;
+
+    /**
+     * Annulla la richiesta. La cancellazione dello Statement richiede un giro sul server,
+     * quindi avviene in background per non bloccare il thread chiamante (es. il thread UI).
+     */
+    public synchronized void annulla() {
+        if (annullato) return;
+        annullato = true;
+        Statement st = statement;
+        if (st != null) {
+            CompletableFuture.runAsync(() -> {
+                try { st.cancel(); } catch (SQLException e) {}
+            });
+        }
+    }
+
+    /**
+     * Indica se la richiesta è stata annullata.
+     * @return True se è stato chiamato {@link #annulla()}.
+     */
+    public boolean isAnnullato() {
+        return annullato;
+    }
+
+    /**
+     * Lancia un'eccezione se la richiesta è già stata annullata, prima di eseguire altro lavoro.
+     * @throws SQLException Se la richiesta è annullata.
+     */
+    void verifica() throws SQLException {
+        if (annullato) throw new SQLException("Richiesta annullata");
+    }
+
+    /**
+     * Associa lo Statement che sta per eseguire la query.
+     * @param st Lo Statement.
+     * @throws SQLException Se la richiesta è già stata annullata.
+     */
+    synchronized void registra(Statement st) throws SQLException {
+        verifica();
+        statement = st;
+    }
+
+    /** Scollega lo Statement al termine della query. */
+    synchronized void rilascia() {
+        statement = null;
+    }
+}
@@ -0,0 +1,988 @@
+package it.unicas.project.template.address.model.dao.mysql;
+
+import it.unicas.project.template.address.model.SubTasks;
+import it.unicas.project.template.address.model.Tasks;
+import it.unicas.project.template.address.model.TimerSessions;
+import it.unicas.project.template.address.model.dao.DAOException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Coda persistente delle scritture su task, subtask e sessioni del timer, per lavorare anche
+ * quando il database non è raggiungibile.
+ * <p>
+ * Ogni scrittura passa da qui: se la coda è vuota viene applicata subito con il DAO come prima;
+ * se il DAO fallisce perché il database non risponde (o ci sono già scritture in attesa, da non
+ * scavalcare) l'operazione viene aggiunta al file {@code outbox/scritture.log}, forzato su disco,
+ * e il metodo ritorna {@code false}: per l'interfaccia la modifica è accettata. Un thread in
+ * background riapplica le operazioni in ordine appena il database torna disponibile.
+ * </p>
+ * <p>
+ * Il file è di sola aggiunta: record di operazione, di conferma e di mappatura degli ID, ognuno con
+ * lunghezza e CRC32, così un record scritto a metà da un'interruzione viene riconosciuto e scartato.
+ * Quando tutte le operazioni sono confermate il file viene riscritto con le sole mappature degli ID
+ * provvisori e il contatore che li assegna.
+ * </p>
+ * <p>
+ * <strong>Idempotenza:</strong> ogni operazione ha una chiave (UUID) che il DAO registra in
+ * {@code OperazioniApplicate} nella stessa transazione della scrittura, insieme all'eventuale ID
+ * generato. Se l'applicazione si interrompe dopo il commit ma prima della conferma locale, o se la
+ * risposta a un tentativo diretto si perde e l'operazione finisce in coda, al giro successivo la chiave
+ * viene trovata e l'operazione non viene ripetuta.
+ * </p>
+ * <p>
+ * Un task, subtask o sessione inseriti mentre il database non risponde ricevono un ID provvisorio
+ * negativo (da -2 in giù: -1 indica già "nessuna sessione" nel timer); le operazioni successive che lo
+ * usano vengono tradotte sull'ID vero quando l'inserimento viene applicato. Le mappature restano nel
+ * file per {@value #CONSERVAZIONE_MAPPATURE_GIORNI} giorni anche a coda vuota, perché dopo un riavvio
+ * il diario dei timer o la UI possono ancora riferirsi a un ID provvisorio, e un ID provvisorio non
+ * viene mai riassegnato.
+ * </p>
+ */
+public class CodaScritture {
+
+    private static final Logger logger = Logger.getLogger(CodaScritture.class.getName());
+
+    /** Attesa prima di riprovare dopo un errore di connessione; raddoppia fino a {@link #ATTESA_MAX_SECONDI}. */
+    private static final long ATTESA_MIN_SECONDI = 15;
+    private static final long ATTESA_MAX_SECONDI = 120;
+
+    /** Oltre questa dimensione il file viene riscritto con le sole operazioni ancora in attesa. */
+    private static final long DIMENSIONE_COMPATTAZIONE = 1024 * 1024;
+
+    /** Conservazione delle chiavi in {@code OperazioniApplicate}. */
+    private static final int CONSERVAZIONE_CHIAVI_GIORNI = 30;
+
+    /** Conservazione delle mappature degli ID provvisori dopo l'applicazione dell'inserimento. */
+    static final int CONSERVAZIONE_MAPPATURE_GIORNI = 30;
+
+    private static final byte OPERAZIONE = 1;
+    private static final byte CONFERMA = 2;
+    private static final byte MAPPATURA = 3;
+    private static final byte CONTATORE = 4;
+
+    private static final String[] CAMPI_ID = { "idTask", "idSubTask", "idSession" };
+
+    /** Chiave dell'operazione che il thread corrente sta applicando (vedi {@link #registraChiave}). */
+    private static final ThreadLocal<String> chiaveInCorso = new ThreadLocal<>();
+
+    private static CodaScritture instance = null;
+
+    /** Tipi di scrittura gestiti dalla coda. */
+    enum Tipo {
+        INSERT_TASK("Inserimento del task"), UPDATE_TASK("Modifica del task"), DELETE_TASK("Eliminazione del task"),
+        INSERT_SUBTASK("Inserimento del subtask"), UPDATE_SUBTASK("Modifica del subtask"),
+        DELETE_SUBTASK("Eliminazione del subtask"),
+        INSERT_SESSIONE("Avvio del timer"), STOP_SESSIONE("Arresto del timer"),
+        DELETE_SESSIONE("Eliminazione della sessione del timer");
+
+        /** Descrizione per i messaggi all'utente. */
+        final String descrizione;
+
+        Tipo(String descrizione) { this.descrizione = descrizione; }
+    }
+
+    /** Operazione in attesa. */
+    static final class Voce {
+        final long seq;
+        final String chiave;
+        final Tipo tipo;
+        /** ID provvisorio assegnato all'oggetto inserito (0 se l'operazione non è un inserimento). */
+        final int idProvvisorio;
+        final Map<String, String> campi;
+
+        Voce(long seq, String chiave, Tipo tipo, int idProvvisorio, Map<String, String> campi) {
+            this.seq = seq;
+            this.chiave = chiave;
+            this.tipo = tipo;
+            this.idProvvisorio = idProvvisorio;
+            this.campi = campi;
+        }
+    }
+
+    /** Scrittura da tentare subito con il DAO. */
+    @FunctionalInterface
+    private interface Scrittura {
+        void esegui() throws DAOException;
+    }
+
+    private final Path file;
+    private FileChannel canale;
+
+    // Stato della coda, protetto da this
+    private final List<Voce> inAttesa = new ArrayList<>();
+    /** ID provvisorio → ID assegnato dal database. */
+    private final Map<Integer, Integer> mappature = new HashMap<>();
+    /** ID provvisorio → istante (ms) in cui è stata registrata la mappatura. */
+    private final Map<Integer, Long> mappateIl = new HashMap<>();
+    private long prossimaSeq = 1;
+    private int prossimoProvvisorio = -2;
+    private int scartate;
+
+    /**
+     * Serializza le scritture: la verifica della coda vuota, il tentativo diretto e l'accodamento
+     * avvengono come un passo unico, così due scritture concorrenti non arrivano al database in
+     * ordine diverso da quello della coda. È distinto da {@code this} per non bloccare durante
+     * l'accesso al database chi legge lo stato della coda.
+     */
+    private final Object scrittori = new Object();
+
+    private final List<IntConsumer> ascoltatori = new CopyOnWriteArrayList<>();
+    private final List<Consumer<List<String>>> ascoltatoriScarti = new CopyOnWriteArrayList<>();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "coda-scritture");
+        t.setDaemon(true);
+        return t;
+    });
+    private long attesaSecondi = ATTESA_MIN_SECONDI;
+    private boolean riprovaPianificata;
+    private boolean chiaviRipulite;
+
+    /**
+     * Crea una coda sul file indicato, caricando le operazioni ancora in attesa.
+     * @param file Il file della coda.
+     */
+    public CodaScritture(Path file) {
+        this.file = file;
+        try {
+            carica();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossibile aprire la coda delle scritture " + file, e);
+        }
+    }
+
+    /**
+     * Restituisce la coda dell'applicazione, con il file in {@code outbox} sotto la cartella di lavoro.
+     * @return La coda.
+     */
+    public static synchronized CodaScritture getInstance() {
+        if (instance == null) {
+            instance = new CodaScritture(Paths.get(System.getProperty("user.dir"), "outbox", "scritture.log"));
+        }
+        return instance;
+    }
+
+    /**
+     * Avvia la riapplicazione in background delle operazioni rimaste in coda da un'esecuzione precedente.
+     */
+    public void avvia() {
+        executor.execute(this::riapplica);
+    }
+
+    /**
+     * Registra un ascoltatore del numero di operazioni in attesa. Viene chiamato subito con il valore
+     * attuale e poi a ogni variazione, da thread diversi da quello della UI.
+     * @param ascoltatore Riceve il numero di operazioni in attesa.
+     */
+    public void addListener(IntConsumer ascoltatore) {
+        ascoltatori.add(ascoltatore);
+        ascoltatore.accept(getInAttesa());
+    }
+
+    /**
+     * Rimuove un ascoltatore registrato con {@link #addListener(IntConsumer)}.
+     * @param ascoltatore L'ascoltatore.
+     */
+    public void removeListener(IntConsumer ascoltatore) {
+        ascoltatori.remove(ascoltatore);
+    }
+
+    /**
+     * Registra un ascoltatore delle operazioni in coda scartate. Viene chiamato (dal thread della
+     * coda) alla fine di ogni giro che ne ha scartate, con la descrizione di ciascuna.
+     * @param ascoltatore Riceve le descrizioni delle operazioni scartate.
+     */
+    public void addScartiListener(Consumer<List<String>> ascoltatore) {
+        ascoltatoriScarti.add(ascoltatore);
+    }
+
+    /**
+     * Rimuove un ascoltatore registrato con {@link #addScartiListener(Consumer)}.
+     * @param ascoltatore L'ascoltatore.
+     */
+    public void removeScartiListener(Consumer<List<String>> ascoltatore) {
+        ascoltatoriScarti.remove(ascoltatore);
+    }
+
+    /** @return Il numero di operazioni in attesa di essere applicate sul database. */
+    public synchronized int getInAttesa() { return inAttesa.size(); }
+
+    /** @return Le chiavi delle operazioni in attesa, nell'ordine in cui verranno applicate. */
+    synchronized List<String> getChiaviInAttesa() {
+        List<String> chiavi = new ArrayList<>();
+        for (Voce v : inAttesa) chiavi.add(v.chiave);
+        return chiavi;
+    }
+
+    /**
+     * @return Le operazioni scartate perché rifiutate dal database (es. task eliminato nel frattempo)
+     *         o perché dipendevano da un inserimento scartato.
+     */
+    public synchronized int getScartate() { return scartate; }
+
+    // ---------------------------------------------------------------- scritture
+
+    /**
+     * Inserisce un task. Se l'operazione viene messa in coda il task riceve un ID provvisorio.
+     * @param t Il task.
+     * @return True se applicata subito sul database, false se messa in coda.
+     * @throws DAOException Se il database rifiuta l'operazione.
+     */
+    public boolean insert(Tasks t) throws DAOException {
+        boolean applicata = esegui(Tipo.INSERT_TASK, campi(t), true,
+                () -> ((DAOTasks) DAOTasks.getInstance()).insert(t), t::setIdTask);
+        if (!applicata) ReplicaLocale.getInstance().scriviTask(t);
+        return applicata;
+    }
+
+    /**
+     * Aggiorna un task.
+     * @param t Il task.
+     * @return True se applicata subito sul database, false se messa in coda.
+     * @throws DAOException Se il database rifiuta l'operazione.
+     */
+    public boolean update(Tasks t) throws DAOException {
+        risolvi(t);
+        boolean applicata = esegui(Tipo.UPDATE_TASK, campi(t), false, () -> ((DAOTasks) DAOTasks.getInstance()).update(t), null);
+        if (!applicata) ReplicaLocale.getInstance().scriviTask(t);
+        return applicata;
+    }
+
+    /**
+     * Elimina un task.
+     * @param t Il task.
+     * @return True se applicata subito sul database, false se messa in coda.
+     * @throws DAOException Se il database rifiuta l'operazione.
+     */
+    public boolean delete(Tasks t) throws DAOException {
+        risolvi(t);
+        boolean applicata = esegui(Tipo.DELETE_TASK, campi(t), false, () -> ((DAOTasks) DAOTasks.getInstance()).delete(t), null);
+        if (!applicata) ReplicaLocale.getInstance().eliminaTask(t.getIdUtente(), t.getIdTask());
+        return applicata;
+    }
+
+    /**
+     * Inserisce un subtask. Se l'operazione viene messa in coda il subtask riceve un ID provvisorio.
+     * @param s Il subtask.
+     * @return True se applicata subito sul database, false se messa in coda.
+     * @throws DAOException Se il database rifiuta l'operazione.
+     */
+    public boolean insert(SubTasks s) throws DAOException {
+        risolvi(s);
+        boolean applicata = esegui(Tipo.INSERT_SUBTASK, campi(s), true,
+                () -> ((DAOSubTasks) DAOSubTasks.getInstance()).insert(s), s::setIdSubTask);
+        if (!applicata) ReplicaLocale.getInstance().scriviSubTask(s);
+        return applicata;
+    }
+
+    /**
+     * Aggiorna un subtask.
+     * @param s Il subtask.
+     * @return True se applicata subito sul database, false se messa in coda.
+     * @throws DAOException Se il database rifiuta l'operazione.
+     */
+    public boolean update(SubTasks s) throws DAOException {
+        risolvi(s);
+        boolean applicata = esegui(Tipo.UPDATE_SUBTASK, campi(s), false,
+                () -> ((DAOSubTasks) DAOSubTasks.getInstance()).update(s), null);
+        if (!applicata) ReplicaLocale.getInstance().scriviSubTask(s);
+        return applicata;
+    }
+
+    /**
+     * Elimina un subtask.
+     * @param s Il subtask.
+     * @return True se applicata subito sul database, false se messa in coda.
+     * @throws DAOException Se il database rifiuta l'operazione.
+     */
+    public boolean delete(SubTasks s) throws DAOException {
+        risolvi(s);
+        boolean applicata = esegui(Tipo.DELETE_SUBTASK, campi(s), false,
+                () -> ((DAOSubTasks) DAOSubTasks.getInstance()).delete(s), null);
+        if (!applicata && s.getIdSubTask() != null) ReplicaLocale.getInstance().eliminaSubTask(s.getIdSubTask());
+        return applicata;
+    }
+
+    /**
+     * Registra l'inizio di una sessione del timer. Se l'operazione viene messa in coda la sessione
+     * riceve un ID provvisorio, utilizzabile con {@link #stopSession(int, LocalDateTime)}.
+     * @param s La sessione.
+     * @return True se applicata subito sul database, false se messa in coda.
+     * @throws DAOException Se il database rifiuta l'operazione.
+     */
+    public boolean insert(TimerSessions s) throws DAOException {
+        Integer idTask = risolvi(s.getIdTask());
+        if (idTask != null) s.setIdTask(idTask);
+        boolean applicata = esegui(Tipo.INSERT_SESSIONE, campi(s), true,
+                () -> DAOTimerSessions.getInstance().insert(s), s::setIdSession);
+        if (!applicata) ReplicaLocale.getInstance().scriviSessione(s);
+        return applicata;
+    }
+
+    /**
+     * Chiude una sessione del timer.
+     * @param idSession    L'ID della sessione (anche provvisorio).
+     * @param endLocalTime L'orario di fine.
+     * @return True se applicata subito sul database, false se messa in coda.
+     * @throws DAOException Se il database rifiuta l'operazione.
+     */
+    public boolean stopSession(int idSession, LocalDateTime endLocalTime) throws DAOException {
+        Integer reale = risolvi(idSession);
+        int id = reale != null ? reale : idSession;
+        Map<String, String> campi = new LinkedHashMap<>();
+        campi.put("idSession", String.valueOf(id));
+        campi.put("fine", endLocalTime != null ? endLocalTime.toString() : null);
+        boolean applicata = esegui(Tipo.STOP_SESSIONE, campi, false,
+                () -> DAOTimerSessions.getInstance().stopSession(id, endLocalTime), null);
+        if (!applicata) ReplicaLocale.getInstance().chiudiSessione(id, endLocalTime != null ? endLocalTime : LocalDateTime.now());
+        return applicata;
+    }
+
+    /**
+     * Elimina una sessione del timer dallo storico.
+     * @param s La sessione (anche con ID provvisorio).
+     * @return True se applicata subito sul database, false se messa in coda.
+     * @throws DAOException Se il database rifiuta l'operazione.
+     */
+    public boolean delete(TimerSessions s) throws DAOException {
+        Integer reale = risolvi(s.getIdSession());
+        int id = reale != null ? reale : s.getIdSession();
+        Map<String, String> campi = new LinkedHashMap<>();
+        campi.put("idSession", String.valueOf(id));
+        campi.put("nome", s.getNome());
+        boolean applicata = esegui(Tipo.DELETE_SESSIONE, campi, false,
+                () -> DAOTimerSessions.getInstance().delete(sessione(id)), null);
+        if (!applicata) ReplicaLocale.getInstance().eliminaSessione(id);
+        return applicata;
+    }
+
+    /**
+     * Registra la chiave dell'operazione in corso nella transazione del DAO, dopo la scrittura. Se la
+     * chiave è già presente l'istruzione fallisce e l'intera transazione viene annullata. Per le
+     * scritture del DAO che non passano dalla coda non fa nulla.
+     *
+     * @param st          Statement della transazione in corso.
+     * @param idGenerato  ID generato dall'inserimento (null per modifiche ed eliminazioni).
+     * @throws SQLException In caso di errore SQL o chiave già registrata.
+     */
+    static void registraChiave(Statement st, Integer idGenerato) throws SQLException {
+        String chiave = chiaveInCorso.get();
+        if (chiave == null) return;
+        st.executeUpdate("INSERT INTO " + DAOSchema.OPERAZIONI_APPLICATE + " (chiave, idGenerato) VALUES ('"
+                + chiave + "', " + (idGenerato != null ? idGenerato : "NULL") + ")");
+    }
+
+    /**
+     * Applica la scrittura subito se possibile, altrimenti la mette in coda.
+     * <p>
+     * Anche il tentativo diretto registra la sua chiave: se il commit arriva al database ma la risposta
+     * si perde, l'operazione finisce in coda con la stessa chiave e al giro successivo viene riconosciuta
+     * come già applicata invece di essere ripetuta.
+     * </p>
+     *
+     * @param provvisorio Se true, all'oggetto in coda viene assegnato un ID provvisorio tramite {@code assegnaId}.
+     */
+    private boolean esegui(Tipo tipo, Map<String, String> campi, boolean provvisorio,
+                           Scrittura scrittura, IntConsumer assegnaId) throws DAOException {
+        String chiave = UUID.randomUUID().toString();
+        int id = 0;
+        synchronized (scrittori) {
+            if (!contieneProvvisori(campi) && getInAttesa() == 0) {
+                try {
+                    DAOSchema.ensureCodaScritture();
+                    chiaveInCorso.set(chiave);
+                    try {
+                        scrittura.esegui();
+                    } finally {
+                        chiaveInCorso.remove();
+                    }
+                    return true;
+                } catch (DAOException | SQLException e) {
+                    // Un errore con il database raggiungibile è un rifiuto vero e proprio
+                    if (databaseRaggiungibile()) {
+                        throw e instanceof DAOException ? (DAOException) e : new DAOException(e.getMessage());
+                    }
+                    logger.warning("Database non raggiungibile, scrittura messa in coda: " + e.getMessage());
+                }
+            }
+
+            synchronized (this) {
+                if (provvisorio) id = prossimoProvvisorio--;
+                Voce v = new Voce(prossimaSeq++, chiave, tipo, id, campi);
+                try {
+                    aggiungi(codificaOperazione(v));
+                } catch (IOException e) {
+                    throw new DAOException("Impossibile salvare la modifica in locale: " + e.getMessage());
+                }
+                inAttesa.add(v);
+            }
+        }
+        if (provvisorio) assegnaId.accept(id);
+        notifica();
+        executor.execute(this::riapplica);
+        return false;
+    }
+
+    // ---------------------------------------------------------------- riapplicazione
+
+    /**
+     * Riapplica in ordine le operazioni in coda; al primo errore di connessione pianifica un nuovo tentativo.
+     * <p>
+     * Un'operazione rifiutata dal database viene scartata, e con lei le successive che usano l'ID
+     * provvisorio di un inserimento scartato (non potrebbero mai essere tradotte). Alla fine del giro
+     * gli scarti vengono comunicati agli ascoltatori e la replica locale viene riallineata al database,
+     * perché contiene ancora le modifiche scartate.
+     * </p>
+     */
+    void riapplica() {
+        riprovaPianificata = false;
+        List<String> scarti = new ArrayList<>();
+        try {
+            if (getInAttesa() > 0) {
+                DAOSchema.ensureCodaScritture();
+                if (!chiaviRipulite) {
+                    ripulisciChiavi();
+                    chiaviRipulite = true;
+                }
+            }
+            while (true) {
+                Voce v;
+                synchronized (this) {
+                    if (inAttesa.isEmpty()) break;
+                    v = inAttesa.get(0);
+                }
+                Integer generato;
+                if (contieneProvvisori(risolvi(v.campi))) {
+                    logger.warning("Operazione in coda " + v.tipo + " scartata: dipende da un inserimento scartato");
+                    scarti.add(descrivi(v) + ": dipende da un inserimento non salvato");
+                    generato = -1;
+                } else {
+                    generato = giaApplicata(v.chiave);
+                    if (generato == null) {
+                        try {
+                            generato = applica(v);
+                        } catch (DAOException e) {
+                            if (!databaseRaggiungibile()) throw e;
+                            logger.warning("Operazione in coda " + v.tipo + " rifiutata dal database e scartata: " + e.getMessage());
+                            scarti.add(descrivi(v) + ": " + e.getMessage());
+                            generato = -1;
+                        }
+                    }
+                }
+                conferma(v, generato);
+            }
+            attesaSecondi = ATTESA_MIN_SECONDI;
+        } catch (DAOException | SQLException e) {
+            logger.info("Coda scritture: database non raggiungibile, nuovo tentativo tra " + attesaSecondi + " s");
+            pianificaRiprova();
+        } catch (IOException e) {
+            logger.warning("Coda scritture: errore sul file locale: " + e.getMessage());
+            pianificaRiprova();
+        }
+        if (!scarti.isEmpty()) {
+            synchronized (this) { scartate += scarti.size(); }
+            ReplicaLocale.getInstance().riallinea();
+            List<String> copia = List.copyOf(scarti);
+            for (Consumer<List<String>> a : ascoltatoriScarti) a.accept(copia);
+        }
+    }
+
+    /** Descrizione dell'operazione per i messaggi all'utente, con il titolo o il nome se presenti. */
+    private static String descrivi(Voce v) {
+        String nome = v.campi.get("titolo") != null ? v.campi.get("titolo") : v.campi.get("nome");
+        return nome != null ? v.tipo.descrizione + " \"" + nome + "\"" : v.tipo.descrizione;
+    }
+
+    private void pianificaRiprova() {
+        if (riprovaPianificata) return;
+        riprovaPianificata = true;
+        executor.schedule(this::riapplica, attesaSecondi, TimeUnit.SECONDS);
+        attesaSecondi = Math.min(attesaSecondi * 2, ATTESA_MAX_SECONDI);
+    }
+
+    /**
+     * Applica un'operazione della coda con il DAO, con gli ID provvisori già tradotti.
+     * @return L'ID generato per gli inserimenti, altrimenti null.
+     */
+    private Integer applica(Voce v) throws DAOException {
+        Map<String, String> c = risolvi(v.campi);
+        chiaveInCorso.set(v.chiave);
+        try {
+            switch (v.tipo) {
+                case INSERT_TASK: {
+                    Tasks t = task(c);
+                    t.setIdTask(null);
+                    ((DAOTasks) DAOTasks.getInstance()).insert(t);
+                    return t.getIdTask();
+                }
+                case UPDATE_TASK:
+                    ((DAOTasks) DAOTasks.getInstance()).update(task(c));
+                    return null;
+                case DELETE_TASK:
+                    ((DAOTasks) DAOTasks.getInstance()).delete(task(c));
+                    return null;
+                case INSERT_SUBTASK: {
+                    SubTasks s = subTask(c);
+                    s.setIdSubTask(null);
+                    ((DAOSubTasks) DAOSubTasks.getInstance()).insert(s);
+                    return s.getIdSubTask();
+                }
+                case UPDATE_SUBTASK:
+                    ((DAOSubTasks) DAOSubTasks.getInstance()).update(subTask(c));
+                    return null;
+                case DELETE_SUBTASK:
+                    ((DAOSubTasks) DAOSubTasks.getInstance()).delete(subTask(c));
+                    return null;
+                case INSERT_SESSIONE: {
+                    TimerSessions s = new TimerSessions();
+                    s.setIdTask(intero(c.get("idTask")));
+                    s.setNome(c.get("nome"));
+                    s.setInizio(c.get("inizio") != null ? LocalDateTime.parse(c.get("inizio")) : null);
+                    DAOTimerSessions.getInstance().insert(s);
+                    return s.getIdSession();
+                }
+                case STOP_SESSIONE:
+                    DAOTimerSessions.getInstance().stopSession(intero(c.get("idSession")),
+                            c.get("fine") != null ? LocalDateTime.parse(c.get("fine")) : null);
+                    return null;
+                case DELETE_SESSIONE:
+                    DAOTimerSessions.getInstance().delete(sessione(intero(c.get("idSession"))));
+                    return null;
+                default:
+                    throw new IllegalStateException("Tipo non gestito: " + v.tipo);
+            }
+        } finally {
+            chiaveInCorso.remove();
+        }
+    }
+
+    /** Segna l'operazione come applicata e, per gli inserimenti, registra la traduzione dell'ID provvisorio. */
+    private void conferma(Voce v, Integer generato) throws IOException {
+        synchronized (this) {
+            if (v.idProvvisorio != 0 && generato != null && generato > 0) {
+                long ora = System.currentTimeMillis();
+                aggiungi(codificaMappatura(v.idProvvisorio, generato, ora));
+                mappature.put(v.idProvvisorio, generato);
+                mappateIl.put(v.idProvvisorio, ora);
+            }
+            aggiungi(codificaConferma(v.seq));
+            inAttesa.remove(0);
+
+            if (inAttesa.isEmpty() || canale.size() > DIMENSIONE_COMPATTAZIONE) {
+                compatta();
+            }
+        }
+        if (v.idProvvisorio != 0) {
+            // La riga vera arriva alla replica con l'inserimento: la copia provvisoria va tolta
+            if (v.tipo == Tipo.INSERT_TASK) {
+                ReplicaLocale.getInstance().eliminaTask(intero(v.campi.get("idUtente")), v.idProvvisorio);
+            } else if (v.tipo == Tipo.INSERT_SUBTASK) {
+                ReplicaLocale.getInstance().eliminaSubTask(v.idProvvisorio);
+            } else if (v.tipo == Tipo.INSERT_SESSIONE) {
+                ReplicaLocale.getInstance().eliminaSessione(v.idProvvisorio);
+            }
+        }
+        notifica();
+    }
+
+    /**
+     * Cerca la chiave tra le operazioni già applicate.
+     * @return L'ID generato registrato (-1 se l'operazione non ne ha), oppure null se la chiave non c'è.
+     */
+    private Integer giaApplicata(String chiave) throws SQLException {
+        Statement st = null;
+        try {
+            st = DAOMySQLSettings.getStatement();
+            ResultSet rs = st.executeQuery("SELECT idGenerato FROM " + DAOSchema.OPERAZIONI_APPLICATE
+                    + " WHERE chiave = '" + chiave + "'");
+            if (!rs.next()) return null;
+            int id = rs.getInt(1);
+            return rs.wasNull() ? -1 : id;
+        } finally {
+            DAOMySQLSettings.closeStatement(st);
+        }
+    }
+
+    private void ripulisciChiavi() throws SQLException {
+        Statement st = null;
+        try {
+            st = DAOMySQLSettings.getStatement();
+            st.executeUpdate("DELETE FROM " + DAOSchema.OPERAZIONI_APPLICATE + " WHERE applicataIl < "
+                    + "CURRENT_TIMESTAMP - INTERVAL " + CONSERVAZIONE_CHIAVI_GIORNI + " DAY");
+        } finally {
+            DAOMySQLSettings.closeStatement(st);
+        }
+    }
+
+    /** Verifica con una connessione nuova se il database risponde. */
+    private static boolean databaseRaggiungibile() {
+        Statement st = null;
+        Connection conn = null;
+        try {
+            st = DAOMySQLSettings.getStatement();
+            conn = st.getConnection();
+            return conn.isValid(5);
+        } catch (SQLException e) {
+            return false;
+        } finally {
+            DAOMySQLSettings.closeStatement(st);
+            if (conn != null) try { conn.close(); } catch (SQLException e) {}
+        }
+    }
+
+    private void notifica() {
+        int n = getInAttesa();
+        for (IntConsumer a : ascoltatori) a.accept(n);
+    }
+
+    // ---------------------------------------------------------------- ID provvisori
+
+    /** @return Il prossimo ID provvisorio che verrà assegnato. */
+    synchronized int getProssimoProvvisorio() { return prossimoProvvisorio; }
+
+    /**
+     * Restituisce l'ID definitivo assegnato dal database a un ID provvisorio.
+     * @param idProvvisorio L'ID provvisorio (negativo).
+     * @return L'ID definitivo, oppure null se l'inserimento non è ancora stato applicato.
+     */
+    public Integer idDefinitivo(int idProvvisorio) {
+        return risolvi(idProvvisorio);
+    }
+
+    private synchronized Integer risolvi(int id) {
+        return mappature.get(id);
+    }
+
+    private void risolvi(Tasks t) {
+        if (t.getIdTask() == null) return;
+        Integer reale = risolvi(t.getIdTask());
+        if (reale != null) t.setIdTask(reale);
+    }
+
+    private void risolvi(SubTasks s) {
+        if (s.getIdTask() != null) {
+            Integer reale = risolvi(s.getIdTask());
+            if (reale != null) s.setIdTask(reale);
+        }
+        if (s.getIdSubTask() != null) {
+            Integer reale = risolvi(s.getIdSubTask());
+            if (reale != null) s.setIdSubTask(reale);
+        }
+    }
+
+    /** Copia dei campi con gli ID provvisori sostituiti da quelli veri. */
+    private synchronized Map<String, String> risolvi(Map<String, String> campi) {
+        Map<String, String> risolti = new LinkedHashMap<>(campi);
+        for (String nome : CAMPI_ID) {
+            String valore = risolti.get(nome);
+            if (valore == null) continue;
+            Integer reale = mappature.get(Integer.parseInt(valore));
+            if (reale != null) risolti.put(nome, String.valueOf(reale));
+        }
+        return risolti;
+    }
+
+    private synchronized boolean contieneProvvisori(Map<String, String> campi) {
+        for (String nome : CAMPI_ID) {
+            String valore = campi.get(nome);
+            if (valore != null && Integer.parseInt(valore) <= -2) return true;
+        }
+        return false;
+    }
+
+    // ---------------------------------------------------------------- conversioni
+
+    private static Map<String, String> campi(Tasks t) {
+        Map<String, String> c = new LinkedHashMap<>();
+        c.put("idTask", t.getIdTask() != null ? String.valueOf(t.getIdTask()) : null);
+        c.put("idUtente", t.getIdUtente() != null ? String.valueOf(t.getIdUtente()) : null);
+        c.put("idCategoria", t.getIdCategoria() != null ? String.valueOf(t.getIdCategoria()) : null);
+        c.put("titolo", t.getTitolo());
+        c.put("descrizione", t.getDescrizione());
+        c.put("descrizioneCompleta", String.valueOf(t.isDescrizioneCompleta()));
+        c.put("scadenza", t.getScadenza());
+        c.put("priorita", t.getPriorita());
+        c.put("completamento", t.getCompletamento() != null ? String.valueOf(t.getCompletamento()) : null);
+        return c;
+    }
+
+    private static Tasks task(Map<String, String> c) {
+        Tasks t = new Tasks(c.get("titolo"), c.get("descrizione"), c.get("scadenza"), c.get("priorita"), null,
+                c.get("completamento") != null ? Boolean.valueOf(c.get("completamento")) : null,
+                intero(c.get("idTask")), intero(c.get("idUtente")), intero(c.get("idCategoria")));
+        t.setDescrizioneCompleta(Boolean.parseBoolean(c.get("descrizioneCompleta")));
+        return t;
+    }
+
+    private static Map<String, String> campi(SubTasks s) {
+        Map<String, String> c = new LinkedHashMap<>();
+        c.put("idSubTask", s.getIdSubTask() != null ? String.valueOf(s.getIdSubTask()) : null);
+        c.put("idTask", s.getIdTask() != null ? String.valueOf(s.getIdTask()) : null);
+        c.put("titolo", s.getTitolo());
+        c.put("descrizione", s.getDescrizione());
+        c.put("completamento", s.getCompletamento() != null ? String.valueOf(s.getCompletamento()) : null);
+        return c;
+    }
+
+    private static SubTasks subTask(Map<String, String> c) {
+        return new SubTasks(c.get("titolo"), c.get("descrizione"),
+                c.get("completamento") != null ? Boolean.valueOf(c.get("completamento")) : null,
+                intero(c.get("idSubTask")), intero(c.get("idTask")));
+    }
+
+    private static Map<String, String> campi(TimerSessions s) {
+        Map<String, String> c = new LinkedHashMap<>();
+        c.put("idTask", String.valueOf(s.getIdTask()));
+        c.put("nome", s.getNome());
+        c.put("inizio", s.getInizio() != null ? s.getInizio().toString() : null);
+        return c;
+    }
+
+    /** Sessione con il solo ID, come la usa {@link DAOTimerSessions#delete(TimerSessions)}. */
+    private static TimerSessions sessione(int idSession) {
+        TimerSessions s = new TimerSessions();
+        s.setIdSession(idSession);
+        return s;
+    }
+
+    private static Integer intero(String s) {
+        return s != null ? Integer.valueOf(s) : null;
+    }
+
+    // ---------------------------------------------------------------- file
+
+    /** Legge il file: operazioni, conferme e mappature fino al primo record non valido, che viene troncato. */
+    private void carica() throws IOException {
+        Files.createDirectories(file.getParent());
+        canale = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        byte[] contenuto = Files.readAllBytes(file);
+        ByteBuffer buf = ByteBuffer.wrap(contenuto);
+        Map<Long, Voce> voci = new LinkedHashMap<>();
+        int validi = 0;
+        while (buf.remaining() >= 8) {
+            int lunghezza = buf.getInt();
+            if (lunghezza <= 0 || lunghezza + 4 > buf.remaining()) break;
+            byte[] payload = new byte[lunghezza];
+            buf.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != buf.getInt()) break;
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            try {
+                switch (in.readByte()) {
+                    case OPERAZIONE: {
+                        long seq = in.readLong();
+                        String chiave = in.readUTF();
+                        Tipo tipo = Tipo.valueOf(in.readUTF());
+                        int idProvvisorio = in.readInt();
+                        int n = in.readInt();
+                        Map<String, String> campi = new LinkedHashMap<>();
+                        for (int i = 0; i < n; i++) {
+                            String nome = in.readUTF();
+                            campi.put(nome, leggiStringa(in));
+                        }
+                        voci.put(seq, new Voce(seq, chiave, tipo, idProvvisorio, campi));
+                        prossimaSeq = Math.max(prossimaSeq, seq + 1);
+                        if (idProvvisorio != 0) prossimoProvvisorio = Math.min(prossimoProvvisorio, idProvvisorio - 1);
+                        break;
+                    }
+                    case CONFERMA:
+                        voci.remove(in.readLong());
+                        break;
+                    case MAPPATURA: {
+                        int provvisorio = in.readInt();
+                        int reale = in.readInt();
+                        // I record senza istante valgono come appena scritti
+                        long istante = in.available() >= 8 ? in.readLong() : System.currentTimeMillis();
+                        mappature.put(provvisorio, reale);
+                        mappateIl.put(provvisorio, istante);
+                        prossimoProvvisorio = Math.min(prossimoProvvisorio, provvisorio - 1);
+                        break;
+                    }
+                    case CONTATORE:
+                        prossimoProvvisorio = Math.min(prossimoProvvisorio, in.readInt());
+                        break;
+                    default:
+                        throw new IOException("Record sconosciuto");
+                }
+            } catch (EOFException | IllegalArgumentException e) {
+                break;
+            }
+            validi = buf.position();
+        }
+
+        if (validi < contenuto.length) {
+            logger.warning("Coda scritture: scartati " + (contenuto.length - validi) + " byte non validi in coda al file");
+            canale.truncate(validi);
+            canale.force(true);
+        }
+        canale.position(validi);
+        inAttesa.addAll(voci.values());
+        if (!inAttesa.isEmpty()) logger.info("Coda scritture: " + inAttesa.size() + " operazioni in attesa");
+        // A coda vuota restano solo mappature e contatore: si tolgono conferme e mappature scadute
+        else if (validi > 0) compatta();
+    }
+
+    /** Aggiunge un record in fondo al file e lo forza su disco. */
+    private void aggiungi(byte[] payload) throws IOException {
+        ByteBuffer r = ByteBuffer.wrap(record(payload));
+        canale.position(canale.size());
+        while (r.hasRemaining()) canale.write(r);
+        canale.force(false);
+    }
+
+    /** Record del file: lunghezza, contenuto e CRC32 del contenuto. */
+    static byte[] record(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return ByteBuffer.allocate(payload.length + 8)
+                .putInt(payload.length).put(payload).putInt((int) crc.getValue())
+                .array();
+    }
+
+    /**
+     * Riscrive il file con le sole operazioni in attesa, le mappature non scadute e il contatore degli
+     * ID provvisori, sostituendolo in modo atomico.
+     */
+    private void compatta() throws IOException {
+        long limite = System.currentTimeMillis() - CONSERVAZIONE_MAPPATURE_GIORNI * 24L * 3600 * 1000;
+        mappateIl.entrySet().removeIf(m -> {
+            if (m.getValue() >= limite) return false;
+            mappature.remove(m.getKey());
+            return true;
+        });
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (prossimoProvvisorio < -2) bytes.write(record(codificaContatore(prossimoProvvisorio)));
+        for (Map.Entry<Integer, Integer> m : mappature.entrySet()) {
+            bytes.write(record(codificaMappatura(m.getKey(), m.getValue(), mappateIl.get(m.getKey()))));
+        }
+        for (Voce v : inAttesa) bytes.write(record(codificaOperazione(v)));
+
+        Path temporaneo = Files.createTempFile(file.getParent(), "scritture-", ".tmp");
+        try {
+            try (FileChannel nuovo = FileChannel.open(temporaneo, StandardOpenOption.WRITE)) {
+                ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+                while (buf.hasRemaining()) nuovo.write(buf);
+                nuovo.force(true);
+            }
+            canale.close();
+            try {
+                Files.move(temporaneo, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaneo, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporaneo);
+            if (!canale.isOpen()) {
+                canale = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+        }
+    }
+
+    static byte[] codificaOperazione(Voce v) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(OPERAZIONE);
+        out.writeLong(v.seq);
+        out.writeUTF(v.chiave);
+        out.writeUTF(v.tipo.name());
+        out.writeInt(v.idProvvisorio);
+        out.writeInt(v.campi.size());
+        for (Map.Entry<String, String> c : v.campi.entrySet()) {
+            out.writeUTF(c.getKey());
+            scriviStringa(out, c.getValue());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static byte[] codificaConferma(long seq) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(CONFERMA);
+        out.writeLong(seq);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static byte[] codificaMappatura(int provvisorio, int reale) throws IOException {
+        return codificaMappatura(provvisorio, reale, System.currentTimeMillis());
+    }
+
+    static byte[] codificaMappatura(int provvisorio, int reale, long istante) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(MAPPATURA);
+        out.writeInt(provvisorio);
+        out.writeInt(reale);
+        out.writeLong(istante);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static byte[] codificaContatore(int prossimoProvvisorio) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(CONTATORE);
+        out.writeInt(prossimoProvvisorio);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /** Stringa come flag di presenza seguito dal testo UTF-8 con lunghezza (writeUTF ha un limite di 64 KB). */
+    private static void scriviStringa(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String leggiStringa(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) return null;
+        byte[] b = new byte[n];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
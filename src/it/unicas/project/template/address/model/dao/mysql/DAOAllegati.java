@@ -2,6 +2,8 @@ package it.unicas.project.template.address.model.dao.mysql;
 
 import it.unicas.project.template.address.model.Allegati;
 import it.unicas.project.template.address.model.dao.DAOException;
+import java.io.File;
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -14,6 +16,16 @@ import java.util.List;
  * Gestisce il salvataggio, il recupero e l'eliminazione dei riferimenti ai file allegati.
  * Implementa logiche specifiche per la gestione dei percorsi file (path escaping) per evitare errori SQL.
  * </p>
+ * <p>
+ * Gli allegati salvati nell'archivio ({@code ArchivioAllegati}) hanno il digest del contenuto: la tabella
+ * {@code BlobAllegati} conta quanti allegati usano ogni contenuto ed è aggiornata nella stessa transazione
+ * di ogni inserimento o cancellazione. Un contenuto che arriva a zero riferimenti non è più usato e il suo
+ * file può essere rimosso dal disco.
+ * </p>
+ * <p>
+ * Gli allegati di un task sono letti dalla {@link ReplicaLocale} quando conosce il task; dopo il
+ * commit inserimenti ed eliminazioni vengono applicati anche alla replica.
+ * </p>
  */
 public class DAOAllegati {
 
@@ -40,6 +52,8 @@ public class DAOAllegati {
      * <p>
      * Esegue l'escape dei caratteri speciali nei percorsi dei file (in particolare il backslash {@code \} di Windows)
      * e degli apostrofi per garantire la corretta esecuzione della query SQL.
+     * Se l'allegato ha un digest, nella stessa transazione incrementa i riferimenti del contenuto.
+     * L'ID generato viene impostato nell'oggetto.
      * </p>
      *
      * @param a L'oggetto Allegati da inserire.
@@ -47,8 +61,12 @@ public class DAOAllegati {
      */
     public void insert(Allegati a) throws DAOException {
         Statement st = null;
+        Connection conn = null;
         try {
+            DAOSchema.ensureArchivioAllegati();
             st = DAOMySQLSettings.getStatement();
+            conn = st.getConnection();
+            conn.setAutoCommit(false);
 
             String percorsoSicuro = a.getPercorsoFile()
                     .replace("\\", "\\\\")
@@ -58,17 +76,34 @@ public class DAOAllegati {
                     .replace("\\", "\\\\")
                     .replace("'", "\\'");
 
-            String sql = "INSERT INTO Allegati (idTask, nomeFile, percorsoFile, tipoFile) VALUES ("
+            String digest = digestSql(a.getDigest());
+
+            String sql = "INSERT INTO Allegati (idTask, nomeFile, percorsoFile, tipoFile, digest) VALUES ("
                     + a.getIdTask() + ", '"
                     + nomeSicuro + "', '"
                     + percorsoSicuro + "', '"
-                    + a.getTipoFile() + "')";
+                    + a.getTipoFile() + "', "
+                    + digest + ")";
+
+            st.executeUpdate(sql, Statement.RETURN_GENERATED_KEYS);
+            ResultSet rs = st.getGeneratedKeys();
+            if (rs.next()) a.setIdAllegato(rs.getInt(1));
+            rs.close();
+
+            if (a.getDigest() != null) {
+                st.executeUpdate("INSERT INTO " + DAOSchema.BLOB_ALLEGATI + " (digest, dimensione, riferimenti) VALUES ("
+                        + digest + ", " + new File(a.getPercorsoFile()).length() + ", 1) "
+                        + "ON DUPLICATE KEY UPDATE riferimenti = riferimenti + 1");
+            }
 
-            st.executeUpdate(sql);
+            conn.commit();
+            ReplicaLocale.getInstance().scriviAllegato(a);
         } catch (SQLException e) {
+            if (conn != null) try { conn.rollback(); } catch (SQLException ex) {}
             throw new DAOException("Errore inserimento allegato: " + e.getMessage());
         } finally {
             DAOMySQLSettings.closeStatement(st);
+            if (conn != null) try { conn.close(); } catch (SQLException e) {}
         }
     }
 
@@ -80,26 +115,59 @@ public class DAOAllegati {
      * @throws DAOException In caso di errore SQL durante la lettura.
      */
     public List<Allegati> selectByTaskId(int idTask) throws DAOException {
+        List<Allegati> replica = ReplicaLocale.getInstance().allegati(idTask);
+        if (replica != null) return replica;
         List<Allegati> lista = new ArrayList<>();
         Statement st = null;
         try {
+            DAOSchema.ensureArchivioAllegati();
             st = DAOMySQLSettings.getStatement();
             String sql = "SELECT * FROM Allegati WHERE idTask = " + idTask;
             ResultSet rs = st.executeQuery(sql);
 
             while(rs.next()) {
+                lista.add(mapRow(rs));
+            }
+        } catch (SQLException e) {
+            throw new DAOException("Errore lettura allegati: " + e.getMessage());
+        } finally {
+            DAOMySQLSettings.closeStatement(st);
+        }
+        return lista;
+    }
+
+    /**
+     * Legge una pagina dei percorsi di tutti gli allegati, in ordine di ID.
+     * <p>
+     * Usata dalla pulizia dei file orfani per leggere la tabella a blocchi: la pagina successiva
+     * parte dall'ID dell'ultimo allegato ricevuto, così ogni query usa la chiave primaria.
+     * </p>
+     *
+     * @param dopoId ID dell'ultimo allegato della pagina precedente (0 per iniziare).
+     * @param limite Numero massimo di allegati da leggere.
+     * @return Allegati con solo ID e percorso valorizzati.
+     * @throws DAOException In caso di errore SQL durante la lettura.
+     */
+    public List<Allegati> selectPercorsi(int dopoId, int limite) throws DAOException {
+        List<Allegati> lista = new ArrayList<>();
+        Statement st = null;
+        Connection conn = null;
+        try {
+            st = DAOMySQLSettings.getStatement();
+            conn = st.getConnection();
+            ResultSet rs = st.executeQuery("SELECT idAllegato, percorsoFile FROM Allegati "
+                    + "WHERE idAllegato > " + dopoId + " ORDER BY idAllegato LIMIT " + limite);
+            while (rs.next()) {
                 Allegati a = new Allegati();
                 a.setIdAllegato(rs.getInt("idAllegato"));
-                a.setIdTask(rs.getInt("idTask"));
-                a.setNomeFile(rs.getString("nomeFile"));
                 a.setPercorsoFile(rs.getString("percorsoFile"));
-                a.setTipoFile(rs.getString("tipoFile"));
                 lista.add(a);
             }
         } catch (SQLException e) {
-            throw new DAOException("Errore lettura allegati: " + e.getMessage());
+            throw new DAOException("Errore lettura percorsi allegati: " + e.getMessage());
         } finally {
             DAOMySQLSettings.closeStatement(st);
+            if (conn != null) try { conn.close(); } catch (SQLException e) {}
         }
         return lista;
     }
@@ -107,7 +175,9 @@ public class DAOAllegati {
     /**
      * Elimina un allegato dal database tramite il suo ID.
      * <p>
-     * Rimuove solo il record nel database, non il file fisico dal disco.
+     * Rimuove solo il record nel database, non il file fisico dal disco: nella stessa transazione
+     * decrementa i riferimenti del contenuto. I file non più usati vengono rimossi in seguito da
+     * {@code PuliziaAllegati}.
      * </p>
      *
      * @param idAllegato L'ID dell'allegato da eliminare.
@@ -115,13 +185,106 @@ public class DAOAllegati {
      */
     public void delete(int idAllegato) throws DAOException {
         Statement st = null;
+        Connection conn = null;
         try {
+            DAOSchema.ensureArchivioAllegati();
+            DAOSchema.ensureReplica();
             st = DAOMySQLSettings.getStatement();
+            conn = st.getConnection();
+            conn.setAutoCommit(false);
+
+            rilasciaContenuti(st, "idAllegato = " + idAllegato);
+            ReplicaLocale.registraEliminazione(st, "Allegati", "idAllegato", idAllegato);
             st.executeUpdate("DELETE FROM Allegati WHERE idAllegato = " + idAllegato);
+
+            conn.commit();
+            ReplicaLocale.getInstance().eliminaAllegato(idAllegato);
         } catch (SQLException e) {
+            if (conn != null) try { conn.rollback(); } catch (SQLException ex) {}
             throw new DAOException("Errore cancellazione allegato: " + e.getMessage());
         } finally {
             DAOMySQLSettings.closeStatement(st);
+            if (conn != null) try { conn.close(); } catch (SQLException e) {}
+        }
+    }
+
+    /**
+     * Legge gli allegati dei task di un utente modificati dall'istante indicato.
+     * Usato dalla {@link ReplicaLocale}; richiede {@link DAOSchema#ensureArchivioAllegati()} e
+     * {@link DAOSchema#ensureReplica()}.
+     *
+     * @param st       Statement da usare.
+     * @param idUtente L'ID dell'utente.
+     * @param dal      Istante (epoch millis, orologio del database) da cui leggere; negativo per tutti gli allegati.
+     * @return Gli allegati modificati.
+     * @throws SQLException In caso di errore SQL.
+     */
+    List<Allegati> selectModificati(Statement st, int idUtente, long dal) throws SQLException {
+        String sql = "SELECT a.* FROM Allegati a JOIN Tasks t ON t.idTask = a.idTask WHERE t.idUtente = " + idUtente;
+        if (dal >= 0) sql += " AND a.aggiornatoIl >= " + DAOTasks.istanteSql(dal);
+
+        List<Allegati> lista = new ArrayList<>();
+        ResultSet rs = st.executeQuery(sql);
+        while (rs.next()) {
+            lista.add(mapRow(rs));
+        }
+        rs.close();
+        return lista;
+    }
+
+    /** Converte la riga corrente del ResultSet in un oggetto {@link Allegati}. */
+    private static Allegati mapRow(ResultSet rs) throws SQLException {
+        Allegati a = new Allegati();
+        a.setIdAllegato(rs.getInt("idAllegato"));
+        a.setIdTask(rs.getInt("idTask"));
+        a.setNomeFile(rs.getString("nomeFile"));
+        a.setPercorsoFile(rs.getString("percorsoFile"));
+        a.setTipoFile(rs.getString("tipoFile"));
+        a.setDigest(rs.getString("digest"));
+        return a;
+    }
+
+    /**
+     * Decrementa i riferimenti ai contenuti degli allegati di un task che sta per essere eliminato.
+     * <p>
+     * Va chiamato all'interno della transazione del chiamante, prima di cancellare il task, e dopo
+     * {@link DAOSchema#ensureArchivioAllegati()}.
+     * </p>
+     *
+     * @param st     Statement della transazione in corso.
+     * @param idTask L'ID del task.
+     * @throws SQLException In caso di errore SQL.
+     */
+    void rilasciaContenutiTask(Statement st, int idTask) throws SQLException {
+        rilasciaContenuti(st, "idTask = " + idTask);
+    }
+
+    /**
+     * Decrementa di uno i riferimenti per ogni allegato che soddisfa la condizione e rimuove
+     * le righe dei contenuti non più usati.
+     */
+    private void rilasciaContenuti(Statement st, String condizione) throws SQLException {
+        // Blocca le righe da eliminare: un inserimento concorrente dello stesso contenuto aspetta il commit
+        ResultSet rs = st.executeQuery("SELECT digest, COUNT(*) AS n FROM Allegati "
+                + "WHERE " + condizione + " AND digest IS NOT NULL GROUP BY digest FOR UPDATE");
+        List<String> digest = new ArrayList<>();
+        List<Integer> conteggi = new ArrayList<>();
+        while (rs.next()) {
+            digest.add(rs.getString("digest"));
+            conteggi.add(rs.getInt("n"));
         }
+        rs.close();
+
+        for (int i = 0; i < digest.size(); i++) {
+            String d = digestSql(digest.get(i));
+            st.executeUpdate("UPDATE " + DAOSchema.BLOB_ALLEGATI + " SET riferimenti = GREATEST(riferimenti - "
+                    + conteggi.get(i) + ", 0) WHERE digest = " + d);
+            st.executeUpdate("DELETE FROM " + DAOSchema.BLOB_ALLEGATI + " WHERE digest = " + d + " AND riferimenti = 0");
+        }
+    }
+
+    /** Digest come letterale SQL: il digest è esadecimale, quindi non richiede escape. */
+    private static String digestSql(String digest) {
+        return digest == null ? "NULL" : "'" + digest.replaceAll("[^0-9a-fA-F]", "") + "'";
     }
 }
\ No newline at end of file
@@ -6,9 +6,22 @@ import it.unicas.project.template.address.model.dao.DAOException;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.logging.Logger;
 
+/**
+ * Data Access Object (DAO) per la tabella 'Categorie'.
+ * <p>
+ * Le categorie di ogni utente vengono lette una sola volta e tenute in una cache con due indici
+ * (per ID e per nome in minuscolo), così la UI ottiene l'elenco e risolve nomi e ID senza
+ * interrogare il database. Ogni scrittura ({@code insert}, {@code update}, {@code delete})
+ * invalida la cache dell'utente interessato.
+ * </p>
+ */
 public class DAOCategorie implements DAO<Categorie> {
 
     private DAOCategorie(){}
@@ -16,6 +29,24 @@ public class DAOCategorie implements DAO<Categorie> {
     private static DAOCategorie dao = null;
     private static Logger logger = null;
 
+    /** Categorie di un utente con gli indici per ID e per nome. */
+    private static final class CategorieUtente {
+        final List<Categorie> elenco;
+        final Map<Integer, Categorie> perId = new HashMap<>();
+        final Map<String, Categorie> perNome = new HashMap<>();
+
+        CategorieUtente(List<Categorie> categorie) {
+            this.elenco = Collections.unmodifiableList(categorie);
+            for (Categorie c : categorie) {
+                perId.put(c.getIdCategoria(), c);
+                if (c.getNomeCategoria() != null) perNome.putIfAbsent(chiaveNome(c.getNomeCategoria()), c);
+            }
+        }
+    }
+
+    /** Cache delle categorie per ID utente. */
+    private final Map<Integer, CategorieUtente> cache = new HashMap<>();
+
     public static DAO getInstance(){
         if (dao == null){
             dao = new DAOCategorie();
@@ -70,6 +101,96 @@ public class DAOCategorie implements DAO<Categorie> {
         return lista;
     }
 
+    /**
+     * Restituisce le categorie dell'utente, leggendole dal database solo alla prima richiesta
+     * o dopo una modifica.
+     * @param idUtente L'ID dell'utente.
+     * @return Elenco (non modificabile) delle categorie dell'utente.
+     * @throws DAOException In caso di errore di lettura.
+     */
+    public List<Categorie> selectByUtente(int idUtente) throws DAOException {
+        return categorieUtente(idUtente).elenco;
+    }
+
+    /**
+     * Cerca una categoria dell'utente per ID.
+     * @param idUtente    L'ID dell'utente.
+     * @param idCategoria L'ID della categoria.
+     * @return La categoria, oppure null se l'utente non ne ha una con quell'ID.
+     * @throws DAOException In caso di errore di lettura.
+     */
+    public Categorie getById(int idUtente, Integer idCategoria) throws DAOException {
+        if (idCategoria == null) return null;
+        return categorieUtente(idUtente).perId.get(idCategoria);
+    }
+
+    /**
+     * Cerca una categoria dell'utente per nome, senza distinguere maiuscole e minuscole.
+     * @param idUtente L'ID dell'utente.
+     * @param nome     Il nome della categoria.
+     * @return La categoria, oppure null se l'utente non ne ha una con quel nome.
+     * @throws DAOException In caso di errore di lettura.
+     */
+    public Categorie getByNome(int idUtente, String nome) throws DAOException {
+        if (nome == null) return null;
+        return categorieUtente(idUtente).perNome.get(chiaveNome(nome));
+    }
+
+    /**
+     * Mette in cache le categorie di un utente ottenute da un'altra fonte (la copia locale letta
+     * all'avvio), se non sono già presenti. Vanno poi confermate con {@link #ricarica(int)}.
+     * @param idUtente  L'ID dell'utente.
+     * @param categorie Le categorie note dell'utente.
+     */
+    public synchronized void precarica(int idUtente, List<Categorie> categorie) {
+        cache.putIfAbsent(idUtente, new CategorieUtente(new ArrayList<>(categorie)));
+    }
+
+    /**
+     * Rilegge dal database le categorie di un utente e sostituisce quelle in cache.
+     * La lettura avviene senza bloccare chi nel frattempo consulta la cache.
+     * @param idUtente L'ID dell'utente.
+     * @return Elenco (non modificabile) delle categorie dell'utente.
+     * @throws DAOException In caso di errore di lettura.
+     */
+    public List<Categorie> ricarica(int idUtente) throws DAOException {
+        Categorie filtro = new Categorie();
+        filtro.setIdUtente(idUtente);
+        CategorieUtente categorie = new CategorieUtente(select(filtro));
+        synchronized (this) {
+            cache.put(idUtente, categorie);
+        }
+        return categorie.elenco;
+    }
+
+    /**
+     * Restituisce le categorie in cache dell'utente, caricandole se mancano.
+     */
+    private synchronized CategorieUtente categorieUtente(int idUtente) throws DAOException {
+        CategorieUtente categorie = cache.get(idUtente);
+        if (categorie == null) {
+            Categorie filtro = new Categorie();
+            filtro.setIdUtente(idUtente);
+            categorie = new CategorieUtente(select(filtro));
+            cache.put(idUtente, categorie);
+        }
+        return categorie;
+    }
+
+    /**
+     * Scarta le categorie in cache dopo una scrittura. Se l'utente non è noto svuota l'intera cache.
+     * @param c La categoria modificata.
+     */
+    private synchronized void invalida(Categorie c) {
+        // getIdUtente() restituisce l'ID come stringa
+        if (c != null && c.getIdUtente() != null) cache.remove(Integer.valueOf(c.getIdUtente()));
+        else cache.clear();
+    }
+
+    private static String chiaveNome(String nome) {
+        return nome.trim().toLowerCase(Locale.ROOT);
+    }
+
     @Override
     public void insert(Categorie c) throws DAOException {
         verifyObject(c);
@@ -87,6 +208,7 @@ public class DAOCategorie implements DAO<Categorie> {
 
         // Usiamo una versione modificata di executeUpdate per recuperare l'ID
         insertAndPopulateId(c, query);
+        invalida(c);
     }
 
     /**
@@ -125,6 +247,7 @@ public class DAOCategorie implements DAO<Categorie> {
 
         logger.info("SQL Update: " + query);
         executeUpdate(query);
+        invalida(c);
     }
 
     @Override
@@ -134,6 +257,9 @@ public class DAOCategorie implements DAO<Categorie> {
         }
         String query = "DELETE FROM Categorie WHERE idCategoria = " + c.getIdCategoria();
         executeUpdate(query);
+        invalida(c);
+        // I task della categoria eliminata cambiano categoria: i risultati in cache non sono più validi
+        DAOTasks.invalidaCache(c.getIdUtente() != null ? Integer.valueOf(c.getIdUtente()) : null);
     }
 
     private void verifyObject(Categorie c) throws DAOException {
@@ -0,0 +1,124 @@
+package it.unicas.project.template.address.model.dao.mysql;
+
+import it.unicas.project.template.address.model.Allegati;
+import it.unicas.project.template.address.model.DettaglioTask;
+import it.unicas.project.template.address.model.SubTasks;
+import it.unicas.project.template.address.model.TimerSessions;
+import it.unicas.project.template.address.model.dao.DAOException;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.logging.Logger;
+
+/**
+ * Data Access Object (DAO) che carica in un'unica interrogazione tutti i dati del pannello dettagli.
+ * <p>
+ * Come {@link DAOStatistics}, non gestisce CRUD su un singolo Model: unisce con {@code UNION ALL}
+ * le righe di SubTasks, TimerSessions (solo le più recenti), Allegati e la riga del task con
+ * {@code durataTotale} e la descrizione completa, distinguendole tramite la colonna {@code tipo}. Le colonne
+ * generiche ({@code s1..s3}, {@code b}, {@code n}, {@code d1}, {@code d2}) hanno un significato
+ * diverso per ogni tipo di riga.
+ * </p>
+ * <p>
+ * Se la {@link ReplicaLocale} conosce il task e la sua descrizione completa, i dati vengono composti
+ * dalla replica senza interrogare il database: il pannello resta consultabile anche offline.
+ * </p>
+ */
+public class DAODettaglioTask {
+
+    private static DAODettaglioTask instance = null;
+    private static Logger logger = null;
+
+    private DAODettaglioTask() {}
+
+    /**
+     * Restituisce l'unica istanza (Singleton) della classe.
+     * @return L'istanza di DAODettaglioTask.
+     */
+    public static DAODettaglioTask getInstance() {
+        if (instance == null) {
+            instance = new DAODettaglioTask();
+            logger = Logger.getLogger(DAODettaglioTask.class.getName());
+        }
+        return instance;
+    }
+
+    /**
+     * Recupera descrizione, subtask, sessioni recenti, tempo totale e allegati di un task con una sola query.
+     *
+     * @param idTask      L'ID del task.
+     * @param maxSessioni Numero massimo di sessioni recenti da includere (prima pagina dello storico).
+     * @return I dati del pannello dettagli.
+     * @throws DAOException In caso di errore SQL.
+     */
+    public DettaglioTask select(int idTask, int maxSessioni) throws DAOException {
+        DettaglioTask replica = ReplicaLocale.getInstance().dettaglio(idTask, maxSessioni);
+        if (replica != null) return replica;
+
+        DettaglioTask dettaglio = new DettaglioTask(idTask);
+        Statement st = null;
+        try {
+            DAOSchema.ensureDurataTotaleTasks();
+            DAOSchema.ensureIndiceSessioniTask();
+            st = DAOMySQLSettings.getStatement();
+
+            String sql = "SELECT 'TOTALE' AS tipo, idTask AS id, descrizione AS s1, NULL AS s2, NULL AS s3, "
+                    + "NULL AS b, durataTotale AS n, NULL AS d1, NULL AS d2 "
+                    + "FROM Tasks WHERE idTask = " + idTask + " "
+                    + "UNION ALL "
+                    + "SELECT 'SUBTASK', idSubTask, titolo, descrizione, NULL, completamento, NULL, NULL, NULL "
+                    + "FROM SubTasks WHERE idTask = " + idTask + " "
+                    + "UNION ALL "
+                    + "(SELECT 'SESSIONE', idSession, nome, NULL, NULL, NULL, durata, inizio, fine "
+                    + "FROM TimerSessions WHERE idTask = " + idTask + " "
+                    + "ORDER BY inizio DESC, idSession DESC LIMIT " + maxSessioni + ") "
+                    + "UNION ALL "
+                    + "SELECT 'ALLEGATO', idAllegato, nomeFile, percorsoFile, tipoFile, NULL, NULL, NULL, NULL "
+                    + "FROM Allegati WHERE idTask = " + idTask;
+
+            logger.info("SQL Dettaglio Task: " + sql);
+            ResultSet rs = st.executeQuery(sql);
+
+            while (rs.next()) {
+                String tipo = rs.getString("tipo");
+                int id = rs.getInt("id");
+                switch (tipo) {
+                    case "TOTALE" -> {
+                        dettaglio.setDurataTotale(rs.getLong("n"));
+                        dettaglio.setDescrizione(rs.getString("s1"));
+                    }
+                    case "SUBTASK" -> dettaglio.getSubTasks().add(new SubTasks(
+                            rs.getString("s1"), rs.getString("s2"), rs.getBoolean("b"), id, idTask));
+                    case "SESSIONE" -> dettaglio.getSessioniRecenti().add(new TimerSessions(
+                            rs.getString("s1"), toLocalDateTime(rs.getTimestamp("d1")),
+                            toLocalDateTime(rs.getTimestamp("d2")), rs.getLong("n"), id, idTask));
+                    case "ALLEGATO" -> {
+                        Allegati a = new Allegati(rs.getString("s1"), rs.getString("s2"), rs.getString("s3"), idTask);
+                        a.setIdAllegato(id);
+                        dettaglio.getAllegati().add(a);
+                    }
+                    default -> logger.warning("Tipo riga sconosciuto: " + tipo);
+                }
+            }
+        } catch (SQLException e) {
+            throw new DAOException("Errore dettaglio task: " + e.getMessage());
+        } finally {
+            DAOMySQLSettings.closeStatement(st);
+        }
+
+        // UNION ALL non garantisce l'ordine delle righe: si riordina lato Java
+        dettaglio.getSessioniRecenti().sort(Comparator
+                .comparing(TimerSessions::getInizio, Comparator.nullsLast(Comparator.reverseOrder()))
+                .thenComparing(TimerSessions::getIdSession, Comparator.reverseOrder()));
+        dettaglio.getSubTasks().sort(Comparator.comparing(SubTasks::getIdSubTask));
+        return dettaglio;
+    }
+
+    private static LocalDateTime toLocalDateTime(Timestamp ts) {
+        return (ts != null) ? ts.toLocalDateTime() : null;
+    }
+}
@@ -0,0 +1,337 @@
+package it.unicas.project.template.address.model.dao.mysql;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Gestisce le tabelle, le colonne e gli indici di supporto creati dall'applicazione stessa
+ * (contatori e riepiloghi mantenuti in modo incrementale dai DAO).
+ * <p>
+ * Ogni oggetto viene verificato una sola volta per esecuzione: se non esiste viene creato
+ * e popolato a partire dai dati già presenti, così i valori incrementali partono allineati.
+ * </p>
+ * <p>
+ * <strong>Nota:</strong> in MySQL le istruzioni DDL causano un commit implicito, quindi questi
+ * metodi vanno chiamati <em>prima</em> di aprire una transazione con {@code setAutoCommit(false)}.
+ * </p>
+ */
+class DAOSchema {
+
+    private static final Logger logger = Logger.getLogger(DAOSchema.class.getName());
+
+    /** Tabelle già verificate durante l'esecuzione corrente. */
+    private static final Set<String> verificate = new HashSet<>();
+
+    /** Contatori dei task per utente (per priorità, stato di completamento e categoria). */
+    static final String STATISTICHE_UTENTE = "StatisticheUtente";
+
+    /** Secondi di lavoro per giorno, raggruppati per utente, categoria e task. */
+    static final String TEMPO_GIORNALIERO = "TempoGiornaliero";
+
+    /** Contenuti dell'archivio allegati, con il numero di allegati che li usano. */
+    static final String BLOB_ALLEGATI = "BlobAllegati";
+
+    /** Task eliminati, per propagare le eliminazioni alla replica locale. */
+    static final String TASKS_ELIMINATI = "TasksEliminati";
+
+    /** Subtask, sessioni del timer e allegati eliminati singolarmente, per la replica locale. */
+    static final String DETTAGLI_ELIMINATI = "DettagliEliminati";
+
+    /** Chiavi delle operazioni della coda delle scritture già applicate. */
+    static final String OPERAZIONI_APPLICATE = "OperazioniApplicate";
+
+    private DAOSchema() {}
+
+    /**
+     * Assicura l'esistenza della tabella {@value #STATISTICHE_UTENTE}.
+     * <p>
+     * La chiave primaria {@code (idUtente, dimensione, chiave)} permette sia l'aggiornamento
+     * incrementale con {@code ON DUPLICATE KEY UPDATE} sia la lettura di tutti i contatori di
+     * un utente con una sola scansione dell'indice.
+     * </p>
+     *
+     * @throws SQLException In caso di errore SQL.
+     */
+    static void ensureStatisticheUtente() throws SQLException {
+        ensureTable(STATISTICHE_UTENTE,
+                "CREATE TABLE IF NOT EXISTS " + STATISTICHE_UTENTE + " ("
+                        + "idUtente INT NOT NULL, "
+                        + "dimensione VARCHAR(16) NOT NULL, "
+                        + "chiave VARCHAR(64) NOT NULL, "
+                        + "conteggio INT NOT NULL DEFAULT 0, "
+                        + "PRIMARY KEY (idUtente, dimensione, chiave))",
+                DAOStatistics.getInstance().rebuildCountersSql(null));
+    }
+
+    /**
+     * Assicura l'esistenza della tabella {@value #TEMPO_GIORNALIERO}.
+     * <p>
+     * Ogni riga somma la durata delle sessioni concluse di un task iniziate in un certo giorno.
+     * La chiave primaria inizia con {@code (idUtente, giorno)} così le statistiche filtrate per
+     * periodo leggono solo l'intervallo di date richiesto; l'indice su {@code idTask} serve
+     * quando un task cambia categoria o viene eliminato.
+     * </p>
+     *
+     * @throws SQLException In caso di errore SQL.
+     */
+    static void ensureTempoGiornaliero() throws SQLException {
+        ensureTable(TEMPO_GIORNALIERO,
+                "CREATE TABLE IF NOT EXISTS " + TEMPO_GIORNALIERO + " ("
+                        + "idUtente INT NOT NULL, "
+                        + "giorno DATE NOT NULL, "
+                        + "idCategoria INT NOT NULL, "
+                        + "idTask INT NOT NULL, "
+                        + "secondi BIGINT NOT NULL DEFAULT 0, "
+                        + "PRIMARY KEY (idUtente, giorno, idCategoria, idTask), "
+                        + "KEY idx_tempo_task (idTask))",
+                DAOStatistics.getInstance().rebuildTimeRollupsSql(null));
+    }
+
+    /**
+     * Assicura la presenza della colonna {@code Tasks.durataTotale}.
+     * <p>
+     * Contiene la somma delle durate delle sessioni concluse del task ed è mantenuta da
+     * {@link DAOTimerSessions} nella stessa transazione di ogni modifica alle sessioni, così il
+     * tempo totale arriva insieme al task senza dover sommare lo storico.
+     * </p>
+     *
+     * @throws SQLException In caso di errore SQL.
+     */
+    static void ensureDurataTotaleTasks() throws SQLException {
+        ensureColumn("Tasks", "durataTotale",
+                "ALTER TABLE Tasks ADD COLUMN durataTotale BIGINT NOT NULL DEFAULT 0",
+                "UPDATE Tasks t SET t.durataTotale = (SELECT COALESCE(SUM(ts.durata), 0) "
+                        + "FROM TimerSessions ts WHERE ts.idTask = t.idTask AND ts.fine IS NOT NULL)");
+    }
+
+    /**
+     * Assicura la presenza dell'indice {@code (idTask, inizio, idSession)} su TimerSessions,
+     * usato dalla paginazione a chiave dello storico sessioni di un task.
+     *
+     * @throws SQLException In caso di errore SQL.
+     */
+    static void ensureIndiceSessioniTask() throws SQLException {
+        ensureIndex("TimerSessions", "idx_sessioni_task_inizio",
+                "CREATE INDEX idx_sessioni_task_inizio ON TimerSessions (idTask, inizio, idSession)");
+    }
+
+    /**
+     * Assicura la presenza dell'indice {@code (idUtente, completamento, scadenza)} su Tasks,
+     * usato per leggere solo i task aperti in scadenza di un utente, già ordinati per data.
+     * <p>
+     * Prima dell'indice porta nel formato ISO {@code yyyy-MM-dd} le scadenze salvate come
+     * {@code dd-MM-yyyy}, così il confronto sulla colonna è corretto per tutte le righe. La
+     * conversione tocca solo le righe ancora nel vecchio formato e viene ripetuta a ogni
+     * esecuzione finché non riesce, indipendentemente dall'esistenza dell'indice.
+     * </p>
+     *
+     * @throws SQLException In caso di errore SQL.
+     */
+    static void ensureIndiceScadenze() throws SQLException {
+        ensureDati("Tasks.scadenza#iso",
+                "UPDATE Tasks SET scadenza = DATE_FORMAT(STR_TO_DATE(scadenza, '%d-%m-%Y'), '%Y-%m-%d') "
+                        + "WHERE scadenza LIKE '__-__-____'");
+        ensureIndex("Tasks", "idx_tasks_utente_scadenza",
+                "CREATE INDEX idx_tasks_utente_scadenza ON Tasks (idUtente, completamento, scadenza)");
+    }
+
+    /**
+     * Assicura la presenza della colonna {@code Allegati.digest} e della tabella {@value #BLOB_ALLEGATI}.
+     * <p>
+     * Ogni allegato punta al contenuto nell'archivio tramite lo SHA-256; la tabella conta quanti
+     * allegati usano ciascun contenuto. Gli allegati salvati prima dell'archivio hanno digest NULL
+     * e non vengono conteggiati.
+     * </p>
+     *
+     * @throws SQLException In caso di errore SQL.
+     */
+    static void ensureArchivioAllegati() throws SQLException {
+        ensureColumn("Allegati", "digest",
+                "ALTER TABLE Allegati ADD COLUMN digest CHAR(64) NULL, ADD KEY idx_allegati_digest (digest)");
+        ensureTable(BLOB_ALLEGATI,
+                "CREATE TABLE IF NOT EXISTS " + BLOB_ALLEGATI + " ("
+                        + "digest CHAR(64) NOT NULL, "
+                        + "dimensione BIGINT NOT NULL DEFAULT 0, "
+                        + "riferimenti INT NOT NULL DEFAULT 0, "
+                        + "PRIMARY KEY (digest))");
+    }
+
+    /**
+     * Assicura la presenza della colonna {@code aggiornatoIl} su Tasks, SubTasks, TimerSessions e
+     * Allegati e delle tabelle {@value #TASKS_ELIMINATI} e {@value #DETTAGLI_ELIMINATI}.
+     * <p>
+     * La colonna viene aggiornata da MySQL a ogni modifica della riga (anche quelle fatte da altri
+     * DAO, come la durata totale) e, con gli indici {@code (idUtente, aggiornatoIl)} sui task e
+     * {@code (idTask, aggiornatoIl)} sulle altre tabelle, permette alla {@link ReplicaLocale} di
+     * leggere solo le righe cambiate dopo il proprio watermark. Le due tabelle conservano gli ID delle
+     * righe eliminate, che altrimenti la sincronizzazione non vedrebbe; le righe eliminate insieme al
+     * loro task non vi compaiono, perché la replica le rimuove con il task.
+     * </p>
+     *
+     * @throws SQLException In caso di errore SQL.
+     */
+    static void ensureReplica() throws SQLException {
+        ensureColumn("Tasks", "aggiornatoIl",
+                "ALTER TABLE Tasks ADD COLUMN aggiornatoIl TIMESTAMP(3) NOT NULL "
+                        + "DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3), "
+                        + "ADD KEY idx_tasks_utente_aggiornato (idUtente, aggiornatoIl)");
+        for (String tabella : new String[] { "SubTasks", "TimerSessions", "Allegati" }) {
+            ensureColumn(tabella, "aggiornatoIl",
+                    "ALTER TABLE " + tabella + " ADD COLUMN aggiornatoIl TIMESTAMP(3) NOT NULL "
+                            + "DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3), "
+                            + "ADD KEY idx_" + tabella.toLowerCase() + "_task_aggiornato (idTask, aggiornatoIl)");
+        }
+        ensureTable(TASKS_ELIMINATI,
+                "CREATE TABLE IF NOT EXISTS " + TASKS_ELIMINATI + " ("
+                        + "idTask INT NOT NULL, "
+                        + "idUtente INT NOT NULL, "
+                        + "eliminatoIl TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3), "
+                        + "PRIMARY KEY (idTask), "
+                        + "KEY idx_eliminati_utente (idUtente, eliminatoIl))");
+        ensureTable(DETTAGLI_ELIMINATI,
+                "CREATE TABLE IF NOT EXISTS " + DETTAGLI_ELIMINATI + " ("
+                        + "tabella VARCHAR(16) NOT NULL, "
+                        + "id INT NOT NULL, "
+                        + "idUtente INT NOT NULL, "
+                        + "eliminatoIl TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3), "
+                        + "PRIMARY KEY (tabella, id), "
+                        + "KEY idx_dettagli_eliminati_utente (idUtente, eliminatoIl))");
+    }
+
+    /**
+     * Assicura l'esistenza della tabella {@value #OPERAZIONI_APPLICATE}.
+     * <p>
+     * Ogni operazione riapplicata da {@link CodaScritture} vi registra la propria chiave (e l'ID
+     * generato, per gli inserimenti) nella stessa transazione della scrittura: la chiave primaria
+     * impedisce di applicare due volte la stessa operazione.
+     * </p>
+     *
+     * @throws SQLException In caso di errore SQL.
+     */
+    static void ensureCodaScritture() throws SQLException {
+        ensureTable(OPERAZIONI_APPLICATE,
+                "CREATE TABLE IF NOT EXISTS " + OPERAZIONI_APPLICATE + " ("
+                        + "chiave CHAR(36) NOT NULL, "
+                        + "idGenerato INT NULL, "
+                        + "applicataIl TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+                        + "PRIMARY KEY (chiave))");
+    }
+
+    /**
+     * Crea la tabella indicata se non è presente nello schema corrente e, solo in quel caso,
+     * esegue le query di popolamento iniziale.
+     *
+     * @param nome        Nome della tabella.
+     * @param ddl         Istruzione {@code CREATE TABLE}.
+     * @param popolamento Query da eseguire dopo la creazione (può essere vuoto).
+     * @throws SQLException In caso di errore SQL.
+     */
+    private static void ensureTable(String nome, String ddl, String... popolamento) throws SQLException {
+        ensure(nome,
+                "SELECT COUNT(*) FROM information_schema.TABLES "
+                        + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = '" + nome + "'",
+                ddl, popolamento);
+    }
+
+    /**
+     * Aggiunge una colonna a una tabella esistente se non è già presente e, solo in quel caso,
+     * esegue le query di popolamento iniziale.
+     *
+     * @param tabella     Nome della tabella.
+     * @param colonna     Nome della colonna.
+     * @param ddl         Istruzione {@code ALTER TABLE ... ADD COLUMN}.
+     * @param popolamento Query da eseguire dopo l'aggiunta (può essere vuoto).
+     * @throws SQLException In caso di errore SQL.
+     */
+    private static void ensureColumn(String tabella, String colonna, String ddl, String... popolamento) throws SQLException {
+        ensure(tabella + "." + colonna,
+                "SELECT COUNT(*) FROM information_schema.COLUMNS "
+                        + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = '" + tabella + "' "
+                        + "AND COLUMN_NAME = '" + colonna + "'",
+                ddl, popolamento);
+    }
+
+    /**
+     * Crea un indice su una tabella esistente se non è già presente e, solo in quel caso,
+     * esegue le query di popolamento iniziale.
+     *
+     * @param tabella     Nome della tabella.
+     * @param indice      Nome dell'indice.
+     * @param ddl         Istruzione {@code CREATE INDEX}.
+     * @param popolamento Query da eseguire dopo la creazione (può essere vuoto).
+     * @throws SQLException In caso di errore SQL.
+     */
+    private static void ensureIndex(String tabella, String indice, String ddl, String... popolamento) throws SQLException {
+        ensure(tabella + "#" + indice,
+                "SELECT COUNT(*) FROM information_schema.STATISTICS "
+                        + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = '" + tabella + "' "
+                        + "AND INDEX_NAME = '" + indice + "'",
+                ddl, popolamento);
+    }
+
+    /**
+     * Esegue una volta per esecuzione un aggiornamento idempotente dei dati. Se fallisce non viene
+     * segnato come eseguito, quindi la chiamata successiva lo ripete.
+     *
+     * @param chiave        Identificativo dell'aggiornamento (per non ripeterlo dopo che è riuscito).
+     * @param aggiornamento Query che modifica solo le righe ancora da aggiornare.
+     * @throws SQLException In caso di errore SQL.
+     */
+    private static synchronized void ensureDati(String chiave, String aggiornamento) throws SQLException {
+        if (verificate.contains(chiave)) return;
+
+        Statement st = null;
+        Connection conn = null;
+        try {
+            st = DAOMySQLSettings.getStatement();
+            conn = st.getConnection();
+            int righe = st.executeUpdate(aggiornamento);
+            if (righe > 0) logger.info("Aggiornamento dati " + chiave + ": " + righe + " righe");
+            verificate.add(chiave);
+        } finally {
+            DAOMySQLSettings.closeStatement(st);
+            if (conn != null) try { conn.close(); } catch (SQLException e) {}
+        }
+    }
+
+    /**
+     * Esegue {@code ddl} e {@code popolamento} se la query di verifica restituisce zero.
+     *
+     * @param chiave      Identificativo dell'oggetto verificato (per non ripetere il controllo).
+     * @param verifica    Query {@code COUNT(*)} su information_schema.
+     * @param ddl         Istruzione DDL di creazione.
+     * @param popolamento Query da eseguire dopo la creazione.
+     * @throws SQLException In caso di errore SQL.
+     */
+    private static synchronized void ensure(String chiave, String verifica, String ddl, String... popolamento) throws SQLException {
+        if (verificate.contains(chiave)) return;
+
+        Statement st = null;
+        Connection conn = null;
+        try {
+            st = DAOMySQLSettings.getStatement();
+            conn = st.getConnection();
+
+            ResultSet rs = st.executeQuery(verifica);
+            boolean esiste = rs.next() && rs.getInt(1) > 0;
+            rs.close();
+
+            if (!esiste) {
+                logger.info("Creazione oggetto di supporto: " + chiave);
+                st.executeUpdate(ddl);
+                for (String sql : popolamento) {
+                    st.executeUpdate(sql);
+                }
+            }
+            verificate.add(chiave);
+        } finally {
+            DAOMySQLSettings.closeStatement(st);
+            if (conn != null) try { conn.close(); } catch (SQLException e) {}
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package it.unicas.project.template.address.model.dao.mysql;
 
+import it.unicas.project.template.address.model.Statistiche;
 import it.unicas.project.template.address.model.dao.DAOException;
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.LocalDate;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Logger;
@@ -15,12 +18,29 @@ import java.util.logging.Logger;
  * ma esegue query di aggregazione (COUNT, SUM, GROUP BY) su più tabelle (Tasks, TimerSessions, Categorie)
  * per fornire i dati necessari alla visualizzazione di grafici e report.
  * </p>
+ * <p>
+ * I conteggi dei task (per priorità, completamento e categoria) non vengono ricalcolati a ogni
+ * apertura: sono mantenuti nella tabella {@code StatisticheUtente}, aggiornata in modo incrementale
+ * da {@link DAOTasks} nella stessa transazione di ogni insert/update/delete. In caso di
+ * disallineamento (es. modifiche fatte fuori dall'applicazione) si può usare {@link #rebuildCounters(Integer)}.
+ * </p>
+ * <p>
+ * Allo stesso modo il tempo speso è riassunto per giorno nella tabella {@code TempoGiornaliero},
+ * aggiornata da {@link DAOTimerSessions} quando una sessione viene chiusa, modificata o eliminata.
+ * Le statistiche sul tempo leggono solo questi riepiloghi e possono quindi essere filtrate per
+ * periodo (ultimi N giorni) senza scansionare lo storico delle sessioni.
+ * </p>
  */
 public class DAOStatistics {
 
     private static DAOStatistics instance = null;
     private static Logger logger = null;
 
+    /** Dimensioni dei contatori salvati in StatisticheUtente. */
+    static final String DIM_PRIORITA = "PRIORITA";
+    static final String DIM_COMPLETAMENTO = "COMPLETAMENTO";
+    static final String DIM_CATEGORIA = "CATEGORIA";
+
     private DAOStatistics() {}
 
     /**
@@ -38,7 +58,7 @@ public class DAOStatistics {
     /**
      * Calcola la distribuzione dei Task per Priorità per un determinato utente.
      * <p>
-     * Esegue una query di raggruppamento (GROUP BY priorità) sulla tabella Tasks.
+     * Legge i contatori già aggregati dalla tabella {@code StatisticheUtente}, senza scansionare Tasks.
      * Utile per alimentare un grafico a torta (PieChart) che mostra quanti task
      * sono "ALTA", "MEDIA" o "BASSA" priorità.
      * </p>
@@ -51,19 +71,20 @@ public class DAOStatistics {
         Map<String, Integer> stats = new HashMap<>();
         Statement st = null;
         try {
+            DAOSchema.ensureStatisticheUtente();
             st = DAOMySQLSettings.getStatement();
 
-            String sql = "SELECT priorità, COUNT(*) as totale " +
-                    "FROM Tasks " +
+            String sql = "SELECT chiave, conteggio " +
+                    "FROM StatisticheUtente " +
                     "WHERE idUtente = " + idUtente + " " +
-                    "GROUP BY priorità";
+                    "AND dimensione = '" + DIM_PRIORITA + "' AND conteggio > 0";
 
             logger.info("Statistiche Priorità (User " + idUtente + "): " + sql);
             ResultSet rs = st.executeQuery(sql);
 
             while (rs.next()) {
-                String priority = rs.getString("priorità");
-                int count = rs.getInt("totale");
+                String priority = rs.getString("chiave");
+                int count = rs.getInt("conteggio");
                 if (priority == null || priority.isEmpty()) priority = "Nessuna";
                 stats.put(priority, count);
             }
@@ -76,36 +97,39 @@ public class DAOStatistics {
     }
 
     /**
-     * Calcola il tempo totale speso per ogni Categoria.
-     * <p>
-     * Questa è una query complessa che coinvolge tre tabelle:
-     * </p>
-     * <ol>
-     * <li><b>TimerSessions:</b> Contiene la durata delle sessioni di lavoro.</li>
-     * <li><b>Tasks:</b> Collega le sessioni alle categorie e agli utenti.</li>
-     * <li><b>Categorie:</b> Contiene i nomi delle categorie (es. "Lavoro", "Studio").</li>
-     * </ol>
+     * Calcola il tempo totale speso per ogni Categoria, su tutto lo storico.
+     *
+     * @param idUtente L'ID dell'utente.
+     * @return Una Mappa dove la chiave è il nome della categoria e il valore è il totale dei secondi (Long).
+     * @throws DAOException In caso di errore SQL.
+     * @see #getTimeSpentByCategory(int, Integer)
+     */
+    public Map<String, Long> getTimeSpentByCategory(int idUtente) throws DAOException {
+        return getTimeSpentByCategory(idUtente, null);
+    }
+
+    /**
+     * Calcola il tempo speso per ogni Categoria negli ultimi {@code giorni} giorni.
      * <p>
-     * La query somma le durate (SUM) raggruppandole per nome categoria.
+     * La somma viene fatta sui riepiloghi giornalieri di {@code TempoGiornaliero} uniti a
+     * {@code Categorie} per il nome: il costo dipende dal numero di giorni e task lavorati,
+     * non dal numero di sessioni registrate.
      * </p>
      *
      * @param idUtente L'ID dell'utente.
+     * @param giorni   Ampiezza del periodo in giorni (oggi compreso), oppure null per tutto lo storico.
      * @return Una Mappa dove la chiave è il nome della categoria e il valore è il totale dei secondi (Long).
      * @throws DAOException In caso di errore SQL.
      */
-    public Map<String, Long> getTimeSpentByCategory(int idUtente) throws DAOException {
+    public Map<String, Long> getTimeSpentByCategory(int idUtente, Integer giorni) throws DAOException {
         Map<String, Long> stats = new HashMap<>();
         Statement st = null;
         try {
+            DAOSchema.ensureTempoGiornaliero();
             st = DAOMySQLSettings.getStatement();
 
-
-            String sql = "SELECT c.nomeCategoria, SUM(ts.durata) as totaleTempo " +
-                    "FROM TimerSessions ts " +
-                    "JOIN Tasks t ON ts.idTask = t.idTask " +
-                    "JOIN Categorie c ON t.idCategoria = c.idCategoria " +
-                    "WHERE ts.fine IS NOT NULL " +
-                    "AND t.idUtente = " + idUtente + " " +
+            String sql = "SELECT c.nomeCategoria, SUM(r.secondi) as totaleTempo " +
+                    timeRollupsFrom(idUtente, giorni) +
                     "GROUP BY c.nomeCategoria";
 
             logger.info("Statistiche Tempo/Categoria (User " + idUtente + "): " + sql);
@@ -127,7 +151,7 @@ public class DAOStatistics {
     /**
      * Confronta i Task Completati rispetto a quelli Aperti (Da fare).
      * <p>
-     * Esegue un conteggio raggruppato per il campo booleano 'completamento'.
+     * Legge i due contatori della dimensione "COMPLETAMENTO" da {@code StatisticheUtente}.
      * </p>
      *
      * @param idUtente L'ID dell'utente.
@@ -142,16 +166,17 @@ public class DAOStatistics {
         int[] results = new int[2];
         Statement st = null;
         try {
+            DAOSchema.ensureStatisticheUtente();
             st = DAOMySQLSettings.getStatement();
-            String sql = "SELECT completamento, COUNT(*) as num " +
-                    "FROM Tasks " +
+            String sql = "SELECT chiave, conteggio " +
+                    "FROM StatisticheUtente " +
                     "WHERE idUtente = " + idUtente + " " + // FILTRO UTENTE
-                    "GROUP BY completamento";
+                    "AND dimensione = '" + DIM_COMPLETAMENTO + "'";
 
             ResultSet rs = st.executeQuery(sql);
             while(rs.next()){
-                boolean isCompleted = rs.getBoolean("completamento");
-                int count = rs.getInt("num");
+                boolean isCompleted = "1".equals(rs.getString("chiave"));
+                int count = rs.getInt("conteggio");
                 if(isCompleted) results[1] = count;
                 else results[0] = count;
             }
@@ -162,4 +187,266 @@ public class DAOStatistics {
         }
         return results;
     }
+
+    /**
+     * Recupera tutte le statistiche dell'utente con un'unica interrogazione al database.
+     * <p>
+     * I contatori di {@code StatisticheUtente} e il tempo per categoria vengono uniti con
+     * {@code UNION ALL} in un solo result set, distinguendo le righe tramite la colonna {@code tipo}:
+     * </p>
+     * <ul>
+     * <li><b>PRIORITA:</b> numero di task per priorità.</li>
+     * <li><b>COMPLETAMENTO:</b> numero di task per stato di completamento (0/1).</li>
+     * <li><b>CATEGORIA:</b> numero di task per categoria.</li>
+     * <li><b>TEMPO:</b> secondi spesi per categoria.</li>
+     * </ul>
+     * <p>
+     * In questo modo la finestra delle statistiche apre una sola connessione invece di tre.
+     * </p>
+     *
+     * @param idUtente L'ID dell'utente.
+     * @return Un oggetto {@link Statistiche} con tutti i dati aggregati.
+     * @throws DAOException In caso di errore SQL.
+     */
+    public Statistiche getStatisticsSnapshot(int idUtente) throws DAOException {
+        return getStatisticsSnapshot(idUtente, null);
+    }
+
+    /**
+     * Come {@link #getStatisticsSnapshot(int)}, ma limita il tempo per categoria agli ultimi
+     * {@code giorni} giorni. I conteggi dei task restano riferiti allo stato attuale.
+     *
+     * @param idUtente L'ID dell'utente.
+     * @param giorni   Ampiezza del periodo in giorni (oggi compreso), oppure null per tutto lo storico.
+     * @return Un oggetto {@link Statistiche} con tutti i dati aggregati.
+     * @throws DAOException In caso di errore SQL.
+     */
+    public Statistiche getStatisticsSnapshot(int idUtente, Integer giorni) throws DAOException {
+        Statistiche stats = new Statistiche();
+        Statement st = null;
+        try {
+            DAOSchema.ensureStatisticheUtente();
+            DAOSchema.ensureTempoGiornaliero();
+            st = DAOMySQLSettings.getStatement();
+
+            String sql = "SELECT s.dimensione AS tipo, " +
+                    "CASE WHEN s.dimensione = '" + DIM_CATEGORIA + "' THEN COALESCE(c.nomeCategoria, 'Nessuna') ELSE s.chiave END AS chiave, " +
+                    "s.conteggio AS valore " +
+                    "FROM StatisticheUtente s " +
+                    "LEFT JOIN Categorie c ON s.dimensione = '" + DIM_CATEGORIA + "' AND c.idCategoria = CAST(s.chiave AS UNSIGNED) " +
+                    "WHERE s.idUtente = " + idUtente + " AND s.conteggio > 0 " +
+                    "UNION ALL " +
+                    "SELECT 'TEMPO', c.nomeCategoria, SUM(r.secondi) " +
+                    timeRollupsFrom(idUtente, giorni) +
+                    "GROUP BY c.nomeCategoria";
+
+            logger.info("Statistiche complete (User " + idUtente + "): " + sql);
+            ResultSet rs = st.executeQuery(sql);
+
+            while (rs.next()) {
+                String tipo = rs.getString("tipo");
+                String chiave = rs.getString("chiave");
+                long valore = rs.getLong("valore");
+
+                switch (tipo) {
+                    case DIM_PRIORITA -> {
+                        if (chiave == null || chiave.isEmpty()) chiave = "Nessuna";
+                        stats.getTaskPerPriorita().merge(chiave, (int) valore, Integer::sum);
+                    }
+                    case DIM_COMPLETAMENTO -> {
+                        if ("1".equals(chiave)) stats.setTaskCompletati((int) valore);
+                        else stats.setTaskAperti((int) valore);
+                    }
+                    case DIM_CATEGORIA -> stats.getTaskPerCategoria().merge(chiave, (int) valore, Integer::sum);
+                    case "TEMPO" -> stats.getTempoPerCategoria().put(chiave, valore);
+                    default -> logger.warning("Tipo statistica sconosciuto: " + tipo);
+                }
+            }
+        } catch (SQLException e) {
+            throw new DAOException("Errore statistiche: " + e.getMessage());
+        } finally {
+            DAOMySQLSettings.closeStatement(st);
+        }
+        return stats;
+    }
+
+    /**
+     * Applica una variazione ai contatori di un utente per un singolo task.
+     * <p>
+     * Viene chiamato da {@link DAOTasks} usando lo stesso {@link Statement} (e quindi la stessa
+     * transazione) dell'operazione sul task: {@code +1} all'inserimento, {@code -1} alla
+     * cancellazione, {@code -1} sui vecchi valori e {@code +1} sui nuovi in caso di modifica.
+     * </p>
+     *
+     * @param st            Statement della transazione in corso.
+     * @param idUtente      Proprietario del task.
+     * @param priorita      Priorità del task (può essere null).
+     * @param completamento Stato di completamento.
+     * @param idCategoria   Categoria del task (null o &lt;= 0 se assente).
+     * @param delta         Variazione da applicare (+1 o -1).
+     * @throws SQLException In caso di errore SQL.
+     */
+    void applyTaskDelta(Statement st, int idUtente, String priorita, boolean completamento,
+                        Integer idCategoria, int delta) throws SQLException {
+        String prioritaKey = (priorita != null) ? priorita.replace("'", "\\'") : "";
+        String completamentoKey = completamento ? "1" : "0";
+        String categoriaKey = (idCategoria != null && idCategoria > 0) ? idCategoria.toString() : "0";
+
+        String sql = "INSERT INTO StatisticheUtente (idUtente, dimensione, chiave, conteggio) VALUES "
+                + "(" + idUtente + ", '" + DIM_PRIORITA + "', '" + prioritaKey + "', " + delta + "), "
+                + "(" + idUtente + ", '" + DIM_COMPLETAMENTO + "', '" + completamentoKey + "', " + delta + "), "
+                + "(" + idUtente + ", '" + DIM_CATEGORIA + "', '" + categoriaKey + "', " + delta + ") "
+                + "ON DUPLICATE KEY UPDATE conteggio = conteggio + VALUES(conteggio)";
+        st.executeUpdate(sql);
+    }
+
+    /**
+     * Clausole FROM/WHERE comuni alle query sul tempo per categoria.
+     *
+     * @param idUtente L'ID dell'utente.
+     * @param giorni   Ampiezza del periodo in giorni, oppure null per nessun limite.
+     * @return Frammento SQL terminato da uno spazio.
+     */
+    private String timeRollupsFrom(int idUtente, Integer giorni) {
+        String sql = "FROM TempoGiornaliero r " +
+                "JOIN Categorie c ON r.idCategoria = c.idCategoria " +
+                "WHERE r.idUtente = " + idUtente + " ";
+        if (giorni != null && giorni > 0) {
+            sql += "AND r.giorno >= '" + LocalDate.now().minusDays(giorni - 1) + "' ";
+        }
+        return sql;
+    }
+
+    /**
+     * Somma (o sottrae, con {@code secondi} negativi) la durata di una sessione al riepilogo
+     * giornaliero del suo task.
+     * <p>
+     * Viene chiamato da {@link DAOTimerSessions} nella stessa transazione della modifica alla
+     * sessione. Le righe arrivate a zero vengono rimosse per non far crescere la tabella.
+     * </p>
+     *
+     * @param st          Statement della transazione in corso.
+     * @param idUtente    Proprietario del task.
+     * @param idCategoria Categoria del task (0 se assente).
+     * @param idTask      ID del task.
+     * @param giorno      Giorno di inizio della sessione.
+     * @param secondi     Variazione in secondi.
+     * @throws SQLException In caso di errore SQL.
+     */
+    void applyTimeDelta(Statement st, int idUtente, int idCategoria, int idTask,
+                        LocalDate giorno, long secondi) throws SQLException {
+        if (secondi == 0 || giorno == null) return;
+
+        st.executeUpdate("INSERT INTO TempoGiornaliero (idUtente, giorno, idCategoria, idTask, secondi) VALUES ("
+                + idUtente + ", '" + giorno + "', " + idCategoria + ", " + idTask + ", " + secondi + ") "
+                + "ON DUPLICATE KEY UPDATE secondi = secondi + VALUES(secondi)");
+        if (secondi < 0) {
+            st.executeUpdate("DELETE FROM TempoGiornaliero WHERE idUtente = " + idUtente
+                    + " AND giorno = '" + giorno + "' AND idCategoria = " + idCategoria
+                    + " AND idTask = " + idTask + " AND secondi <= 0");
+        }
+    }
+
+    /**
+     * Sposta i riepiloghi di un task sotto una nuova categoria (chiamato da {@link DAOTasks#update}).
+     *
+     * @param st          Statement della transazione in corso.
+     * @param idTask      ID del task.
+     * @param idCategoria Nuova categoria (0 se assente).
+     * @throws SQLException In caso di errore SQL.
+     */
+    void moveTimeRollups(Statement st, int idTask, int idCategoria) throws SQLException {
+        st.executeUpdate("UPDATE TempoGiornaliero SET idCategoria = " + idCategoria + " WHERE idTask = " + idTask);
+    }
+
+    /**
+     * Elimina i riepiloghi di un task (chiamato da {@link DAOTasks#delete}).
+     *
+     * @param st     Statement della transazione in corso.
+     * @param idTask ID del task.
+     * @throws SQLException In caso di errore SQL.
+     */
+    void deleteTimeRollups(Statement st, int idTask) throws SQLException {
+        st.executeUpdate("DELETE FROM TempoGiornaliero WHERE idTask = " + idTask);
+    }
+
+    /**
+     * Costruisce le query che ricalcolano da zero i riepiloghi giornalieri a partire da TimerSessions.
+     *
+     * @param idUtente L'utente da ricalcolare, oppure null per tutti gli utenti.
+     * @return Le query da eseguire in ordine (cancellazione e reinserimento).
+     */
+    String[] rebuildTimeRollupsSql(Integer idUtente) {
+        return new String[] {
+                "DELETE FROM TempoGiornaliero" + (idUtente != null ? " WHERE idUtente = " + idUtente : ""),
+                "INSERT INTO TempoGiornaliero (idUtente, giorno, idCategoria, idTask, secondi) "
+                        + "SELECT t.idUtente, DATE(ts.inizio), COALESCE(t.idCategoria, 0), t.idTask, SUM(ts.durata) "
+                        + "FROM TimerSessions ts JOIN Tasks t ON ts.idTask = t.idTask "
+                        + "WHERE ts.fine IS NOT NULL AND ts.inizio IS NOT NULL"
+                        + (idUtente != null ? " AND t.idUtente = " + idUtente : "")
+                        + " GROUP BY t.idUtente, DATE(ts.inizio), COALESCE(t.idCategoria, 0), t.idTask "
+                        + "HAVING SUM(ts.durata) <> 0"
+        };
+    }
+
+    /**
+     * Costruisce le query che ricalcolano da zero i contatori a partire dalla tabella Tasks.
+     *
+     * @param idUtente L'utente da ricalcolare, oppure null per tutti gli utenti.
+     * @return Le query da eseguire in ordine (cancellazione e reinserimento).
+     */
+    String[] rebuildCountersSql(Integer idUtente) {
+        String filtro = (idUtente != null) ? " WHERE idUtente = " + idUtente : "";
+        String insert = "INSERT INTO StatisticheUtente (idUtente, dimensione, chiave, conteggio) ";
+        return new String[] {
+                "DELETE FROM StatisticheUtente" + filtro,
+                insert + "SELECT idUtente, '" + DIM_PRIORITA + "', COALESCE(priorità, ''), COUNT(*) FROM Tasks"
+                        + filtro + " GROUP BY idUtente, COALESCE(priorità, '')",
+                insert + "SELECT idUtente, '" + DIM_COMPLETAMENTO + "', IF(completamento, '1', '0'), COUNT(*) FROM Tasks"
+                        + filtro + " GROUP BY idUtente, IF(completamento, '1', '0')",
+                insert + "SELECT idUtente, '" + DIM_CATEGORIA + "', CAST(COALESCE(idCategoria, 0) AS CHAR), COUNT(*) FROM Tasks"
+                        + filtro + " GROUP BY idUtente, COALESCE(idCategoria, 0)"
+        };
+    }
+
+    /**
+     * Ricostruisce i contatori di {@code StatisticheUtente} e i riepiloghi di {@code TempoGiornaliero}
+     * ricalcolandoli dalle tabelle Tasks e TimerSessions.
+     * <p>
+     * Comando di riparazione da usare se i contatori si sono disallineati (es. task modificati
+     * direttamente sul database o categorie eliminate). L'operazione avviene in un'unica
+     * transazione, quindi chi legge vede sempre o i vecchi o i nuovi valori.
+     * </p>
+     *
+     * @param idUtente L'utente da ricalcolare, oppure null per tutti gli utenti.
+     * @throws DAOException In caso di errore SQL.
+     */
+    public void rebuildCounters(Integer idUtente) throws DAOException {
+        Statement st = null;
+        Connection conn = null;
+        try {
+            DAOSchema.ensureStatisticheUtente();
+            DAOSchema.ensureTempoGiornaliero();
+            st = DAOMySQLSettings.getStatement();
+            conn = st.getConnection();
+            conn.setAutoCommit(false);
+
+            for (String sql : rebuildCountersSql(idUtente)) {
+                logger.info("Ricostruzione contatori: " + sql);
+                st.executeUpdate(sql);
+            }
+            for (String sql : rebuildTimeRollupsSql(idUtente)) {
+                logger.info("Ricostruzione riepiloghi tempo: " + sql);
+                st.executeUpdate(sql);
+            }
+
+            conn.commit();
+        } catch (SQLException e) {
+            if (conn != null) try { conn.rollback(); } catch (SQLException ex) {}
+            throw new DAOException("Errore ricostruzione contatori: " + e.getMessage());
+        } finally {
+            DAOMySQLSettings.closeStatement(st);
+            if (conn != null) try { conn.close(); } catch (SQLException e) {}
+        }
+    }
 }
\ No newline at end of file
@@ -4,12 +4,17 @@ import it.unicas.project.template.address.model.SubTasks;
 import it.unicas.project.template.address.model.dao.DAO;
 import it.unicas.project.template.address.model.dao.DAOException;
 
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 /**
  * Data Access Object (DAO) per la gestione della tabella 'SubTasks'.
@@ -17,6 +22,12 @@ import java.util.logging.Logger;
  * Gestisce la persistenza dei sotto-task (checklist) collegati ai task principali.
  * Implementa il pattern Singleton per garantire un'unica istanza di accesso.
  * </p>
+ * <p>
+ * Ogni scrittura aggiorna anche {@code Tasks.aggiornatoIl} del task padre, così la
+ * {@link ReplicaLocale} rilegge l'avanzamento della sua checklist alla sincronizzazione successiva.
+ * Dopo il commit la scrittura viene applicata anche ai subtask della replica, che risponde alle
+ * letture della checklist di un task.
+ * </p>
  */
 public class DAOSubTasks implements DAO<SubTasks> {
 
@@ -42,6 +53,7 @@ public class DAOSubTasks implements DAO<SubTasks> {
      * <p>
      * Se l'oggetto passato ha impostato l'{@code idTask}, la query filtrerà
      * solo i sotto-task appartenenti a quel task specifico (funzionalità chiave per le checklist).
+     * La checklist di un task senza filtro sul titolo arriva dalla {@link ReplicaLocale}, se la conosce.
      * </p>
      *
      * @param s Oggetto SubTasks usato come filtro (solitamente contiene l'idTask padre).
@@ -50,6 +62,10 @@ public class DAOSubTasks implements DAO<SubTasks> {
      */
     @Override
     public List<SubTasks> select(SubTasks s) throws DAOException {
+        if (s != null && s.getIdTask() != null && (s.getTitolo() == null || s.getTitolo().isEmpty())) {
+            List<SubTasks> replica = ReplicaLocale.getInstance().subTasks(s.getIdTask());
+            if (replica != null) return replica;
+        }
         ArrayList<SubTasks> lista = new ArrayList<>();
         Statement st = null;
 
@@ -89,6 +105,56 @@ public class DAOSubTasks implements DAO<SubTasks> {
         return lista;
     }
 
+    /**
+     * Conta subtask totali e completati per un insieme di task con un'unica query raggruppata.
+     * <p>
+     * Usato dalla lista principale per mostrare l'avanzamento delle checklist (es. "3/7")
+     * senza interrogare i subtask di ogni task singolarmente. Se la {@link ReplicaLocale} conosce
+     * l'avanzamento aggiornato di tutti i task richiesti, la risposta arriva da lì.
+     * </p>
+     *
+     * @param idTasks Gli ID dei task di interesse.
+     * @return Mappa idTask → {totali, completati}; i task senza subtask non compaiono.
+     * @throws DAOException In caso di errori SQL.
+     */
+    public Map<Integer, int[]> countByTask(Collection<Integer> idTasks) throws DAOException {
+        if (idTasks != null && !idTasks.isEmpty()) {
+            Map<Integer, int[]> replica = ReplicaLocale.getInstance().progressi(idTasks);
+            if (replica != null) return replica;
+        }
+        return countByTaskDalDatabase(idTasks);
+    }
+
+    /**
+     * Come {@link #countByTask(Collection)}, ma sempre con una query sul database.
+     * @param idTasks Gli ID dei task di interesse.
+     * @return Mappa idTask → {totali, completati}.
+     * @throws DAOException In caso di errori SQL.
+     */
+    Map<Integer, int[]> countByTaskDalDatabase(Collection<Integer> idTasks) throws DAOException {
+        Map<Integer, int[]> conteggi = new HashMap<>();
+        if (idTasks == null || idTasks.isEmpty()) return conteggi;
+
+        Statement st = null;
+        try {
+            st = DAOMySQLSettings.getStatement();
+            String ids = idTasks.stream().map(String::valueOf).collect(Collectors.joining(","));
+            String sql = "SELECT idTask, COUNT(*) AS totali, SUM(completamento) AS completati "
+                    + "FROM SubTasks WHERE idTask IN (" + ids + ") GROUP BY idTask";
+
+            logger.info("SQL Conteggio SubTasks: " + sql);
+            ResultSet rs = st.executeQuery(sql);
+            while (rs.next()) {
+                conteggi.put(rs.getInt("idTask"), new int[] { rs.getInt("totali"), rs.getInt("completati") });
+            }
+        } catch (SQLException sq) {
+            throw new DAOException("Errore nel conteggio subtask: " + sq.getMessage());
+        } finally {
+            DAOMySQLSettings.closeStatement(st);
+        }
+        return conteggi;
+    }
+
     /**
      * Elimina un sotto-task dal database.
      *
@@ -101,10 +167,32 @@ public class DAOSubTasks implements DAO<SubTasks> {
             throw new DAOException("Impossibile eliminare: idSubTask mancante.");
         }
 
+        // Il task padre va letto prima che la riga sparisca
+        Integer idTask = idTaskPadre(s);
         String query = "DELETE FROM SubTasks WHERE idSubTask = " + s.getIdSubTask();
         logger.info("SQL Delete: " + query);
 
-        executeUpdate(query);
+        Statement st = null;
+        Connection conn = null;
+        try {
+            DAOSchema.ensureReplica();
+            st = DAOMySQLSettings.getStatement();
+            conn = st.getConnection();
+            conn.setAutoCommit(false);
+
+            ReplicaLocale.registraEliminazione(st, "SubTasks", "idSubTask", s.getIdSubTask());
+            st.executeUpdate(query);
+
+            conn.commit();
+        } catch (SQLException e) {
+            if (conn != null) try { conn.rollback(); } catch (SQLException ex) {}
+            throw new DAOException("Errore Database: " + e.getMessage());
+        } finally {
+            DAOMySQLSettings.closeStatement(st);
+            if (conn != null) try { conn.close(); } catch (SQLException e) {}
+        }
+        ReplicaLocale.getInstance().eliminaSubTask(s.getIdSubTask());
+        toccaTask(idTask);
     }
 
     /**
@@ -121,8 +209,11 @@ public class DAOSubTasks implements DAO<SubTasks> {
         verifyObject(s);
 
         Statement st = null;
+        Connection conn = null;
         try {
             st = DAOMySQLSettings.getStatement();
+            conn = st.getConnection();
+            conn.setAutoCommit(false);
 
             int completatoInt = (s.getCompletamento() != null && s.getCompletamento()) ? 1 : 0;
 
@@ -149,11 +240,17 @@ public class DAOSubTasks implements DAO<SubTasks> {
 
             if (rs != null) rs.close();
 
+            CodaScritture.registraChiave(st, s.getIdSubTask());
+            conn.commit();
+            ReplicaLocale.getInstance().scriviSubTask(s);
         } catch (SQLException e) {
+            if (conn != null) try { conn.rollback(); } catch (SQLException ex) {}
             throw new DAOException("Errore Database durante l'insert: " + e.getMessage());
         } finally {
             DAOMySQLSettings.closeStatement(st);
+            if (conn != null) try { conn.close(); } catch (SQLException e) {}
         }
+        toccaTask(s.getIdTask());
     }
 
     /**
@@ -181,6 +278,32 @@ public class DAOSubTasks implements DAO<SubTasks> {
 
         logger.info("SQL Update: " + query);
         executeUpdate(query);
+        ReplicaLocale.getInstance().scriviSubTask(s);
+        toccaTask(idTaskPadre(s));
+    }
+
+    /**
+     * Legge i subtask dei task di un utente modificati dall'istante indicato.
+     * Usato dalla {@link ReplicaLocale}; richiede {@link DAOSchema#ensureReplica()}.
+     *
+     * @param st       Statement da usare.
+     * @param idUtente L'ID dell'utente.
+     * @param dal      Istante (epoch millis, orologio del database) da cui leggere; negativo per tutti i subtask.
+     * @return I subtask modificati.
+     * @throws SQLException In caso di errore SQL.
+     */
+    List<SubTasks> selectModificati(Statement st, int idUtente, long dal) throws SQLException {
+        String sql = "SELECT s.* FROM SubTasks s JOIN Tasks t ON t.idTask = s.idTask WHERE t.idUtente = " + idUtente;
+        if (dal >= 0) sql += " AND s.aggiornatoIl >= " + DAOTasks.istanteSql(dal);
+
+        List<SubTasks> lista = new ArrayList<>();
+        ResultSet rs = st.executeQuery(sql);
+        while (rs.next()) {
+            lista.add(new SubTasks(rs.getString("titolo"), rs.getString("descrizione"), rs.getBoolean("completamento"),
+                    rs.getInt("idSubTask"), rs.getInt("idTask")));
+        }
+        rs.close();
+        return lista;
     }
 
     /**
@@ -200,6 +323,44 @@ public class DAOSubTasks implements DAO<SubTasks> {
         }
     }
 
+    /**
+     * Restituisce l'ID del task padre del sotto-task, leggendolo dal database se l'oggetto non lo contiene.
+     *
+     * @param s Il sotto-task.
+     * @return L'ID del task padre, oppure null se il sotto-task non esiste.
+     * @throws DAOException In caso di errore SQL.
+     */
+    private Integer idTaskPadre(SubTasks s) throws DAOException {
+        if (s.getIdTask() != null && s.getIdTask() > 0) return s.getIdTask();
+        Statement st = null;
+        try {
+            st = DAOMySQLSettings.getStatement();
+            ResultSet rs = st.executeQuery("SELECT idTask FROM SubTasks WHERE idSubTask = " + s.getIdSubTask());
+            return rs.next() ? rs.getInt("idTask") : null;
+        } catch (SQLException e) {
+            throw new DAOException("Errore Database: " + e.getMessage());
+        } finally {
+            DAOMySQLSettings.closeStatement(st);
+        }
+    }
+
+    /**
+     * Segna il task padre come modificato dopo un cambiamento della sua checklist.
+     *
+     * @param idTask L'ID del task padre (null: nessuna operazione).
+     * @throws DAOException In caso di errore SQL.
+     */
+    private void toccaTask(Integer idTask) throws DAOException {
+        if (idTask == null) return;
+        try {
+            DAOSchema.ensureReplica();
+        } catch (SQLException e) {
+            throw new DAOException("Errore Database: " + e.getMessage());
+        }
+        executeUpdate("UPDATE Tasks SET aggiornatoIl = CURRENT_TIMESTAMP(3) WHERE idTask = " + idTask);
+        ReplicaLocale.getInstance().invalidaProgresso(idTask);
+    }
+
     /**
      * Metodo helper per eseguire query di aggiornamento (INSERT, UPDATE, DELETE).
      *
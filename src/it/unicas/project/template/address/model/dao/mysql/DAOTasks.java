@@ -4,13 +4,23 @@ import it.unicas.project.template.address.model.AuditLog;
 import it.unicas.project.template.address.model.Tasks;
 import it.unicas.project.template.address.model.dao.DAO;
 import it.unicas.project.template.address.model.dao.DAOException;
+import it.unicas.project.template.address.util.CacheLRU;
 
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 import java.util.logging.Logger;
 
 import java.time.LocalDate;
@@ -20,7 +30,19 @@ import java.time.format.DateTimeParseException;
 /**
  * Data Access Object (DAO) per la gestione della tabella 'Tasks' su database MySQL.
  * Gestisce le operazioni CRUD e assicura l'integrità dei dati tramite transazioni.
+ * Nella stessa transazione aggiorna anche i contatori di {@code StatisticheUtente} e, se cambia la
+ * categoria o il task viene eliminato, i riepiloghi di {@code TempoGiornaliero} (vedi {@link DAOStatistics}).
  * * <p><b>FIX:</b> Questa versione gestisce correttamente i valori NULL per le date di scadenza.</p>
+ * <p>
+ * I risultati delle letture ({@code select} e {@code selectDueBefore}) sono tenuti in una cache LRU
+ * indicizzata dai campi normalizzati del filtro. Ogni scrittura invalida solo le voci dell'utente
+ * proprietario del task; lo stesso fanno {@link DAOTimerSessions} quando cambia
+ * {@code durataTotale} e {@link DAOCategorie} quando elimina una categoria.
+ * </p>
+ * <p>
+ * Le letture con proiezione {@link Proiezione#ELENCO} sono servite prima dalla {@link ReplicaLocale},
+ * quando è pronta; dopo ogni commit le scritture vengono applicate anche alla replica.
+ * </p>
  */
 public class DAOTasks implements DAO<Tasks> {
 
@@ -28,6 +50,63 @@ public class DAOTasks implements DAO<Tasks> {
     private static DAOTasks dao = null;
     private static Logger logger = Logger.getLogger(DAOTasks.class.getName());
 
+    /** Tempo massimo di una lettura annullabile, oltre il quale il server la interrompe. */
+    private static final int TIMEOUT_SELECT_SECONDI = 30;
+
+    /** Numero massimo di risultati di lettura tenuti in cache. */
+    private static final int CAPACITA_CACHE = 64;
+    /** Risultati delle letture per filtro. Le liste in cache non vengono mai restituite direttamente, ma copiate. */
+    private static final CacheLRU<ChiaveCache, List<Tasks>> cache = new CacheLRU<>(CAPACITA_CACHE);
+    /** Incrementato a ogni invalidazione: una lettura iniziata prima non viene messa in cache. */
+    private static final AtomicLong epocaCache = new AtomicLong();
+
+    /**
+     * Chiave della cache: tipo di lettura, utente (per l'invalidazione) e firma con i campi normalizzati del filtro.
+     */
+    private static final class ChiaveCache {
+        final Integer idUtente;
+        final String firma;
+
+        ChiaveCache(Integer idUtente, String firma) {
+            this.idUtente = idUtente;
+            this.firma = firma;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ChiaveCache)) return false;
+            ChiaveCache k = (ChiaveCache) o;
+            return Objects.equals(idUtente, k.idUtente) && firma.equals(k.firma);
+        }
+
+        @Override
+        public int hashCode() { return Objects.hash(idUtente, firma); }
+    }
+
+    /** Numero di caratteri della descrizione letti dalla proiezione {@link Proiezione#ELENCO}. */
+    public static final int LUNGHEZZA_ANTEPRIMA = 160;
+
+    /**
+     * Colonne lette dalle query sui task.
+     * <p>
+     * {@link #ELENCO} serve a lista, griglia, calendario e promemoria: della descrizione legge solo
+     * un'anteprima di {@value #LUNGHEZZA_ANTEPRIMA} caratteri e segna il task con
+     * {@link Tasks#setDescrizioneCompleta(boolean)}. Il testo completo viene caricato quando il task
+     * viene aperto, insieme agli altri dati del pannello dettagli ({@link DAODettaglioTask}) o con
+     * {@link #selectDescrizione(int)}. {@link #COMPLETA} legge tutte le colonne.
+     * </p>
+     */
+    public enum Proiezione {
+        ELENCO("idTask, idUtente, idCategoria, titolo, scadenza, priorità, completamento, data_creazione, durataTotale, "
+                + "LEFT(descrizione, " + LUNGHEZZA_ANTEPRIMA + ") AS descrizione, "
+                + "CHAR_LENGTH(descrizione) > " + LUNGHEZZA_ANTEPRIMA + " AS troncata"),
+        COMPLETA("*");
+
+        private final String colonne;
+
+        Proiezione(String colonne) { this.colonne = colonne; }
+    }
+
     /**
      * Restituisce l'unica istanza (Singleton) della classe DAOTasks.
      * @return L'istanza singleton di DAOTasks.
@@ -51,6 +130,7 @@ public class DAOTasks implements DAO<Tasks> {
         Connection conn = null;
 
         try {
+            DAOSchema.ensureStatisticheUtente();
             st = DAOMySQLSettings.getStatement();
             conn = st.getConnection();
             conn.setAutoCommit(false);
@@ -59,9 +139,7 @@ public class DAOTasks implements DAO<Tasks> {
             String idCatVal = (t.getIdCategoria() != null && t.getIdCategoria() > 0) ? t.getIdCategoria().toString() : "NULL";
 
             // --- FIX SCADENZA ---
-            String scadenzaVal = (t.getScadenza() != null && !t.getScadenza().isEmpty() && !t.getScadenza().equalsIgnoreCase("null"))
-                    ? "'" + t.getScadenza() + "'"
-                    : "NULL";
+            String scadenzaVal = scadenzaSql(t);
 
             String query = "INSERT INTO Tasks (titolo, descrizione, scadenza, priorità, completamento, idUtente, idCategoria) VALUES ('"
                     + t.getTitolo().replace("'", "\\'") + "', '"
@@ -79,10 +157,16 @@ public class DAOTasks implements DAO<Tasks> {
             }
             rs.close();
 
+            DAOStatistics.getInstance().applyTaskDelta(st, t.getIdUtente(), t.getPriorita(),
+                    completatoInt == 1, t.getIdCategoria(), +1);
+            CodaScritture.registraChiave(st, t.getIdTask());
+
             AuditLog log = new AuditLog("INSERT", t.getIdTask(), t.getIdUtente(), "Creato task: " + t.getTitolo());
             DAOAuditLog.getInstance().insert(log, conn);
 
             conn.commit();
+            ReplicaLocale.getInstance().scriviTask(t);
+            invalidaCache(t.getIdUtente());
 
         } catch (SQLException e) {
             if (conn != null) try { conn.rollback(); } catch (SQLException ex) {}
@@ -95,6 +179,8 @@ public class DAOTasks implements DAO<Tasks> {
 
     /**
      * Aggiorna un Task esistente. Corregge il bug del salvataggio completamento per task senza data.
+     * Se il task contiene solo l'anteprima della descrizione ({@link Tasks#isDescrizioneCompleta()}),
+     * la descrizione sul database non viene modificata.
      * @param t Il task aggiornato.
      * @throws DAOException In caso di errore SQL o ID mancante.
      */
@@ -107,21 +193,25 @@ public class DAOTasks implements DAO<Tasks> {
         Connection conn = null;
 
         try {
+            DAOSchema.ensureStatisticheUtente();
+            DAOSchema.ensureTempoGiornaliero();
             st = DAOMySQLSettings.getStatement();
             conn = st.getConnection();
             conn.setAutoCommit(false);
 
+            Tasks precedente = selectForUpdate(st, t.getIdTask());
+
             int completatoInt = (t.getCompletamento() != null && t.getCompletamento()) ? 1 : 0;
             String idCatVal = (t.getIdCategoria() != null && t.getIdCategoria() > 0) ? t.getIdCategoria().toString() : "NULL";
 
             // --- FIX SCADENZA: Se vuota o null, usa la parola NULL di SQL senza apici ---
-            String scadenzaVal = (t.getScadenza() != null && !t.getScadenza().isEmpty() && !t.getScadenza().equalsIgnoreCase("null"))
-                    ? "'" + t.getScadenza() + "'"
-                    : "NULL";
+            String scadenzaVal = scadenzaSql(t);
 
             String query = "UPDATE Tasks SET "
                     + "titolo = '" + t.getTitolo().replace("'", "\\'") + "', "
-                    + "descrizione = '" + (t.getDescrizione() != null ? t.getDescrizione().replace("'", "\\'") : "") + "', "
+                    + (t.isDescrizioneCompleta()
+                        ? "descrizione = '" + (t.getDescrizione() != null ? t.getDescrizione().replace("'", "\\'") : "") + "', "
+                        : "") // descrizione letta solo come anteprima: quella sul database resta invariata
                     + "scadenza = " + scadenzaVal + ", " // Corretto: rimosso l'apice singolo fisso
                     + "priorità = '" + t.getPriorita() + "', "
                     + "idCategoria = " + idCatVal + ", "
@@ -130,10 +220,31 @@ public class DAOTasks implements DAO<Tasks> {
 
             st.executeUpdate(query);
 
+            if (precedente != null) {
+                Integer nuovaCategoria = (t.getIdCategoria() != null && t.getIdCategoria() > 0) ? t.getIdCategoria() : 0;
+                boolean invariato = equalsIgnoreCase(precedente.getPriorita(), t.getPriorita())
+                        && precedente.getCompletamento() == (completatoInt == 1)
+                        && precedente.getIdCategoria().equals(nuovaCategoria);
+                if (!invariato) {
+                    DAOStatistics stats = DAOStatistics.getInstance();
+                    stats.applyTaskDelta(st, precedente.getIdUtente(), precedente.getPriorita(),
+                            precedente.getCompletamento(), precedente.getIdCategoria(), -1);
+                    stats.applyTaskDelta(st, precedente.getIdUtente(), t.getPriorita(),
+                            completatoInt == 1, nuovaCategoria, +1);
+                }
+                if (!precedente.getIdCategoria().equals(nuovaCategoria)) {
+                    DAOStatistics.getInstance().moveTimeRollups(st, t.getIdTask(), nuovaCategoria);
+                }
+            }
+
+            CodaScritture.registraChiave(st, null);
+
             AuditLog log = new AuditLog("UPDATE", t.getIdTask(), t.getIdUtente(), "Modificato task.");
             DAOAuditLog.getInstance().insert(log, conn);
 
             conn.commit();
+            ReplicaLocale.getInstance().scriviTask(t);
+            invalidaCache(precedente != null ? precedente.getIdUtente() : t.getIdUtente());
 
         } catch (SQLException e) {
             if (conn != null) try { conn.rollback(); } catch (SQLException ex) {}
@@ -157,17 +268,38 @@ public class DAOTasks implements DAO<Tasks> {
         Connection conn = null;
 
         try {
+            DAOSchema.ensureStatisticheUtente();
+            DAOSchema.ensureTempoGiornaliero();
+            DAOSchema.ensureArchivioAllegati();
+            DAOSchema.ensureReplica();
             st = DAOMySQLSettings.getStatement();
             conn = st.getConnection();
             conn.setAutoCommit(false);
 
+            Tasks precedente = selectForUpdate(st, t.getIdTask());
+            DAOAllegati.getInstance().rilasciaContenutiTask(st, t.getIdTask());
+
             String query = "DELETE FROM Tasks WHERE idTask = " + t.getIdTask();
             st.executeUpdate(query);
 
+            if (precedente != null) {
+                DAOStatistics.getInstance().applyTaskDelta(st, precedente.getIdUtente(), precedente.getPriorita(),
+                        precedente.getCompletamento(), precedente.getIdCategoria(), -1);
+                DAOStatistics.getInstance().deleteTimeRollups(st, t.getIdTask());
+                // Traccia dell'eliminazione per la sincronizzazione delle repliche locali
+                st.executeUpdate("INSERT INTO " + DAOSchema.TASKS_ELIMINATI + " (idTask, idUtente) VALUES ("
+                        + t.getIdTask() + ", " + precedente.getIdUtente() + ") "
+                        + "ON DUPLICATE KEY UPDATE eliminatoIl = CURRENT_TIMESTAMP(3)");
+            }
+
+            CodaScritture.registraChiave(st, null);
+
             AuditLog log = new AuditLog("DELETE", t.getIdTask(), t.getIdUtente(), "Eliminato task.");
             DAOAuditLog.getInstance().insert(log, conn);
 
             conn.commit();
+            ReplicaLocale.getInstance().eliminaTask(precedente != null ? precedente.getIdUtente() : t.getIdUtente(), t.getIdTask());
+            invalidaCache(precedente != null ? precedente.getIdUtente() : t.getIdUtente());
 
         } catch (SQLException e) {
             if (conn != null) try { conn.rollback(); } catch (SQLException ex) {}
@@ -186,11 +318,44 @@ public class DAOTasks implements DAO<Tasks> {
      */
     @Override
     public List<Tasks> select(Tasks t) throws DAOException {
+        return select(t, Proiezione.COMPLETA, null);
+    }
+
+    /**
+     * Recupera i task filtrati come {@link #select(Tasks)}, leggendo solo le colonne della
+     * proiezione indicata. La lettura può essere interrotta tramite {@code annullamento} quando il
+     * risultato non serve più e ha comunque un tempo massimo di {@value #TIMEOUT_SELECT_SECONDI} secondi.
+     * Con la proiezione {@link Proiezione#ELENCO} la risposta arriva dalla {@link ReplicaLocale} se
+     * questa è in grado di darla.
+     *
+     * @param t            Task filtro.
+     * @param proiezione   Colonne da leggere.
+     * @param annullamento Gestore dell'annullamento (può essere null).
+     * @return Lista di task trovati.
+     * @throws DAOException Errore di lettura o richiesta annullata.
+     */
+    public List<Tasks> select(Tasks t, Proiezione proiezione, Annullamento annullamento) throws DAOException {
+        if (proiezione == Proiezione.ELENCO) {
+            List<Tasks> replica = ReplicaLocale.getInstance().seleziona(t);
+            if (replica != null) return replica;
+        }
+        ChiaveCache chiave = chiaveSelect(t, proiezione);
+        List<Tasks> inCache = cache.get(chiave);
+        logger.fine("Cache Tasks: " + cache);
+        if (inCache != null) return copia(inCache);
+        long epoca = epocaCache.get();
+
         ArrayList<Tasks> lista = new ArrayList<>();
         Statement st = null;
+        Connection conn = null;
         try {
+            DAOSchema.ensureDurataTotaleTasks();
+            if (annullamento != null) annullamento.verifica();
             st = DAOMySQLSettings.getStatement();
-            String sql = "SELECT * FROM Tasks WHERE 1=1 ";
+            conn = st.getConnection();
+            st.setQueryTimeout(TIMEOUT_SELECT_SECONDI);
+            if (annullamento != null) annullamento.registra(st);
+            String sql = "SELECT " + proiezione.colonne + " FROM Tasks WHERE 1=1 ";
 
             if (t != null) {
                 if (t.getTitolo() != null && !t.getTitolo().isEmpty()) {
@@ -201,25 +366,336 @@ public class DAOTasks implements DAO<Tasks> {
                 if (t.getIdCategoria() != null && t.getIdCategoria() > 0) sql += " AND idCategoria = " + t.getIdCategoria();
                 if (t.getCompletamento() != null) sql += " AND completamento = " + (t.getCompletamento() ? 1 : 0);
                 if (t.getIdUtente() != null && t.getIdUtente() > 0) sql += " AND idUtente = " + t.getIdUtente();
-                if (t.getScadenza() != null && !t.getScadenza().isEmpty()) sql += " AND scadenza = '" + t.getScadenza() + "'";
+                String scadenza = scadenzaFiltro(t.getScadenza());
+                if (scadenza != null) sql += " AND scadenza = '" + scadenza + "'";
             }
 
             ResultSet rs = st.executeQuery(sql);
             while (rs.next()) {
-                lista.add(new Tasks(
-                        rs.getString("titolo"), rs.getString("descrizione"), rs.getString("scadenza"),
-                        rs.getString("priorità"), rs.getString("data_creazione"), rs.getBoolean("completamento"),
-                        rs.getInt("idTask"), rs.getInt("idUtente"), rs.getInt("idCategoria")
-                ));
+                lista.add(mapRow(rs, proiezione));
             }
         } catch (SQLException sq) {
             throw new DAOException("Errore Select: " + sq.getMessage());
+        } finally {
+            if (annullamento != null) annullamento.rilascia();
+            DAOMySQLSettings.closeStatement(st);
+            if (conn != null) try { conn.close(); } catch (SQLException e) {}
+        }
+        metti(chiave, lista, epoca);
+        return lista;
+    }
+
+    /**
+     * Recupera i task non completati di un utente con scadenza entro la data indicata
+     * (compresi quelli già scaduti), ordinati dalla scadenza più vicina.
+     * <p>
+     * Il filtro e l'ordinamento avvengono sul database grazie all'indice
+     * {@code (idUtente, completamento, scadenza)}, così vengono trasferite solo le righe da mostrare.
+     * I task sono letti con la proiezione {@link Proiezione#ELENCO}; se la {@link ReplicaLocale} è
+     * pronta la lettura avviene in locale.
+     * </p>
+     *
+     * @param idUtente L'ID dell'utente.
+     * @param data     Ultima data di scadenza inclusa (es. domani).
+     * @param limite   Numero massimo di task da restituire.
+     * @return I task in scadenza.
+     * @throws DAOException Errore di lettura.
+     */
+    public List<Tasks> selectDueBefore(int idUtente, LocalDate data, int limite) throws DAOException {
+        List<Tasks> replica = ReplicaLocale.getInstance().selezionaScadenze(idUtente, data, limite);
+        if (replica != null) return replica;
+        ChiaveCache chiave = new ChiaveCache(idUtente, "scadenze|" + data + "|" + limite);
+        List<Tasks> inCache = cache.get(chiave);
+        if (inCache != null) return copia(inCache);
+        long epoca = epocaCache.get();
+
+        ArrayList<Tasks> lista = new ArrayList<>();
+        Statement st = null;
+        try {
+            DAOSchema.ensureDurataTotaleTasks();
+            DAOSchema.ensureIndiceScadenze();
+            st = DAOMySQLSettings.getStatement();
+            String sql = "SELECT " + Proiezione.ELENCO.colonne + " FROM Tasks WHERE idUtente = " + idUtente
+                    + " AND completamento = 0 AND scadenza IS NOT NULL AND scadenza <= '" + data + "'"
+                    + " ORDER BY scadenza, idTask LIMIT " + limite;
+
+            logger.info("SQL Select scadenze: " + sql);
+            ResultSet rs = st.executeQuery(sql);
+            while (rs.next()) {
+                lista.add(mapRow(rs, Proiezione.ELENCO));
+            }
+        } catch (SQLException sq) {
+            throw new DAOException("Errore Select scadenze: " + sq.getMessage());
         } finally {
             DAOMySQLSettings.closeStatement(st);
         }
+        metti(chiave, lista, epoca);
+        return lista;
+    }
+
+    /**
+     * Invalida i risultati in cache che possono contenere task dell'utente indicato
+     * (compresi quelli letti senza filtro per utente) e chiede alla {@link ReplicaLocale} di
+     * sincronizzarsi, per le modifiche che non applica direttamente (durata, categorie eliminate).
+     * @param idUtente L'ID dell'utente i cui task sono cambiati (null se non noto: si svuota tutta la cache).
+     */
+    static void invalidaCache(Integer idUtente) {
+        epocaCache.incrementAndGet();
+        if (idUtente == null) cache.clear();
+        else cache.removeIf(k -> k.idUtente == null || k.idUtente.equals(idUtente));
+        ReplicaLocale.getInstance().richiediSincronizzazione();
+    }
+
+    /**
+     * Legge, con la proiezione {@link Proiezione#ELENCO}, i task di un utente modificati dall'istante indicato.
+     * Usato dalla {@link ReplicaLocale}; richiede {@link DAOSchema#ensureReplica()}.
+     *
+     * @param st       Statement da usare.
+     * @param idUtente L'ID dell'utente.
+     * @param dal      Istante (epoch millis, orologio del database) da cui leggere; negativo per tutti i task.
+     * @return I task modificati.
+     * @throws SQLException In caso di errore SQL.
+     */
+    List<Tasks> selectModificati(Statement st, int idUtente, long dal) throws SQLException {
+        String sql = "SELECT " + Proiezione.ELENCO.colonne + " FROM Tasks WHERE idUtente = " + idUtente;
+        if (dal >= 0) sql += " AND aggiornatoIl >= " + istanteSql(dal);
+
+        List<Tasks> lista = new ArrayList<>();
+        ResultSet rs = st.executeQuery(sql);
+        while (rs.next()) {
+            lista.add(mapRow(rs, Proiezione.ELENCO));
+        }
+        rs.close();
         return lista;
     }
 
+    /**
+     * Legge le descrizioni complete dei task di un utente modificati dall'istante indicato, solo per
+     * quelli la cui descrizione supera l'anteprima di {@link Proiezione#ELENCO} (vedi {@link #selectModificati}).
+     *
+     * @param st       Statement da usare.
+     * @param idUtente L'ID dell'utente.
+     * @param dal      Istante (epoch millis, orologio del database) da cui leggere; negativo per tutti i task.
+     * @return Descrizione completa per ID task.
+     * @throws SQLException In caso di errore SQL.
+     */
+    Map<Integer, String> selectDescrizioniLunghe(Statement st, int idUtente, long dal) throws SQLException {
+        String sql = "SELECT idTask, descrizione FROM Tasks WHERE idUtente = " + idUtente
+                + " AND CHAR_LENGTH(descrizione) > " + LUNGHEZZA_ANTEPRIMA;
+        if (dal >= 0) sql += " AND aggiornatoIl >= " + istanteSql(dal);
+
+        Map<Integer, String> descrizioni = new HashMap<>();
+        ResultSet rs = st.executeQuery(sql);
+        while (rs.next()) {
+            descrizioni.put(rs.getInt("idTask"), rs.getString("descrizione"));
+        }
+        rs.close();
+        return descrizioni;
+    }
+
+    /** Istante in millisecondi come espressione SQL, interpretata nel fuso della sessione come le colonne TIMESTAMP. */
+    static String istanteSql(long millis) {
+        return "FROM_UNIXTIME(" + BigDecimal.valueOf(millis, 3).toPlainString() + ")";
+    }
+
+    /**
+     * Legge gli ID dei task di un utente eliminati dall'istante indicato (vedi {@link #selectModificati}).
+     *
+     * @param st       Statement da usare.
+     * @param idUtente L'ID dell'utente.
+     * @param dal      Istante (epoch millis, orologio del database) da cui leggere.
+     * @return Gli ID dei task eliminati.
+     * @throws SQLException In caso di errore SQL.
+     */
+    List<Integer> selectEliminati(Statement st, int idUtente, long dal) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        ResultSet rs = st.executeQuery("SELECT idTask FROM " + DAOSchema.TASKS_ELIMINATI + " WHERE idUtente = " + idUtente
+                + " AND eliminatoIl >= " + istanteSql(Math.max(0, dal)));
+        while (rs.next()) {
+            ids.add(rs.getInt("idTask"));
+        }
+        rs.close();
+        return ids;
+    }
+
+    /**
+     * Restituisce le metriche della cache delle letture (voci, hit, miss, eviction, invalidazioni).
+     * @return Descrizione delle metriche.
+     */
+    public String getMetricheCache() {
+        return cache.toString();
+    }
+
+    /**
+     * Costruisce la chiave di cache di una {@code select}: contiene solo i campi che la query usa,
+     * normalizzati come li interpreta il database (priorità e parola chiave senza distinzione di maiuscole).
+     */
+    private static ChiaveCache chiaveSelect(Tasks t, Proiezione proiezione) {
+        Integer idUtente = null;
+        StringBuilder firma = new StringBuilder("select|").append(proiezione);
+        if (t != null) {
+            if (t.getIdUtente() != null && t.getIdUtente() > 0) idUtente = t.getIdUtente();
+            if (t.getTitolo() != null && !t.getTitolo().isEmpty()) firma.append("|k=").append(t.getTitolo().toLowerCase());
+            if (t.getPriorita() != null && !t.getPriorita().isEmpty()) firma.append("|p=").append(t.getPriorita().toLowerCase());
+            if (t.getIdCategoria() != null && t.getIdCategoria() > 0) firma.append("|c=").append(t.getIdCategoria());
+            if (t.getCompletamento() != null) firma.append("|s=").append(t.getCompletamento());
+            String scadenza = scadenzaFiltro(t.getScadenza());
+            if (scadenza != null) firma.append("|d=").append(scadenza);
+        }
+        return new ChiaveCache(idUtente, firma.toString());
+    }
+
+    /** Mette in cache una copia del risultato, se nel frattempo non ci sono state scritture. */
+    private static void metti(ChiaveCache chiave, List<Tasks> lista, long epoca) {
+        if (epocaCache.get() == epoca) cache.put(chiave, copia(lista));
+    }
+
+    /** Copia una lista di task, così le modifiche fatte dalla UI non alterano la cache. */
+    private static List<Tasks> copia(List<Tasks> lista) {
+        List<Tasks> copie = new ArrayList<>(lista.size());
+        for (Tasks t : lista) {
+            Tasks c = new Tasks(t.getTitolo(), t.getDescrizione(), t.getScadenza(), t.getPriorita(), t.getData_creazione(),
+                    t.getCompletamento(), t.getIdTask(), t.getIdUtente(), t.getIdCategoria());
+            c.setDurataTotale(t.getDurataTotale());
+            c.setDescrizioneCompleta(t.isDescrizioneCompleta());
+            copie.add(c);
+        }
+        return copie;
+    }
+
+    /**
+     * Legge la descrizione completa di un task (per i task caricati con {@link Proiezione#ELENCO}).
+     * @param idTask L'ID del task.
+     * @return La descrizione, oppure null se assente.
+     * @throws DAOException Errore di lettura.
+     */
+    public String selectDescrizione(int idTask) throws DAOException {
+        Statement st = null;
+        try {
+            st = DAOMySQLSettings.getStatement();
+            ResultSet rs = st.executeQuery("SELECT descrizione FROM Tasks WHERE idTask = " + idTask);
+            return rs.next() ? rs.getString("descrizione") : null;
+        } catch (SQLException sq) {
+            throw new DAOException("Errore Select descrizione: " + sq.getMessage());
+        } finally {
+            DAOMySQLSettings.closeStatement(st);
+        }
+    }
+
+    /**
+     * Tra i task indicati restituisce quelli la cui descrizione completa contiene il testo cercato.
+     * Serve alla ricerca per parola chiave sui task di cui è stata letta solo l'anteprima.
+     *
+     * @param idTasks Gli ID dei task da controllare.
+     * @param testo   Il testo da cercare.
+     * @return Gli ID dei task che contengono il testo.
+     * @throws DAOException Errore di lettura.
+     */
+    public Set<Integer> selectIdDescrizioneContiene(Collection<Integer> idTasks, String testo) throws DAOException {
+        Set<Integer> trovati = new HashSet<>();
+        if (idTasks == null || idTasks.isEmpty() || testo == null || testo.isEmpty()) return trovati;
+
+        String k = testo.replace("\\", "\\\\").replace("'", "\\'").replace("%", "\\%").replace("_", "\\_");
+        String ids = idTasks.stream().map(String::valueOf).collect(Collectors.joining(","));
+        Statement st = null;
+        try {
+            st = DAOMySQLSettings.getStatement();
+            ResultSet rs = st.executeQuery("SELECT idTask FROM Tasks WHERE idTask IN (" + ids + ") "
+                    + "AND descrizione LIKE '%" + k + "%'");
+            while (rs.next()) {
+                trovati.add(rs.getInt("idTask"));
+            }
+        } catch (SQLException sq) {
+            throw new DAOException("Errore ricerca descrizione: " + sq.getMessage());
+        } finally {
+            DAOMySQLSettings.closeStatement(st);
+        }
+        return trovati;
+    }
+
+    /**
+     * Converte la riga corrente del ResultSet in un oggetto {@link Tasks}.
+     * @param rs         ResultSet posizionato su una riga di Tasks.
+     * @param proiezione Proiezione con cui è stata letta la riga.
+     * @return Il task letto.
+     * @throws SQLException In caso di errore di lettura.
+     */
+    private Tasks mapRow(ResultSet rs, Proiezione proiezione) throws SQLException {
+        Tasks task = new Tasks(
+                rs.getString("titolo"), rs.getString("descrizione"), rs.getString("scadenza"),
+                rs.getString("priorità"), rs.getString("data_creazione"), rs.getBoolean("completamento"),
+                rs.getInt("idTask"), rs.getInt("idUtente"), rs.getInt("idCategoria")
+        );
+        task.setDurataTotale(rs.getLong("durataTotale"));
+        if (proiezione == Proiezione.ELENCO) task.setDescrizioneCompleta(!rs.getBoolean("troncata"));
+        return task;
+    }
+
+    /**
+     * Legge (bloccando la riga fino al commit) i campi del task che alimentano i contatori statistici.
+     * Va chiamato all'interno di una transazione, prima di modificare o eliminare il task.
+     *
+     * @param st     Statement della transazione in corso.
+     * @param idTask ID del task.
+     * @return Un task con solo priorità, completamento, categoria e utente valorizzati, oppure null se non esiste.
+     * @throws SQLException In caso di errore SQL.
+     */
+    private Tasks selectForUpdate(Statement st, int idTask) throws SQLException {
+        ResultSet rs = st.executeQuery("SELECT priorità, completamento, idCategoria, idUtente FROM Tasks "
+                + "WHERE idTask = " + idTask + " FOR UPDATE");
+        Tasks precedente = null;
+        if (rs.next()) {
+            precedente = new Tasks(null, null, null, rs.getString("priorità"), null,
+                    rs.getBoolean("completamento"), idTask, rs.getInt("idUtente"), rs.getInt("idCategoria"));
+        }
+        rs.close();
+        return precedente;
+    }
+
+    private static boolean equalsIgnoreCase(String a, String b) {
+        if (a == null || a.isEmpty()) return b == null || b.isEmpty();
+        return a.equalsIgnoreCase(b);
+    }
+
+    /**
+     * Restituisce la scadenza del task pronta per la query: sempre nel formato ISO {@code 'yyyy-MM-dd'}
+     * (anche se il task la contiene come {@code dd-MM-yyyy}), oppure {@code NULL} se assente.
+     * Il formato unico permette di confrontare e ordinare le scadenze direttamente sul database.
+     * Va chiamato dopo {@link #verifyObject(Tasks)}.
+     * @param t Il task.
+     * @return Il valore SQL della scadenza.
+     */
+    private static String scadenzaSql(Tasks t) {
+        String scadenza = scadenzaIso(t.getScadenza());
+        return scadenza == null ? "NULL" : "'" + scadenza + "'";
+    }
+
+    /**
+     * Porta una scadenza nel formato ISO {@code yyyy-MM-dd} (accetta anche {@code dd-MM-yyyy}).
+     * @param scadenza La scadenza come salvata nel task.
+     * @return La scadenza in formato ISO, oppure null se assente.
+     * @throws DateTimeParseException Se la data non è in uno dei due formati.
+     */
+    static String scadenzaIso(String scadenza) {
+        if (scadenza == null || scadenza.isEmpty() || scadenza.equalsIgnoreCase("null")) return null;
+        LocalDate data = scadenza.matches("\\d{4}-\\d{2}-\\d{2}")
+                ? LocalDate.parse(scadenza)
+                : LocalDate.parse(scadenza, DateTimeFormatter.ofPattern("dd-MM-yyyy"));
+        return data.toString();
+    }
+
+    /**
+     * Scadenza di un filtro nel formato salvato sul database, così {@code dd-MM-yyyy} e ISO trovano
+     * le stesse righe e producono la stessa chiave di cache. Un valore non riconosciuto resta invariato.
+     */
+    private static String scadenzaFiltro(String scadenza) {
+        try {
+            return scadenzaIso(scadenza);
+        } catch (DateTimeParseException e) {
+            return scadenza;
+        }
+    }
+
     /**
      * Valida la struttura del task prima di procedere con le operazioni DB.
      * @param t Task da verificare.
@@ -8,7 +8,10 @@ import java.sql.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 /**
@@ -25,6 +28,17 @@ import java.util.logging.Logger;
  * Questo previene disallineamenti tra il tempo visualizzato nel timer dell'interfaccia
  * e il tempo effettivamente registrato nel database.
  * </p>
+ * <p>
+ * Chiusura, modifica ed eliminazione di una sessione avvengono in transazione insieme
+ * all'aggiornamento del totale {@code Tasks.durataTotale} e dei riepiloghi giornalieri di
+ * {@code TempoGiornaliero} usati dalle statistiche: il contributo precedente della sessione
+ * viene sottratto e quello nuovo sommato.
+ * </p>
+ * <p>
+ * Le letture dello storico di un task e del suo tempo totale sono servite dalla {@link ReplicaLocale}
+ * quando conosce il task; dopo il commit le scritture vengono applicate anche alla replica, che
+ * aggiorna il tempo totale del task allo stesso modo.
+ * </p>
  */
 public class DAOTimerSessions implements DAO<TimerSessions> {
 
@@ -58,6 +72,10 @@ public class DAOTimerSessions implements DAO<TimerSessions> {
      */
     @Override
     public List<TimerSessions> select(TimerSessions t) throws DAOException {
+        if (t != null && t.getIdTask() > 0 && (t.getNome() == null || t.getNome().isEmpty())) {
+            List<TimerSessions> replica = ReplicaLocale.getInstance().sessioni(t.getIdTask(), null, Integer.MAX_VALUE);
+            if (replica != null) return replica;
+        }
         ArrayList<TimerSessions> lista = new ArrayList<>();
         Statement st = null;
         try {
@@ -78,19 +96,7 @@ public class DAOTimerSessions implements DAO<TimerSessions> {
             ResultSet rs = st.executeQuery(sql);
 
             while (rs.next()) {
-                Timestamp tsInizio = rs.getTimestamp("inizio");
-                Timestamp tsFine = rs.getTimestamp("fine");
-                LocalDateTime inizio = (tsInizio != null) ? tsInizio.toLocalDateTime() : null;
-                LocalDateTime fine = (tsFine != null) ? tsFine.toLocalDateTime() : null;
-
-                lista.add(new TimerSessions(
-                        rs.getString("nome"),
-                        inizio,
-                        fine,
-                        rs.getLong("durata"),
-                        rs.getInt("idSession"),
-                        rs.getInt("idTask")
-                ));
+                lista.add(mapRow(rs));
             }
         } catch (SQLException e) {
             throw new DAOException("Errore select TimerSession: " + e.getMessage());
@@ -100,6 +106,97 @@ public class DAOTimerSessions implements DAO<TimerSessions> {
         return lista;
     }
 
+    /**
+     * Recupera una pagina dello storico sessioni di un task, dalla più recente alla più vecchia.
+     * <p>
+     * La paginazione è "a chiave" su {@code (inizio, idSession)}: invece di {@code OFFSET}, la pagina
+     * successiva parte dall'ultima sessione già mostrata ({@code dopo}). Con l'indice
+     * {@code (idTask, inizio, idSession)} ogni pagina costa lo stesso, indipendentemente da quante
+     * sessioni precedono, e l'inserimento di nuove sessioni non sposta le pagine già lette.
+     * </p>
+     *
+     * @param idTask L'ID del task.
+     * @param dopo   Ultima sessione della pagina precedente, oppure null per la prima pagina.
+     * @param limite Numero massimo di sessioni da restituire.
+     * @return Le sessioni della pagina (vuota se lo storico è terminato).
+     * @throws DAOException In caso di errori SQL.
+     */
+    public List<TimerSessions> selectPage(int idTask, TimerSessions dopo, int limite) throws DAOException {
+        List<TimerSessions> replica = ReplicaLocale.getInstance().sessioni(idTask, dopo, limite);
+        if (replica != null) return replica;
+        ArrayList<TimerSessions> lista = new ArrayList<>();
+        Statement st = null;
+        try {
+            DAOSchema.ensureIndiceSessioniTask();
+            st = DAOMySQLSettings.getStatement();
+            String sql = "SELECT * FROM TimerSessions WHERE idTask = " + idTask;
+
+            if (dopo != null && dopo.getInizio() != null) {
+                String cursore = "'" + dopo.getInizio().format(SQL_FMT) + "'";
+                sql += " AND (inizio < " + cursore
+                        + " OR (inizio = " + cursore + " AND idSession < " + dopo.getIdSession() + "))";
+            }
+            sql += " ORDER BY inizio DESC, idSession DESC LIMIT " + limite;
+
+            logger.info("SQL Select pagina TimerSession: " + sql);
+            ResultSet rs = st.executeQuery(sql);
+
+            while (rs.next()) {
+                lista.add(mapRow(rs));
+            }
+        } catch (SQLException e) {
+            throw new DAOException("Errore select pagina TimerSession: " + e.getMessage());
+        } finally {
+            DAOMySQLSettings.closeStatement(st);
+        }
+        return lista;
+    }
+
+    /**
+     * Recupera una singola sessione tramite chiave primaria.
+     *
+     * @param idSession L'ID della sessione.
+     * @return La sessione, oppure null se non esiste.
+     * @throws DAOException In caso di errori SQL.
+     */
+    public TimerSessions selectById(int idSession) throws DAOException {
+        TimerSessions replica = ReplicaLocale.getInstance().sessione(idSession);
+        if (replica != null) return replica;
+        Statement st = null;
+        try {
+            st = DAOMySQLSettings.getStatement();
+            ResultSet rs = st.executeQuery("SELECT * FROM TimerSessions WHERE idSession = " + idSession);
+            return rs.next() ? mapRow(rs) : null;
+        } catch (SQLException e) {
+            throw new DAOException("Errore select TimerSession: " + e.getMessage());
+        } finally {
+            DAOMySQLSettings.closeStatement(st);
+        }
+    }
+
+    /**
+     * Converte la riga corrente del ResultSet in un oggetto {@link TimerSessions}.
+     *
+     * @param rs ResultSet posizionato su una riga di TimerSessions.
+     * @return La sessione letta.
+     * @throws SQLException In caso di errore di lettura.
+     */
+    private TimerSessions mapRow(ResultSet rs) throws SQLException {
+        Timestamp tsInizio = rs.getTimestamp("inizio");
+        Timestamp tsFine = rs.getTimestamp("fine");
+        LocalDateTime inizio = (tsInizio != null) ? tsInizio.toLocalDateTime() : null;
+        LocalDateTime fine = (tsFine != null) ? tsFine.toLocalDateTime() : null;
+
+        return new TimerSessions(
+                rs.getString("nome"),
+                inizio,
+                fine,
+                rs.getLong("durata"),
+                rs.getInt("idSession"),
+                rs.getInt("idTask")
+        );
+    }
+
     /**
      * Inserisce una nuova sessione di timer nel database (START).
      * <p>
@@ -115,8 +212,11 @@ public class DAOTimerSessions implements DAO<TimerSessions> {
         if (t == null || t.getIdTask() <= 0) throw new DAOException("Dati sessione non validi");
 
         Statement st = null;
+        Connection conn = null;
         try {
             st = DAOMySQLSettings.getStatement();
+            conn = st.getConnection();
+            conn.setAutoCommit(false);
             String nomeSafe = (t.getNome() != null) ? t.getNome().replace("'", "\\'") : "";
 
             // Determina se usare l'orario Java (preciso) o Server (fallback)
@@ -141,10 +241,15 @@ public class DAOTimerSessions implements DAO<TimerSessions> {
             }
             if (rs != null) rs.close();
 
+            CodaScritture.registraChiave(st, t.getIdSession());
+            conn.commit();
+            ReplicaLocale.getInstance().scriviSessione(t);
         } catch (SQLException e) {
+            if (conn != null) try { conn.rollback(); } catch (SQLException ex) {}
             throw new DAOException("Errore insert TimerSession: " + e.getMessage());
         } finally {
             DAOMySQLSettings.closeStatement(st);
+            if (conn != null) try { conn.close(); } catch (SQLException e) {}
         }
     }
 
@@ -162,13 +267,29 @@ public class DAOTimerSessions implements DAO<TimerSessions> {
         logger.info("SQL Delete TimerSession: " + query);
 
         Statement st = null;
+        Connection conn = null;
         try {
+            DAOSchema.ensureTempoGiornaliero();
+            DAOSchema.ensureDurataTotaleTasks();
+            DAOSchema.ensureReplica();
             st = DAOMySQLSettings.getStatement();
+            conn = st.getConnection();
+            conn.setAutoCommit(false);
+
+            int idUtente = applyRollup(st, t.getIdSession(), -1);
+            ReplicaLocale.registraEliminazione(st, "TimerSessions", "idSession", t.getIdSession());
             st.executeUpdate(query);
+            CodaScritture.registraChiave(st, null);
+
+            conn.commit();
+            ReplicaLocale.getInstance().eliminaSessione(t.getIdSession());
+            if (idUtente > 0) DAOTasks.invalidaCache(idUtente);
         } catch (SQLException e) {
+            if (conn != null) try { conn.rollback(); } catch (SQLException ex) {}
             throw new DAOException("Errore delete TimerSession: " + e.getMessage());
         } finally {
             DAOMySQLSettings.closeStatement(st);
+            if (conn != null) try { conn.close(); } catch (SQLException e) {}
         }
     }
 
@@ -186,8 +307,13 @@ public class DAOTimerSessions implements DAO<TimerSessions> {
         if (t == null || t.getIdSession() <= 0) throw new DAOException("ID Sessione mancante per update");
 
         Statement st = null;
+        Connection conn = null;
         try {
+            DAOSchema.ensureTempoGiornaliero();
+            DAOSchema.ensureDurataTotaleTasks();
             st = DAOMySQLSettings.getStatement();
+            conn = st.getConnection();
+            conn.setAutoCommit(false);
 
             String nomeSafe = (t.getNome() != null) ? t.getNome().replace("'", "\\'") : "";
 
@@ -207,12 +333,19 @@ public class DAOTimerSessions implements DAO<TimerSessions> {
             query += " WHERE idSession = " + t.getIdSession();
 
             logger.info("SQL Update TimerSession: " + query);
+            int idUtente = Math.max(applyRollup(st, t.getIdSession(), -1), 0);
             st.executeUpdate(query);
+            idUtente = Math.max(applyRollup(st, t.getIdSession(), +1), idUtente);
 
+            conn.commit();
+            ReplicaLocale.getInstance().scriviSessione(t);
+            if (idUtente > 0) DAOTasks.invalidaCache(idUtente);
         } catch (SQLException e) {
+            if (conn != null) try { conn.rollback(); } catch (SQLException ex) {}
             throw new DAOException("Errore update TimerSession: " + e.getMessage());
         } finally {
             DAOMySQLSettings.closeStatement(st);
+            if (conn != null) try { conn.close(); } catch (SQLException e) {}
         }
     }
 
@@ -231,8 +364,13 @@ public class DAOTimerSessions implements DAO<TimerSessions> {
         if (idSession <= 0) throw new DAOException("ID Sessione non valido.");
 
         Statement st = null;
+        Connection conn = null;
         try {
+            DAOSchema.ensureTempoGiornaliero();
+            DAOSchema.ensureDurataTotaleTasks();
             st = DAOMySQLSettings.getStatement();
+            conn = st.getConnection();
+            conn.setAutoCommit(false);
 
             // Usa l'orario passato da Java
             String endStr = (endLocalTime != null) ? "'" + endLocalTime.format(SQL_FMT) + "'" : "NOW()";
@@ -243,36 +381,165 @@ public class DAOTimerSessions implements DAO<TimerSessions> {
                     "WHERE idSession = " + idSession;
 
             logger.info("SQL Stop Timer: " + query);
+            int idUtente = Math.max(applyRollup(st, idSession, -1), 0);
             st.executeUpdate(query);
+            idUtente = Math.max(applyRollup(st, idSession, +1), idUtente);
 
+            conn.commit();
+            ReplicaLocale.getInstance().chiudiSessione(idSession, endLocalTime != null ? endLocalTime : LocalDateTime.now());
+            if (idUtente > 0) DAOTasks.invalidaCache(idUtente);
         } catch (SQLException e) {
+            if (conn != null) try { conn.rollback(); } catch (SQLException ex) {}
             throw new DAOException("Errore stop timer: " + e.getMessage());
         } finally {
             DAOMySQLSettings.closeStatement(st);
+            if (conn != null) try { conn.close(); } catch (SQLException e) {}
         }
     }
 
     /**
-     * Calcola il tempo totale speso su un task specifico.
+     * Chiude in un'unica transazione le sessioni rimaste aperte da un'esecuzione interrotta.
+     * <p>
+     * Usato al riavvio dal diario dei timer ({@code DiarioTimer}): le sessioni già chiuse o non più
+     * presenti vengono ignorate, così il recupero si può ripetere senza alterare i totali. Un orario
+     * di fine precedente all'inizio viene portato all'inizio (durata zero).
+     * </p>
+     *
+     * @param fini Orario di fine per ogni ID di sessione.
+     * @return Gli ID delle sessioni effettivamente chiuse.
+     * @throws DAOException In caso di errori SQL: nessuna sessione viene chiusa.
+     */
+    public Set<Integer> stopSessions(Map<Integer, LocalDateTime> fini) throws DAOException {
+        Set<Integer> chiuse = new HashSet<>();
+        if (fini.isEmpty()) return chiuse;
+
+        Statement st = null;
+        Connection conn = null;
+        try {
+            DAOSchema.ensureTempoGiornaliero();
+            DAOSchema.ensureDurataTotaleTasks();
+            st = DAOMySQLSettings.getStatement();
+            conn = st.getConnection();
+            conn.setAutoCommit(false);
+
+            Set<Integer> utenti = new HashSet<>();
+            for (Map.Entry<Integer, LocalDateTime> e : fini.entrySet()) {
+                if (e.getKey() <= 0 || e.getValue() == null) continue;
+                String endStr = "'" + e.getValue().format(SQL_FMT) + "'";
+                int n = st.executeUpdate("UPDATE TimerSessions SET " +
+                        "fine = GREATEST(inizio, " + endStr + "), " +
+                        "durata = GREATEST(TIMESTAMPDIFF(SECOND, inizio, " + endStr + "), 0) " +
+                        "WHERE idSession = " + e.getKey() + " AND fine IS NULL");
+                if (n == 0) continue;
+                // La sessione era aperta: il contributo precedente ai totali è nullo
+                int idUtente = applyRollup(st, e.getKey(), +1);
+                if (idUtente > 0) utenti.add(idUtente);
+                chiuse.add(e.getKey());
+            }
+
+            conn.commit();
+            logger.info("Sessioni timer recuperate e chiuse: " + chiuse);
+            for (Integer id : chiuse) ReplicaLocale.getInstance().chiudiSessione(id, fini.get(id));
+            for (int idUtente : utenti) DAOTasks.invalidaCache(idUtente);
+        } catch (SQLException e) {
+            if (conn != null) try { conn.rollback(); } catch (SQLException ex) {}
+            throw new DAOException("Errore chiusura sessioni interrotte: " + e.getMessage());
+        } finally {
+            DAOMySQLSettings.closeStatement(st);
+            if (conn != null) try { conn.close(); } catch (SQLException e) {}
+        }
+        return chiuse;
+    }
+
+    /**
+     * Somma ({@code segno = +1}) o sottrae ({@code segno = -1}) il contributo attuale di una sessione
+     * al tempo totale del suo task e al relativo riepilogo giornaliero. Le sessioni ancora aperte
+     * non contribuiscono.
+     * <p>
+     * La lettura blocca la sessione e il task fino al commit, così una modifica concorrente
+     * della categoria non può far finire il tempo sotto la chiave sbagliata.
+     * </p>
+     *
+     * @param st        Statement della transazione in corso.
+     * @param idSession ID della sessione.
+     * @param segno     +1 o -1.
+     * @return L'ID dell'utente proprietario se il totale è stato modificato (per invalidare la cache
+     *         di {@link DAOTasks} dopo il commit), altrimenti -1.
+     * @throws SQLException In caso di errore SQL.
+     */
+    private int applyRollup(Statement st, int idSession, int segno) throws SQLException {
+        ResultSet rs = st.executeQuery("SELECT ts.idTask, ts.inizio, ts.fine, ts.durata, t.idUtente, t.idCategoria "
+                + "FROM TimerSessions ts JOIN Tasks t ON ts.idTask = t.idTask "
+                + "WHERE ts.idSession = " + idSession + " FOR UPDATE");
+        if (rs.next()) {
+            Timestamp inizio = rs.getTimestamp("inizio");
+            if (inizio != null && rs.getTimestamp("fine") != null) {
+                int idTask = rs.getInt("idTask");
+                int idUtente = rs.getInt("idUtente");
+                int idCategoria = rs.getInt("idCategoria"); // 0 se NULL
+                long durata = rs.getLong("durata");
+                rs.close();
+                st.executeUpdate("UPDATE Tasks SET durataTotale = durataTotale + " + (segno * durata)
+                        + " WHERE idTask = " + idTask);
+                DAOStatistics.getInstance().applyTimeDelta(st, idUtente, idCategoria, idTask,
+                        inizio.toLocalDateTime().toLocalDate(), segno * durata);
+                return idUtente;
+            }
+        }
+        rs.close();
+        return -1;
+    }
+
+    /**
+     * Legge le sessioni dei task di un utente modificate dall'istante indicato.
+     * Usato dalla {@link ReplicaLocale}; richiede {@link DAOSchema#ensureReplica()}.
+     *
+     * @param st       Statement da usare.
+     * @param idUtente L'ID dell'utente.
+     * @param dal      Istante (epoch millis, orologio del database) da cui leggere; negativo per tutte le sessioni.
+     * @return Le sessioni modificate.
+     * @throws SQLException In caso di errore SQL.
+     */
+    List<TimerSessions> selectModificate(Statement st, int idUtente, long dal) throws SQLException {
+        String sql = "SELECT ts.* FROM TimerSessions ts JOIN Tasks t ON t.idTask = ts.idTask WHERE t.idUtente = " + idUtente;
+        if (dal >= 0) sql += " AND ts.aggiornatoIl >= " + DAOTasks.istanteSql(dal);
+
+        List<TimerSessions> lista = new ArrayList<>();
+        ResultSet rs = st.executeQuery(sql);
+        while (rs.next()) {
+            lista.add(mapRow(rs));
+        }
+        rs.close();
+        return lista;
+    }
+
+    /**
+     * Restituisce il tempo totale speso su un task specifico.
+     * <p>
+     * Legge il totale mantenuto in {@code Tasks.durataTotale} (lookup per chiave primaria)
+     * invece di sommare tutte le sessioni del task; se la {@link ReplicaLocale} conosce il task
+     * il totale arriva da lì.
+     * </p>
      *
      * @param idTask L'ID del task.
      * @return La somma delle durate in secondi (long).
      * @throws DAOException In caso di errori SQL.
      */
     public long getSommaDurataPerTask(int idTask) throws DAOException {
+        Long replica = ReplicaLocale.getInstance().durataTotale(idTask);
+        if (replica != null) return replica;
         Statement st = null;
         long totaleSecondi = 0;
 
         try {
+            DAOSchema.ensureDurataTotaleTasks();
             st = DAOMySQLSettings.getStatement();
-            String sql = "SELECT SUM(TIMESTAMPDIFF(SECOND, inizio, fine)) as totale " +
-                    "FROM TimerSessions " +
-                    "WHERE idTask = " + idTask + " AND fine IS NOT NULL";
+            String sql = "SELECT durataTotale FROM Tasks WHERE idTask = " + idTask;
 
             ResultSet rs = st.executeQuery(sql);
 
             if (rs.next()) {
-                totaleSecondi = rs.getLong("totale");
+                totaleSecondi = rs.getLong("durataTotale");
             }
             rs.close();
 
@@ -134,6 +134,7 @@ public class DAOUtenti implements DAO<Utenti> {
 
         logger.info("SQL Delete: " + query);
         executeUpdate(query);
+        DAOTasks.invalidaCache(u.getIdUtente());
     }
 
     /**
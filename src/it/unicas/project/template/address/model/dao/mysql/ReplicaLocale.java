@@ -0,0 +1,841 @@
+package it.unicas.project.template.address.model.dao.mysql;
+
+import it.unicas.project.template.address.model.Allegati;
+import it.unicas.project.template.address.model.Categorie;
+import it.unicas.project.template.address.model.DettaglioTask;
+import it.unicas.project.template.address.model.SubTasks;
+import it.unicas.project.template.address.model.Tasks;
+import it.unicas.project.template.address.model.TimerSessions;
+import it.unicas.project.template.address.model.dao.DAOException;
+import it.unicas.project.template.address.util.SnapshotLocale;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Replica locale in sola lettura dei task, delle categorie, dell'avanzamento delle checklist e dei
+ * dettagli dei task (descrizioni complete, subtask, sessioni del timer e allegati) dell'utente
+ * corrente, sincronizzata in background con MySQL.
+ * <p>
+ * Le letture della lista principale ({@link DAOTasks#select(Tasks, DAOTasks.Proiezione, Annullamento)}
+ * con proiezione {@link DAOTasks.Proiezione#ELENCO}, {@link DAOTasks#selectDueBefore(int, LocalDate, int)}
+ * e {@link DAOSubTasks#countByTask(Collection)}) e quelle del pannello dettagli ({@link DAODettaglioTask},
+ * storico e tempo totale di {@link DAOTimerSessions}, checklist di {@link DAOSubTasks}, allegati di
+ * {@link DAOAllegati}) vengono servite da qui senza andare in rete; se la replica non è pronta, il
+ * task è di un altro utente o il filtro non è supportato (ricerca per parola chiave) i DAO leggono dal
+ * database come prima. Le scritture vanno sempre su MySQL e, dopo il commit, vengono applicate
+ * anche alla replica, così chi scrive rilegge subito i propri dati; quelle messe in coda da
+ * {@link CodaScritture} vengono applicate alla replica con gli ID provvisori.
+ * </p>
+ * <p>
+ * La sincronizzazione è incrementale: ogni {@value #INTERVALLO_SECONDI} secondi (e subito dopo una
+ * scrittura) legge solo le righe con {@code aggiornatoIl} successivo al watermark e gli ID registrati in
+ * {@code TasksEliminati} e {@code DettagliEliminati}. Il watermark è l'ora del database all'inizio del giro precedente e viene
+ * arretrato di {@value #SOVRAPPOSIZIONE_MS} ms, per non perdere le transazioni che hanno fatto il
+ * commit dopo la lettura: rileggere una riga già nota non ha effetti. Il confronto avviene sempre con
+ * l'orologio del database, mai con quello locale.
+ * </p>
+ * <p>
+ * Il contenuto viene salvato con {@link SnapshotLocale} insieme al watermark: all'avvio la replica è
+ * subito pronta dal file e riprende la sincronizzazione da dove era arrivata. Se il database non è
+ * raggiungibile la replica continua a servire gli ultimi dati noti ({@link #isInLinea()} diventa false).
+ * </p>
+ */
+public class ReplicaLocale {
+
+    private static final Logger logger = Logger.getLogger(ReplicaLocale.class.getName());
+
+    /** Intervallo tra due sincronizzazioni periodiche. */
+    static final long INTERVALLO_SECONDI = 30;
+
+    /** Finestra riletta a ogni giro prima del watermark. */
+    static final long SOVRAPPOSIZIONE_MS = 60_000;
+
+    /** Conservazione di {@code TasksEliminati}: una replica ferma da più tempo viene ricaricata per intero. */
+    static final int CONSERVAZIONE_ELIMINATI_GIORNI = 30;
+
+    /** Ordine dello storico del timer: dalla sessione più recente, come {@link DAOTimerSessions#selectPage(int, TimerSessions, int)}. */
+    private static final Comparator<TimerSessions> ORDINE_SESSIONI = Comparator
+            .comparing(TimerSessions::getInizio, Comparator.nullsLast(Comparator.reverseOrder()))
+            .thenComparing(TimerSessions::getIdSession, Comparator.reverseOrder());
+
+    private static ReplicaLocale instance = null;
+
+    private final SnapshotLocale file;
+    private final List<Runnable> ascoltatori = new CopyOnWriteArrayList<>();
+    /** Evita di accodare più sincronizzazioni richieste dalle scritture. */
+    private final AtomicBoolean sincronizzazioneRichiesta = new AtomicBoolean();
+    /** Un solo giro di sincronizzazione alla volta. */
+    private final Object giro = new Object();
+
+    private ScheduledExecutorService executor;
+
+    // Stato della replica, protetto da this
+    private Integer idUtente;
+    private final Map<Integer, Tasks> tasks = new HashMap<>();
+    private List<Categorie> categorie = new ArrayList<>();
+    /** Descrizioni complete dei task di cui {@link #tasks} ha solo l'anteprima. */
+    private final Map<Integer, String> descrizioni = new HashMap<>();
+    private final Map<Integer, SubTasks> subTasks = new HashMap<>();
+    private final Map<Integer, TimerSessions> sessioni = new HashMap<>();
+    private final Map<Integer, Allegati> allegati = new HashMap<>();
+    /** Task il cui avanzamento è cambiato dopo l'ultima lettura, con il numero di sequenza dell'invalidazione. */
+    private final Map<Integer, Long> progressiNonValidi = new HashMap<>();
+    private long sequenza;
+    private long watermark;
+    private boolean pronta;
+    /** Il prossimo giro rilegge tutto, anche se c'è un watermark valido (vedi {@link #riallinea()}). */
+    private boolean completaRichiesta;
+    private volatile boolean inLinea;
+
+    /**
+     * Crea una replica che salva il proprio contenuto con il gestore indicato.
+     * @param file Gestore del file della replica.
+     */
+    public ReplicaLocale(SnapshotLocale file) {
+        this.file = file;
+    }
+
+    /**
+     * Restituisce la replica dell'applicazione.
+     * @return La replica.
+     */
+    public static synchronized ReplicaLocale getInstance() {
+        if (instance == null) instance = new ReplicaLocale(SnapshotLocale.getInstance());
+        return instance;
+    }
+
+    /**
+     * Apre la replica di un utente: carica il file locale (se valido la replica è subito pronta,
+     * e le categorie vengono passate a {@link DAOCategorie}) e avvia la sincronizzazione periodica.
+     * Se era aperta la replica di un altro utente, viene scartata.
+     *
+     * @param idUtente L'ID dell'utente.
+     */
+    public void apri(int idUtente) {
+        SnapshotLocale.Contenuto contenuto = file.leggi(idUtente);
+        synchronized (this) {
+            if (!Objects.equals(this.idUtente, idUtente)) {
+                this.idUtente = idUtente;
+                tasks.clear();
+                svuotaDettagli();
+                categorie = new ArrayList<>();
+                progressiNonValidi.clear();
+                watermark = 0;
+                pronta = false;
+                if (contenuto != null) {
+                    for (Tasks t : contenuto.getTasks()) tasks.put(t.getIdTask(), t);
+                    caricaDettagli(contenuto.getDettagli());
+                    categorie = new ArrayList<>(contenuto.getCategorie());
+                    watermark = contenuto.getWatermark();
+                    pronta = true;
+                }
+            }
+            if (executor == null) {
+                executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "replica-locale");
+                    t.setDaemon(true);
+                    return t;
+                });
+                executor.scheduleWithFixedDelay(this::sincronizzaInBackground, 0, INTERVALLO_SECONDI, TimeUnit.SECONDS);
+            } else {
+                richiediSincronizzazione();
+            }
+        }
+        if (contenuto != null) {
+            ((DAOCategorie) DAOCategorie.getInstance()).precarica(idUtente, contenuto.getCategorie());
+        }
+    }
+
+    /**
+     * Registra un ascoltatore chiamato (dal thread della sincronizzazione) quando un giro porta
+     * modifiche fatte altrove: altri client, altre finestre o sessioni del timer.
+     * @param ascoltatore L'ascoltatore.
+     */
+    public void addListener(Runnable ascoltatore) {
+        ascoltatori.add(ascoltatore);
+    }
+
+    /**
+     * Rimuove un ascoltatore registrato con {@link #addListener(Runnable)}.
+     * @param ascoltatore L'ascoltatore.
+     */
+    public void removeListener(Runnable ascoltatore) {
+        ascoltatori.remove(ascoltatore);
+    }
+
+    /** @return True se la replica ha dati da servire (dal file o da una sincronizzazione completa). */
+    public synchronized boolean isPronta() { return pronta; }
+
+    /** @return True se l'ultima sincronizzazione è riuscita. */
+    public boolean isInLinea() { return inLinea; }
+
+    /**
+     * Chiede una sincronizzazione il prima possibile, senza attenderla. Le richieste ravvicinate
+     * vengono unite in un solo giro.
+     */
+    public void richiediSincronizzazione() {
+        ScheduledExecutorService ex;
+        synchronized (this) {
+            ex = executor;
+        }
+        if (ex != null && sincronizzazioneRichiesta.compareAndSet(false, true)) {
+            ex.execute(() -> {
+                sincronizzazioneRichiesta.set(false);
+                sincronizzaInBackground();
+            });
+        }
+    }
+
+    /**
+     * Esegue subito un giro di sincronizzazione sul thread chiamante.
+     * @return True se il giro ha portato modifiche.
+     * @throws DAOException In caso di errore di lettura dal database.
+     */
+    public boolean sincronizza() throws DAOException {
+        synchronized (giro) {
+            int utente;
+            boolean completa;
+            long dal;
+            long sequenzaInizio;
+            synchronized (this) {
+                if (idUtente == null) return false;
+                utente = idUtente;
+                completa = !pronta || watermark <= 0 || completaRichiesta;
+                dal = watermark - SOVRAPPOSIZIONE_MS;
+                sequenzaInizio = sequenza;
+            }
+
+            long ora;
+            List<Tasks> modificati = new ArrayList<>();
+            List<Integer> eliminati = new ArrayList<>();
+            Map<Integer, String> descrizioniLunghe;
+            SnapshotLocale.Dettagli dettagliModificati;
+            Map<String, List<Integer>> dettagliEliminati = new HashMap<>();
+            Statement st = null;
+            Connection conn = null;
+            try {
+                DAOSchema.ensureDurataTotaleTasks();
+                DAOSchema.ensureArchivioAllegati();
+                DAOSchema.ensureReplica();
+                st = DAOMySQLSettings.getStatement();
+                conn = st.getConnection();
+
+                ResultSet rs = st.executeQuery("SELECT ROUND(UNIX_TIMESTAMP(CURRENT_TIMESTAMP(3)) * 1000), "
+                        + "ROUND(UNIX_TIMESTAMP(CURRENT_TIMESTAMP(3) - INTERVAL " + CONSERVAZIONE_ELIMINATI_GIORNI + " DAY) * 1000)");
+                rs.next();
+                ora = rs.getLong(1);
+                // Gli eliminati più vecchi del watermark potrebbero essere già stati ripuliti
+                if (!completa && watermark < rs.getLong(2)) completa = true;
+                rs.close();
+
+                long inizio = completa ? -1 : dal;
+                DAOTasks dao = (DAOTasks) DAOTasks.getInstance();
+                modificati.addAll(dao.selectModificati(st, utente, inizio));
+                descrizioniLunghe = dao.selectDescrizioniLunghe(st, utente, inizio);
+                dettagliModificati = new SnapshotLocale.Dettagli(descrizioniLunghe,
+                        ((DAOSubTasks) DAOSubTasks.getInstance()).selectModificati(st, utente, inizio),
+                        DAOTimerSessions.getInstance().selectModificate(st, utente, inizio),
+                        DAOAllegati.getInstance().selectModificati(st, utente, inizio));
+                if (!completa) {
+                    eliminati.addAll(dao.selectEliminati(st, utente, dal));
+                    dettagliEliminati = selectDettagliEliminati(st, utente, dal);
+                } else {
+                    for (String tabella : new String[] { DAOSchema.TASKS_ELIMINATI, DAOSchema.DETTAGLI_ELIMINATI }) {
+                        st.executeUpdate("DELETE FROM " + tabella + " WHERE eliminatoIl < "
+                                + "CURRENT_TIMESTAMP(3) - INTERVAL " + CONSERVAZIONE_ELIMINATI_GIORNI + " DAY");
+                    }
+                }
+            } catch (SQLException e) {
+                inLinea = false;
+                throw new DAOException("Errore sincronizzazione replica: " + e.getMessage());
+            } finally {
+                DAOMySQLSettings.closeStatement(st);
+                if (conn != null) try { conn.close(); } catch (SQLException e) {}
+            }
+
+            Map<Integer, int[]> conteggi;
+            List<Categorie> nuoveCategorie;
+            try {
+                conteggi = ((DAOSubTasks) DAOSubTasks.getInstance())
+                        .countByTaskDalDatabase(modificati.stream().map(Tasks::getIdTask).collect(Collectors.toList()));
+                nuoveCategorie = ((DAOCategorie) DAOCategorie.getInstance()).ricarica(utente);
+            } catch (DAOException e) {
+                inLinea = false;
+                throw e;
+            }
+            for (Tasks t : modificati) {
+                int[] p = conteggi.get(t.getIdTask());
+                if (p != null) t.setProgressoSubTask(p[0], p[1]);
+            }
+
+            boolean cambiati;
+            boolean salva;
+            List<Tasks> daSalvare;
+            List<Categorie> categorieDaSalvare;
+            SnapshotLocale.Dettagli dettagliDaSalvare;
+            synchronized (this) {
+                if (!Objects.equals(idUtente, utente)) return false; // nel frattempo è cambiato utente
+
+                cambiati = !stesseCategorie(categorie, nuoveCategorie);
+                categorie = new ArrayList<>(nuoveCategorie);
+
+                if (completa) {
+                    Map<Integer, Tasks> nuovi = new HashMap<>();
+                    for (Tasks t : modificati) nuovi.put(t.getIdTask(), t);
+                    if (!cambiati && nuovi.size() != tasks.size()) cambiati = true;
+                    for (Tasks t : modificati) {
+                        if (!cambiati && !stessoContenuto(tasks.get(t.getIdTask()), t)) cambiati = true;
+                    }
+                    tasks.clear();
+                    tasks.putAll(nuovi);
+                    svuotaDettagli();
+                    caricaDettagli(dettagliModificati);
+                } else {
+                    for (Tasks t : modificati) {
+                        if (!stessoContenuto(tasks.get(t.getIdTask()), t)) cambiati = true;
+                        tasks.put(t.getIdTask(), t);
+                        if (t.isDescrizioneCompleta()) descrizioni.remove(t.getIdTask());
+                    }
+                    caricaDettagli(dettagliModificati);
+                    subTasks.keySet().removeAll(dettagliEliminati.getOrDefault("SubTasks", List.of()));
+                    sessioni.keySet().removeAll(dettagliEliminati.getOrDefault("TimerSessions", List.of()));
+                    allegati.keySet().removeAll(dettagliEliminati.getOrDefault("Allegati", List.of()));
+                    for (Integer id : eliminati) {
+                        if (tasks.remove(id) != null) cambiati = true;
+                        rimuoviDettagli(id);
+                    }
+                }
+                // Restano non validi solo gli avanzamenti invalidati durante questo giro
+                progressiNonValidi.values().removeIf(s -> s <= sequenzaInizio);
+
+                boolean dettagliCambiati = !descrizioniLunghe.isEmpty() || !dettagliEliminati.isEmpty()
+                        || !dettagliModificati.getSubTasks().isEmpty() || !dettagliModificati.getSessioni().isEmpty()
+                        || !dettagliModificati.getAllegati().isEmpty();
+                salva = cambiati || dettagliCambiati || completa || !pronta;
+                watermark = ora;
+                pronta = true;
+                if (completa) completaRichiesta = false;
+                daSalvare = salva ? new ArrayList<>(tasks.values()) : null;
+                dettagliDaSalvare = salva ? dettagli() : null;
+                categorieDaSalvare = new ArrayList<>(categorie);
+            }
+            inLinea = true;
+
+            if (salva) {
+                try {
+                    file.scrivi(utente, categorieDaSalvare, daSalvare, dettagliDaSalvare, ora);
+                } catch (IOException e) {
+                    // Non bloccante: al prossimo avvio si riparte da un file meno recente o dal database
+                    logger.warning("Salvataggio replica locale non riuscito: " + e.getMessage());
+                }
+            }
+            if (cambiati) {
+                for (Runnable r : ascoltatori) r.run();
+            }
+            return cambiati;
+        }
+    }
+
+    /**
+     * Legge dalla replica i task che soddisfano il filtro, con la sola anteprima della descrizione
+     * come {@link DAOTasks.Proiezione#ELENCO}.
+     *
+     * @param filtro Task filtro, con lo stesso significato di {@link DAOTasks#select(Tasks)}.
+     * @return Copie dei task trovati, oppure null se la replica non può rispondere
+     *         (non pronta, altro utente o ricerca per parola chiave).
+     */
+    synchronized List<Tasks> seleziona(Tasks filtro) {
+        if (!pronta || filtro == null || !Objects.equals(filtro.getIdUtente(), idUtente)) return null;
+        if (filtro.getTitolo() != null && !filtro.getTitolo().isEmpty()) return null;
+
+        String priorita = filtro.getPriorita();
+        Integer idCategoria = filtro.getIdCategoria();
+        Boolean completamento = filtro.getCompletamento();
+        String scadenza = (filtro.getScadenza() != null && !filtro.getScadenza().isEmpty())
+                ? scadenzaIso(filtro.getScadenza()) : null;
+
+        List<Tasks> lista = new ArrayList<>();
+        for (Tasks t : tasks.values()) {
+            if (priorita != null && !priorita.isEmpty() && !priorita.equalsIgnoreCase(t.getPriorita())) continue;
+            if (idCategoria != null && idCategoria > 0 && !idCategoria.equals(t.getIdCategoria())) continue;
+            if (completamento != null && !completamento.equals(t.getCompletamento())) continue;
+            if (scadenza != null && !scadenza.equals(scadenzaIso(t.getScadenza()))) continue;
+            lista.add(t);
+        }
+        lista.sort(Comparator.comparing(Tasks::getIdTask));
+        return copia(lista);
+    }
+
+    /**
+     * Legge dalla replica i task aperti con scadenza entro la data indicata, come
+     * {@link DAOTasks#selectDueBefore(int, LocalDate, int)}.
+     *
+     * @param idUtente L'ID dell'utente.
+     * @param data     Ultima data di scadenza inclusa.
+     * @param limite   Numero massimo di task.
+     * @return Copie dei task in scadenza, oppure null se la replica non può rispondere.
+     */
+    synchronized List<Tasks> selezionaScadenze(int idUtente, LocalDate data, int limite) {
+        if (!pronta || !Objects.equals(this.idUtente, idUtente)) return null;
+
+        String limiteData = data.toString();
+        List<Tasks> lista = new ArrayList<>();
+        for (Tasks t : tasks.values()) {
+            String scadenza = scadenzaIso(t.getScadenza());
+            if (Boolean.TRUE.equals(t.getCompletamento()) || scadenza == null) continue;
+            if (scadenza.compareTo(limiteData) <= 0) lista.add(t);
+        }
+        lista.sort(Comparator.comparing((Tasks t) -> scadenzaIso(t.getScadenza())).thenComparing(Tasks::getIdTask));
+        return copia(lista.size() > limite ? lista.subList(0, limite) : lista);
+    }
+
+    /**
+     * Restituisce l'avanzamento delle checklist dei task indicati, come {@link DAOSubTasks#countByTask(Collection)}.
+     * Per i task il cui avanzamento è cambiato dall'ultima sincronizzazione il conteggio viene fatto
+     * sui subtask della replica.
+     * @param idTasks Gli ID dei task.
+     * @return Mappa idTask → {totali, completati}, oppure null se qualche task non è nella replica.
+     */
+    synchronized Map<Integer, int[]> progressi(Collection<Integer> idTasks) {
+        if (!pronta) return null;
+        Map<Integer, int[]> conteggi = new HashMap<>();
+        for (Integer id : idTasks) {
+            Tasks t = tasks.get(id);
+            if (t == null) return null;
+            if (progressiNonValidi.containsKey(id)) {
+                int totali = 0;
+                int completati = 0;
+                for (SubTasks s : subTasks.values()) {
+                    if (!id.equals(s.getIdTask())) continue;
+                    totali++;
+                    if (Boolean.TRUE.equals(s.getCompletamento())) completati++;
+                }
+                if (totali > 0) conteggi.put(id, new int[] { totali, completati });
+            } else if (t.getSubTaskTotali() > 0) {
+                conteggi.put(id, new int[] { t.getSubTaskTotali(), t.getSubTaskCompletati() });
+            }
+        }
+        return conteggi;
+    }
+
+    /**
+     * Legge dalla replica la checklist di un task, come {@link DAOSubTasks#select(SubTasks)}.
+     * @param idTask L'ID del task.
+     * @return Copie dei subtask ordinate per ID, oppure null se la replica non conosce il task.
+     */
+    synchronized List<SubTasks> subTasks(int idTask) {
+        if (!pronta || !tasks.containsKey(idTask)) return null;
+        List<SubTasks> lista = new ArrayList<>();
+        for (SubTasks s : subTasks.values()) {
+            if (s.getIdTask() != null && s.getIdTask() == idTask) lista.add(copia(s));
+        }
+        lista.sort(Comparator.comparing(SubTasks::getIdSubTask));
+        return lista;
+    }
+
+    /**
+     * Legge dalla replica una pagina dello storico del timer di un task, come
+     * {@link DAOTimerSessions#selectPage(int, TimerSessions, int)}.
+     * @param idTask L'ID del task.
+     * @param dopo   Ultima sessione della pagina precedente, oppure null per la prima pagina.
+     * @param limite Numero massimo di sessioni.
+     * @return Copie delle sessioni dalla più recente, oppure null se la replica non conosce il task.
+     */
+    synchronized List<TimerSessions> sessioni(int idTask, TimerSessions dopo, int limite) {
+        if (!pronta || !tasks.containsKey(idTask)) return null;
+        List<TimerSessions> lista = new ArrayList<>();
+        for (TimerSessions t : sessioni.values()) {
+            if (t.getIdTask() != idTask) continue;
+            if (dopo != null && dopo.getInizio() != null && ORDINE_SESSIONI.compare(t, dopo) <= 0) continue;
+            lista.add(t);
+        }
+        lista.sort(ORDINE_SESSIONI);
+        List<TimerSessions> copie = new ArrayList<>();
+        for (TimerSessions t : lista.size() > limite ? lista.subList(0, limite) : lista) copie.add(copia(t));
+        return copie;
+    }
+
+    /**
+     * Legge dalla replica una sessione del timer.
+     * @param idSession L'ID della sessione.
+     * @return Copia della sessione, oppure null se la replica non la conosce.
+     */
+    synchronized TimerSessions sessione(int idSession) {
+        TimerSessions t = pronta ? sessioni.get(idSession) : null;
+        return t != null ? copia(t) : null;
+    }
+
+    /**
+     * Restituisce il tempo totale registrato su un task, come {@link DAOTimerSessions#getSommaDurataPerTask(int)}.
+     * @param idTask L'ID del task.
+     * @return I secondi totali, oppure null se la replica non conosce il task.
+     */
+    synchronized Long durataTotale(int idTask) {
+        Tasks t = pronta ? tasks.get(idTask) : null;
+        return t != null ? t.getDurataTotale() : null;
+    }
+
+    /**
+     * Legge dalla replica gli allegati di un task, come {@link DAOAllegati#selectByTaskId(int)}.
+     * @param idTask L'ID del task.
+     * @return Copie degli allegati ordinate per ID, oppure null se la replica non conosce il task.
+     */
+    synchronized List<Allegati> allegati(int idTask) {
+        if (!pronta || !tasks.containsKey(idTask)) return null;
+        List<Allegati> lista = new ArrayList<>();
+        for (Allegati a : allegati.values()) {
+            if (a.getIdTask() == idTask) lista.add(copia(a));
+        }
+        lista.sort(Comparator.comparingInt(Allegati::getIdAllegato));
+        return lista;
+    }
+
+    /**
+     * Compone dalla replica i dati del pannello dettagli, come {@link DAODettaglioTask#select(int, int)}.
+     * @param idTask      L'ID del task.
+     * @param maxSessioni Numero massimo di sessioni recenti.
+     * @return I dati del pannello, oppure null se la replica non conosce il task o la sua descrizione completa.
+     */
+    synchronized DettaglioTask dettaglio(int idTask, int maxSessioni) {
+        Tasks t = pronta ? tasks.get(idTask) : null;
+        if (t == null) return null;
+        String descrizione = t.isDescrizioneCompleta() ? t.getDescrizione() : descrizioni.get(idTask);
+        if (descrizione == null) return null;
+
+        DettaglioTask dettaglio = new DettaglioTask(idTask);
+        dettaglio.setDescrizione(descrizione);
+        dettaglio.setDurataTotale(t.getDurataTotale());
+        dettaglio.getSubTasks().addAll(subTasks(idTask));
+        dettaglio.getSessioniRecenti().addAll(sessioni(idTask, null, maxSessioni));
+        dettaglio.getAllegati().addAll(allegati(idTask));
+        return dettaglio;
+    }
+
+    /**
+     * Applica alla replica un task appena inserito o modificato su MySQL. Durata e avanzamento
+     * restano quelli noti: arrivano con la sincronizzazione successiva.
+     * @param t Il task, dopo il commit.
+     */
+    synchronized void scriviTask(Tasks t) {
+        if (!pronta || t.getIdTask() == null || !Objects.equals(t.getIdUtente(), idUtente)) return;
+        Tasks precedente = tasks.get(t.getIdTask());
+
+        String descrizione;
+        boolean descrizioneCompleta;
+        if (t.isDescrizioneCompleta() || precedente == null) {
+            String d = t.getDescrizione() != null ? t.getDescrizione() : "";
+            descrizioneCompleta = t.isDescrizioneCompleta() && d.length() <= DAOTasks.LUNGHEZZA_ANTEPRIMA;
+            descrizione = d.length() > DAOTasks.LUNGHEZZA_ANTEPRIMA ? d.substring(0, DAOTasks.LUNGHEZZA_ANTEPRIMA) : d;
+        } else {
+            // Il task conteneva solo l'anteprima: la descrizione sul database non è cambiata
+            descrizione = precedente.getDescrizione();
+            descrizioneCompleta = precedente.isDescrizioneCompleta();
+        }
+
+        Tasks r = new Tasks(t.getTitolo(), descrizione, scadenzaIso(t.getScadenza()), t.getPriorita(),
+                precedente != null ? precedente.getData_creazione() : t.getData_creazione(),
+                Boolean.TRUE.equals(t.getCompletamento()), t.getIdTask(), t.getIdUtente(),
+                (t.getIdCategoria() != null && t.getIdCategoria() > 0) ? t.getIdCategoria() : 0);
+        r.setDescrizioneCompleta(descrizioneCompleta);
+        if (t.isDescrizioneCompleta()) {
+            if (descrizioneCompleta) descrizioni.remove(t.getIdTask());
+            else descrizioni.put(t.getIdTask(), t.getDescrizione());
+        }
+        if (precedente != null) {
+            r.setDurataTotale(precedente.getDurataTotale());
+            r.setProgressoSubTask(precedente.getSubTaskTotali(), precedente.getSubTaskCompletati());
+        }
+        tasks.put(t.getIdTask(), r);
+    }
+
+    /**
+     * Rimuove dalla replica un task appena eliminato su MySQL.
+     * @param idUtente L'ID del proprietario.
+     * @param idTask   L'ID del task.
+     */
+    synchronized void eliminaTask(Integer idUtente, int idTask) {
+        if (!Objects.equals(this.idUtente, idUtente)) return;
+        tasks.remove(idTask);
+        rimuoviDettagli(idTask);
+        progressiNonValidi.remove(idTask);
+    }
+
+    /**
+     * Segna come non più valido l'avanzamento della checklist di un task, dopo una modifica ai suoi
+     * subtask: fino alla sincronizzazione successiva il conteggio viene letto dal database.
+     * @param idTask L'ID del task.
+     */
+    synchronized void invalidaProgresso(int idTask) {
+        if (tasks.containsKey(idTask)) progressiNonValidi.put(idTask, ++sequenza);
+    }
+
+    /**
+     * Applica alla replica un subtask appena inserito o modificato. Se la modifica non porta l'ID del
+     * task o la descrizione, restano quelli noti.
+     * @param s Il subtask, dopo il commit (o con l'ID provvisorio, se la scrittura è in coda).
+     */
+    synchronized void scriviSubTask(SubTasks s) {
+        if (!pronta || s.getIdSubTask() == null) return;
+        SubTasks precedente = subTasks.get(s.getIdSubTask());
+        Integer idTask = s.getIdTask() != null ? s.getIdTask() : (precedente != null ? precedente.getIdTask() : null);
+        if (idTask == null || !tasks.containsKey(idTask)) return;
+
+        String descrizione = s.getDescrizione();
+        if (descrizione == null) descrizione = precedente != null ? precedente.getDescrizione() : "";
+        subTasks.put(s.getIdSubTask(), new SubTasks(s.getTitolo(), descrizione,
+                Boolean.TRUE.equals(s.getCompletamento()), s.getIdSubTask(), idTask));
+    }
+
+    /**
+     * Rimuove dalla replica un subtask eliminato.
+     * @param idSubTask L'ID del subtask.
+     */
+    synchronized void eliminaSubTask(int idSubTask) {
+        subTasks.remove(idSubTask);
+    }
+
+    /**
+     * Applica alla replica una sessione del timer appena avviata, chiusa o modificata, ricalcolando
+     * la durata come il database e aggiornando il tempo totale del task.
+     * @param s La sessione, dopo il commit (o con l'ID provvisorio, se la scrittura è in coda).
+     */
+    synchronized void scriviSessione(TimerSessions s) {
+        if (!pronta || s.getIdSession() == -1) return;
+        TimerSessions precedente = sessioni.get(s.getIdSession());
+        int idTask = s.getIdTask() != -1 ? s.getIdTask() : (precedente != null ? precedente.getIdTask() : -1);
+        if (!tasks.containsKey(idTask)) return;
+
+        long durata = (s.getInizio() != null && s.getFine() != null)
+                ? Duration.between(s.getInizio().truncatedTo(ChronoUnit.SECONDS),
+                        s.getFine().truncatedTo(ChronoUnit.SECONDS)).getSeconds()
+                : 0;
+        TimerSessions r = new TimerSessions(s.getNome(), s.getInizio(), s.getFine(), durata, s.getIdSession(), idTask);
+        if (precedente != null) aggiungiDurata(precedente.getIdTask(), -precedente.getDurataSecondi());
+        sessioni.put(s.getIdSession(), r);
+        aggiungiDurata(idTask, durata);
+    }
+
+    /**
+     * Chiude nella replica una sessione del timer, come {@link DAOTimerSessions#stopSession(int, LocalDateTime)}:
+     * una fine precedente all'inizio viene portata all'inizio.
+     * @param idSession L'ID della sessione.
+     * @param fine      L'istante di fine.
+     */
+    synchronized void chiudiSessione(int idSession, LocalDateTime fine) {
+        TimerSessions s = sessioni.get(idSession);
+        if (s == null || fine == null) return;
+        LocalDateTime f = (s.getInizio() != null && fine.isBefore(s.getInizio())) ? s.getInizio() : fine;
+        scriviSessione(new TimerSessions(s.getNome(), s.getInizio(), f, 0, idSession, s.getIdTask()));
+    }
+
+    /**
+     * Rimuove dalla replica una sessione eliminata, togliendone la durata dal totale del task.
+     * @param idSession L'ID della sessione.
+     */
+    synchronized void eliminaSessione(int idSession) {
+        TimerSessions s = sessioni.remove(idSession);
+        if (s != null) aggiungiDurata(s.getIdTask(), -s.getDurataSecondi());
+    }
+
+    /**
+     * Applica alla replica un allegato appena inserito.
+     * @param a L'allegato, con l'ID generato.
+     */
+    synchronized void scriviAllegato(Allegati a) {
+        if (!pronta || a.getIdAllegato() == 0 || !tasks.containsKey(a.getIdTask())) return;
+        allegati.put(a.getIdAllegato(), copia(a));
+    }
+
+    /**
+     * Rimuove dalla replica un allegato eliminato.
+     * @param idAllegato L'ID dell'allegato.
+     */
+    synchronized void eliminaAllegato(int idAllegato) {
+        allegati.remove(idAllegato);
+    }
+
+    /**
+     * Registra in {@code DettagliEliminati} l'eliminazione di una riga di dettaglio, nella stessa
+     * transazione del DELETE: va eseguito prima, finché la riga esiste e se ne conosce il proprietario.
+     * @param st        Lo statement della transazione.
+     * @param tabella   La tabella (SubTasks, TimerSessions o Allegati).
+     * @param colonnaId La colonna chiave della tabella.
+     * @param id        L'ID della riga.
+     * @throws SQLException In caso di errore SQL.
+     */
+    static void registraEliminazione(Statement st, String tabella, String colonnaId, int id) throws SQLException {
+        st.executeUpdate("INSERT INTO " + DAOSchema.DETTAGLI_ELIMINATI + " (tabella, id, idUtente) "
+                + "SELECT '" + tabella + "', " + id + ", t.idUtente FROM " + tabella + " x "
+                + "JOIN Tasks t ON t.idTask = x.idTask WHERE x." + colonnaId + " = " + id + " "
+                + "ON DUPLICATE KEY UPDATE eliminatoIl = CURRENT_TIMESTAMP(3)");
+    }
+
+    /**
+     * Chiede una sincronizzazione completa, che sostituisce il contenuto della replica con quello del
+     * database. Serve quando la replica contiene modifiche locali che il database non avrà mai, come
+     * quelle delle scritture in coda scartate.
+     */
+    void riallinea() {
+        synchronized (this) {
+            completaRichiesta = true;
+        }
+        richiediSincronizzazione();
+    }
+
+    /** Giro periodico: un errore viene solo registrato, la replica continua a servire i dati noti. */
+    private void sincronizzaInBackground() {
+        try {
+            sincronizza();
+        } catch (DAOException e) {
+            logger.warning(e.getMessage());
+        } catch (RuntimeException e) {
+            logger.warning("Errore sincronizzazione replica: " + e);
+        }
+    }
+
+    /** Righe di dettaglio eliminate dopo l'istante indicato, per tabella. */
+    private static Map<String, List<Integer>> selectDettagliEliminati(Statement st, int idUtente, long dal)
+            throws SQLException {
+        Map<String, List<Integer>> eliminati = new HashMap<>();
+        ResultSet rs = st.executeQuery("SELECT tabella, id FROM " + DAOSchema.DETTAGLI_ELIMINATI
+                + " WHERE idUtente = " + idUtente + " AND eliminatoIl >= " + DAOTasks.istanteSql(Math.max(0, dal)));
+        while (rs.next()) {
+            eliminati.computeIfAbsent(rs.getString("tabella"), k -> new ArrayList<>()).add(rs.getInt("id"));
+        }
+        rs.close();
+        return eliminati;
+    }
+
+    /** Somma (o toglie) secondi al tempo totale di un task, sostituendolo con una copia modificata. */
+    private void aggiungiDurata(int idTask, long secondi) {
+        Tasks t = tasks.get(idTask);
+        if (t == null || secondi == 0) return;
+        Tasks r = copia(List.of(t)).get(0);
+        r.setDurataTotale(Math.max(0, t.getDurataTotale() + secondi));
+        tasks.put(idTask, r);
+    }
+
+    private void svuotaDettagli() {
+        descrizioni.clear();
+        subTasks.clear();
+        sessioni.clear();
+        allegati.clear();
+    }
+
+    /** Aggiunge (o sostituisce) nella replica le righe di dettaglio lette dal database o dal file. */
+    private void caricaDettagli(SnapshotLocale.Dettagli d) {
+        descrizioni.putAll(d.getDescrizioni());
+        for (SubTasks s : d.getSubTasks()) subTasks.put(s.getIdSubTask(), s);
+        for (TimerSessions t : d.getSessioni()) sessioni.put(t.getIdSession(), t);
+        for (Allegati a : d.getAllegati()) allegati.put(a.getIdAllegato(), a);
+    }
+
+    /** Rimuove la descrizione completa e le righe di dettaglio di un task. */
+    private void rimuoviDettagli(int idTask) {
+        descrizioni.remove(idTask);
+        subTasks.values().removeIf(s -> s.getIdTask() != null && s.getIdTask() == idTask);
+        sessioni.values().removeIf(t -> t.getIdTask() == idTask);
+        allegati.values().removeIf(a -> a.getIdTask() == idTask);
+    }
+
+    /** Copia delle righe di dettaglio, da salvare su file fuori dal lock. */
+    private SnapshotLocale.Dettagli dettagli() {
+        List<SubTasks> s = new ArrayList<>();
+        for (SubTasks x : subTasks.values()) s.add(copia(x));
+        List<TimerSessions> t = new ArrayList<>();
+        for (TimerSessions x : sessioni.values()) t.add(copia(x));
+        List<Allegati> a = new ArrayList<>();
+        for (Allegati x : allegati.values()) a.add(copia(x));
+        return new SnapshotLocale.Dettagli(new HashMap<>(descrizioni), s, t, a);
+    }
+
+    /** Confronta i campi mostrati dalla lista (la data di creazione viene aggiornata senza notifiche). */
+    private static boolean stessoContenuto(Tasks a, Tasks b) {
+        if (a == null || b == null) return a == b;
+        return Objects.equals(a.getTitolo(), b.getTitolo())
+                && Objects.equals(a.getDescrizione(), b.getDescrizione())
+                && a.isDescrizioneCompleta() == b.isDescrizioneCompleta()
+                && Objects.equals(scadenzaIso(a.getScadenza()), scadenzaIso(b.getScadenza()))
+                && Objects.equals(a.getPriorita(), b.getPriorita())
+                && Objects.equals(a.getCompletamento(), b.getCompletamento())
+                && Objects.equals(idCategoria(a), idCategoria(b))
+                && a.getDurataTotale() == b.getDurataTotale()
+                && a.getSubTaskTotali() == b.getSubTaskTotali()
+                && a.getSubTaskCompletati() == b.getSubTaskCompletati();
+    }
+
+    /** ID categoria con "nessuna categoria" ricondotto a 0 (il database legge NULL come 0, il modello usa -1). */
+    private static int idCategoria(Tasks t) {
+        return (t.getIdCategoria() != null && t.getIdCategoria() > 0) ? t.getIdCategoria() : 0;
+    }
+
+    private static boolean stesseCategorie(List<Categorie> a, List<Categorie> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (!Objects.equals(a.get(i).getIdCategoria(), b.get(i).getIdCategoria())
+                    || !Objects.equals(a.get(i).getNomeCategoria(), b.get(i).getNomeCategoria())) return false;
+        }
+        return true;
+    }
+
+    /** Scadenza in formato ISO per i confronti, oppure null se assente. */
+    private static String scadenzaIso(String scadenza) {
+        try {
+            return DAOTasks.scadenzaIso(scadenza);
+        } catch (DateTimeParseException e) {
+            return scadenza;
+        }
+    }
+
+    private static SubTasks copia(SubTasks s) {
+        return new SubTasks(s.getTitolo(), s.getDescrizione(), s.getCompletamento(), s.getIdSubTask(), s.getIdTask());
+    }
+
+    private static TimerSessions copia(TimerSessions t) {
+        return new TimerSessions(t.getNome(), t.getInizio(), t.getFine(), t.getDurataSecondi(), t.getIdSession(), t.getIdTask());
+    }
+
+    private static Allegati copia(Allegati a) {
+        Allegati c = new Allegati(a.getNomeFile(), a.getPercorsoFile(), a.getTipoFile(), a.getIdTask());
+        c.setIdAllegato(a.getIdAllegato());
+        c.setDigest(a.getDigest());
+        return c;
+    }
+
+    /** Copie dei task della replica, con durata e avanzamento: la UI può modificarle liberamente. */
+    private static List<Tasks> copia(List<Tasks> lista) {
+        List<Tasks> copie = new ArrayList<>(lista.size());
+        for (Tasks t : lista) {
+            Tasks c = new Tasks(t.getTitolo(), t.getDescrizione(), t.getScadenza(), t.getPriorita(), t.getData_creazione(),
+                    t.getCompletamento(), t.getIdTask(), t.getIdUtente(), t.getIdCategoria());
+            c.setDurataTotale(t.getDurataTotale());
+            c.setDescrizioneCompleta(t.isDescrizioneCompleta());
+            c.setProgressoSubTask(t.getSubTaskTotali(), t.getSubTaskCompletati());
+            copie.add(c);
+        }
+        return copie;
+    }
+}
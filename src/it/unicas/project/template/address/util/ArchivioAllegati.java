@@ -0,0 +1,354 @@
+package it.unicas.project.template.address.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Archivio dei file allegati indirizzato per contenuto.
+ * <p>
+ * Ogni file viene copiato a blocchi in un file temporaneo con {@link FileChannel#transferTo}, che dove il
+ * sistema operativo lo permette evita di passare i dati dalla memoria dell'applicazione; ogni blocco viene
+ * poi riletto (dalla cache del sistema, dove è appena stato letto) per calcolare lo SHA-256. Il contenuto è poi salvato come {@code attachments/store/<ab>/<digest>.<ext>}, dove
+ * {@code <ab>} sono i primi due caratteri del digest (per non avere migliaia di file in una sola
+ * cartella). Se un file con lo stesso contenuto è già presente, la copia temporanea viene scartata e
+ * si riusa quella esistente: allegare di nuovo lo stesso file non occupa altro spazio.
+ * </p>
+ * <p>
+ * I file di testo (log, CSV, documenti) vengono salvati compressi con gzip, come
+ * {@code <digest>.<ext>}{@value #SUFFISSO_COMPRESSO}, se la compressione riduce davvero la dimensione; il
+ * digest è sempre quello del contenuto originale. Il suffisso è riservato: le estensioni conservate nel
+ * nome contengono solo lettere e cifre, quindi un file già compresso dall'utente (es. {@code backup.tar.gz})
+ * non viene scambiato per un contenuto compresso dall'archivio. Un allegato compresso ha {@code tipoFile} con il suffisso
+ * {@value #SUFFISSO_GZIP} (es. {@code log+gz}) e va aperto con {@link #perApertura}, che lo
+ * decomprime in un file temporaneo.
+ * </p>
+ * <p>
+ * L'archivio non conta i riferimenti: lo fa {@code DAOAllegati} sul database, tramite il digest.
+ * </p>
+ */
+public class ArchivioAllegati {
+
+    private static ArchivioAllegati instance = null;
+
+    /** Byte copiati per ogni chiamata a {@code transferTo}, tra un controllo di annullamento e l'altro. */
+    private static final long BLOCCO = 8L * 1024 * 1024;
+
+    /** Suffisso di {@code tipoFile} degli allegati salvati compressi. */
+    public static final String SUFFISSO_GZIP = "+gz";
+
+    /** Suffisso nell'archivio dei contenuti compressi, che nessuna estensione conservata può produrre. */
+    static final String SUFFISSO_COMPRESSO = ".~gz";
+
+    /** Estensioni dei formati testuali (o comunque non già compressi) per cui si tenta la compressione. */
+    private static final Set<String> COMPRIMIBILI = Set.of(
+            "txt", "log", "csv", "tsv", "json", "xml", "md", "html", "htm", "sql",
+            "yaml", "yml", "ini", "rtf", "svg", "doc", "xls");
+
+    /** Sotto questa dimensione la compressione non vale il costo. */
+    private static final long MIN_COMPRESSIONE = 4 * 1024;
+
+    /** La versione compressa viene tenuta solo se occupa al massimo questa frazione dell'originale. */
+    private static final double RAPPORTO_MAX = 0.9;
+
+    private final Path radice;
+    private volatile boolean compressione = true;
+
+    /**
+     * Crea un archivio nella cartella indicata.
+     * @param radice Cartella radice dell'archivio.
+     */
+    public ArchivioAllegati(Path radice) {
+        this.radice = radice;
+    }
+
+    /**
+     * Restituisce l'archivio dell'applicazione, in {@code attachments/store} sotto la cartella di lavoro.
+     * @return L'archivio.
+     */
+    public static synchronized ArchivioAllegati getInstance() {
+        if (instance == null) {
+            instance = new ArchivioAllegati(Paths.get(System.getProperty("user.dir"), "attachments", "store"));
+        }
+        return instance;
+    }
+
+    /** Risultato del salvataggio di un file nell'archivio. */
+    public static final class Blob {
+        private final String digest;
+        private final Path percorso;
+        private final long dimensione;
+        private final boolean nuovo;
+        private final boolean compresso;
+
+        Blob(String digest, Path percorso, long dimensione, boolean nuovo, boolean compresso) {
+            this.digest = digest;
+            this.percorso = percorso;
+            this.dimensione = dimensione;
+            this.nuovo = nuovo;
+            this.compresso = compresso;
+        }
+
+        /** @return True se il contenuto è salvato compresso con gzip dall'archivio. */
+        public boolean isCompresso() { return compresso; }
+
+        /**
+         * Restituisce il {@code tipoFile} da salvare per l'allegato.
+         * @param estensione L'estensione del file originale.
+         * @return L'estensione, con {@value #SUFFISSO_GZIP} solo se il contenuto è compresso.
+         */
+        public String tipoFile(String estensione) {
+            return isCompresso() ? estensione + SUFFISSO_GZIP : tipoOriginale(estensione);
+        }
+
+        /** @return Lo SHA-256 del contenuto, in esadecimale. */
+        public String getDigest() { return digest; }
+
+        /** @return Il percorso del contenuto nell'archivio. */
+        public Path getPercorso() { return percorso; }
+
+        /** @return La dimensione del contenuto in byte. */
+        public long getDimensione() { return dimensione; }
+
+        /** @return True se il contenuto non era già presente nell'archivio. */
+        public boolean isNuovo() { return nuovo; }
+    }
+
+    /**
+     * Salva un file nell'archivio, oppure riusa il contenuto identico già presente.
+     *
+     * @param sorgente Il file da archiviare.
+     * @return Digest, percorso e dimensione del contenuto archiviato.
+     * @throws IOException In caso di errore di lettura o scrittura.
+     */
+    public Blob salva(Path sorgente) throws IOException {
+        return salva(sorgente, copiati -> {}, () -> false);
+    }
+
+    /**
+     * Salva un file nell'archivio notificando l'avanzamento della copia.
+     * <p>
+     * L'annullamento viene controllato tra un blocco e l'altro: se richiesto, il file temporaneo viene
+     * eliminato e nulla resta nell'archivio.
+     * </p>
+     *
+     * @param sorgente  Il file da archiviare.
+     * @param copiati   Riceve il numero di byte copiati finora, dopo ogni blocco.
+     * @param annullato Restituisce true se la copia va interrotta.
+     * @return Digest, percorso e dimensione del contenuto archiviato.
+     * @throws IOException           In caso di errore di lettura o scrittura.
+     * @throws CancellationException Se la copia è stata annullata.
+     */
+    public Blob salva(Path sorgente, LongConsumer copiati, BooleanSupplier annullato) throws IOException {
+        Files.createDirectories(radice);
+        Path temporaneo = Files.createTempFile(radice, "in-", ".tmp");
+        try {
+            MessageDigest sha = nuovoDigest();
+            long dimensione = 0;
+            try (FileChannel in = FileChannel.open(sorgente, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temporaneo, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+                long totale = in.size();
+                while (dimensione < totale) {
+                    if (annullato.getAsBoolean()) throw new CancellationException("Copia annullata");
+
+                    long blocco = Math.min(BLOCCO, totale - dimensione);
+                    long trasferiti = 0;
+                    while (trasferiti < blocco) {
+                        long n = in.transferTo(dimensione + trasferiti, blocco - trasferiti, out);
+                        if (n <= 0) break; // il file si è accorciato durante la copia
+                        trasferiti += n;
+                    }
+                    aggiornaDigest(sha, in, dimensione, trasferiti, buffer);
+                    dimensione += trasferiti;
+                    copiati.accept(dimensione);
+                    if (trasferiti < blocco) break;
+                }
+            }
+            String digest = HexFormat.of().formatHex(sha.digest());
+
+            // Comprime solo se il contenuto non è già nell'archivio
+            boolean compresso = false;
+            if (trova(digest) == null && comprimibile(sorgente, dimensione)) {
+                if (annullato.getAsBoolean()) throw new CancellationException("Copia annullata");
+                compresso = comprimi(temporaneo, dimensione);
+            }
+
+            synchronized (this) {
+                Path esistente = trova(digest);
+                if (esistente != null) {
+                    // Contenuto appena riusato: la pulizia non lo considera orfano finché il record non è salvato
+                    Files.setLastModifiedTime(esistente, FileTime.fromMillis(System.currentTimeMillis()));
+                    return new Blob(digest, esistente, dimensione, false,
+                            esistente.getFileName().toString().endsWith(SUFFISSO_COMPRESSO));
+                }
+
+                Path destinazione = cartella(digest).resolve(digest + estensione(sorgente)
+                        + (compresso ? SUFFISSO_COMPRESSO : ""));
+                Files.createDirectories(destinazione.getParent());
+                try {
+                    Files.move(temporaneo, destinazione, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    Files.move(temporaneo, destinazione, StandardCopyOption.REPLACE_EXISTING);
+                }
+                return new Blob(digest, destinazione, dimensione, true, compresso);
+            }
+        } finally {
+            Files.deleteIfExists(temporaneo);
+        }
+    }
+
+    /**
+     * Cerca il contenuto con il digest indicato.
+     * @param digest Lo SHA-256 in esadecimale.
+     * @return Il percorso del contenuto, oppure null se non è nell'archivio.
+     * @throws IOException In caso di errore di lettura della cartella.
+     */
+    public Path trova(String digest) throws IOException {
+        Path cartella = cartella(digest);
+        if (!Files.isDirectory(cartella)) return null;
+        // Il nome è il digest seguito dall'eventuale estensione del primo file archiviato con quel contenuto
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(cartella, digest + "*")) {
+            for (Path p : ds) return p;
+        }
+        return null;
+    }
+
+    /**
+     * Restituisce il file da passare al sistema operativo per aprire un allegato.
+     * <p>
+     * Per gli allegati compressi il contenuto viene decompresso in streaming in un file temporaneo
+     * con il nome originale (così si apre con l'applicazione giusta), eliminato all'uscita. Può
+     * richiedere tempo per file grandi: va chiamato fuori dal thread della UI.
+     * </p>
+     *
+     * @param percorso Il percorso salvato nell'allegato.
+     * @param nomeFile Il nome originale del file.
+     * @param tipoFile Il tipo salvato nell'allegato.
+     * @return Il file da aprire.
+     * @throws IOException In caso di errore di lettura o scrittura.
+     */
+    public File perApertura(String percorso, String nomeFile, String tipoFile) throws IOException {
+        File file = new File(percorso);
+        if (!isCompresso(tipoFile) || !file.exists()) return file;
+
+        Path cartella = Files.createTempDirectory("taskmanager-allegati-");
+        Path destinazione = cartella.resolve(new File(nomeFile).getName());
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file.toPath()), 64 * 1024)) {
+            Files.copy(in, destinazione);
+        }
+        destinazione.toFile().deleteOnExit();
+        cartella.toFile().deleteOnExit();
+        return destinazione.toFile();
+    }
+
+    /**
+     * Indica se un allegato è salvato compresso.
+     * @param tipoFile Il tipo salvato nell'allegato.
+     * @return True se il tipo ha il suffisso {@value #SUFFISSO_GZIP}.
+     */
+    public static boolean isCompresso(String tipoFile) {
+        return tipoFile != null && tipoFile.endsWith(SUFFISSO_GZIP);
+    }
+
+    /**
+     * Restituisce l'estensione originale di un allegato, senza l'indicazione della compressione.
+     * @param tipoFile Il tipo salvato nell'allegato.
+     * @return L'estensione originale.
+     */
+    public static String tipoOriginale(String tipoFile) {
+        return isCompresso(tipoFile) ? tipoFile.substring(0, tipoFile.length() - SUFFISSO_GZIP.length()) : tipoFile;
+    }
+
+    /**
+     * Abilita o disabilita la compressione dei nuovi file (quelli già archiviati non cambiano).
+     * @param compressione True per comprimere i formati testuali.
+     */
+    public void setCompressione(boolean compressione) { this.compressione = compressione; }
+
+    /**
+     * Restituisce la cartella radice dell'archivio.
+     * @return La radice.
+     */
+    public Path getRadice() { return radice; }
+
+    /** Aggiunge al digest i byte {@code [posizione, posizione + lunghezza)} del canale. */
+    private static void aggiornaDigest(MessageDigest sha, FileChannel in, long posizione, long lunghezza,
+                                       ByteBuffer buffer) throws IOException {
+        long fine = posizione + lunghezza;
+        while (posizione < fine) {
+            buffer.clear();
+            if (fine - posizione < buffer.capacity()) buffer.limit((int) (fine - posizione));
+            int letti = in.read(buffer, posizione);
+            if (letti <= 0) throw new IOException("Lettura interrotta durante il calcolo del digest");
+            buffer.flip();
+            sha.update(buffer);
+            posizione += letti;
+        }
+    }
+
+    private boolean comprimibile(Path sorgente, long dimensione) {
+        String ext = estensione(sorgente);
+        return compressione && dimensione >= MIN_COMPRESSIONE && !ext.isEmpty() && COMPRIMIBILI.contains(ext.substring(1));
+    }
+
+    /**
+     * Comprime il file temporaneo al suo posto, se conviene.
+     * @return True se il file è stato sostituito dalla versione compressa.
+     */
+    private boolean comprimi(Path temporaneo, long dimensione) throws IOException {
+        Path compresso = temporaneo.resolveSibling(temporaneo.getFileName() + ".gz");
+        try {
+            try (InputStream in = Files.newInputStream(temporaneo);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(compresso), 64 * 1024)) {
+                in.transferTo(out);
+            }
+            if (Files.size(compresso) > dimensione * RAPPORTO_MAX) return false;
+            Files.move(compresso, temporaneo, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } finally {
+            Files.deleteIfExists(compresso);
+        }
+    }
+
+    private Path cartella(String digest) {
+        return radice.resolve(digest.substring(0, 2));
+    }
+
+    /** Estensione del file (con il punto), solo se fatta di lettere e cifre; altrimenti stringa vuota. */
+    private static String estensione(Path file) {
+        String nome = file.getFileName().toString();
+        int i = nome.lastIndexOf('.');
+        if (i <= 0 || i == nome.length() - 1) return "";
+        String ext = nome.substring(i).toLowerCase(Locale.ROOT);
+        return ext.substring(1).chars().allMatch(c -> (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) ? ext : "";
+    }
+
+    private static MessageDigest nuovoDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 non disponibile", e);
+        }
+    }
+}
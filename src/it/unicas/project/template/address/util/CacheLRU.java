@@ -0,0 +1,126 @@
+package it.unicas.project.template.address.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Cache di dimensione limitata che, quando è piena, scarta la voce usata meno di recente (LRU).
+ * <p>
+ * Tiene anche le metriche di utilizzo: letture trovate (hit), letture mancate (miss), voci scartate
+ * per far posto (eviction) e voci rimosse perché non più valide (invalidazioni).
+ * Tutti i metodi sono sincronizzati, quindi la cache può essere usata da più thread.
+ * </p>
+ *
+ * @param <K> Tipo della chiave.
+ * @param <V> Tipo del valore.
+ */
+public class CacheLRU<K, V> {
+
+    private final int capacita;
+    private final LinkedHashMap<K, V> voci;
+
+    private long hit = 0;
+    private long miss = 0;
+    private long eviction = 0;
+    private long invalidazioni = 0;
+
+    /**
+     * Crea una cache vuota.
+     * @param capacita Numero massimo di voci.
+     */
+    public CacheLRU(int capacita) {
+        this.capacita = capacita;
+        this.voci = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > CacheLRU.this.capacita) {
+                    eviction++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Restituisce il valore associato alla chiave e lo segna come usato di recente.
+     * @param chiave La chiave.
+     * @return Il valore, oppure null se non è in cache.
+     */
+    public synchronized V get(K chiave) {
+        V valore = voci.get(chiave);
+        if (valore != null) hit++;
+        else miss++;
+        return valore;
+    }
+
+    /**
+     * Inserisce o sostituisce un valore, scartando se necessario la voce meno recente.
+     * @param chiave La chiave.
+     * @param valore Il valore (non null).
+     */
+    public synchronized void put(K chiave, V valore) {
+        voci.put(chiave, valore);
+    }
+
+    /**
+     * Rimuove la voce associata alla chiave.
+     * @param chiave La chiave.
+     * @return Il valore rimosso, oppure null.
+     */
+    public synchronized V remove(K chiave) {
+        V valore = voci.remove(chiave);
+        if (valore != null) invalidazioni++;
+        return valore;
+    }
+
+    /**
+     * Rimuove tutte le voci la cui chiave soddisfa la condizione.
+     * @param condizione Condizione sulle chiavi da invalidare.
+     * @return Numero di voci rimosse.
+     */
+    public synchronized int removeIf(Predicate<K> condizione) {
+        int rimosse = 0;
+        for (Iterator<K> it = voci.keySet().iterator(); it.hasNext(); ) {
+            if (condizione.test(it.next())) {
+                it.remove();
+                rimosse++;
+            }
+        }
+        invalidazioni += rimosse;
+        return rimosse;
+    }
+
+    /** Svuota la cache (conteggiando le voci come invalidazioni). */
+    public synchronized void clear() {
+        invalidazioni += voci.size();
+        voci.clear();
+    }
+
+    /** @return Numero di voci presenti. */
+    public synchronized int size() { return voci.size(); }
+
+    /** @return Letture trovate in cache. */
+    public synchronized long getHit() { return hit; }
+
+    /** @return Letture non trovate in cache. */
+    public synchronized long getMiss() { return miss; }
+
+    /** @return Voci scartate perché la cache era piena. */
+    public synchronized long getEviction() { return eviction; }
+
+    /** @return Voci rimosse perché non più valide. */
+    public synchronized long getInvalidazioni() { return invalidazioni; }
+
+    /**
+     * Restituisce una descrizione delle metriche, utile per il log.
+     * @return Voci, hit, miss, eviction e invalidazioni.
+     */
+    @Override
+    public synchronized String toString() {
+        return "voci=" + voci.size() + "/" + capacita + ", hit=" + hit + ", miss=" + miss
+                + ", eviction=" + eviction + ", invalidazioni=" + invalidazioni;
+    }
+}
@@ -35,7 +35,8 @@ public class DateUtil {
 
     /**
      * Converts a String in the format of the defined {@link DateUtil#DATE_PATTERN}
-     * to a {@link LocalDate} object.
+     * to a {@link LocalDate} object. ISO dates (yyyy-MM-dd), as stored in the
+     * database, are accepted too.
      *
      * Returns null if the String could not be converted.
      *
@@ -51,7 +52,11 @@ public class DateUtil {
         try {
             return DATE_FORMATTER.parse(dateString, LocalDate::from);
         } catch (DateTimeParseException e) {
-            return null;
+            try {
+                return LocalDate.parse(dateString);
+            } catch (DateTimeParseException iso) {
+                return null;
+            }
         }
     }
     /**
@@ -0,0 +1,312 @@
+package it.unicas.project.template.address.util;
+
+import it.unicas.project.template.address.model.dao.DAOException;
+import it.unicas.project.template.address.model.dao.mysql.CodaScritture;
+import it.unicas.project.template.address.model.dao.mysql.DAOTimerSessions;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Diario locale delle sessioni del timer in corso, per non perderle in caso di arresto anomalo.
+ * <p>
+ * Una sessione sul database riceve l'orario di fine solo quando il timer viene fermato: se
+ * l'applicazione termina prima, la sessione resta aperta con durata zero. Il diario registra
+ * ogni sessione avviata e, ogni {@value #INTERVALLO_BATTITO_SECONDI} secondi, un "battito" che
+ * indica fin quando l'applicazione era sicuramente attiva. Al riavvio ({@link #recupera()}) le
+ * sessioni rimaste nel diario vengono chiuse all'ultimo battito, perdendo al più un intervallo.
+ * </p>
+ * <p>
+ * Il file ({@code timer/sessioni-attive.bin}) contiene numero magico, versione, il battito, le
+ * sessioni (ID, task, inizio) e un CRC32 delle sessioni. Viene riscritto per intero, in modo
+ * atomico, solo all'avvio e all'arresto di un timer; il battito sovrascrive sul posto i soli
+ * 8 byte che lo contengono, senza forzare la scrittura su disco: un battito perso anticipa
+ * soltanto la fine della sessione recuperata.
+ * </p>
+ */
+public class DiarioTimer {
+
+    private static final Logger logger = Logger.getLogger(DiarioTimer.class.getName());
+
+    private static final int MAGICO = 0x544D4431; // "TMD1"
+    private static final int VERSIONE = 1;
+
+    /** Posizione del battito nel file, subito dopo numero magico e versione. */
+    private static final int POSIZIONE_BATTITO = 8;
+
+    /** Valore del task che marca le sessioni interrotte, salvate con la fine già calcolata. */
+    private static final int INTERROTTA = 0;
+
+    /** Intervallo tra due battiti. */
+    static final long INTERVALLO_BATTITO_SECONDI = 30;
+
+    private static DiarioTimer instance = null;
+
+    /** Sessione registrata nel diario. */
+    private static final class Voce {
+        final int idTask;
+        final long inizio;
+
+        Voce(int idTask, long inizio) {
+            this.idTask = idTask;
+            this.inizio = inizio;
+        }
+    }
+
+    private final Path file;
+
+    /** Sessioni in corso in questa esecuzione, per ID (provvisorio se creata senza database). */
+    private final Map<Integer, Voce> attive = new LinkedHashMap<>();
+
+    /** Sessioni lasciate aperte da un'esecuzione precedente e non ancora chiuse, con la loro fine. */
+    private final Map<Integer, LocalDateTime> interrotte = new LinkedHashMap<>();
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Crea un diario sul file indicato, leggendo le sessioni rimaste da un'esecuzione precedente.
+     * @param file Il file del diario.
+     */
+    public DiarioTimer(Path file) {
+        this.file = file;
+        carica();
+    }
+
+    /**
+     * Restituisce il diario dell'applicazione, in {@code timer} sotto la cartella di lavoro.
+     * @return Il diario.
+     */
+    public static synchronized DiarioTimer getInstance() {
+        if (instance == null) {
+            instance = new DiarioTimer(Paths.get(System.getProperty("user.dir"), "timer", "sessioni-attive.bin"));
+        }
+        return instance;
+    }
+
+    /**
+     * Registra una sessione appena avviata.
+     *
+     * @param idSession L'ID della sessione (anche provvisorio).
+     * @param idTask    L'ID del task.
+     * @param inizio    L'orario di inizio.
+     */
+    public synchronized void apri(int idSession, int idTask, LocalDateTime inizio) {
+        attive.put(idSession, new Voce(idTask, inizio.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()));
+        riscrivi();
+        avviaBattito();
+    }
+
+    /**
+     * Toglie dal diario una sessione fermata (chiusa sul database o messa in coda).
+     * @param idSession L'ID con cui la sessione è stata registrata.
+     */
+    public synchronized void chiudi(int idSession) {
+        if (idSession <= 0 && !attive.containsKey(idSession)) {
+            // Il battito può averla già registrata con l'ID definitivo
+            Integer reale = CodaScritture.getInstance().idDefinitivo(idSession);
+            if (reale != null) idSession = reale;
+        }
+        if (attive.remove(idSession) != null) riscrivi();
+    }
+
+    /**
+     * Chiude le sessioni lasciate aperte da un'esecuzione interrotta.
+     * <p>
+     * Le sessioni con ID definitivo vengono chiuse con un'unica transazione
+     * ({@link DAOTimerSessions#stopSessions(Map)}); se il database non risponde, e per le sessioni
+     * create senza database, la chiusura passa dalla coda delle scritture, che la conserva fino
+     * al ritorno della connessione. Va chiamato fuori dal thread della UI.
+     * </p>
+     *
+     * @return Il numero di sessioni chiuse o messe in coda.
+     */
+    public int recupera() {
+        Map<Integer, LocalDateTime> daChiudere;
+        synchronized (this) {
+            if (interrotte.isEmpty()) return 0;
+            daChiudere = new LinkedHashMap<>(interrotte);
+        }
+
+        Map<Integer, LocalDateTime> definitive = new LinkedHashMap<>();
+        Map<Integer, LocalDateTime> inCoda = new LinkedHashMap<>();
+        for (Map.Entry<Integer, LocalDateTime> e : daChiudere.entrySet()) {
+            (e.getKey() > 0 ? definitive : inCoda).put(e.getKey(), e.getValue());
+        }
+
+        int recuperate = 0;
+        if (!definitive.isEmpty()) {
+            try {
+                Set<Integer> chiuse = DAOTimerSessions.getInstance().stopSessions(definitive);
+                recuperate += chiuse.size();
+            } catch (DAOException e) {
+                logger.warning("Chiusura delle sessioni interrotte non riuscita, uso la coda: " + e.getMessage());
+                inCoda.putAll(definitive);
+            }
+        }
+        for (Map.Entry<Integer, LocalDateTime> e : inCoda.entrySet()) {
+            try {
+                CodaScritture.getInstance().stopSession(e.getKey(), e.getValue());
+                recuperate++;
+            } catch (DAOException ex) {
+                // Rifiutata con il database raggiungibile: la sessione non esiste più
+                logger.warning("Sessione interrotta " + e.getKey() + " non chiusa: " + ex.getMessage());
+            }
+        }
+
+        synchronized (this) {
+            interrotte.keySet().removeAll(daChiudere.keySet());
+            riscrivi();
+        }
+        return recuperate;
+    }
+
+    /**
+     * @return Le sessioni interrotte lette dal diario e non ancora chiuse, con la fine calcolata.
+     */
+    synchronized Map<Integer, LocalDateTime> getInterrotte() {
+        return new LinkedHashMap<>(interrotte);
+    }
+
+    // ---------------------------------------------------------------- Battito
+
+    private void avviaBattito() {
+        if (executor != null) return;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "diario-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(this::battito,
+                INTERVALLO_BATTITO_SECONDI, INTERVALLO_BATTITO_SECONDI, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Aggiorna sul posto l'istante del battito. Se nel frattempo una sessione creata senza database
+     * ha ricevuto il suo ID definitivo, il diario viene invece riscritto con il nuovo ID.
+     */
+    private synchronized void battito() {
+        if (attive.isEmpty()) return;
+
+        boolean risolte = false;
+        for (Integer id : attive.keySet().toArray(new Integer[0])) {
+            if (id > 0) continue;
+            Integer reale = CodaScritture.getInstance().idDefinitivo(id);
+            if (reale != null) {
+                attive.put(reale, attive.remove(id));
+                risolte = true;
+            }
+        }
+        if (risolte) {
+            riscrivi();
+            return;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(8).putLong(0, System.currentTimeMillis());
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.write(buf, POSIZIONE_BATTITO);
+        } catch (IOException e) {
+            riscrivi();
+        }
+    }
+
+    // ---------------------------------------------------------------- File
+
+    /** Legge le sessioni rimaste nel file; con un file non valido si riparte da un diario vuoto. */
+    private void carica() {
+        if (!Files.isRegularFile(file)) return;
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (buf.remaining() < 24 || buf.getInt() != MAGICO || buf.getInt() != VERSIONE) return;
+            long battito = buf.getLong();
+
+            int n = buf.getInt();
+            if (n < 0 || buf.remaining() != n * 16 + 4) return;
+            CRC32 crc = new CRC32();
+            crc.update(buf.duplicate().limit(buf.position() + n * 16));
+            if ((int) crc.getValue() != buf.getInt(buf.limit() - 4)) return;
+
+            for (int i = 0; i < n; i++) {
+                int idSession = buf.getInt();
+                int idTask = buf.getInt();
+                long inizio = buf.getLong();
+                // Task 0: sessione già interrotta in precedenza, con la fine al posto dell'inizio
+                long istante = idTask == INTERROTTA ? inizio : Math.max(inizio, battito);
+                LocalDateTime fine = LocalDateTime.ofInstant(Instant.ofEpochMilli(istante),
+                        ZoneId.systemDefault()).withNano(0);
+                interrotte.put(idSession, fine);
+            }
+            if (n > 0) logger.info("Sessioni timer interrotte trovate nel diario: " + interrotte.keySet());
+        } catch (IOException e) {
+            logger.warning("Diario dei timer illeggibile: " + e.getMessage());
+        }
+    }
+
+    /** Riscrive il diario con le sessioni in corso e quelle interrotte non ancora chiuse. */
+    private void riscrivi() {
+        try {
+            if (attive.isEmpty() && interrotte.isEmpty()) {
+                Files.deleteIfExists(file);
+                return;
+            }
+
+            ByteArrayOutputStream sessioni = new ByteArrayOutputStream(16 * (attive.size() + interrotte.size()));
+            DataOutputStream out = new DataOutputStream(sessioni);
+            for (Map.Entry<Integer, Voce> e : attive.entrySet()) {
+                out.writeInt(e.getKey());
+                out.writeInt(e.getValue().idTask);
+                out.writeLong(e.getValue().inizio);
+            }
+            for (Map.Entry<Integer, LocalDateTime> e : interrotte.entrySet()) {
+                out.writeInt(e.getKey());
+                out.writeInt(INTERROTTA);
+                out.writeLong(e.getValue().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+            }
+            out.flush();
+            CRC32 crc = new CRC32();
+            crc.update(sessioni.toByteArray());
+
+            Files.createDirectories(file.getParent());
+            Path temporaneo = Files.createTempFile(file.getParent(), "sessioni-", ".tmp");
+            try {
+                try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaneo)))) {
+                    os.writeInt(MAGICO);
+                    os.writeInt(VERSIONE);
+                    os.writeLong(System.currentTimeMillis());
+                    os.writeInt(attive.size() + interrotte.size());
+                    sessioni.writeTo(os);
+                    os.writeInt((int) crc.getValue());
+                }
+                try {
+                    Files.move(temporaneo, file, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temporaneo, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temporaneo);
+            }
+        } catch (IOException e) {
+            logger.warning("Scrittura del diario dei timer non riuscita: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package it.unicas.project.template.address.util;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Copia in background dei file allegati nell'{@link ArchivioAllegati}.
+ * <p>
+ * La copia di un file grande (video, archivi) può richiedere secondi: eseguirla sul thread della UI
+ * bloccherebbe l'intera finestra. Ogni {@link Operazione} viene eseguita su un pool di thread dedicato,
+ * notifica l'avanzamento e può essere annullata; il record su database va inserito solo quando
+ * {@link Operazione#getRisultato()} si completa con successo.
+ * </p>
+ * <p>
+ * <strong>Thread:</strong> l'avanzamento viene notificato dal thread della copia; chi aggiorna la UI
+ * deve usare {@code Platform.runLater}.
+ * </p>
+ */
+public class IngestioneAllegati {
+
+    private static IngestioneAllegati instance = null;
+
+    private final ArchivioAllegati archivio;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        private final AtomicInteger contatore = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "ingestione-allegati-" + contatore.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * Crea un servizio di copia verso l'archivio indicato.
+     * @param archivio L'archivio di destinazione.
+     */
+    public IngestioneAllegati(ArchivioAllegati archivio) {
+        this.archivio = archivio;
+    }
+
+    /**
+     * Restituisce il servizio dell'applicazione, che copia nell'archivio di {@link ArchivioAllegati#getInstance()}.
+     * @return Il servizio.
+     */
+    public static synchronized IngestioneAllegati getInstance() {
+        if (instance == null) instance = new IngestioneAllegati(ArchivioAllegati.getInstance());
+        return instance;
+    }
+
+    /** Copia di un file in corso. */
+    public static final class Operazione {
+        private final CompletableFuture<ArchivioAllegati.Blob> risultato = new CompletableFuture<>();
+
+        /**
+         * Restituisce il risultato della copia. Si completa con il contenuto archiviato, oppure con
+         * l'errore di copia o con una {@link java.util.concurrent.CancellationException} se annullata.
+         * @return Il risultato.
+         */
+        public CompletableFuture<ArchivioAllegati.Blob> getRisultato() { return risultato; }
+
+        /** Annulla la copia: si interrompe al blocco successivo e il file temporaneo viene eliminato. */
+        public void annulla() { risultato.cancel(false); }
+
+        /** @return True se la copia è stata annullata. */
+        public boolean isAnnullata() { return risultato.isCancelled(); }
+    }
+
+    /**
+     * Avvia la copia di un file nell'archivio.
+     *
+     * @param sorgente   Il file da copiare.
+     * @param avanzamento Riceve la frazione copiata, da 0 a 1 (può essere null).
+     * @return L'operazione avviata.
+     */
+    public Operazione avvia(Path sorgente, DoubleConsumer avanzamento) {
+        Operazione op = new Operazione();
+        DoubleConsumer notifica = avanzamento != null ? avanzamento : f -> {};
+        executor.execute(() -> {
+            if (op.isAnnullata()) return;
+            try {
+                long totale = Files.size(sorgente);
+                notifica.accept(0);
+                ArchivioAllegati.Blob blob = archivio.salva(sorgente,
+                        copiati -> notifica.accept(totale > 0 ? (double) copiati / totale : 1),
+                        op::isAnnullata);
+                notifica.accept(1);
+                op.risultato.complete(blob);
+            } catch (Exception e) {
+                op.risultato.completeExceptionally(e);
+            }
+        });
+        return op;
+    }
+}
@@ -0,0 +1,223 @@
+package it.unicas.project.template.address.util;
+
+import it.unicas.project.template.address.model.Allegati;
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Miniature degli allegati di tipo immagine, per le liste degli allegati.
+ * <p>
+ * Le immagini vengono decodificate su un thread dedicato direttamente alla dimensione della miniatura
+ * (costruttore di {@link Image} con dimensione richiesta), quindi una foto di molti megapixel non viene
+ * mai caricata per intero in memoria né sul thread della UI. Ogni miniatura viene salvata come PNG in
+ * {@code attachments/thumbs}, così alle aperture successive basta leggere pochi KB, e tenuta in una
+ * {@link CacheLRU} la cui capacità è calcolata da un limite di memoria.
+ * </p>
+ * <p>
+ * La chiave è il percorso del file: nell'archivio allegati il percorso dipende solo dal contenuto,
+ * quindi gli allegati con lo stesso contenuto condividono la miniatura.
+ * </p>
+ */
+public class MiniatureAllegati {
+
+    /** Lato massimo delle miniature, in pixel. */
+    public static final int LATO = 48;
+
+    /** Memoria massima occupata dalle miniature in cache (4 byte per pixel). */
+    private static final long MEMORIA_MAX = 8L * 1024 * 1024;
+
+    private static final Set<String> ESTENSIONI = Set.of("png", "jpg", "jpeg", "gif", "bmp");
+
+    private static MiniatureAllegati instance = null;
+
+    private final Path cartella;
+    private final CacheLRU<String, Image> cache = new CacheLRU<>((int) (MEMORIA_MAX / (LATO * LATO * 4L)));
+    /** Miniature in preparazione: più celle che chiedono la stessa immagine aspettano la stessa decodifica. */
+    private final Map<String, CompletableFuture<Image>> inCorso = new ConcurrentHashMap<>();
+    /** File che non è stato possibile decodificare, per non riprovare a ogni aggiornamento della lista. */
+    private final Set<String> nonDisponibili = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "miniature-allegati");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    /**
+     * Restituisce la cartella in cui sono salvate le miniature.
+     * @return La cartella.
+     */
+    public Path getCartella() { return cartella; }
+
+    /**
+     * Crea un servizio che salva le miniature nella cartella indicata.
+     * @param cartella Cartella delle miniature.
+     */
+    public MiniatureAllegati(Path cartella) {
+        this.cartella = cartella;
+    }
+
+    /**
+     * Restituisce il servizio dell'applicazione, con le miniature in {@code attachments/thumbs}.
+     * @return Il servizio.
+     */
+    public static synchronized MiniatureAllegati getInstance() {
+        if (instance == null) {
+            instance = new MiniatureAllegati(Paths.get(System.getProperty("user.dir"), "attachments", "thumbs"));
+        }
+        return instance;
+    }
+
+    /**
+     * Indica se l'allegato è un'immagine di cui si può mostrare la miniatura.
+     * @param a L'allegato.
+     * @return True per i formati di immagine supportati da JavaFX.
+     */
+    public static boolean isImmagine(Allegati a) {
+        return a != null && a.getTipoFile() != null
+                && ESTENSIONI.contains(a.getTipoFile().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Mostra la miniatura dell'allegato nella vista indicata. Se è già in memoria viene impostata subito,
+     * altrimenti la vista resta vuota e viene aggiornata quando la miniatura è pronta, purché nel
+     * frattempo la cella non sia stata riusata per un altro allegato.
+     * <p>
+     * Da chiamare sul thread della UI (tipicamente da {@code updateItem} di una cella).
+     * </p>
+     *
+     * @param a     L'allegato.
+     * @param vista La vista in cui mostrare la miniatura.
+     */
+    public void mostra(Allegati a, ImageView vista) {
+        vista.setUserData(a);
+        String chiave = chiave(a);
+        Image pronta = (chiave != null) ? cache.get(chiave) : null;
+        vista.setImage(pronta);
+        if (pronta != null || chiave == null) return;
+
+        carica(a).thenAccept(img -> {
+            if (img != null) Platform.runLater(() -> {
+                if (vista.getUserData() == a) vista.setImage(img);
+            });
+        });
+    }
+
+    /**
+     * Prepara la miniatura di un allegato in background.
+     * @param a L'allegato.
+     * @return La miniatura, oppure null se l'allegato non è un'immagine leggibile.
+     */
+    public CompletableFuture<Image> carica(Allegati a) {
+        String chiave = chiave(a);
+        if (chiave == null || nonDisponibili.contains(chiave)) return CompletableFuture.completedFuture(null);
+
+        Image pronta = cache.get(chiave);
+        if (pronta != null) return CompletableFuture.completedFuture(pronta);
+
+        String percorso = a.getPercorsoFile();
+        CompletableFuture<Image> f = inCorso.computeIfAbsent(chiave, k -> CompletableFuture.supplyAsync(() -> {
+            Image img = genera(k, percorso);
+            if (img != null) cache.put(k, img);
+            else nonDisponibili.add(k);
+            return img;
+        }, executor));
+        f.whenComplete((img, ex) -> inCorso.remove(chiave, f));
+        return f;
+    }
+
+    /**
+     * Restituisce le metriche della cache in memoria, per il log.
+     * @return Descrizione delle metriche.
+     */
+    public String getMetricheCache() {
+        return cache.toString();
+    }
+
+    /** Legge la miniatura salvata oppure la genera dall'immagine originale e la salva. */
+    private Image genera(String chiave, String percorso) {
+        File salvata = cartella.resolve(chiave + "-" + LATO + ".png").toFile();
+        if (salvata.isFile()) {
+            Image img = new Image(salvata.toURI().toString());
+            if (!img.isError()) return img;
+        }
+
+        File originale = new File(percorso);
+        if (!originale.isFile()) return null;
+
+        // Decodifica già ridotta: JavaFX scala durante la lettura senza tenere l'immagine intera
+        Image img = new Image(originale.toURI().toString(), LATO, LATO, true, true, false);
+        if (img.isError() || img.getWidth() <= 0) return null;
+
+        try {
+            salva(img, salvata.toPath());
+        } catch (IOException e) {
+            // La miniatura resta comunque in memoria; verrà rigenerata al prossimo avvio
+            e.printStackTrace();
+        }
+        return img;
+    }
+
+    /** Scrive la miniatura come PNG, passando da un file temporaneo per non lasciare file a metà. */
+    private void salva(Image img, Path destinazione) throws IOException {
+        int w = (int) img.getWidth();
+        int h = (int) img.getHeight();
+        int[] pixel = new int[w * h];
+        img.getPixelReader().getPixels(0, 0, w, h, PixelFormat.getIntArgbInstance(), pixel, 0, w);
+
+        BufferedImage bi = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        bi.setRGB(0, 0, w, h, pixel, 0, w);
+
+        Files.createDirectories(destinazione.getParent());
+        Path temporaneo = Files.createTempFile(destinazione.getParent(), "thumb-", ".tmp");
+        try {
+            ImageIO.write(bi, "png", temporaneo.toFile());
+            Files.move(temporaneo, destinazione, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporaneo);
+        }
+    }
+
+    /** Chiave della miniatura: hash del percorso del file (null se non è un'immagine). */
+    private static String chiave(Allegati a) {
+        if (!isImmagine(a) || a.getPercorsoFile() == null) return null;
+        return chiave(a.getPercorsoFile());
+    }
+
+    /**
+     * Restituisce il nome (senza estensione) del file della miniatura di un percorso.
+     * @param percorso Il percorso dell'allegato.
+     * @return La chiave della miniatura.
+     */
+    static String chiave(String percorso) {
+        try {
+            byte[] h = MessageDigest.getInstance("SHA-256").digest(percorso.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(h, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 non disponibile", e);
+        }
+    }
+}
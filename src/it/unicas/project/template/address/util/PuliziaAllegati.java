@@ -0,0 +1,283 @@
+package it.unicas.project.template.address.util;
+
+import it.unicas.project.template.address.model.Allegati;
+import it.unicas.project.template.address.model.dao.DAOException;
+import it.unicas.project.template.address.model.dao.mysql.DAOAllegati;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Pulizia periodica dei file allegati che nessun record della tabella Allegati usa più
+ * (allegati o task eliminati, allegati aggiunti in un dialog poi annullato).
+ * <p>
+ * Ogni passata è divisa in due fasi:
+ * <ol>
+ *   <li><strong>marcatura</strong>: legge i percorsi di tutti gli allegati a pagine di {@value #PAGINA}
+ *       righe, con una pausa tra una pagina e l'altra per non caricare il database;</li>
+ *   <li><strong>spazzata</strong>: scorre la cartella {@code attachments} e sposta in
+ *       {@code attachments/quarantine} i file non marcati. I file in quarantena da più di
+ *       {@link #CONSERVAZIONE} vengono eliminati; quelli tornati in uso vengono ripristinati.</li>
+ * </ol>
+ * Un file viene confrontato per nome (il nome dei file dell'archivio è il digest, quello dei
+ * file meno recenti contiene un timestamp), così i percorsi salvati con un'altra cartella di
+ * lavoro non causano cancellazioni. I file modificati da meno di {@link #TOLLERANZA} non vengono
+ * mai toccati: la copia di un allegato precede l'inserimento del suo record.
+ * </p>
+ * <p>
+ * Le miniature in {@code attachments/thumbs} di file non più usati vengono eliminate subito,
+ * dato che si possono rigenerare.
+ * </p>
+ */
+public class PuliziaAllegati {
+
+    private static final Logger logger = Logger.getLogger(PuliziaAllegati.class.getName());
+
+    /** Righe di Allegati lette per ogni query della marcatura. */
+    static final int PAGINA = 500;
+
+    /** Pausa tra una pagina della marcatura e la successiva, e ogni {@link #FILE_PER_PAUSA} file esaminati. */
+    private static final long PAUSA_MS = 50;
+    private static final int FILE_PER_PAUSA = 200;
+
+    /** I file più recenti di così non vengono mai considerati orfani. */
+    static final Duration TOLLERANZA = Duration.ofHours(1);
+
+    /** Permanenza in quarantena prima dell'eliminazione definitiva. */
+    static final Duration CONSERVAZIONE = Duration.ofDays(7);
+
+    private static final long RITARDO_INIZIALE_MINUTI = 2;
+    private static final long INTERVALLO_ORE = 6;
+
+    private static PuliziaAllegati instance = null;
+
+    private final Path radice;
+    private final Path quarantena;
+    private final Path miniature;
+
+    private ScheduledExecutorService executor;
+
+    /** Esito di una passata di pulizia. */
+    public static final class Risultato {
+        private int fileInQuarantena;
+        private long byteInQuarantena;
+        private int fileRipristinati;
+        private int fileEliminati;
+        private long byteLiberati;
+
+        /** @return File spostati in quarantena in questa passata. */
+        public int getFileInQuarantena() { return fileInQuarantena; }
+
+        /** @return Byte dei file spostati in quarantena in questa passata. */
+        public long getByteInQuarantena() { return byteInQuarantena; }
+
+        /** @return File in quarantena ripristinati perché di nuovo in uso. */
+        public int getFileRipristinati() { return fileRipristinati; }
+
+        /** @return File eliminati definitivamente (miniature e quarantena scaduta). */
+        public int getFileEliminati() { return fileEliminati; }
+
+        /** @return Byte liberati sul disco. */
+        public long getByteLiberati() { return byteLiberati; }
+
+        @Override
+        public String toString() {
+            return "in quarantena " + fileInQuarantena + " file (" + byteInQuarantena + " byte), "
+                    + "ripristinati " + fileRipristinati + ", "
+                    + "eliminati " + fileEliminati + " file (" + byteLiberati + " byte liberati)";
+        }
+    }
+
+    /**
+     * Crea un servizio di pulizia per la cartella degli allegati indicata.
+     * @param radice La cartella {@code attachments}.
+     */
+    public PuliziaAllegati(Path radice) {
+        this.radice = radice;
+        this.quarantena = radice.resolve("quarantine");
+        this.miniature = radice.resolve("thumbs");
+    }
+
+    /**
+     * Restituisce il servizio dell'applicazione, sulla cartella {@code attachments} sotto la cartella di lavoro.
+     * @return Il servizio.
+     */
+    public static synchronized PuliziaAllegati getInstance() {
+        if (instance == null) {
+            instance = new PuliziaAllegati(Paths.get(System.getProperty("user.dir"), "attachments"));
+        }
+        return instance;
+    }
+
+    /**
+     * Pianifica la pulizia in background: la prima passata poco dopo l'avvio, poi a intervalli regolari.
+     * Le chiamate successive non hanno effetto.
+     */
+    public synchronized void avvia() {
+        if (executor != null) return;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pulizia-allegati");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                Risultato r = esegui();
+                logger.info("Pulizia allegati completata: " + r);
+            } catch (DAOException | IOException e) {
+                logger.warning("Pulizia allegati non riuscita: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, RITARDO_INIZIALE_MINUTI, TimeUnit.MINUTES.convert(INTERVALLO_ORE, TimeUnit.HOURS), TimeUnit.MINUTES);
+    }
+
+    /**
+     * Esegue subito una passata completa di pulizia sul thread chiamante.
+     *
+     * @return L'esito della passata.
+     * @throws DAOException         Se la marcatura non riesce: in quel caso nessun file viene toccato.
+     * @throws IOException          In caso di errore sul file system.
+     * @throws InterruptedException Se il thread viene interrotto durante le pause.
+     */
+    public synchronized Risultato esegui() throws DAOException, IOException, InterruptedException {
+        if (!Files.isDirectory(radice)) return new Risultato();
+
+        // 1. Marcatura: nomi dei file in uso e chiavi delle relative miniature
+        Set<String> inUso = new HashSet<>();
+        Set<String> miniatureInUso = new HashSet<>();
+        int ultimoId = 0;
+        while (true) {
+            List<Allegati> pagina = DAOAllegati.getInstance().selectPercorsi(ultimoId, PAGINA);
+            for (Allegati a : pagina) {
+                ultimoId = a.getIdAllegato();
+                String percorso = a.getPercorsoFile();
+                if (percorso == null || percorso.isEmpty()) continue;
+                inUso.add(nomeFile(percorso));
+                miniatureInUso.add(MiniatureAllegati.chiave(percorso));
+            }
+            if (pagina.size() < PAGINA) break;
+            Thread.sleep(PAUSA_MS);
+        }
+        return spazza(inUso, miniatureInUso);
+    }
+
+    /**
+     * Spazzata della cartella e gestione della quarantena, dati i file marcati come in uso.
+     *
+     * @param inUso          Nomi dei file usati da almeno un allegato.
+     * @param miniatureInUso Chiavi delle miniature dei file in uso.
+     * @return L'esito della passata.
+     * @throws IOException          In caso di errore sul file system.
+     * @throws InterruptedException Se il thread viene interrotto durante le pause.
+     */
+    synchronized Risultato spazza(Set<String> inUso, Set<String> miniatureInUso) throws IOException, InterruptedException {
+        Risultato risultato = new Risultato();
+        if (!Files.isDirectory(radice)) return risultato;
+
+        long soglia = System.currentTimeMillis() - TOLLERANZA.toMillis();
+
+        // 2. Spazzata della cartella degli allegati (quarantena esclusa)
+        int[] esaminati = {0};
+        Files.walkFileTree(radice, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return dir.equals(quarantena) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (++esaminati[0] % FILE_PER_PAUSA == 0 && !pausa()) return FileVisitResult.TERMINATE;
+                if (!attrs.isRegularFile() || attrs.lastModifiedTime().toMillis() > soglia) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                String nome = file.getFileName().toString();
+                if (file.getParent().equals(miniature)) {
+                    int trattino = nome.indexOf('-');
+                    String chiave = trattino > 0 ? nome.substring(0, trattino) : nome;
+                    if (!miniatureInUso.contains(chiave) && Files.deleteIfExists(file)) {
+                        risultato.fileEliminati++;
+                        risultato.byteLiberati += attrs.size();
+                    }
+                } else if (!inUso.contains(nome)) {
+                    Path destinazione = quarantena.resolve(radice.relativize(file));
+                    Files.createDirectories(destinazione.getParent());
+                    Files.move(file, destinazione, StandardCopyOption.REPLACE_EXISTING);
+                    // La data di modifica segna l'ingresso in quarantena
+                    Files.setLastModifiedTime(destinazione, FileTime.fromMillis(System.currentTimeMillis()));
+                    risultato.fileInQuarantena++;
+                    risultato.byteInQuarantena += attrs.size();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        // 3. Quarantena: ripristino dei file tornati in uso, eliminazione di quelli scaduti
+        if (Files.isDirectory(quarantena)) {
+            long scadenza = System.currentTimeMillis() - CONSERVAZIONE.toMillis();
+            Files.walkFileTree(quarantena, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (++esaminati[0] % FILE_PER_PAUSA == 0 && !pausa()) return FileVisitResult.TERMINATE;
+
+                    if (inUso.contains(file.getFileName().toString())) {
+                        Path originale = radice.resolve(quarantena.relativize(file));
+                        Files.createDirectories(originale.getParent());
+                        Files.move(file, originale, StandardCopyOption.REPLACE_EXISTING);
+                        risultato.fileRipristinati++;
+                    } else if (attrs.lastModifiedTime().toMillis() < scadenza && Files.deleteIfExists(file)) {
+                        risultato.fileEliminati++;
+                        risultato.byteLiberati += attrs.size();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    if (!dir.equals(quarantena)) {
+                        try (var contenuto = Files.list(dir)) {
+                            if (contenuto.findAny().isEmpty()) Files.delete(dir);
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        if (Thread.currentThread().isInterrupted()) throw new InterruptedException("Pulizia allegati interrotta");
+        return risultato;
+    }
+
+    /** Pausa tra un blocco di file e il successivo; restituisce false se il thread è stato interrotto. */
+    private static boolean pausa() {
+        try {
+            Thread.sleep(PAUSA_MS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** Nome del file di un percorso salvato, indipendente dal separatore del sistema che l'ha salvato. */
+    private static String nomeFile(String percorso) {
+        int i = Math.max(percorso.lastIndexOf('/'), percorso.lastIndexOf('\\'));
+        return percorso.substring(i + 1);
+    }
+}
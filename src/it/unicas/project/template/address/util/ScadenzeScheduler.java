@@ -0,0 +1,260 @@
+package it.unicas.project.template.address.util;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Pianificatore dei promemoria di scadenza.
+ * <p>
+ * Per ogni task non completato con una scadenza {@code D} calcola gli istanti in cui il task entra
+ * nelle finestre di urgenza: {@link Finestra#DOMANI} a mezzanotte del giorno {@code D-1},
+ * {@link Finestra#OGGI} a mezzanotte di {@code D} e {@link Finestra#SCADUTO} a mezzanotte di {@code D+1}.
+ * Questi istanti sono tenuti in una coda di priorità e un solo timer è armato sul più vicino:
+ * quando scatta vengono notificati gli {@link Evento} dei task interessati, senza mai riesaminare
+ * l'intera lista dei task.
+ * </p>
+ * <p>
+ * Il pianificatore va alimentato in modo incrementale con {@link #aggiorna(int, LocalDate, boolean)}
+ * (task creato o modificato) e {@link #rimuovi(int)} (task eliminato). Le voci rese obsolete da un
+ * aggiornamento restano in coda ma vengono scartate grazie a un numero di versione per task.
+ * </p>
+ * <p>
+ * <strong>Thread:</strong> i listener vengono chiamati dal thread interno del pianificatore
+ * (o da quello che ha chiamato {@code aggiorna}/{@code rimuovi}); chi aggiorna la UI deve
+ * usare {@code Platform.runLater}.
+ * </p>
+ */
+public class ScadenzeScheduler {
+
+    /** Finestre di urgenza, in ordine di ingresso. */
+    public enum Finestra { DOMANI, OGGI, SCADUTO }
+
+    /**
+     * Cambio di finestra di un task.
+     * {@code precedente} o {@code nuova} valgono null quando il task entra o esce dalle finestre di urgenza.
+     */
+    public static final class Evento {
+        private final int idTask;
+        private final Finestra precedente;
+        private final Finestra nuova;
+
+        Evento(int idTask, Finestra precedente, Finestra nuova) {
+            this.idTask = idTask;
+            this.precedente = precedente;
+            this.nuova = nuova;
+        }
+
+        /** @return L'ID del task. */
+        public int getIdTask() { return idTask; }
+
+        /** @return La finestra in cui si trovava il task (null se non era urgente). */
+        public Finestra getPrecedente() { return precedente; }
+
+        /** @return La finestra in cui si trova ora il task (null se non è più urgente). */
+        public Finestra getNuova() { return nuova; }
+    }
+
+    /** Voce della coda: ingresso del task {@code idTask} nella finestra {@code finestra} all'istante {@code quando}. */
+    private static final class Voce implements Comparable<Voce> {
+        final long quando;
+        final int idTask;
+        final Finestra finestra;
+        final long versione;
+
+        Voce(long quando, int idTask, Finestra finestra, long versione) {
+            this.quando = quando;
+            this.idTask = idTask;
+            this.finestra = finestra;
+            this.versione = versione;
+        }
+
+        @Override
+        public int compareTo(Voce o) { return Long.compare(quando, o.quando); }
+    }
+
+    private final Clock clock;
+    private final PriorityQueue<Voce> coda = new PriorityQueue<>();
+    /** Versione corrente delle voci di ogni task: le voci con versione diversa sono obsolete. */
+    private final Map<Integer, Long> versioni = new HashMap<>();
+    /** Ultimi dati ricevuti per task, per ignorare gli aggiornamenti che non cambiano nulla. */
+    private final Map<Integer, LocalDate> scadenze = new HashMap<>();
+    /** Finestra attuale dei soli task urgenti. */
+    private final Map<Integer, Finestra> finestre = new HashMap<>();
+    private final List<Consumer<Evento>> listeners = new CopyOnWriteArrayList<>();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "scadenze-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+    private ScheduledFuture<?> prossimo;
+    private long prossimoQuando = Long.MAX_VALUE;
+    private long contatoreVersioni = 0;
+
+    /** Crea un pianificatore basato sull'orologio di sistema. */
+    public ScadenzeScheduler() {
+        this(Clock.systemDefaultZone());
+    }
+
+    /**
+     * Crea un pianificatore basato sull'orologio indicato.
+     * @param clock Orologio da usare (il fuso orario determina la mezzanotte).
+     */
+    public ScadenzeScheduler(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Registra un listener per i cambi di finestra.
+     * @param listener Il listener.
+     */
+    public void addListener(Consumer<Evento> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Inserisce o aggiorna un task. Se il task si trova già in una finestra diversa da quella
+     * nota, l'evento viene notificato subito; gli ingressi futuri vengono messi in coda.
+     *
+     * @param idTask     L'ID del task.
+     * @param scadenza   La data di scadenza (null se assente).
+     * @param completato True se il task è completato (nessun promemoria).
+     */
+    public void aggiorna(int idTask, LocalDate scadenza, boolean completato) {
+        LocalDate effettiva = completato ? null : scadenza;
+        List<Evento> eventi = new ArrayList<>();
+
+        synchronized (this) {
+            if (scadenze.containsKey(idTask) && Objects.equals(scadenze.get(idTask), effettiva)) return;
+            scadenze.put(idTask, effettiva);
+
+            long versione = ++contatoreVersioni;
+            versioni.put(idTask, versione);
+
+            Finestra nuova = null;
+            if (effettiva != null) {
+                long adesso = clock.millis();
+                long[] ingressi = ingressi(effettiva);
+                for (Finestra f : Finestra.values()) {
+                    long quando = ingressi[f.ordinal()];
+                    if (quando <= adesso) nuova = f;
+                    else coda.add(new Voce(quando, idTask, f, versione));
+                }
+            }
+            cambiaFinestra(idTask, nuova, eventi);
+            armaTimer();
+        }
+        notifica(eventi);
+    }
+
+    /**
+     * Rimuove un task (es. eliminato). Se era urgente viene notificata l'uscita dalla finestra.
+     * @param idTask L'ID del task.
+     */
+    public void rimuovi(int idTask) {
+        List<Evento> eventi = new ArrayList<>();
+        synchronized (this) {
+            scadenze.remove(idTask);
+            versioni.remove(idTask);
+            cambiaFinestra(idTask, null, eventi);
+        }
+        notifica(eventi);
+    }
+
+    /**
+     * Restituisce la finestra di urgenza attuale di un task.
+     * @param idTask L'ID del task.
+     * @return La finestra, oppure null se il task non è urgente.
+     */
+    public synchronized Finestra getFinestra(int idTask) {
+        return finestre.get(idTask);
+    }
+
+    /**
+     * Restituisce il numero di task attualmente in una finestra di urgenza.
+     * @return Numero di task urgenti.
+     */
+    public synchronized int getNumeroUrgenti() {
+        return finestre.size();
+    }
+
+    /**
+     * Ferma il thread del pianificatore e scollega i listener, che non tengono più in vita chi li
+     * ha registrati (ad esempio la schermata principale dopo il logout).
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        listeners.clear();
+    }
+
+    /** Istanti (epoch millis) di ingresso in DOMANI, OGGI e SCADUTO per una scadenza. */
+    private long[] ingressi(LocalDate scadenza) {
+        ZoneId zona = clock.getZone();
+        return new long[] {
+                scadenza.minusDays(1).atStartOfDay(zona).toInstant().toEpochMilli(),
+                scadenza.atStartOfDay(zona).toInstant().toEpochMilli(),
+                scadenza.plusDays(1).atStartOfDay(zona).toInstant().toEpochMilli()
+        };
+    }
+
+    /** Aggiorna la finestra di un task e accoda l'evento se è cambiata. Da chiamare con il lock. */
+    private void cambiaFinestra(int idTask, Finestra nuova, List<Evento> eventi) {
+        Finestra precedente = (nuova != null) ? finestre.put(idTask, nuova) : finestre.remove(idTask);
+        if (precedente != nuova) eventi.add(new Evento(idTask, precedente, nuova));
+    }
+
+    /** Arma il timer sulla voce più vicina, se è più vicina di quella già programmata. Da chiamare con il lock. */
+    private void armaTimer() {
+        Voce testa = coda.peek();
+        if (testa == null || testa.quando >= prossimoQuando) return;
+
+        if (prossimo != null) prossimo.cancel(false);
+        prossimoQuando = testa.quando;
+        long ritardo = Math.max(0, testa.quando - clock.millis());
+        prossimo = executor.schedule(this::scatta, ritardo, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Estrae dalla coda tutte le voci scadute e notifica i cambi di finestra.
+     * Chiamato dal timer; visibile nel package per i test con un orologio controllato.
+     */
+    void scatta() {
+        List<Evento> eventi = new ArrayList<>();
+        synchronized (this) {
+            prossimo = null;
+            prossimoQuando = Long.MAX_VALUE;
+            long adesso = clock.millis();
+
+            while (!coda.isEmpty() && coda.peek().quando <= adesso) {
+                Voce v = coda.poll();
+                Long versione = versioni.get(v.idTask);
+                if (versione != null && versione == v.versione) {
+                    cambiaFinestra(v.idTask, v.finestra, eventi);
+                }
+            }
+            armaTimer();
+        }
+        notifica(eventi);
+    }
+
+    private void notifica(List<Evento> eventi) {
+        for (Evento e : eventi) {
+            for (Consumer<Evento> l : listeners) {
+                try { l.accept(e); } catch (RuntimeException ex) { ex.printStackTrace(); }
+            }
+        }
+    }
+}
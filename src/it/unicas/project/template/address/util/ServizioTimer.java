@@ -0,0 +1,244 @@
+package it.unicas.project.template.address.util;
+
+import it.unicas.project.template.address.model.TimerSessions;
+import it.unicas.project.template.address.model.dao.DAOException;
+import it.unicas.project.template.address.model.dao.mysql.CodaScritture;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.scene.control.Label;
+import javafx.util.Duration;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+/**
+ * Timer dei task, anche più di uno in esecuzione contemporaneamente.
+ * <p>
+ * Il tempo trascorso non viene contato a scatti ma calcolato da {@link System#nanoTime()}: un
+ * ritardo del thread della UI rallenta al più l'aggiornamento del display, mai il conteggio.
+ * L'orario di fine salvato sul database è l'inizio più i secondi interi trascorsi, gli stessi
+ * mostrati dal display, così la durata registrata coincide sempre con quella vista.
+ * </p>
+ * <p>
+ * Un'unica {@link Timeline}, attiva solo mentre almeno un timer è in esecuzione, aggiorna le sole
+ * etichette collegate con {@link #mostra(Label, int)} e solo quando cambia il secondo mostrato.
+ * Avvio e arresto registrano la sessione sul database (o nella coda delle scritture) e nel
+ * {@link DiarioTimer}. Tutti i metodi vanno chiamati dal thread della UI.
+ * </p>
+ */
+public class ServizioTimer {
+
+    private static final Logger logger = Logger.getLogger(ServizioTimer.class.getName());
+
+    /** Intervallo di aggiornamento delle etichette: il secondo mostrato cambia con al più questo ritardo. */
+    private static final Duration INTERVALLO = Duration.millis(250);
+
+    private static ServizioTimer instance = null;
+
+    /** Timer in esecuzione di un task. */
+    private static final class Cronometro {
+        final long inizioNano;
+        final LocalDateTime inizio;
+        /** ID della sessione sul database (provvisorio se creata senza database, -1 se non salvata). */
+        final CompletableFuture<Integer> sessione;
+
+        Cronometro(long inizioNano, LocalDateTime inizio, CompletableFuture<Integer> sessione) {
+            this.inizioNano = inizioNano;
+            this.inizio = inizio;
+            this.sessione = sessione;
+        }
+
+        long secondi() {
+            return secondiTrascorsi(inizioNano, System.nanoTime());
+        }
+    }
+
+    /** Etichetta collegata a un task, con l'ultimo valore mostrato. */
+    private static final class Visualizzazione {
+        final int idTask;
+        long mostrato = -1;
+
+        Visualizzazione(int idTask) {
+            this.idTask = idTask;
+        }
+    }
+
+    private final Map<Integer, Cronometro> attivi = new LinkedHashMap<>();
+    private final Map<Label, Visualizzazione> etichette = new HashMap<>();
+    private final Timeline battito;
+
+    private ServizioTimer() {
+        battito = new Timeline(new KeyFrame(INTERVALLO, e -> aggiornaEtichette()));
+        battito.setCycleCount(Animation.INDEFINITE);
+    }
+
+    /**
+     * Restituisce il servizio dell'applicazione.
+     * @return Il servizio.
+     */
+    public static synchronized ServizioTimer getInstance() {
+        if (instance == null) instance = new ServizioTimer();
+        return instance;
+    }
+
+    /**
+     * Avvia il timer di un task e apre la relativa sessione in background.
+     * Se il timer del task è già in esecuzione non fa nulla.
+     *
+     * @param idTask L'ID del task.
+     */
+    public void avvia(int idTask) {
+        if (attivi.containsKey(idTask)) return;
+
+        long inizioNano = System.nanoTime();
+        LocalDateTime inizio = LocalDateTime.now().withNano(0);
+        CompletableFuture<Integer> sessione = CompletableFuture.supplyAsync(() -> apriSessione(idTask, inizio));
+        attivi.put(idTask, new Cronometro(inizioNano, inizio, sessione));
+
+        aggiornaEtichette();
+        if (battito.getStatus() != Animation.Status.RUNNING) battito.play();
+    }
+
+    /**
+     * Ferma il timer di un task e chiude la relativa sessione in background, dopo che la sua
+     * apertura è stata completata. Le etichette del task restano sul tempo finale.
+     *
+     * @param idTask L'ID del task.
+     * @return L'ID della sessione chiusa sul database, oppure -1 se il timer non era attivo,
+     *         se la sessione non è stata salvata o se la chiusura è rimasta in coda.
+     */
+    public CompletableFuture<Integer> ferma(int idTask) {
+        Cronometro c = attivi.remove(idTask);
+        if (c == null) return CompletableFuture.completedFuture(-1);
+        if (attivi.isEmpty()) battito.stop();
+
+        long secondi = c.secondi();
+        LocalDateTime fine = fine(c.inizio, secondi);
+        for (Map.Entry<Label, Visualizzazione> e : etichette.entrySet()) {
+            if (e.getValue().idTask == idTask) mostraSecondi(e.getKey(), e.getValue(), secondi);
+        }
+        return c.sessione.thenApplyAsync(idSession -> chiudiSessione(idSession, fine));
+    }
+
+    /**
+     * Ferma tutti i timer in esecuzione (ad esempio al logout).
+     * @return Completato quando tutte le sessioni sono state chiuse o messe in coda.
+     */
+    public CompletableFuture<Void> fermaTutti() {
+        List<CompletableFuture<Integer>> chiusure = new ArrayList<>();
+        for (Integer idTask : new ArrayList<>(attivi.keySet())) chiusure.add(ferma(idTask));
+        return CompletableFuture.allOf(chiusure.toArray(CompletableFuture<?>[]::new));
+    }
+
+    /**
+     * @param idTask L'ID del task.
+     * @return True se il timer del task è in esecuzione.
+     */
+    public boolean isAttivo(int idTask) {
+        return attivi.containsKey(idTask);
+    }
+
+    /**
+     * @param idTask L'ID del task.
+     * @return I secondi trascorsi dall'avvio del timer del task, 0 se non è in esecuzione.
+     */
+    public long getSecondi(int idTask) {
+        Cronometro c = attivi.get(idTask);
+        return c != null ? c.secondi() : 0;
+    }
+
+    /**
+     * Collega un'etichetta al timer di un task, al posto del task a cui era collegata.
+     * Se il timer è in esecuzione l'etichetta viene aggiornata subito; altrimenti resta invariata.
+     *
+     * @param etichetta L'etichetta del tempo trascorso.
+     * @param idTask    L'ID del task.
+     */
+    public void mostra(Label etichetta, int idTask) {
+        Visualizzazione v = new Visualizzazione(idTask);
+        etichette.put(etichetta, v);
+        Cronometro c = attivi.get(idTask);
+        if (c != null) mostraSecondi(etichetta, v, c.secondi());
+    }
+
+    /**
+     * Scollega un'etichetta, che non verrà più aggiornata.
+     * @param etichetta L'etichetta.
+     */
+    public void nascondi(Label etichetta) {
+        etichette.remove(etichetta);
+    }
+
+    /**
+     * Formatta una durata come {@code hh:mm:ss}.
+     * @param secondi La durata in secondi.
+     * @return La durata formattata.
+     */
+    public static String formatta(long secondi) {
+        return String.format("%02d:%02d:%02d", secondi / 3600, (secondi % 3600) / 60, secondi % 60);
+    }
+
+    /**
+     * Secondi interi trascorsi tra due letture di {@link System#nanoTime()}. Conta solo la
+     * differenza, anche se il contatore ha superato il massimo tra le due letture.
+     */
+    static long secondiTrascorsi(long inizioNano, long oraNano) {
+        return (oraNano - inizioNano) / 1_000_000_000L;
+    }
+
+    /** Orario di fine da salvare: l'inizio più i secondi interi mostrati dal display. */
+    static LocalDateTime fine(LocalDateTime inizio, long secondi) {
+        return inizio.plusSeconds(secondi);
+    }
+
+    private void aggiornaEtichette() {
+        for (Map.Entry<Label, Visualizzazione> e : etichette.entrySet()) {
+            Cronometro c = attivi.get(e.getValue().idTask);
+            if (c != null) mostraSecondi(e.getKey(), e.getValue(), c.secondi());
+        }
+    }
+
+    private static void mostraSecondi(Label etichetta, Visualizzazione v, long secondi) {
+        if (v.mostrato == secondi) return;
+        v.mostrato = secondi;
+        etichetta.setText(formatta(secondi));
+    }
+
+    // ---------------------------------------------------------------- Sessioni
+
+    private static int apriSessione(int idTask, LocalDateTime inizio) {
+        try {
+            TimerSessions session = new TimerSessions();
+            session.setIdTask(idTask);
+            session.setNome("Sessione");
+            session.setInizio(inizio);
+            // Senza database la sessione riceve un ID provvisorio dalla coda delle scritture
+            CodaScritture.getInstance().insert(session);
+            // Se l'applicazione si interrompe, la sessione verrà chiusa al prossimo avvio
+            DiarioTimer.getInstance().apri(session.getIdSession(), idTask, inizio);
+            return session.getIdSession();
+        } catch (DAOException e) {
+            logger.warning("Apertura della sessione del timer non riuscita: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    private static int chiudiSessione(int idSession, LocalDateTime fine) {
+        if (idSession == -1) return -1;
+        try {
+            boolean salvata = CodaScritture.getInstance().stopSession(idSession, fine);
+            DiarioTimer.getInstance().chiudi(idSession);
+            return salvata ? idSession : -1;
+        } catch (DAOException e) {
+            logger.warning("Chiusura della sessione del timer non riuscita: " + e.getMessage());
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package it.unicas.project.template.address.util;
+
+import it.unicas.project.template.address.model.Allegati;
+import it.unicas.project.template.address.model.Categorie;
+import it.unicas.project.template.address.model.SubTasks;
+import it.unicas.project.template.address.model.Tasks;
+import it.unicas.project.template.address.model.TimerSessions;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Copia locale su file dei task, delle categorie e dei dettagli dei task (descrizioni complete,
+ * subtask, sessioni del timer e allegati) di un utente.
+ * <p>
+ * È il formato con cui la replica locale ({@code ReplicaLocale}) conserva i dati tra un avvio e
+ * l'altro: all'avvio la lista dei task viene mostrata subito da questa copia, senza attendere il
+ * database remoto, e la sincronizzazione riparte dal punto salvato ({@link Contenuto#getWatermark()}).
+ * </p>
+ * <p>
+ * Il file ({@code snapshot/utente-<id>.bin}) è in formato binario compatto: intestazione con numero
+ * magico, versione e watermark, le categorie, i task, i dettagli e in coda un CRC32 del contenuto. Viene letto
+ * per intero in memoria con una sola lettura, senza mapparlo (su Windows un file mappato non si può
+ * sostituire finché la mappatura non viene rilasciata dal garbage collector), e scritto su un file
+ * temporaneo poi rinominato, così un'interruzione non lascia mai un file a metà. Un file illeggibile o di un'altra versione viene semplicemente ignorato.
+ * </p>
+ */
+public class SnapshotLocale {
+
+    private static final int MAGICO = 0x544D5331; // "TMS1"
+    private static final int VERSIONE = 3;
+
+    private static final int COMPLETATO = 1;
+    private static final int DESCRIZIONE_COMPLETA = 2;
+
+    private static SnapshotLocale instance = null;
+
+    private final Path cartella;
+
+    /** Dettagli dei task: quello che il pannello dettagli mostra oltre ai campi dell'elenco. */
+    public static final class Dettagli {
+        private final Map<Integer, String> descrizioni;
+        private final List<SubTasks> subTasks;
+        private final List<TimerSessions> sessioni;
+        private final List<Allegati> allegati;
+
+        /**
+         * @param descrizioni Descrizioni complete dei task di cui l'elenco ha solo l'anteprima, per ID task.
+         * @param subTasks    I subtask.
+         * @param sessioni    Le sessioni del timer.
+         * @param allegati    Gli allegati (solo i dati, non i file).
+         */
+        public Dettagli(Map<Integer, String> descrizioni, List<SubTasks> subTasks,
+                        List<TimerSessions> sessioni, List<Allegati> allegati) {
+            this.descrizioni = descrizioni;
+            this.subTasks = subTasks;
+            this.sessioni = sessioni;
+            this.allegati = allegati;
+        }
+
+        /** @return Nessun dettaglio. */
+        public static Dettagli vuoti() {
+            return new Dettagli(Map.of(), List.of(), List.of(), List.of());
+        }
+
+        /** @return Le descrizioni complete dei task troncati nell'elenco, per ID task. */
+        public Map<Integer, String> getDescrizioni() { return descrizioni; }
+
+        /** @return I subtask. */
+        public List<SubTasks> getSubTasks() { return subTasks; }
+
+        /** @return Le sessioni del timer. */
+        public List<TimerSessions> getSessioni() { return sessioni; }
+
+        /** @return Gli allegati. */
+        public List<Allegati> getAllegati() { return allegati; }
+    }
+
+    /** Dati letti dalla copia locale. */
+    public static final class Contenuto {
+        private final long salvatoIl;
+        private final long watermark;
+        private final List<Categorie> categorie;
+        private final List<Tasks> tasks;
+        private final Dettagli dettagli;
+
+        Contenuto(long salvatoIl, long watermark, List<Categorie> categorie, List<Tasks> tasks, Dettagli dettagli) {
+            this.salvatoIl = salvatoIl;
+            this.watermark = watermark;
+            this.categorie = categorie;
+            this.tasks = tasks;
+            this.dettagli = dettagli;
+        }
+
+        /** @return Istante di scrittura della copia (epoch millis). */
+        public long getSalvatoIl() { return salvatoIl; }
+
+        /** @return Istante (epoch millis, orologio del database) dell'ultima modifica già compresa nella copia. */
+        public long getWatermark() { return watermark; }
+
+        /** @return Le categorie dell'utente. */
+        public List<Categorie> getCategorie() { return categorie; }
+
+        /** @return I task dell'utente, con la sola anteprima della descrizione. */
+        public List<Tasks> getTasks() { return tasks; }
+
+        /** @return I dettagli dei task dell'utente. */
+        public Dettagli getDettagli() { return dettagli; }
+    }
+
+    /**
+     * Crea un gestore delle copie locali nella cartella indicata.
+     * @param cartella Cartella dei file.
+     */
+    public SnapshotLocale(Path cartella) {
+        this.cartella = cartella;
+    }
+
+    /**
+     * Restituisce il gestore dell'applicazione, con i file in {@code snapshot} sotto la cartella di lavoro.
+     * @return Il gestore.
+     */
+    public static synchronized SnapshotLocale getInstance() {
+        if (instance == null) instance = new SnapshotLocale(Paths.get(System.getProperty("user.dir"), "snapshot"));
+        return instance;
+    }
+
+    /**
+     * Legge la copia locale di un utente.
+     * @param idUtente L'ID dell'utente.
+     * @return Il contenuto, oppure null se la copia non esiste o non è valida.
+     */
+    public Contenuto leggi(int idUtente) {
+        Path file = file(idUtente);
+        if (!Files.isRegularFile(file)) return null;
+
+        try {
+            long dimensioneFile = Files.size(file);
+            if (dimensioneFile < 32 || dimensioneFile > Integer.MAX_VALUE - 8) return null;
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+            int dimensione = buf.limit();
+            if (dimensione < 32) return null;
+
+            // Il CRC in coda copre tutto il resto del file
+            CRC32 crc = new CRC32();
+            crc.update(buf.duplicate().limit(dimensione - 4));
+            if ((int) crc.getValue() != buf.getInt(dimensione - 4)) return null;
+
+            if (buf.getInt() != MAGICO || buf.getInt() != VERSIONE || buf.getInt() != idUtente) return null;
+            long salvatoIl = buf.getLong();
+            long watermark = buf.getLong();
+
+            int nCategorie = buf.getInt();
+            List<Categorie> categorie = new ArrayList<>(nCategorie);
+            for (int i = 0; i < nCategorie; i++) {
+                int id = buf.getInt();
+                Categorie c = new Categorie(leggiStringa(buf), id);
+                c.setIdUtente(idUtente);
+                categorie.add(c);
+            }
+
+            int nTasks = buf.getInt();
+            List<Tasks> tasks = new ArrayList<>(nTasks);
+            for (int i = 0; i < nTasks; i++) {
+                int idTask = buf.getInt();
+                int idCategoria = buf.getInt();
+                int flag = buf.get();
+                String titolo = leggiStringa(buf);
+                String descrizione = leggiStringa(buf);
+                String scadenza = leggiStringa(buf);
+                String priorita = leggiStringa(buf);
+                String dataCreazione = leggiStringa(buf);
+
+                Tasks t = new Tasks(titolo, descrizione, scadenza, priorita, dataCreazione,
+                        (flag & COMPLETATO) != 0, idTask, idUtente, idCategoria >= 0 ? idCategoria : null);
+                t.setDescrizioneCompleta((flag & DESCRIZIONE_COMPLETA) != 0);
+                t.setDurataTotale(buf.getLong());
+                int totali = buf.getInt();
+                t.setProgressoSubTask(totali, buf.getInt());
+                tasks.add(t);
+            }
+
+            int nDescrizioni = buf.getInt();
+            Map<Integer, String> descrizioni = new HashMap<>();
+            for (int i = 0; i < nDescrizioni; i++) {
+                int idTask = buf.getInt();
+                descrizioni.put(idTask, leggiStringa(buf));
+            }
+
+            int nSubTasks = buf.getInt();
+            List<SubTasks> subTasks = new ArrayList<>(nSubTasks);
+            for (int i = 0; i < nSubTasks; i++) {
+                int idSubTask = buf.getInt();
+                int idTask = buf.getInt();
+                boolean completato = buf.get() != 0;
+                subTasks.add(new SubTasks(leggiStringa(buf), leggiStringa(buf), completato, idSubTask, idTask));
+            }
+
+            int nSessioni = buf.getInt();
+            List<TimerSessions> sessioni = new ArrayList<>(nSessioni);
+            for (int i = 0; i < nSessioni; i++) {
+                int idSession = buf.getInt();
+                int idTask = buf.getInt();
+                long durata = buf.getLong();
+                String nome = leggiStringa(buf);
+                LocalDateTime inizio = leggiOrario(buf);
+                LocalDateTime fine = leggiOrario(buf);
+                sessioni.add(new TimerSessions(nome, inizio, fine, durata, idSession, idTask));
+            }
+
+            int nAllegati = buf.getInt();
+            List<Allegati> allegati = new ArrayList<>(nAllegati);
+            for (int i = 0; i < nAllegati; i++) {
+                int idAllegato = buf.getInt();
+                int idTask = buf.getInt();
+                Allegati a = new Allegati(leggiStringa(buf), leggiStringa(buf), leggiStringa(buf), idTask);
+                a.setIdAllegato(idAllegato);
+                a.setDigest(leggiStringa(buf));
+                allegati.add(a);
+            }
+
+            return new Contenuto(salvatoIl, watermark, Collections.unmodifiableList(categorie), tasks,
+                    new Dettagli(descrizioni, subTasks, sessioni, allegati));
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException | DateTimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sostituisce la copia locale di un utente, senza dettagli dei task.
+     *
+     * @param idUtente  L'ID dell'utente.
+     * @param categorie Le categorie dell'utente.
+     * @param tasks     Tutti i task dell'utente (non filtrati).
+     * @param watermark Istante dell'ultima modifica compresa nei dati (vedi {@link Contenuto#getWatermark()}).
+     * @throws IOException In caso di errore di scrittura.
+     * @see #scrivi(int, List, List, Dettagli, long)
+     */
+    public void scrivi(int idUtente, List<Categorie> categorie, List<Tasks> tasks, long watermark) throws IOException {
+        scrivi(idUtente, categorie, tasks, Dettagli.vuoti(), watermark);
+    }
+
+    /**
+     * Sostituisce la copia locale di un utente.
+     * <p>
+     * Va chiamato fuori dal thread della UI, con task e dettagli che nel frattempo non vengono modificati.
+     * </p>
+     *
+     * @param idUtente  L'ID dell'utente.
+     * @param categorie Le categorie dell'utente.
+     * @param tasks     Tutti i task dell'utente (non filtrati).
+     * @param dettagli  I dettagli dei task.
+     * @param watermark Istante dell'ultima modifica compresa nei dati (vedi {@link Contenuto#getWatermark()}).
+     * @throws IOException In caso di errore di scrittura.
+     */
+    public void scrivi(int idUtente, List<Categorie> categorie, List<Tasks> tasks, Dettagli dettagli,
+                       long watermark) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + tasks.size() * 160
+                + (dettagli.getSubTasks().size() + dettagli.getSessioni().size() + dettagli.getAllegati().size()) * 80);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(MAGICO);
+        out.writeInt(VERSIONE);
+        out.writeInt(idUtente);
+        out.writeLong(System.currentTimeMillis());
+        out.writeLong(watermark);
+
+        List<Categorie> valide = new ArrayList<>();
+        for (Categorie c : categorie) if (c.getIdCategoria() != null) valide.add(c);
+        out.writeInt(valide.size());
+        for (Categorie c : valide) {
+            out.writeInt(c.getIdCategoria());
+            scriviStringa(out, c.getNomeCategoria());
+        }
+
+        out.writeInt(tasks.size());
+        for (Tasks t : tasks) {
+            Integer idCategoria = t.getIdCategoria();
+            out.writeInt(t.getIdTask());
+            out.writeInt(idCategoria != null ? idCategoria : -1);
+            out.writeByte((Boolean.TRUE.equals(t.getCompletamento()) ? COMPLETATO : 0)
+                    | (t.isDescrizioneCompleta() ? DESCRIZIONE_COMPLETA : 0));
+            scriviStringa(out, t.getTitolo());
+            scriviStringa(out, t.getDescrizione());
+            scriviStringa(out, t.getScadenza());
+            scriviStringa(out, t.getPriorita());
+            scriviStringa(out, t.getData_creazione());
+            out.writeLong(t.getDurataTotale());
+            out.writeInt(t.getSubTaskTotali());
+            out.writeInt(t.getSubTaskCompletati());
+        }
+
+        out.writeInt(dettagli.getDescrizioni().size());
+        for (Map.Entry<Integer, String> d : dettagli.getDescrizioni().entrySet()) {
+            out.writeInt(d.getKey());
+            scriviStringa(out, d.getValue());
+        }
+
+        out.writeInt(dettagli.getSubTasks().size());
+        for (SubTasks st : dettagli.getSubTasks()) {
+            out.writeInt(st.getIdSubTask());
+            out.writeInt(st.getIdTask());
+            out.writeByte(Boolean.TRUE.equals(st.getCompletamento()) ? 1 : 0);
+            scriviStringa(out, st.getTitolo());
+            scriviStringa(out, st.getDescrizione());
+        }
+
+        out.writeInt(dettagli.getSessioni().size());
+        for (TimerSessions ts : dettagli.getSessioni()) {
+            out.writeInt(ts.getIdSession());
+            out.writeInt(ts.getIdTask());
+            out.writeLong(ts.getDurataSecondi());
+            scriviStringa(out, ts.getNome());
+            scriviStringa(out, ts.getInizio() != null ? ts.getInizio().toString() : null);
+            scriviStringa(out, ts.getFine() != null ? ts.getFine().toString() : null);
+        }
+
+        out.writeInt(dettagli.getAllegati().size());
+        for (Allegati a : dettagli.getAllegati()) {
+            out.writeInt(a.getIdAllegato());
+            out.writeInt(a.getIdTask());
+            scriviStringa(out, a.getNomeFile());
+            scriviStringa(out, a.getPercorsoFile());
+            scriviStringa(out, a.getTipoFile());
+            scriviStringa(out, a.getDigest());
+        }
+        out.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+
+        Files.createDirectories(cartella);
+        Path temporaneo = Files.createTempFile(cartella, "utente-" + idUtente + "-", ".tmp");
+        try {
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(temporaneo))) {
+                bytes.writeTo(os);
+            }
+            try {
+                Files.move(temporaneo, file(idUtente), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // Spostamento atomico non supportato o destinazione bloccata (su Windows, ad esempio
+                // aperta da un antivirus): si ritenta con una sostituzione semplice
+                Files.move(temporaneo, file(idUtente), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporaneo);
+        }
+    }
+
+    private Path file(int idUtente) {
+        return cartella.resolve("utente-" + idUtente + ".bin");
+    }
+
+    /** Stringa come lunghezza in byte (-1 per null) seguita dai byte UTF-8. */
+    private static void scriviStringa(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static LocalDateTime leggiOrario(ByteBuffer buf) {
+        String s = leggiStringa(buf);
+        return s != null ? LocalDateTime.parse(s) : null;
+    }
+
+    private static String leggiStringa(ByteBuffer buf) {
+        int n = buf.getInt();
+        if (n < 0) return null;
+        if (n > buf.remaining()) throw new BufferUnderflowException();
+        byte[] b = new byte[n];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
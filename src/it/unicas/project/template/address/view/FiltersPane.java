@@ -1,5 +1,6 @@
 package it.unicas.project.template.address.view;
 
+import it.unicas.project.template.address.MainApp;
 import it.unicas.project.template.address.model.Categorie;
 import it.unicas.project.template.address.model.dao.mysql.DAOCategorie;
 import javafx.collections.FXCollections;
@@ -114,11 +115,14 @@ public class FiltersPane {
     }
 
     /**
-     * Ricarica le categorie dal database e aggiorna la UI (ComboBox e menu laterale).
+     * Ricarica le categorie dell'utente corrente e aggiorna la UI (ComboBox e menu laterale).
+     * Le categorie arrivano dalla cache di {@link DAOCategorie}, che le rilegge solo dopo una modifica.
      */
     public void refreshCategories() {
         try {
-            List<Categorie> list = DAOCategorie.getInstance().select(null);
+            List<Categorie> list = (MainApp.getCurrentUser() != null)
+                    ? ((DAOCategorie) DAOCategorie.getInstance()).selectByUtente(MainApp.getCurrentUser().getIdUtente())
+                    : List.of();
 
             if (formCategoryCombo != null) {
                 formCategoryCombo.setItems(FXCollections.observableArrayList(list));
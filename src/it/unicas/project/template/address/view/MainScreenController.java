@@ -4,10 +4,18 @@ import it.unicas.project.template.address.MainApp;
 import it.unicas.project.template.address.model.*;
 import it.unicas.project.template.address.model.dao.DAOException;
 import it.unicas.project.template.address.model.dao.mysql.DAOAllegati;
-import it.unicas.project.template.address.model.dao.mysql.DAOTasks;
 import it.unicas.project.template.address.model.dao.mysql.DAOCategorie;
+import it.unicas.project.template.address.model.dao.mysql.ReplicaLocale;
+import it.unicas.project.template.address.model.dao.mysql.CodaScritture;
+import it.unicas.project.template.address.util.IngestioneAllegati;
+import it.unicas.project.template.address.util.ScadenzeScheduler;
+import it.unicas.project.template.address.util.ServizioTimer;
 import javafx.animation.TranslateTransition;
 import javafx.application.Platform;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.beans.property.SimpleIntegerProperty;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.layout.*;
@@ -17,9 +25,11 @@ import javafx.util.Duration;
 import javafx.util.StringConverter;
 
 import java.io.File;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 /**
  * Controller principale dell'applicazione (MainScreen).
@@ -40,6 +50,7 @@ public class MainScreenController {
     @FXML private TextField txtSearch;
     @FXML private VBox sideMenu;
     @FXML private Label usernameLabelHeader;
+    @FXML private Label syncStatusLabel;
     @FXML private ListView<Tasks> taskListView;
     @FXML private ScrollPane gridViewContainer;
     @FXML private FlowPane gridFlowPane;
@@ -105,12 +116,44 @@ public class MainScreenController {
     /** File temporaneo selezionato durante la creazione di un nuovo task, prima del salvataggio. */
     private File pendingFile = null;
 
+    /** Pianificatore che segnala quando i task entrano nelle finestre domani/oggi/scaduto. */
+    private final ScadenzeScheduler scadenzeScheduler = new ScadenzeScheduler();
+
+    /** Numero di task urgenti (domani, oggi o scaduti), aggiornato a ogni evento del pianificatore. */
+    private final IntegerProperty numeroUrgenti = new SimpleIntegerProperty(0);
+
+    /** True dopo che l'utente ha aperto i promemoria; torna false quando un task cambia finestra. */
+    private final BooleanProperty promemoriaVisti = new SimpleBooleanProperty(false);
+
+    /** Mostra nell'header quante modifiche sono in attesa di essere salvate sul database. */
+    private final IntConsumer indicatoreCoda = n -> Platform.runLater(() -> {
+        if (syncStatusLabel == null) return;
+        syncStatusLabel.setText(n == 1 ? "1 modifica da sincronizzare" : n + " modifiche da sincronizzare");
+        syncStatusLabel.setVisible(n > 0);
+        syncStatusLabel.setManaged(n > 0);
+    });
+
+    /** Avvisa delle modifiche in coda che il database ha rifiutato e che quindi non verranno salvate. */
+    private final Consumer<List<String>> avvisoScarti = scarti -> Platform.runLater(() -> {
+        if (MainApp.getCurrentUser() == null) return;
+        showAlert((scarti.size() == 1 ? "Una modifica fatta offline non è stata salvata:\n"
+                : scarti.size() + " modifiche fatte offline non sono state salvate:\n")
+                + String.join("\n", scarti));
+    });
+
+    /** Ricarica filtri e task quando la sincronizzazione della replica locale porta modifiche fatte altrove. */
+    private final Runnable aggiornamentoReplica = () -> Platform.runLater(() -> {
+        if (MainApp.getCurrentUser() == null) return;
+        if (filtersPane != null) filtersPane.refreshCategories();
+        if (tasksListHelper != null) tasksListHelper.loadTasks(MainApp.getCurrentUser().getIdUtente());
+    });
+
 
 
     /**
      * Collega l'applicazione principale a questo controller.
      * Viene chiamato da MainApp dopo il caricamento dell'FXML.
-     * Inizializza i dati dell'utente corrente e avvia il controllo delle notifiche.
+     * Inizializza i dati dell'utente corrente e carica i task (che alimentano anche i promemoria).
      *
      * @param mainApp L'istanza principale dell'applicazione.
      */
@@ -118,12 +161,8 @@ public class MainScreenController {
         this.mainApp = mainApp;
         refreshUserInfo();
         if (tasksListHelper != null && MainApp.getCurrentUser() != null) {
+            // Se la replica locale è pronta i task arrivano subito da lì, altrimenti dal database
             tasksListHelper.loadTasks(MainApp.getCurrentUser().getIdUtente());
-
-            new Thread(() -> {
-                try { Thread.sleep(500); } catch (InterruptedException e) {}
-                javafx.application.Platform.runLater(this::checkNotifications);
-            }).start();
         }
     }
 
@@ -148,6 +187,14 @@ public class MainScreenController {
         if (dueDateField != null) dueDateField.setShowWeekNumbers(false);
 
 
+        // Replica locale dell'utente: le categorie salvate servono già ai filtri creati qui sotto
+        if (MainApp.getCurrentUser() != null) {
+            ReplicaLocale.getInstance().apri(MainApp.getCurrentUser().getIdUtente());
+            ReplicaLocale.getInstance().addListener(aggiornamentoReplica);
+        }
+        CodaScritture.getInstance().addListener(indicatoreCoda);
+        CodaScritture.getInstance().addScartiListener(avvisoScarti);
+
         tasksListHelper = new TasksList(
                 taskListView, gridViewContainer, gridFlowPane,
                 calendarViewContainer, calendarGrid, weekViewContainer, weekViewBox, calendarMonthLabel,
@@ -187,9 +234,22 @@ public class MainScreenController {
 
 
         if (tasksListHelper != null) {
+            // I promemoria ricevono solo i task aggiunti o modificati; le rimozioni dovute ai filtri
+            // non contano (l'eliminazione vera è notificata da handleDeleteTask)
             tasksListHelper.getTasks().addListener((javafx.collections.ListChangeListener<Tasks>) c -> {
-                checkNotifications();
+                while (c.next()) {
+                    if (c.wasUpdated()) {
+                        for (int i = c.getFrom(); i < c.getTo(); i++) pianificaScadenza(c.getList().get(i));
+                    } else if (c.wasAdded()) {
+                        c.getAddedSubList().forEach(this::pianificaScadenza);
+                    }
+                }
             });
+            scadenzeScheduler.addListener(e -> Platform.runLater(() -> onCambioScadenza(e)));
+        }
+
+        if (notificationBadge != null) {
+            notificationBadge.visibleProperty().bind(numeroUrgenti.greaterThan(0).and(promemoriaVisti.not()));
         }
     }
 
@@ -214,45 +274,40 @@ public class MainScreenController {
     }
 
     /**
-     * Salva fisicamente il file pendente nella cartella "attachments" e inserisce il record nel DB.
+     * Avvia in background la copia del file pendente nell'archivio degli allegati e, solo quando
+     * la copia è riuscita, inserisce il record nel DB.
+     * Se lo stesso contenuto è già archiviato non viene copiato di nuovo.
      * Viene chiamato dopo che il Task è stato creato con successo.
      *
      * @param taskId L'ID del task appena creato a cui associare l'allegato.
      */
     private void savePendingFileToDB(Integer taskId) {
         if (pendingFile == null) return;
-        try {
-            String projectPath = System.getProperty("user.dir");
-            File destDir = new File(projectPath, "attachments");
-
-            if (!destDir.exists()) {
-                boolean created = destDir.mkdir();
-                if (!created) System.out.println("Impossibile creare cartella attachments");
-            }
-
-            String newFileName = System.currentTimeMillis() + "_" + pendingFile.getName();
-            File destFile = new File(destDir, newFileName);
-
-            System.out.println("Sto salvando il file in: " + destFile.getAbsolutePath());
-
-            Files.copy(pendingFile.toPath(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        File file = pendingFile;
 
+        IngestioneAllegati.getInstance().avvia(file.toPath(), null).getRisultato().thenAccept(blob -> {
             Allegati allegato = new Allegati();
             allegato.setIdTask(taskId);
-            allegato.setNomeFile(pendingFile.getName());
-            allegato.setPercorsoFile(destFile.getAbsolutePath());
+            allegato.setNomeFile(file.getName());
+            allegato.setPercorsoFile(blob.getPercorso().toAbsolutePath().toString());
+            allegato.setDigest(blob.getDigest());
 
             String ext = "";
-            int i = newFileName.lastIndexOf('.');
-            if (i > 0) ext = newFileName.substring(i + 1);
-            allegato.setTipoFile(ext);
+            int i = file.getName().lastIndexOf('.');
+            if (i > 0) ext = file.getName().substring(i + 1);
+            allegato.setTipoFile(blob.tipoFile(ext));
 
-            DAOAllegati.getInstance().insert(allegato);
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            showAlert("Errore nel salvataggio dell'allegato: " + e.getMessage());
-        }
+            try {
+                DAOAllegati.getInstance().insert(allegato);
+            } catch (DAOException e) {
+                throw new CompletionException(e);
+            }
+        }).exceptionally(ex -> {
+            ex.printStackTrace();
+            Throwable causa = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+            Platform.runLater(() -> showAlert("Errore nel salvataggio dell'allegato: " + causa.getMessage()));
+            return null;
+        });
     }
 
     /**
@@ -281,10 +336,9 @@ public class MainScreenController {
 
             if (!nomeCatInput.isEmpty()) {
 
-                Categorie catTrovata = categoryComboBox.getItems().stream()
-                        .filter(c -> c.getNomeCategoria().equalsIgnoreCase(nomeCatInput))
-                        .findFirst()
-                        .orElse(null);
+                Categorie catTrovata = (MainApp.getCurrentUser() != null)
+                        ? ((DAOCategorie) DAOCategorie.getInstance()).getByNome(MainApp.getCurrentUser().getIdUtente(), nomeCatInput)
+                        : null;
 
                 if (catTrovata != null && catTrovata.getIdCategoria() != null && catTrovata.getIdCategoria() > 0) {
                     idCat = catTrovata.getIdCategoria();
@@ -318,10 +372,15 @@ public class MainScreenController {
             t.setIdCategoria(idCat);
             t.setCompletamento(false);
 
-            DAOTasks.getInstance().insert(t);
+            boolean salvato = CodaScritture.getInstance().insert(t);
 
             if (pendingFile != null && t.getIdTask() != null) {
-                savePendingFileToDB(t.getIdTask());
+                if (salvato) {
+                    savePendingFileToDB(t.getIdTask());
+                } else {
+                    showAlert("Database non raggiungibile: il task verrà salvato appena possibile, "
+                            + "l'allegato andrà aggiunto di nuovo.");
+                }
             }
 
             tasksListHelper.addTask(t);
@@ -360,7 +419,7 @@ public class MainScreenController {
      * @param t Il task da visualizzare.
      */
     private void handleOpenDetail(Tasks t) {
-        String catName = tasksListHelper.getCategoryName(t.getIdCategoria(), categoryComboBox.getItems());
+        String catName = tasksListHelper.getCategoryName(t.getIdCategoria());
         tasksInfoPane.openPanel(t, catName);
     }
 
@@ -429,7 +488,7 @@ public class MainScreenController {
             new Thread(() -> {
                 try {
 
-                    DAOTasks.getInstance().update(t);
+                    CodaScritture.getInstance().update(t);
 
                     Platform.runLater(() -> {
 
@@ -446,7 +505,7 @@ public class MainScreenController {
                         if (tasksInfoPane.isOpen() && tasksInfoPane.getCurrentTask() != null &&
                                 tasksInfoPane.getCurrentTask().getIdTask().equals(t.getIdTask())) {
 
-                            String catName = tasksListHelper.getCategoryName(t.getIdCategoria(), categoryComboBox.getItems());
+                            String catName = tasksListHelper.getCategoryName(t.getIdCategoria());
                             tasksInfoPane.openPanel(t, catName);
                         }
                     });
@@ -470,7 +529,8 @@ public class MainScreenController {
         if (alert.getResult() == ButtonType.YES) {
             new Thread(() -> {
                 try {
-                    DAOTasks.getInstance().delete(t);
+                    CodaScritture.getInstance().delete(t);
+                    scadenzeScheduler.rimuovi(t.getIdTask());
                     Platform.runLater(() -> {
                         tasksListHelper.removeTask(t);
                         if (tasksInfoPane.getCurrentTask() == t) {
@@ -508,15 +568,20 @@ public class MainScreenController {
             public Categorie fromString(String string) {
                 if (string == null || string.trim().isEmpty()) return null;
 
-                // Cerca se esiste già, altrimenti crea un oggetto temporaneo
-                return categoryComboBox.getItems().stream()
-                        .filter(c -> c.getNomeCategoria().equalsIgnoreCase(string.trim()))
-                        .findFirst()
-                        .orElseGet(() -> {
-                            Categorie temp = new Categorie();
-                            temp.setNomeCategoria(string.trim());
-                            return temp;
-                        });
+                // Cerca se esiste già (indice per nome della cache categorie), altrimenti crea un oggetto temporaneo
+                Categorie esistente = null;
+                if (MainApp.getCurrentUser() != null) {
+                    try {
+                        esistente = ((DAOCategorie) DAOCategorie.getInstance())
+                                .getByNome(MainApp.getCurrentUser().getIdUtente(), string);
+                    } catch (DAOException e) {
+                        e.printStackTrace();
+                    }
+                }
+                if (esistente != null) return esistente;
+                Categorie temp = new Categorie();
+                temp.setNomeCategoria(string.trim());
+                return temp;
             }
         });
         if (dueDateField != null) {
@@ -546,7 +611,17 @@ public class MainScreenController {
         isSideMenuOpen = !isSideMenuOpen;
     }
 
-    @FXML private void handleLogout() { mainApp.showUtentiLogin(); }
+    @FXML private void handleLogout() {
+        ReplicaLocale.getInstance().removeListener(aggiornamentoReplica);
+        CodaScritture.getInstance().removeListener(indicatoreCoda);
+        CodaScritture.getInstance().removeScartiListener(avvisoScarti);
+        // I timer ancora in esecuzione appartengono all'utente che esce
+        ServizioTimer.getInstance().fermaTutti();
+        tasksInfoPane.scollegaTimer();
+        // Ogni schermata principale ha il suo pianificatore: quello di questa sessione non serve più
+        scadenzeScheduler.shutdown();
+        mainApp.showUtentiLogin();
+    }
     @FXML private void handleExit() { mainApp.handleExit(); }
     @FXML private void handleProfile() { mainApp.showUtentiProfile(MainApp.getCurrentUser()); }
     @FXML private void handleStatistics() { mainApp.showTasksStatistics(MainApp.getCurrentUser().getIdUtente()); }
@@ -564,11 +639,7 @@ public class MainScreenController {
             mainApp.showPromemoria(
                     MainApp.getCurrentUser().getIdUtente(),
 
-                    () -> {
-                        if (notificationBadge != null) {
-                            notificationBadge.setVisible(false);
-                        }
-                    },
+                    () -> promemoriaVisti.set(true),
 
                     (selectedTask) -> {
                         taskListView.getSelectionModel().select(selectedTask);
@@ -582,28 +653,26 @@ public class MainScreenController {
     }
 
     /**
-     * Controlla se ci sono task urgenti (scaduti, oggi, domani) e aggiorna la visibilità
-     * del pallino delle notifiche.
+     * Passa al pianificatore dei promemoria la scadenza e lo stato attuali di un task.
+     * @param t Il task aggiunto o modificato.
      */
-    private void checkNotifications() {
-        if (tasksListHelper == null || tasksListHelper.getTasks() == null) return;
-
-        LocalDate today = LocalDate.now();
-        LocalDate tomorrow = today.plusDays(1);
-
-
-        boolean hasUrgentTasks = tasksListHelper.getTasks().stream().anyMatch(t -> {
-            if (t.getCompletamento()) return false;
-            if (t.getScadenza() == null || t.getScadenza().isEmpty()) return false;
-            LocalDate due = smartParse(t.getScadenza());
-            if (due == null) return false;
-
-            return !due.isAfter(tomorrow);
-        });
-
+    private void pianificaScadenza(Tasks t) {
+        if (t == null || t.getIdTask() == null || t.getIdTask() <= 0) return;
+        scadenzeScheduler.aggiorna(t.getIdTask(), smartParse(t.getScadenza()), Boolean.TRUE.equals(t.getCompletamento()));
+    }
 
-        if (notificationBadge != null) {
-            notificationBadge.setVisible(hasUrgentTasks);
+    /**
+     * Reagisce a un cambio di finestra di scadenza aggiornando il contatore dei task urgenti a cui
+     * è legato il pallino delle notifiche. Il contatore viene dall'aggregato del pianificatore,
+     * già mantenuto a ogni inserimento, modifica, eliminazione e passaggio di giorno, quindi il
+     * controllo non scorre mai la lista dei task.
+     * Se un task entra in una nuova finestra il pallino ricompare anche dopo aver visto i promemoria.
+     * @param e L'evento del pianificatore.
+     */
+    private void onCambioScadenza(ScadenzeScheduler.Evento e) {
+        numeroUrgenti.set(scadenzeScheduler.getNumeroUrgenti());
+        if (e.getNuova() != null) {
+            promemoriaVisti.set(false);
         }
     }
 
@@ -1,8 +1,10 @@
 package it.unicas.project.template.address.view;
 
 import it.unicas.project.template.address.model.Tasks;
+import it.unicas.project.template.address.model.dao.DAOException;
 import it.unicas.project.template.address.model.dao.mysql.DAOTasks;
 import it.unicas.project.template.address.util.DateUtil;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
@@ -19,8 +21,8 @@ import javafx.stage.Stage;
 
 import java.time.LocalDate;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
 /**
  * Controller per la gestione della finestra dei Promemoria (Notifiche).
@@ -54,6 +56,9 @@ public class PromemoriaController {
      */
     private Consumer<Tasks> onTaskSelected;
 
+    /** Numero massimo di promemoria mostrati nella finestra. */
+    private static final int MAX_PROMEMORIA = 50;
+
 
     /**
      * Imposta lo stage per questa finestra di dialogo.
@@ -201,40 +206,28 @@ public class PromemoriaController {
      * <li>Data di scadenza uguale a oggi.</li>
      * <li>Data di scadenza uguale a domani.</li>
      * </ul>
+     * Il filtro è applicato dal database ({@link DAOTasks#selectDueBefore}) e la query gira in un
+     * thread separato: la finestra si apre subito e riceve solo le righe da mostrare.
      *
      * @param userId L'ID dell'utente loggato di cui recuperare le task.
      */
     public void loadUrgentTasks(int userId) {
-        try {
-
-            Tasks template = new Tasks();
-            template.setIdUtente(userId);
-            template.setCompletamento(false);
-
-
-            List<Tasks> allTasks = DAOTasks.getInstance().select(template);
-
-            LocalDate today = LocalDate.now();
-            LocalDate tomorrow = today.plusDays(1);
-
-            // Filtraggio logico (metodo alternativo)
-            List<Tasks> urgentTasks = allTasks.stream()
-                    .filter(t -> {
-                        if (t.getCompletamento()) return false;
-                        if (t.getScadenza() == null || t.getScadenza().isEmpty()) return false;
-                        LocalDate due = smartParse(t.getScadenza());
-                        if (due == null) return false;
-                        return !due.isAfter(tomorrow);
-                    })
-                    .collect(Collectors.toList());
-
+        Label placeholder = (Label) reminderListView.getPlaceholder();
+        reminderListView.setPlaceholder(new Label("Caricamento..."));
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
 
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return ((DAOTasks) DAOTasks.getInstance()).selectDueBefore(userId, tomorrow, MAX_PROMEMORIA);
+            } catch (DAOException e) {
+                e.printStackTrace();
+                return List.<Tasks>of();
+            }
+        }).thenAccept(urgentTasks -> Platform.runLater(() -> {
+            reminderListView.setPlaceholder(placeholder);
             ObservableList<Tasks> data = FXCollections.observableArrayList(urgentTasks);
             reminderListView.setItems(data);
-
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        }));
     }
 
 
@@ -7,11 +7,19 @@ import it.unicas.project.template.address.model.Tasks;
 import it.unicas.project.template.address.model.dao.DAOException;
 import it.unicas.project.template.address.model.dao.mysql.DAOAllegati;
 import it.unicas.project.template.address.model.dao.mysql.DAOCategorie;
+import it.unicas.project.template.address.model.dao.mysql.DAOTasks;
+import it.unicas.project.template.address.util.ArchivioAllegati;
 import it.unicas.project.template.address.util.DateUtil;
+import it.unicas.project.template.address.util.IngestioneAllegati;
+import it.unicas.project.template.address.util.MiniatureAllegati;
+import javafx.application.Platform;
+import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.SimpleDoubleProperty;
 import javafx.fxml.FXML;
 import javafx.geometry.Pos;
 import javafx.scene.control.*;
 import javafx.scene.control.Alert.AlertType;
+import javafx.scene.image.ImageView;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.Region;
@@ -22,11 +30,14 @@ import javafx.util.StringConverter;
 import java.awt.Desktop;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Controller per la finestra di dialogo di modifica/creazione di un task.
@@ -57,6 +68,12 @@ public class TaskEditDialogController {
     /** Buffer per memorizzare gli allegati rimossi durante la sessione corrente, da eliminare dal DB al salvataggio. */
     private List<Allegati> attachmentsToDelete = new ArrayList<>();
 
+    /** Copie nell'archivio ancora in corso, per allegato del buffer. */
+    private final Map<Allegati, IngestioneAllegati.Operazione> ingestioni = new IdentityHashMap<>();
+
+    /** Avanzamento (0-1) delle copie in corso, mostrato nella lista degli allegati. */
+    private final Map<Allegati, DoubleProperty> avanzamenti = new IdentityHashMap<>();
+
     /**
      * Metodo di inizializzazione chiamato automaticamente dopo il caricamento del file FXML.
      * Configura i componenti UI come ComboBox, DatePicker e la lista degli allegati.
@@ -97,6 +114,8 @@ public class TaskEditDialogController {
     private void setupAttachmentList() {
         if (attachmentListView != null) {
             attachmentListView.setCellFactory(param -> new ListCell<>() {
+                private final ImageView miniatura = new ImageView();
+
                 @Override
                 protected void updateItem(Allegati item, boolean empty) {
                     super.updateItem(item, empty);
@@ -104,12 +123,19 @@ public class TaskEditDialogController {
                     if (empty || item == null) {
                         setText(null);
                         setGraphic(null);
+                        miniatura.setUserData(null);
                         setStyle("-fx-background-color: transparent;");
                     } else {
                         HBox root = new HBox(10);
                         root.setAlignment(Pos.CENTER_LEFT);
 
                         Label lblName = new Label("📎 " + item.getNomeFile());
+                        if (MiniatureAllegati.isImmagine(item)) {
+                            // Anteprima caricata in background al posto della graffetta
+                            MiniatureAllegati.getInstance().mostra(item, miniatura);
+                            lblName.setText(item.getNomeFile());
+                            root.getChildren().add(miniatura);
+                        }
                         lblName.setMaxWidth(Double.MAX_VALUE);
 
                         // Colora di verde i nuovi allegati, viola quelli esistenti
@@ -128,6 +154,7 @@ public class TaskEditDialogController {
                         // Logica di rimozione allegato
                         btnDelete.setOnAction(event -> {
                             getListView().getItems().remove(item);
+                            annullaIngestione(item);
                             if (newAttachmentsBuffer.contains(item)) {
                                 newAttachmentsBuffer.remove(item);
                             } else {
@@ -135,14 +162,25 @@ public class TaskEditDialogController {
                             }
                         });
 
-                        root.getChildren().addAll(lblName, spacer, btnDelete);
+                        root.getChildren().addAll(lblName, spacer);
+
+                        // Copia ancora in corso: barra di avanzamento (il ✖ annulla la copia)
+                        DoubleProperty avanzamento = avanzamenti.get(item);
+                        if (avanzamento != null) {
+                            ProgressBar bar = new ProgressBar();
+                            bar.setPrefWidth(90);
+                            bar.progressProperty().bind(avanzamento);
+                            root.getChildren().add(bar);
+                        }
+
+                        root.getChildren().add(btnDelete);
                         setGraphic(root);
                         setText(null);
 
                         // Doppio click per aprire il file
                         root.setOnMouseClicked(e -> {
                             if (e.getClickCount() == 2 && !btnDelete.isHover()) {
-                                openFile(item.getPercorsoFile());
+                                openFile(item);
                             }
                         });
                         setTooltip(new Tooltip(item.getPercorsoFile()));
@@ -154,7 +192,7 @@ public class TaskEditDialogController {
 
     /**
      * Configura e popola le ComboBox per Priorità e Categorie.
-     * Carica le categorie dal database tramite {@link DAOCategorie}.
+     * Carica le categorie dell'utente corrente tramite la cache di {@link DAOCategorie}.
      */
     private void setupComboBoxes() {
         priorityComboBox.getItems().clear();
@@ -164,8 +202,10 @@ public class TaskEditDialogController {
         categoryComboBox.getItems().clear();
         categoryComboBox.getItems().add(new Categorie("Tutte le categorie", -1));
         try {
-            List<Categorie> listaCategorie = DAOCategorie.getInstance().select(null);
-            if (listaCategorie != null) categoryComboBox.getItems().addAll(listaCategorie);
+            if (MainApp.getCurrentUser() != null) {
+                categoryComboBox.getItems().addAll(((DAOCategorie) DAOCategorie.getInstance())
+                        .selectByUtente(MainApp.getCurrentUser().getIdUtente()));
+            }
         } catch (Exception e) {
             showAlert(AlertType.ERROR, "Errore caricamento categorie: " + e.getMessage());
         }
@@ -182,7 +222,11 @@ public class TaskEditDialogController {
      * Imposta lo stage della finestra di dialogo.
      * @param dialogStage Lo stage da associare.
      */
-    public void setDialogStage(Stage dialogStage) { this.dialogStage = dialogStage; }
+    public void setDialogStage(Stage dialogStage) {
+        this.dialogStage = dialogStage;
+        // Chiusura dalla X della finestra: come Annulla, le copie in corso non servono più
+        dialogStage.setOnCloseRequest(e -> annullaIngestioni());
+    }
 
     /**
      * Imposta il riferimento all'applicazione principale.
@@ -204,6 +248,7 @@ public class TaskEditDialogController {
      */
     public void setTask(Tasks task) {
         this.task = task;
+        loadFullDescription();
 
         titoloField.setText(task.getTitolo());
         descrizioneField.setText(task.getDescrizione());
@@ -233,6 +278,23 @@ public class TaskEditDialogController {
         loadAttachments();
     }
 
+    /**
+     * Se il task è stato letto dall'elenco con la sola anteprima della descrizione, legge dal
+     * database il testo completo prima di mostrarlo nella form. In caso di errore il campo resta
+     * disabilitato, così al salvataggio la descrizione sul database non viene toccata.
+     */
+    private void loadFullDescription() {
+        if (task.isDescrizioneCompleta() || task.getIdTask() == null || task.getIdTask() <= 0) return;
+        try {
+            task.setDescrizione(((DAOTasks) DAOTasks.getInstance()).selectDescrizione(task.getIdTask()));
+            task.setDescrizioneCompleta(true);
+        } catch (DAOException e) {
+            e.printStackTrace();
+            descrizioneField.setDisable(true);
+            showAlert(AlertType.ERROR, "Impossibile caricare la descrizione completa.");
+        }
+    }
+
     /**
      * Carica gli allegati associati al task corrente dal database e li visualizza nella lista.
      */
@@ -250,8 +312,8 @@ public class TaskEditDialogController {
 
     /**
      * Gestisce l'aggiunta di un nuovo allegato.
-     * Apre un FileChooser, copia il file selezionato nella cartella locale "attachments"
-     * e crea un nuovo oggetto {@link Allegati} nel buffer.
+     * Apre un FileChooser, crea un nuovo oggetto {@link Allegati} nel buffer e avvia in background
+     * la copia del file nell'archivio degli allegati, mostrandone l'avanzamento nella lista.
      */
     @FXML
     private void handleAddAttachment() {
@@ -260,54 +322,95 @@ public class TaskEditDialogController {
         File selected = fileChooser.showOpenDialog(dialogStage); //apre la finestra di dialogo
 
         if (selected != null) {
-            try {
-                String projectPath = System.getProperty("user.dir"); //si prende la directory
-                File destDir = new File(projectPath, "attachments"); //si crea la cartella attachments se non esiste
-                if (!destDir.exists()) destDir.mkdir();
-
-                // Genera nome file univoco con timestamp
-                String newFileName = System.currentTimeMillis() + "_" + selected.getName();
-                File destFile = new File(destDir, newFileName);
-                Files.copy(selected.toPath(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-
-                //copia fisica del file nella cartella attachments
-                Allegati nuovoAllegato = new Allegati();
-                nuovoAllegato.setIdTask(task.getIdTask());
-                nuovoAllegato.setNomeFile(selected.getName());
-                nuovoAllegato.setPercorsoFile(destFile.getAbsolutePath());
-
-                // Estrai estensione file
-                String ext = "";
-                int i = newFileName.lastIndexOf('.');
-                if (i > 0) ext = newFileName.substring(i+1);
-                nuovoAllegato.setTipoFile(ext);
-
-                attachmentListView.getItems().add(nuovoAllegato);
-                newAttachmentsBuffer.add(nuovoAllegato);
-
-            } catch (IOException e) {
-                showAlert(AlertType.ERROR, "Errore copia file: " + e.getMessage());
-            }
+            Allegati nuovoAllegato = new Allegati();
+            nuovoAllegato.setIdTask(task.getIdTask());
+            nuovoAllegato.setNomeFile(selected.getName());
+            // Fino al termine della copia l'allegato punta al file originale
+            nuovoAllegato.setPercorsoFile(selected.getAbsolutePath());
+
+            // Estrai estensione file
+            String ext = "";
+            int i = selected.getName().lastIndexOf('.');
+            if (i > 0) ext = selected.getName().substring(i+1);
+            nuovoAllegato.setTipoFile(ext);
+
+            DoubleProperty avanzamento = new SimpleDoubleProperty(0);
+            avanzamenti.put(nuovoAllegato, avanzamento);
+
+            // Copia nell'archivio per contenuto: un file già allegato non viene duplicato
+            IngestioneAllegati.Operazione op = IngestioneAllegati.getInstance().avvia(selected.toPath(),
+                    frazione -> Platform.runLater(() -> avanzamento.set(frazione)));
+            ingestioni.put(nuovoAllegato, op);
+
+            op.getRisultato().whenComplete((blob, ex) -> Platform.runLater(() -> {
+                if (ingestioni.remove(nuovoAllegato) == null) return; // annullata
+                avanzamenti.remove(nuovoAllegato);
+                if (ex == null) {
+                    applicaBlob(nuovoAllegato, blob);
+                } else {
+                    attachmentListView.getItems().remove(nuovoAllegato);
+                    newAttachmentsBuffer.remove(nuovoAllegato);
+                    showAlert(AlertType.ERROR, "Errore copia file: " + causa(ex).getMessage());
+                }
+                attachmentListView.refresh();
+            }));
+
+            attachmentListView.getItems().add(nuovoAllegato);
+            newAttachmentsBuffer.add(nuovoAllegato);
         }
     }
 
+    /** Fa puntare l'allegato al contenuto archiviato. */
+    private static void applicaBlob(Allegati a, ArchivioAllegati.Blob blob) {
+        a.setPercorsoFile(blob.getPercorso().toAbsolutePath().toString());
+        a.setDigest(blob.getDigest());
+        a.setTipoFile(blob.tipoFile(ArchivioAllegati.tipoOriginale(a.getTipoFile())));
+    }
+
+    /** Restituisce l'errore originale di un CompletableFuture. */
+    private static Throwable causa(Throwable ex) {
+        return (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+    }
+
+    /**
+     * Annulla la copia in corso di un allegato, se presente.
+     * @param a L'allegato.
+     */
+    private void annullaIngestione(Allegati a) {
+        IngestioneAllegati.Operazione op = ingestioni.remove(a);
+        avanzamenti.remove(a);
+        if (op != null) op.annulla();
+    }
+
+    /** Annulla tutte le copie in corso (dialog chiuso senza salvare). */
+    private void annullaIngestioni() {
+        for (IngestioneAllegati.Operazione op : ingestioni.values()) op.annulla();
+        ingestioni.clear();
+        avanzamenti.clear();
+    }
+
     /**
-     * Tenta di aprire il file specificato utilizzando l'applicazione predefinita del sistema operativo.
+     * Tenta di aprire l'allegato utilizzando l'applicazione predefinita del sistema operativo.
+     * L'apertura avviene in background perché gli allegati compressi vanno prima decompressi
+     * in un file temporaneo.
      *
-     * @param path Il percorso assoluto del file da aprire.
+     * @param allegato L'allegato da aprire.
      */
-    private void openFile(String path) {
+    private void openFile(Allegati allegato) {
+        String path = allegato.getPercorsoFile();
         if (path == null || path.isEmpty()) return;
-        try {
-            File file = new File(path);
-            if (file.exists() && Desktop.isDesktopSupported()) {
-                Desktop.getDesktop().open(file);
-            } else {
-                showAlert(AlertType.ERROR, "File non trovato o apertura non supportata.");
+        CompletableFuture.runAsync(() -> {
+            try {
+                File file = ArchivioAllegati.getInstance().perApertura(path, allegato.getNomeFile(), allegato.getTipoFile());
+                if (file.exists() && Desktop.isDesktopSupported()) {
+                    Desktop.getDesktop().open(file);
+                } else {
+                    Platform.runLater(() -> showAlert(AlertType.ERROR, "File non trovato o apertura non supportata."));
+                }
+            } catch (IOException ex) {
+                Platform.runLater(() -> showAlert(AlertType.ERROR, "Errore apertura: " + ex.getMessage()));
             }
-        } catch (IOException ex) {
-            showAlert(AlertType.ERROR, "Errore apertura: " + ex.getMessage());
-        }
+        });
     }
 
     /**
@@ -345,11 +448,38 @@ public class TaskEditDialogController {
                     }
                 }
 
-                // 2. Aggiungi i nuovi
+                // 2. Aggiungi i nuovi: il record viene inserito solo quando la copia nell'archivio è riuscita
                 if (task.getIdTask() != null && !newAttachmentsBuffer.isEmpty()) {
                     for (Allegati a : newAttachmentsBuffer) {
                         a.setIdTask(task.getIdTask());
-                        DAOAllegati.getInstance().insert(a);
+                        IngestioneAllegati.Operazione op = ingestioni.remove(a);
+                        avanzamenti.remove(a);
+
+                        if (op == null) {
+                            DAOAllegati.getInstance().insert(a);
+                        } else if (op.getRisultato().isDone() && !op.getRisultato().isCompletedExceptionally()) {
+                            applicaBlob(a, op.getRisultato().join());
+                            DAOAllegati.getInstance().insert(a);
+                        } else {
+                            // Copia ancora in corso: il dialog si chiude e l'inserimento avviene al termine
+                            op.getRisultato().thenAccept(blob -> {
+                                applicaBlob(a, blob);
+                                try {
+                                    DAOAllegati.getInstance().insert(a);
+                                } catch (DAOException e) {
+                                    e.printStackTrace();
+                                    Platform.runLater(() -> showAlert(AlertType.ERROR, "Allegato \"" + a.getNomeFile()
+                                            + "\" non salvato: " + e.getMessage()));
+                                }
+                            }).exceptionally(ex -> {
+                                if (!(causa(ex) instanceof CancellationException)) {
+                                    ex.printStackTrace();
+                                    Platform.runLater(() -> showAlert(AlertType.ERROR, "Allegato \"" + a.getNomeFile()
+                                            + "\" non salvato, errore copia file: " + causa(ex).getMessage()));
+                                }
+                                return null;
+                            });
+                        }
                     }
                 }
             } catch (DAOException e) {
@@ -365,7 +495,10 @@ public class TaskEditDialogController {
     /**
      * Chiude la finestra di dialogo senza salvare le modifiche.
      */
-    @FXML private void handleCancel() { dialogStage.close(); }
+    @FXML private void handleCancel() {
+        annullaIngestioni();
+        dialogStage.close();
+    }
 
     /**
      * Valida l'input dell'utente nei campi di testo.
@@ -1,24 +1,29 @@
 package it.unicas.project.template.address.view;
 
 import it.unicas.project.template.address.model.Allegati;
+import it.unicas.project.template.address.model.DettaglioTask;
 import it.unicas.project.template.address.model.SubTasks;
 import it.unicas.project.template.address.model.Tasks;
 import it.unicas.project.template.address.model.TimerSessions;
-import it.unicas.project.template.address.model.dao.DAO;
 import it.unicas.project.template.address.model.dao.DAOException;
-import it.unicas.project.template.address.model.dao.mysql.DAOAllegati;
-import it.unicas.project.template.address.model.dao.mysql.DAOSubTasks;
+import it.unicas.project.template.address.model.dao.mysql.CodaScritture;
+import it.unicas.project.template.address.model.dao.mysql.DAODettaglioTask;
 import it.unicas.project.template.address.model.dao.mysql.DAOTimerSessions;
+import it.unicas.project.template.address.util.ArchivioAllegati;
 import it.unicas.project.template.address.util.DateUtil;
+import it.unicas.project.template.address.util.MiniatureAllegati;
+import it.unicas.project.template.address.util.ServizioTimer;
 
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import javafx.animation.PauseTransition;
 import javafx.animation.TranslateTransition;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.geometry.Pos;
+import javafx.scene.Node;
 import javafx.scene.control.*;
+import javafx.scene.image.ImageView;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.scene.layout.Priority;
@@ -28,9 +33,10 @@ import java.awt.Desktop;
 import java.io.File;
 import java.io.IOException;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -66,15 +72,29 @@ public class TasksInfoPane {
     private final Label timerTotalLabel;
 
     // --- LOGICA INTERNA ---
-    private Timeline timeline;
-    private int secondsElapsed = 0;
-    private boolean isTimerRunning = false;
     private Tasks currentSelectedTask;
     private boolean isOpen = false;
     private ObservableList<SubTasks> subTasksList;
 
-    private volatile int currentDbSessionId = -1;
-    private LocalDateTime startLocalTime;
+    /** Validità dei dettagli precaricati: oltre questo tempo vengono riletti dal database. */
+    private static final long PREFETCH_TTL_MS = 5000;
+    /** Dettagli precaricati per task (solo i più recenti, per non trattenere dati inutili). */
+    private final Map<Integer, CompletableFuture<DettaglioTask>> prefetched = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, CompletableFuture<DettaglioTask>> eldest) {
+            return size() > 8;
+        }
+    };
+    /** Sosta minima del puntatore su una riga prima di avviare il precaricamento. */
+    private final PauseTransition hoverDelay = new PauseTransition(Duration.millis(150));
+    private Tasks hoveredTask;
+
+    /** Numero di sessioni caricate per ogni pagina dello storico. */
+    private static final int HISTORY_PAGE_SIZE = 20;
+    /** Task di cui è mostrato lo storico (per scartare pagine arrivate dopo un cambio di selezione). */
+    private int historyTaskId = -1;
+    private boolean historyLoading = false;
+    private boolean historyExhausted = false;
 
     /**
      * Costruttore della classe TasksInfoPane. Inizializza tutti i riferimenti ai componenti UI
@@ -156,6 +176,7 @@ public class TasksInfoPane {
 
         initAttachmentList();
         setupTimerLogic();
+        setupPrefetch();
     }
 
     /**
@@ -165,14 +186,25 @@ public class TasksInfoPane {
         if (attachmentListView == null) return;
 
         attachmentListView.setCellFactory(param -> new ListCell<>() {
+            private final ImageView miniatura = new ImageView();
+
             @Override
             protected void updateItem(Allegati item, boolean empty) {
                 super.updateItem(item, empty);
                 if (empty || item == null) {
                     setText(null);
                     setGraphic(null);
+                    miniatura.setUserData(null);
                     setStyle("-fx-background-color: transparent;");
+                } else if (MiniatureAllegati.isImmagine(item)) {
+                    // Anteprima caricata in background: la cella appare subito e l'immagine arriva dopo
+                    MiniatureAllegati.getInstance().mostra(item, miniatura);
+                    setGraphic(miniatura);
+                    setText(item.getNomeFile());
+                    setStyle("-fx-text-fill: #bd93f9; -fx-cursor: hand; -fx-padding: 5; -fx-background-color: transparent;");
+                    setTooltip(new Tooltip(item.getPercorsoFile()));
                 } else {
+                    setGraphic(null);
                     setText("📎 " + item.getNomeFile());
                     setStyle("-fx-text-fill: #bd93f9; -fx-cursor: hand; -fx-padding: 5; -fx-background-color: transparent;");
                     setTooltip(new Tooltip(item.getPercorsoFile()));
@@ -184,44 +216,24 @@ public class TasksInfoPane {
             if (e.getClickCount() == 2) {
                 Allegati selected = attachmentListView.getSelectionModel().getSelectedItem();
                 if (selected != null) {
-                    openFile(selected.getPercorsoFile());
+                    openFile(selected);
                 }
             }
         });
     }
 
     /**
-     * Carica asincronamente gli allegati dal database per il task specificato.
-     * @param taskId ID del task.
+     * Apre un allegato utilizzando l'applicazione predefinita del sistema operativo.
+     * Gli allegati compressi vengono prima decompressi in un file temporaneo.
+     * @param allegato L'allegato da aprire.
      */
-    private void loadAttachments(int taskId) {
-        if (attachmentListView == null) return;
-        attachmentListView.getItems().clear();
-
-        CompletableFuture.supplyAsync(() -> {
-            try {
-                return DAOAllegati.getInstance().selectByTaskId(taskId);
-            } catch (DAOException e) {
-                e.printStackTrace();
-                return null;
-            }
-        }).thenAccept(list -> {
-            if (list != null) {
-                Platform.runLater(() -> attachmentListView.getItems().setAll(list));
-            }
-        });
-    }
-
-    /**
-     * Apre un file utilizzando l'applicazione predefinita del sistema operativo.
-     * @param path Percorso del file.
-     */
-    private void openFile(String path) {
+    private void openFile(Allegati allegato) {
+        String path = allegato.getPercorsoFile();
         if (path == null || path.isEmpty()) return;
 
         CompletableFuture.runAsync(() -> {
             try {
-                File file = new File(path);
+                File file = ArchivioAllegati.getInstance().perApertura(path, allegato.getNomeFile(), allegato.getTipoFile());
                 if (file.exists()) {
                     if (Desktop.isDesktopSupported()) {
                         Desktop.getDesktop().open(file);
@@ -239,78 +251,57 @@ public class TasksInfoPane {
     }
 
     /**
-     * Configura la timeline del timer e i relativi pulsanti.
+     * Configura i pulsanti del timer. Il conteggio e l'aggiornamento del display sono
+     * affidati a {@link ServizioTimer}, condiviso da tutti i timer in esecuzione.
      */
     private void setupTimerLogic() {
-        timeline = new Timeline(new KeyFrame(Duration.seconds(1), e -> {
-            secondsElapsed++;
-            updateTimerDisplay(secondsElapsed);
-        }));
-        timeline.setCycleCount(Timeline.INDEFINITE);
-
         if (btnTimerToggle != null) btnTimerToggle.setOnAction(e -> toggleTimer());
         if (btnTimerReset != null) btnTimerReset.setOnAction(e -> resetTimer());
         if (btnTimerMenu != null) btnTimerMenu.setOnAction(e -> toggleHistoryMenu());
     }
 
     /**
-     * Avvia o mette in pausa il timer gestendo la sessione sul database.
+     * Avvia o mette in pausa il timer del task selezionato gestendo la sessione sul database.
+     * Gli eventuali timer di altri task continuano a contare.
      */
     public void toggleTimer() {
         if (currentSelectedTask == null) return;
+        int taskId = currentSelectedTask.getIdTask();
 
-        if (isTimerRunning) {
-            timeline.stop();
-            isTimerRunning = false;
+        if (isTimerRunning()) {
             updateUIState(false);
-            stopDbSessionAndReload();
+            stopDbSessionAndReload(taskId);
         } else {
-            secondsElapsed = 0;
-            updateTimerDisplay(0);
-            startLocalTime = LocalDateTime.now().withNano(0);
-            timeline.play();
-            isTimerRunning = true;
+            ServizioTimer.getInstance().avvia(taskId);
             updateUIState(true);
-            startDbSession();
         }
     }
 
     /**
-     * Registra l'inizio di una sessione di lavoro nel database.
+     * @return True se il timer del task selezionato è in esecuzione.
      */
-    private void startDbSession() {
-        int taskId = currentSelectedTask.getIdTask();
-        LocalDateTime myStart = this.startLocalTime;
-
-        CompletableFuture.runAsync(() -> {
-            try {
-                TimerSessions session = new TimerSessions();
-                session.setIdTask(taskId);
-                session.setNome("Sessione");
-                session.setInizio(myStart);
-                DAOTimerSessions.getInstance().insert(session);
-                currentDbSessionId = session.getIdSession();
-            } catch (DAOException e) {
-                e.printStackTrace();
-            }
-        });
+    private boolean isTimerRunning() {
+        return currentSelectedTask != null && ServizioTimer.getInstance().isAttivo(currentSelectedTask.getIdTask());
     }
 
     /**
-     * Chiude la sessione corrente e ricarica lo storico.
+     * Ferma il timer del task e aggiunge la sessione chiusa in cima allo storico, senza rileggere le altre sessioni.
+     * @param taskId ID del task.
      */
-    private void stopDbSessionAndReload() {
-        int idDaChiudere = currentDbSessionId;
-        int taskId = currentSelectedTask.getIdTask();
-        LocalDateTime endLocalTime = startLocalTime.plusSeconds(secondsElapsed);
-
-        CompletableFuture.runAsync(() -> {
+    private void stopDbSessionAndReload(int taskId) {
+        ServizioTimer.getInstance().ferma(taskId).thenAcceptAsync(idChiusa -> {
             try {
-                if (idDaChiudere > 0) {
-                    DAOTimerSessions.getInstance().stopSession(idDaChiudere, endLocalTime);
+                // -1: sessione in coda (storico e totale si aggiornano quando arriva sul database) o non salvata
+                if (idChiusa == -1) return;
+                TimerSessions chiusa = DAOTimerSessions.getInstance().selectById(idChiusa);
+                if (chiusa != null) {
+                    Platform.runLater(() -> {
+                        if (historyTaskId == taskId && timerHistoryList != null) {
+                            timerHistoryList.getItems().add(0, chiusa);
+                        }
+                    });
                 }
-                loadHistory(taskId);
-                currentDbSessionId = -1;
+                refreshTotal(taskId);
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -321,8 +312,7 @@ public class TasksInfoPane {
      * Resetta il contatore del timer se non è in esecuzione.
      */
     public void resetTimer() {
-        if (isTimerRunning) return;
-        secondsElapsed = 0;
+        if (isTimerRunning()) return;
         updateTimerDisplay(0);
         if (timerStatusLabel != null) timerStatusLabel.setText("Pronto");
     }
@@ -333,16 +323,18 @@ public class TasksInfoPane {
     public void createSubTask() {
         String titolo = newSubTaskField.getText().trim();
         if (titolo.isEmpty() || currentSelectedTask == null) return;
+        Tasks padre = currentSelectedTask;
 
         CompletableFuture.runAsync(() -> {
             try {
                 SubTasks st = new SubTasks();
                 st.setTitolo(titolo);
-                st.setIdTask(currentSelectedTask.getIdTask());
+                st.setIdTask(padre.getIdTask());
                 st.setCompletamento(false);
-                DAOSubTasks.getInstance().insert(st);
+                CodaScritture.getInstance().insert(st);
                 Platform.runLater(() -> {
-                    subTasksList.add(st);
+                    padre.addProgressoSubTask(+1, 0);
+                    if (padre == currentSelectedTask) subTasksList.add(st);
                     newSubTaskField.clear();
                 });
             } catch (DAOException e) {
@@ -351,22 +343,6 @@ public class TasksInfoPane {
         });
     }
 
-    /**
-     * Aggiorna la lista dei subtask per il task corrente.
-     */
-    private void refreshSubTasks() {
-        if (currentSelectedTask == null) return;
-        CompletableFuture.supplyAsync(() -> {
-            try {
-                SubTasks filtro = new SubTasks();
-                filtro.setIdTask(currentSelectedTask.getIdTask());
-                return ((DAO<SubTasks>) DAOSubTasks.getInstance()).select(filtro);
-            } catch (Exception e) { return null; }
-        }).thenAccept(list -> {
-            if (list != null) Platform.runLater(() -> subTasksList.setAll(list));
-        });
-    }
-
     /**
      * Apre il pannello dettagli popolandolo con i dati del task.
      * @param task Task da visualizzare.
@@ -377,16 +353,7 @@ public class TasksInfoPane {
 
         if (detailTitleLabel != null) detailTitleLabel.setText(task.getTitolo());
 
-        if (detailDescArea != null) {
-            String desc = task.getDescrizione();
-            if (desc == null || desc.trim().isEmpty()) {
-                detailDescArea.setText("Nessuna descrizione aggiunta.");
-                detailDescArea.setStyle("-fx-text-fill: #777777; -fx-font-style: italic; -fx-background-color: transparent;");
-            } else {
-                detailDescArea.setText(desc);
-                detailDescArea.setStyle("-fx-text-fill: white; -fx-font-style: normal; -fx-background-color: transparent;");
-            }
-        }
+        showDescription(task);
 
         if (detailCategoryLabel != null) {
             if (categoryName == null || categoryName.trim().isEmpty()) {
@@ -412,11 +379,11 @@ public class TasksInfoPane {
             }
         }
 
-        resetTimer();
-        isTimerRunning = false;
-        if(timeline != null) timeline.stop();
-        updateUIState(false);
-        currentDbSessionId = -1;
+        // Il timer di un altro task resta in esecuzione: il display passa a quello del task aperto
+        if (timerLabel != null) ServizioTimer.getInstance().mostra(timerLabel, task.getIdTask());
+        boolean running = isTimerRunning();
+        if (!running) resetTimer();
+        updateUIState(running);
 
         //if (timerHistoryList != null) timerHistoryList.getItems().clear();
         //if (timerTotalLabel != null) timerTotalLabel.setText("--:--:--");
@@ -427,9 +394,8 @@ public class TasksInfoPane {
             if(btnTimerMenu!=null) btnTimerMenu.setText("▼");
         }
 
-        refreshSubTasks();
-        loadHistory(task.getIdTask());
-        loadAttachments(task.getIdTask());
+        updateTotalTimeLabel(task.getDurataTotale());
+        loadDetail(task.getIdTask());
 
         if (!isOpen && rightDetailPanel != null) {
             animatePanel(0);
@@ -438,25 +404,175 @@ public class TasksInfoPane {
     }
 
     /**
-     * Carica lo storico sessioni e il tempo totale speso.
+     * Mostra la descrizione del task (o un segnaposto se assente). Se il task contiene solo
+     * l'anteprima, il testo completo viene mostrato all'arrivo dei dettagli.
+     * @param task Task di cui mostrare la descrizione.
+     */
+    private void showDescription(Tasks task) {
+        if (detailDescArea == null) return;
+        String desc = task.getDescrizione();
+        if (desc == null || desc.trim().isEmpty()) {
+            detailDescArea.setText("Nessuna descrizione aggiunta.");
+            detailDescArea.setStyle("-fx-text-fill: #777777; -fx-font-style: italic; -fx-background-color: transparent;");
+        } else {
+            detailDescArea.setText(task.isDescrizioneCompleta() ? desc : desc + "…");
+            detailDescArea.setStyle("-fx-text-fill: white; -fx-font-style: normal; -fx-background-color: transparent;");
+        }
+    }
+
+    /**
+     * Popola descrizione completa, subtask, prima pagina dello storico, tempo totale e allegati del task.
+     * <p>
+     * Usa i dati precaricati da {@link #prefetchDetail(Tasks)} se ancora validi, altrimenti li
+     * richiede ora con un'unica interrogazione ({@link DAODettaglioTask}). Le pagine successive
+     * dello storico vengono richieste da {@link #loadNextHistoryPage()} durante lo scorrimento.
+     * </p>
      * @param taskId ID del task.
      */
-    private void loadHistory(int taskId) {
-        CompletableFuture.runAsync(() -> {
+    private void loadDetail(int taskId) {
+        historyTaskId = taskId;
+        historyExhausted = false;
+        historyLoading = true;
+        subTasksList.clear();
+        if (attachmentListView != null) attachmentListView.getItems().clear();
+        if (timerHistoryList != null) timerHistoryList.getItems().clear();
+
+        CompletableFuture<DettaglioTask> future = prefetched.remove(taskId);
+        if (future == null || isStale(future)) future = fetchDetail(taskId);
+
+        future.thenAccept(dettaglio -> Platform.runLater(() -> {
+            if (historyTaskId != taskId) return;
+            historyLoading = false;
+            if (dettaglio == null) return;
+
+            if (currentSelectedTask != null && !currentSelectedTask.isDescrizioneCompleta()) {
+                currentSelectedTask.setDescrizione(dettaglio.getDescrizione());
+                currentSelectedTask.setDescrizioneCompleta(true);
+                showDescription(currentSelectedTask);
+            }
+            subTasksList.setAll(dettaglio.getSubTasks());
+            if (currentSelectedTask != null) {
+                currentSelectedTask.setProgressoSubTask(dettaglio.getSubTasks().size(),
+                        (int) dettaglio.getSubTasks().stream().filter(SubTasks::getCompletamento).count());
+            }
+            if (attachmentListView != null) attachmentListView.getItems().setAll(dettaglio.getAllegati());
+            historyExhausted = dettaglio.getSessioniRecenti().size() < HISTORY_PAGE_SIZE;
+            if (timerHistoryList != null) timerHistoryList.getItems().setAll(dettaglio.getSessioniRecenti());
+            applyTotal(taskId, dettaglio.getDurataTotale());
+        }));
+    }
+
+    /**
+     * Avvia in anticipo il caricamento dei dettagli di un task (es. quando il puntatore vi si ferma sopra),
+     * così il pannello è già popolato quando termina l'animazione di apertura.
+     * @param task Task di cui precaricare i dettagli.
+     */
+    public void prefetchDetail(Tasks task) {
+        if (task == null || task.getIdTask() <= 0) return;
+        if (currentSelectedTask != null && currentSelectedTask.getIdTask() == task.getIdTask()) return;
+
+        CompletableFuture<DettaglioTask> esistente = prefetched.get(task.getIdTask());
+        if (esistente != null && !isStale(esistente)) return;
+        prefetched.put(task.getIdTask(), fetchDetail(task.getIdTask()));
+    }
+
+    /**
+     * Richiede i dettagli del task in un thread separato.
+     * @param taskId ID del task.
+     * @return Il future con i dettagli (null in caso di errore).
+     */
+    private CompletableFuture<DettaglioTask> fetchDetail(int taskId) {
+        return CompletableFuture.supplyAsync(() -> {
             try {
-                TimerSessions filtro = new TimerSessions();
-                filtro.setIdTask(taskId);
-                List<TimerSessions> history = DAOTimerSessions.getInstance().select(filtro);
-                long totale = DAOTimerSessions.getInstance().getSommaDurataPerTask(taskId);
+                return DAODettaglioTask.getInstance().select(taskId, HISTORY_PAGE_SIZE);
+            } catch (DAOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        });
+    }
 
+    /**
+     * Un precaricamento è scaduto se è fallito o se i dati sono più vecchi di {@link #PREFETCH_TTL_MS}.
+     * Quelli ancora in corso sono considerati validi.
+     */
+    private static boolean isStale(CompletableFuture<DettaglioTask> future) {
+        if (!future.isDone()) return false;
+        DettaglioTask d = future.getNow(null);
+        return d == null || System.currentTimeMillis() - d.getCaricatoIl() > PREFETCH_TTL_MS;
+    }
+
+    /**
+     * Installa sulla lista principale i trigger del precaricamento: sosta del puntatore su una riga
+     * e spostamento del focus da tastiera.
+     */
+    private void setupPrefetch() {
+        if (mainListView == null) return;
+
+        hoverDelay.setOnFinished(e -> prefetchDetail(hoveredTask));
+        mainListView.addEventFilter(MouseEvent.MOUSE_MOVED, e -> {
+            Node node = e.getPickResult().getIntersectedNode();
+            while (node != null && !(node instanceof ListCell)) node = node.getParent();
+            Tasks task = null;
+            if (node != null && ((ListCell<?>) node).getItem() instanceof Tasks t) task = t;
+            if (task != hoveredTask) {
+                hoveredTask = task;
+                if (task != null) hoverDelay.playFromStart(); else hoverDelay.stop();
+            }
+        });
+        mainListView.addEventFilter(MouseEvent.MOUSE_EXITED, e -> { hoveredTask = null; hoverDelay.stop(); });
+        mainListView.getFocusModel().focusedItemProperty().addListener((obs, oldT, newT) -> prefetchDetail(newT));
+    }
+
+    /**
+     * Accoda allo storico la pagina successiva, partendo dall'ultima sessione mostrata.
+     * Non fa nulla se una pagina è già in caricamento o se lo storico è terminato.
+     */
+    private void loadNextHistoryPage() {
+        if (historyLoading || historyExhausted || timerHistoryList == null || timerHistoryList.getItems().isEmpty()) return;
+        historyLoading = true;
+        int taskId = historyTaskId;
+        TimerSessions ultima = timerHistoryList.getItems().get(timerHistoryList.getItems().size() - 1);
+
+        CompletableFuture.runAsync(() -> {
+            try {
+                List<TimerSessions> pagina = DAOTimerSessions.getInstance().selectPage(taskId, ultima, HISTORY_PAGE_SIZE);
                 Platform.runLater(() -> {
-                    if (timerHistoryList != null) timerHistoryList.getItems().setAll(history);
-                    updateTotalTimeLabel(totale);
+                    if (historyTaskId != taskId) return;
+                    historyLoading = false;
+                    historyExhausted = pagina.size() < HISTORY_PAGE_SIZE;
+                    timerHistoryList.getItems().addAll(pagina);
                 });
-            } catch (Exception e) { e.printStackTrace(); }
+            } catch (Exception e) {
+                e.printStackTrace();
+                Platform.runLater(() -> { if (historyTaskId == taskId) historyLoading = false; });
+            }
         });
     }
 
+    /**
+     * Rilegge solo il tempo totale del task (lookup per chiave primaria) senza ricaricare lo storico.
+     * @param taskId ID del task.
+     */
+    private void refreshTotal(int taskId) {
+        try {
+            long totale = DAOTimerSessions.getInstance().getSommaDurataPerTask(taskId);
+            Platform.runLater(() -> applyTotal(taskId, totale));
+        } catch (DAOException e) { e.printStackTrace(); }
+    }
+
+    /**
+     * Mostra il tempo totale e lo riporta sul task selezionato (così si aggiorna anche in lista/griglia).
+     * @param taskId ID del task a cui si riferisce il totale.
+     * @param totale Secondi totali.
+     */
+    private void applyTotal(int taskId, long totale) {
+        if (currentSelectedTask != null && currentSelectedTask.getIdTask() == taskId) {
+            updateTotalTimeLabel(totale);
+            currentSelectedTask.setDurataTotale(totale);
+        }
+    }
+
 
 
     /**
@@ -481,12 +597,7 @@ public class TasksInfoPane {
      * @param seconds Secondi trascorsi.
      */
     private void updateTimerDisplay(long seconds) {
-        if (timerLabel != null) {
-            long h = seconds / 3600;
-            long m = (seconds % 3600) / 60;
-            long s = seconds % 60;
-            timerLabel.setText(String.format("%02d:%02d:%02d", h, m, s));
-        }
+        if (timerLabel != null) timerLabel.setText(ServizioTimer.formatta(seconds));
     }
 
     /**
@@ -526,6 +637,9 @@ public class TasksInfoPane {
                     setGraphic(null);
                     setStyle("-fx-background-color: transparent;");
                 } else {
+                    // Scorrimento infinito: l'ultima riga visibile richiede la pagina successiva
+                    if (getIndex() == getListView().getItems().size() - 1) loadNextHistoryPage();
+
                     HBox box = new HBox(10);
                     box.setAlignment(Pos.CENTER_LEFT);
 
@@ -549,7 +663,7 @@ public class TasksInfoPane {
         });
     }
     /**
-     * Elimina una sessione dal database e aggiorna la UI.
+     * Elimina una sessione (sul database o nella coda delle scritture) e aggiorna la UI.
      * @param item Sessione da eliminare.
      */
     private void deleteSession(TimerSessions item) {
@@ -560,8 +674,8 @@ public class TasksInfoPane {
             timerHistoryList.getItems().remove(item);
             CompletableFuture.runAsync(() -> {
                 try {
-                    DAOTimerSessions.getInstance().delete(item);
-                    if (currentSelectedTask != null) loadHistory(currentSelectedTask.getIdTask());
+                    CodaScritture.getInstance().delete(item);
+                    refreshTotal(item.getIdTask());
                 } catch (DAOException e) { e.printStackTrace(); }
             });
         }
@@ -586,8 +700,9 @@ public class TasksInfoPane {
                     cb.setSelected(item.getCompletamento());
                     cb.setOnAction(e -> {
                         item.setCompletamento(cb.isSelected());
+                        if (currentSelectedTask != null) currentSelectedTask.addProgressoSubTask(0, cb.isSelected() ? +1 : -1);
                         CompletableFuture.runAsync(() -> {
-                            try { DAOSubTasks.getInstance().update(item); } catch (DAOException ex) { ex.printStackTrace(); }
+                            try { CodaScritture.getInstance().update(item); } catch (DAOException ex) { ex.printStackTrace(); }
                         });
                         updateItem(item, false);
                     });
@@ -602,9 +717,11 @@ public class TasksInfoPane {
                     delBtn.setStyle("-fx-background-color: transparent; -fx-border-color: transparent; -fx-text-fill: #e74c3c; -fx-font-weight: bold; -fx-font-size: 14px; -fx-cursor: hand;");
                     delBtn.setOnAction(e -> {
                         CompletableFuture.runAsync(() -> {
-                            try { DAOSubTasks.getInstance().delete(item); } catch (DAOException ex) { ex.printStackTrace(); }
+                            try { CodaScritture.getInstance().delete(item); } catch (DAOException ex) { ex.printStackTrace(); }
                         });
-                        subTasksList.remove(item);
+                        if (subTasksList.remove(item) && currentSelectedTask != null) {
+                            currentSelectedTask.addProgressoSubTask(-1, item.getCompletamento() ? -1 : 0);
+                        }
                     });
 
                     box.getChildren().addAll(cb, label, delBtn);
@@ -625,11 +742,20 @@ public class TasksInfoPane {
         tt.play();
     }
 
+    /**
+     * Scollega l'etichetta del timer dal {@link ServizioTimer}, che è unico per l'applicazione e
+     * altrimenti continuerebbe a tenerla (e ad aggiornarla) anche dopo il logout.
+     */
+    public void scollegaTimer() {
+        if (timerLabel != null) ServizioTimer.getInstance().nascondi(timerLabel);
+    }
+
     /**
      * Chiude il pannello, mette in pausa il timer e deseleziona il task.
      */
     public void closePanel() {
-        if (isTimerRunning) toggleTimer(); //ferma timer
+        if (isTimerRunning()) toggleTimer(); //ferma timer
+        scollegaTimer();
 
         if (isOpen && rightDetailPanel != null) {
             double width = rightDetailPanel.getWidth();
@@ -4,10 +4,17 @@ import it.unicas.project.template.address.MainApp;
 import it.unicas.project.template.address.model.Categorie;
 import it.unicas.project.template.address.model.Tasks;
 import it.unicas.project.template.address.model.dao.DAOException;
+import it.unicas.project.template.address.model.dao.mysql.Annullamento;
+import it.unicas.project.template.address.model.dao.mysql.CodaScritture;
+import it.unicas.project.template.address.model.dao.mysql.DAOCategorie;
+import it.unicas.project.template.address.model.dao.mysql.DAOSubTasks;
 import it.unicas.project.template.address.model.dao.mysql.DAOTasks;
 import it.unicas.project.template.address.util.DateUtil;
 
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
+import javafx.beans.Observable;
+import javafx.beans.binding.Bindings;
 import javafx.beans.value.ChangeListener;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -23,13 +30,17 @@ import javafx.scene.shape.Circle;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.scene.text.Text;
+import javafx.util.Duration;
 
 import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.TextStyle;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * Controller helper che gestisce la logica di visualizzazione della lista dei task.
@@ -91,6 +102,27 @@ public class TasksList {
     /** Mappa per tenere traccia del momento esatto del completamento per l'ordinamento. */
     private final Map<Integer, Long> completionTimestamps = new HashMap<>();
 
+    // --- Ricerca per parola chiave ---
+    /** Attesa dopo l'ultimo tasto prima di avviare la ricerca. */
+    private final PauseTransition searchDelay = new PauseTransition(Duration.millis(200));
+    /** Numero dell'ultima ricerca avviata: le valutazioni con un numero diverso sono superate e si interrompono. */
+    private final AtomicLong searchGeneration = new AtomicLong();
+    /** Parola chiave (minuscola) a cui si riferiscono gli esiti in {@link #keywordResults}. */
+    private String searchedKeyword = null;
+    /**
+     * Esito della parola chiave per ogni task valutato (per identità). I task assenti, ad esempio
+     * aggiunti dopo la ricerca, vengono valutati direttamente dal predicato.
+     */
+    private Map<Tasks, Boolean> keywordResults = null;
+    /** Card della griglia già create, riusate quando la ricerca cambia solo i task visibili. */
+    private final Map<Tasks, VBox> gridCards = new IdentityHashMap<>();
+
+    // --- Ricarica dal database ---
+    /** Numero dell'ultima ricarica avviata: i risultati delle ricariche precedenti vengono scartati. */
+    private final AtomicLong reloadGeneration = new AtomicLong();
+    /** Ricarica ancora in corso, da annullare se ne parte un'altra. */
+    private Annullamento reloadInCorso = null;
+
     /**
      * Costruttore principale.
      * Inizializza i componenti e la logica interna.
@@ -136,7 +168,8 @@ public class TasksList {
      * Inizializza le liste osservabili, il comparatore per l'ordinamento e configura i componenti UI.
      */
     private void init() {
-        tasks = FXCollections.observableArrayList();
+        // L'extractor notifica anche le modifiche di completamento e scadenza dei task già in lista
+        tasks = FXCollections.observableArrayList(t -> new Observable[] { t.completamentoProperty(), t.scadenzaProperty() });
         filteredTasks = new FilteredList<>(tasks, t -> true);
         sortedTasks = new SortedList<>(filteredTasks);
 
@@ -181,30 +214,22 @@ public class TasksList {
     }
 
     /**
-     * Recupera il nome della categoria dato il suo ID.
+     * Recupera il nome della categoria dato il suo ID, tramite l'indice per ID della cache
+     * categorie dell'utente corrente.
      * @param id ID della categoria.
-     * @param allCats Lista di tutte le categorie disponibili.
      * @return Nome della categoria o stringa vuota se non trovata.
      */
-    public String getCategoryName(Integer id, List<Categorie> allCats) {
-//        if (id == null || allCats == null) return "";
-//        return allCats.stream()
-//                .filter(c -> c.getIdCategoria().equals(id))
-//                .findFirst()
-//                .map(Categorie::getNomeCategoria)
-//                .orElse("");
-
-        if (id == null || allCats == null) {
+    public String getCategoryName(Integer id) {
+        if (id == null || MainApp.getCurrentUser() == null) {
             return "";
         }
-
-        for (Categorie c : allCats) {
-            if (c.getIdCategoria().equals(id)) {
-                return c.getNomeCategoria();
-            }
+        try {
+            Categorie c = ((DAOCategorie) DAOCategorie.getInstance()).getById(MainApp.getCurrentUser().getIdUtente(), id);
+            return (c != null) ? c.getNomeCategoria() : "";
+        } catch (DAOException e) {
+            e.printStackTrace();
+            return "";
         }
-
-        return "";
     }
 
     /**
@@ -249,20 +274,49 @@ public class TasksList {
 
     /**
      * Ricarica i task dal database in un thread separato, applicando i filtri di base.
+     * <p>
+     * Ogni ricarica annulla quella precedente ancora in corso (anche la query sul server) e ha un
+     * numero di generazione: un risultato arrivato dopo una ricarica più recente viene scartato.
+     * </p>
      */
     private void reloadTasksFromDB() {
         if (MainApp.getCurrentUser() == null) return;
+        if (reloadInCorso != null) reloadInCorso.annulla();
+        Annullamento annullamento = new Annullamento();
+        reloadInCorso = annullamento;
+        long generation = reloadGeneration.incrementAndGet();
+
+        // Il filtro viene fissato ora: una modifica successiva avvia un'altra ricarica
+        Tasks filterTemplate = new Tasks();
+        filterTemplate.setIdUtente(MainApp.getCurrentUser().getIdUtente());
+        if (filterCategory != null) filterTemplate.setIdCategoria(filterCategory.getIdCategoria());
+        if (filterStatus != null) filterTemplate.setCompletamento(filterStatus);
+        if (filterPriority != null && !filterPriority.equalsIgnoreCase("TUTTE")) filterTemplate.setPriorita(filterPriority);
+
         Thread dbThread = new Thread(() -> {
             try {
-                Tasks filterTemplate = new Tasks();
-                filterTemplate.setIdUtente(MainApp.getCurrentUser().getIdUtente());
-                if (filterCategory != null) filterTemplate.setIdCategoria(filterCategory.getIdCategoria());
-                if (filterStatus != null) filterTemplate.setCompletamento(filterStatus);
-                if (filterPriority != null && !filterPriority.equalsIgnoreCase("TUTTE")) filterTemplate.setPriorita(filterPriority);
+                // La lista mostra solo un'anteprima della descrizione: il testo completo arriva all'apertura del task
+                List<Tasks> results = ((DAOTasks) DAOTasks.getInstance())
+                        .select(filterTemplate, DAOTasks.Proiezione.ELENCO, annullamento);
+                if (annullamento.isAnnullato()) return;
+
+                // Avanzamento checklist di tutti i task con una sola query raggruppata
+                Map<Integer, int[]> progressi = ((DAOSubTasks) DAOSubTasks.getInstance())
+                        .countByTask(results.stream().map(Tasks::getIdTask).collect(Collectors.toList()));
+                for (Tasks t : results) {
+                    int[] p = progressi.get(t.getIdTask());
+                    if (p != null) t.setProgressoSubTask(p[0], p[1]);
+                }
+
+                if (annullamento.isAnnullato()) return;
 
-                List<Tasks> results = DAOTasks.getInstance().select(filterTemplate);
                 Platform.runLater(() -> {
+                    if (reloadGeneration.get() != generation) return;
+                    reloadInCorso = null;
                     tasks.setAll(results);
+                    // Gli esiti della ricerca si riferiscono ai task sostituiti: la parola chiave viene rivalutata dal predicato
+                    keywordResults = null;
+                    searchedKeyword = null;
                     applyFilters();
 
 
@@ -273,6 +327,7 @@ public class TasksList {
                     }
                 });
             } catch (DAOException e) {
+                if (annullamento.isAnnullato()) return;
                 Platform.runLater(() -> {
                     e.printStackTrace();
                     new Alert(Alert.AlertType.ERROR, "Errore DB: " + e.getMessage()).show();
@@ -285,27 +340,130 @@ public class TasksList {
 
     /**
      * Imposta il filtro per parola chiave (cerca in titolo e descrizione).
+     * <p>
+     * La ricerca parte solo dopo una breve pausa nella digitazione. Se la nuova parola chiave
+     * contiene la precedente vengono esaminati solo i task che già corrispondevano; la valutazione
+     * avviene fuori dal thread UI e viene abbandonata se nel frattempo ne parte un'altra.
+     * Per i task di cui è stata letta solo l'anteprima della descrizione, la parola chiave viene
+     * cercata nel testo completo direttamente sul database.
+     * </p>
      * @param keyword Parola chiave.
      */
     public void setFilterKeyword(String keyword) {
         this.filterKeyword = (keyword != null) ? keyword.trim() : null;
+        searchGeneration.incrementAndGet();
+        searchDelay.setOnFinished(e -> startSearch());
+        searchDelay.playFromStart();
+    }
+
+    /**
+     * Valuta la parola chiave corrente sui task candidati e, se nessuna ricerca più recente è
+     * partita nel frattempo, applica il risultato alla lista filtrata.
+     */
+    private void startSearch() {
+        long generation = searchGeneration.incrementAndGet();
+        String key = (filterKeyword != null && !filterKeyword.isEmpty()) ? filterKeyword.toLowerCase() : null;
+
+        if (key == null) {
+            applySearchResult(null, null);
+            return;
+        }
+
+        // Restringimento: se la parola chiave estende la precedente bastano i task che corrispondevano già
+        boolean narrowing = keywordResults != null && searchedKeyword != null && key.contains(searchedKeyword);
+        List<Tasks> candidates = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        Set<Integer> truncated = new HashSet<>();
+        for (Tasks t : tasks) {
+            if (narrowing && Boolean.FALSE.equals(keywordResults.get(t))) continue;
+            candidates.add(t);
+            texts.add(searchText(t));
+            if (!t.isDescrizioneCompleta()) truncated.add(t.getIdTask());
+        }
+        Map<Tasks, Boolean> previous = narrowing ? keywordResults : null;
+
+        CompletableFuture.supplyAsync(() -> {
+            Map<Tasks, Boolean> results = (previous != null) ? new IdentityHashMap<>(previous) : new IdentityHashMap<>();
+            List<Integer> toCheck = new ArrayList<>();
+            for (int i = 0; i < candidates.size(); i++) {
+                if (searchGeneration.get() != generation) return null;
+                Tasks t = candidates.get(i);
+                boolean hit = texts.get(i).contains(key);
+                results.put(t, hit);
+                if (!hit && truncated.contains(t.getIdTask())) toCheck.add(t.getIdTask());
+            }
+            if (!toCheck.isEmpty() && searchGeneration.get() == generation) {
+                try {
+                    Set<Integer> hits = ((DAOTasks) DAOTasks.getInstance()).selectIdDescrizioneContiene(toCheck, key);
+                    for (Tasks t : candidates) {
+                        if (hits.contains(t.getIdTask())) results.put(t, true);
+                    }
+                } catch (DAOException e) {
+                    e.printStackTrace();
+                }
+            }
+            return results;
+        }).thenAccept(results -> {
+            if (results == null) return;
+            Platform.runLater(() -> {
+                if (searchGeneration.get() == generation) applySearchResult(key, results);
+            });
+        });
+    }
+
+    /**
+     * Applica alla lista filtrata l'esito di una ricerca e aggiorna la vista corrente.
+     * La lista e la griglia ricevono solo le differenze; il calendario viene ridisegnato.
+     */
+    private void applySearchResult(String key, Map<Tasks, Boolean> results) {
+        searchedKeyword = key;
+        keywordResults = results;
         applyFilters();
-        switch(currentViewMode) {
-            case LIST -> taskListView.refresh();
-            case GRID -> renderGrid();
+        switch (currentViewMode) {
+            case GRID -> renderGridDelta();
             case CALENDAR -> renderCalendarDispatcher();
-            default -> refreshView();
+            default -> { }
+        }
+    }
+
+    /**
+     * Scarta gli esiti memorizzati della ricerca, che si riferiscono al testo dei task al momento della
+     * valutazione, e se è attiva una parola chiave avvia una nuova ricerca.
+     */
+    private void invalidateKeywordResults() {
+        keywordResults = null;
+        searchedKeyword = null;
+        if (filterKeyword != null && !filterKeyword.isEmpty()) startSearch();
+    }
+
+    /** Testo in minuscolo in cui cercare la parola chiave (titolo e descrizione). */
+    private static String searchText(Tasks task) {
+        String titolo = task.getTitolo() != null ? task.getTitolo() : "";
+        String descrizione = task.getDescrizione() != null ? task.getDescrizione() : "";
+        return (titolo + "\n" + descrizione).toLowerCase();
+    }
+
+    /** Indica se il task corrisponde alla parola chiave corrente. */
+    private boolean matchesKeyword(Tasks task) {
+        if (filterKeyword == null || filterKeyword.isEmpty()) return true;
+        if (keywordResults != null) {
+            Boolean cached = keywordResults.get(task);
+            if (cached != null) return cached;
         }
+        return searchText(task).contains(filterKeyword.toLowerCase());
     }
 
     public void addTask(Tasks t) { tasks.add(t); refreshView(); }
 
     public void updateTaskInList(Tasks t) {
+        // Titolo e descrizione possono essere cambiati sul posto: gli esiti per istanza non valgono più
+        keywordResults = null;
         for (int i = 0; i < tasks.size(); i++) {
             if (tasks.get(i).getIdTask().equals(t.getIdTask()))
             { tasks.set(i, t); //sostituisce el in posizione i con t (nuovo task)
                 break; }
         }
+        invalidateKeywordResults();
         refreshView();
     }
 
@@ -372,6 +530,10 @@ public class TasksList {
         this.filterPriority = null;
         this.filterDate = null;
         this.filterKeyword = null;
+        searchGeneration.incrementAndGet();
+        searchDelay.stop();
+        searchedKeyword = null;
+        keywordResults = null;
 
         if (filteredTasks != null) {
             filteredTasks.setPredicate(t -> true); //prende tutto
@@ -401,13 +563,7 @@ public class TasksList {
                 }
             }
 
-            boolean keyMatch = true;
-            if (filterKeyword != null && !filterKeyword.isEmpty()) {
-                String lowerKey = filterKeyword.toLowerCase();
-                boolean titleHit = task.getTitolo() != null && task.getTitolo().toLowerCase().contains(lowerKey);
-                boolean descHit = task.getDescrizione() != null && task.getDescrizione().toLowerCase().contains(lowerKey);
-                keyMatch = titleHit || descHit;
-            }
+            boolean keyMatch = matchesKeyword(task);
 
             return catMatch && statMatch && prioMatch && dateMatch && keyMatch;
         });
@@ -416,8 +572,25 @@ public class TasksList {
     /** Rendering della vista a griglia (Board). */
     private void renderGrid() {
         gridFlowPane.getChildren().clear();
-        for (Tasks t : sortedTasks)
-        { gridFlowPane.getChildren().add(createGridCard(t)); }
+        gridCards.clear();
+        for (Tasks t : sortedTasks) {
+            VBox card = createGridCard(t);
+            gridCards.put(t, card);
+            gridFlowPane.getChildren().add(card);
+        }
+        resizeGridCards(gridFlowPane.getWidth());
+    }
+
+    /**
+     * Aggiorna la griglia dopo una ricerca: le card dei task già disegnati vengono riusate e
+     * vengono create solo quelle dei task che prima non c'erano.
+     */
+    private void renderGridDelta() {
+        List<Node> cards = new ArrayList<>(sortedTasks.size());
+        for (Tasks t : sortedTasks) {
+            cards.add(gridCards.computeIfAbsent(t, this::createGridCard));
+        }
+        gridFlowPane.getChildren().setAll(cards);
         resizeGridCards(gridFlowPane.getWidth());
     }
 
@@ -462,6 +635,7 @@ public class TasksList {
         header.getChildren().addAll(dot, textTitolo);
 
         String descText = (task.getDescrizione() != null) ? task.getDescrizione() : "Nessuna descrizione";
+        if (!task.isDescrizioneCompleta()) descText += "…";
         Label lblDesc = new Label(descText);
         lblDesc.setStyle("-fx-text-fill: #aaaaaa; -fx-font-size: 11px;");
         lblDesc.setWrapText(true); lblDesc.setAlignment(Pos.TOP_LEFT); lblDesc.setMaxHeight(Double.MAX_VALUE);
@@ -484,6 +658,10 @@ public class TasksList {
         }
         lblData.setText(dateText); lblData.setStyle(dateStyle);
         footer.getChildren().add(lblData);
+        Region footerSpacer = new Region(); HBox.setHgrow(footerSpacer, Priority.ALWAYS);
+        footer.getChildren().add(footerSpacer);
+        footer.getChildren().addAll(createProgressLabel(task, 10), createDurationLabel(task, 10));
+        footer.setSpacing(8);
         scheda.getChildren().addAll(header, lblDesc, footer);
         if (Boolean.TRUE.equals(task.getCompletamento())) {
             scheda.setOpacity(0.5);
@@ -493,6 +671,44 @@ public class TasksList {
         return scheda;
     }
 
+    /**
+     * Crea l'etichetta con il tempo totale registrato sul task, legata a
+     * {@link Tasks#durataTotaleDisplayProperty()} così si aggiorna quando un timer viene fermato.
+     * Resta nascosta (e non occupa spazio) finché il totale è zero.
+     *
+     * @param task     Il task.
+     * @param fontSize Dimensione del carattere.
+     * @return L'etichetta.
+     */
+    private Label createDurationLabel(Tasks task, int fontSize) {
+        Label lbl = new Label();
+        lbl.textProperty().bind(Bindings.concat("⏱ ", task.durataTotaleDisplayProperty()));
+        lbl.setStyle("-fx-text-fill: #8be9fd; -fx-font-size: " + fontSize + "px;");
+        lbl.setMinWidth(Region.USE_PREF_SIZE);
+        lbl.visibleProperty().bind(task.durataTotaleProperty().greaterThan(0));
+        lbl.managedProperty().bind(lbl.visibleProperty());
+        return lbl;
+    }
+
+    /**
+     * Crea l'etichetta con l'avanzamento della checklist (es. "☑ 3/7"), legata alle property
+     * del task così si aggiorna quando i subtask vengono modificati dal pannello dettagli.
+     * Resta nascosta (e non occupa spazio) finché il task non ha subtask.
+     *
+     * @param task     Il task.
+     * @param fontSize Dimensione del carattere.
+     * @return L'etichetta.
+     */
+    private Label createProgressLabel(Tasks task, int fontSize) {
+        Label lbl = new Label();
+        lbl.textProperty().bind(Bindings.format("☑ %d/%d", task.subTaskCompletatiProperty(), task.subTaskTotaliProperty()));
+        lbl.setStyle("-fx-text-fill: #50fa7b; -fx-font-size: " + fontSize + "px;");
+        lbl.setMinWidth(Region.USE_PREF_SIZE);
+        lbl.visibleProperty().bind(task.subTaskTotaliProperty().greaterThan(0));
+        lbl.managedProperty().bind(lbl.visibleProperty());
+        return lbl;
+    }
+
     /** Smista il rendering del calendario in base alla modalità corrente (Mese, Settimana, Giorno). */
     private void renderCalendarDispatcher() {
         if (currentCalendarMode == CalendarMode.MONTH) {
@@ -840,7 +1056,7 @@ public class TasksList {
                         Comparator<Tasks> cmp = (Comparator<Tasks>) sortedTasks.getComparator();
                         sortedTasks.setComparator(null); sortedTasks.setComparator(cmp);
                     });
-                    new Thread(() -> { try { DAOTasks.getInstance().update(task); } catch (Exception ex) { ex.printStackTrace(); } }).start();
+                    new Thread(() -> { try { CodaScritture.getInstance().update(task); } catch (Exception ex) { ex.printStackTrace(); } }).start();
                 });
 
 
@@ -886,6 +1102,7 @@ public class TasksList {
 
                 Region spacer = new Region(); HBox.setHgrow(spacer, Priority.ALWAYS);
                 HBox taskContent = new HBox(15, completeBox, priorityBadge, textLabel, spacer, dateLabel, menuButton);
+                taskContent.getChildren().addAll(5, List.of(createProgressLabel(task, 11), createDurationLabel(task, 11)));
                 taskContent.setAlignment(Pos.CENTER_LEFT); taskContent.setPadding(new Insets(5, 0, 5, 0));
                 taskContent.setOpacity(task.getCompletamento() ? 0.5 : 1.0);
 
@@ -1,15 +1,21 @@
 package it.unicas.project.template.address.view;
 
+import it.unicas.project.template.address.model.Statistiche;
 import it.unicas.project.template.address.model.dao.DAOException;
 import it.unicas.project.template.address.model.dao.mysql.DAOStatistics;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.scene.chart.*;
 import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
+import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Controller per la visualizzazione delle statistiche utente.
@@ -42,6 +48,30 @@ public class TasksStatisticsController {
     @FXML
     private Label lblWorkload;
 
+    /** Etichetta segnaposto mostrata mentre le statistiche vengono caricate dal database. */
+    @FXML
+    private Label lblCaricamento;
+
+    /** Pulsante che ricostruisce i contatori statistici dell'utente a partire dai task. */
+    @FXML
+    private Button btnRicalcola;
+
+    /** Selettore del periodo su cui calcolare il tempo speso per categoria. */
+    @FXML
+    private ComboBox<String> cmbPeriodo;
+
+    /** Periodi selezionabili, con la relativa ampiezza in giorni (null = tutto lo storico). */
+    private static final Map<String, Integer> PERIODI = new LinkedHashMap<>();
+    static {
+        PERIODI.put("Ultimi 7 giorni", 7);
+        PERIODI.put("Ultimi 30 giorni", 30);
+        PERIODI.put("Ultimo anno", 365);
+        PERIODI.put("Sempre", null);
+    }
+
+    /** ID dell'utente di cui sono visualizzate le statistiche. */
+    private int idUtente;
+
     /**
      * Metodo di inizializzazione chiamato automaticamente da JavaFX dopo il caricamento del file FXML.
      * <p>
@@ -54,13 +84,24 @@ public class TasksStatisticsController {
         pieChartPriorita.getData().clear();
         barChartCategorie.getData().clear();
         pieChartPriorita.setLegendVisible(true);
+
+        if (cmbPeriodo != null) {
+            cmbPeriodo.getItems().setAll(PERIODI.keySet());
+            cmbPeriodo.setValue("Sempre");
+            cmbPeriodo.valueProperty().addListener((obs, oldVal, newVal) -> {
+                if (idUtente > 0 && newVal != null) loadStatistics(idUtente);
+            });
+        }
     }
 
     /**
      * Metodo principale per avviare il caricamento delle statistiche.
      * <p>
      * Deve essere chiamato dal controller principale (es. MainScreenController) quando si apre
-     * la finestra delle statistiche. Coordina il caricamento dei dati per:
+     * la finestra delle statistiche. I dati vengono recuperati con un'unica interrogazione
+     * ({@link DAOStatistics#getStatisticsSnapshot(int, Integer)}, limitata al periodo scelto in
+     * {@code cmbPeriodo}) in un thread separato, così la finestra
+     * si apre subito mostrando un segnaposto; al termine vengono popolati sul thread JavaFX:
      * <ol>
      * <li>Grafico a torta delle priorità.</li>
      * <li>Grafico a barre del tempo per categoria.</li>
@@ -70,28 +111,86 @@ public class TasksStatisticsController {
      * @param idUtente L'ID dell'utente loggato di cui visualizzare le statistiche.
      */
     public void loadStatistics(int idUtente) {
-        try {
-
-            loadPriorityData(idUtente);
-
-            loadCategoryTimeData(idUtente);
+        this.idUtente = idUtente;
+        Integer giorni = (cmbPeriodo != null) ? PERIODI.get(cmbPeriodo.getValue()) : null;
+        showPlaceholder(true);
+
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return DAOStatistics.getInstance().getStatisticsSnapshot(idUtente, giorni);
+            } catch (DAOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }).thenAccept(stats -> Platform.runLater(() -> {
+            showPlaceholder(false);
+            if (stats == null) {
+                showAlert("Errore Caricamento Statistiche", "Impossibile recuperare i dati dal database");
+                return;
+            }
+            loadPriorityData(stats.getTaskPerPriorita());
+            loadCategoryTimeData(stats.getTempoPerCategoria());
+            loadCompletionStats(stats);
+        }));
+    }
 
-            loadCompletionStats(idUtente);
+    /**
+     * Ricostruisce i contatori statistici dell'utente e ricarica la finestra.
+     * <p>
+     * I contatori sono aggiornati in modo incrementale a ogni modifica dei task; questo comando
+     * serve a riallinearli se sono stati modificati dati direttamente sul database.
+     */
+    @FXML
+    private void handleRicalcola() {
+        if (btnRicalcola != null) btnRicalcola.setDisable(true);
+
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                DAOStatistics.getInstance().rebuildCounters(idUtente);
+                return true;
+            } catch (DAOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }).thenAccept(ricalcolati -> Platform.runLater(() -> {
+            if (btnRicalcola != null) btnRicalcola.setDisable(false);
+            if (!ricalcolati) {
+                // I dati mostrati restano quelli precedenti al tentativo
+                showAlert("Errore Ricalcolo Statistiche", "Impossibile ricalcolare i contatori sul database");
+                return;
+            }
+            loadStatistics(idUtente);
+        }));
+    }
 
-        } catch (DAOException e) {
-            showAlert("Errore Caricamento Statistiche", "Impossibile recuperare i dati dal database");
+    /**
+     * Mostra o nasconde il segnaposto di caricamento.
+     * <p>
+     * Durante il caricamento le etichette di riepilogo mostrano "…" e i grafici restano vuoti.
+     *
+     * @param loading True se il caricamento è in corso.
+     */
+    private void showPlaceholder(boolean loading) {
+        if (lblCaricamento != null) {
+            lblCaricamento.setVisible(loading);
+            lblCaricamento.setManaged(loading);
+        }
+        if (loading) {
+            if (lblTaskAperti != null) lblTaskAperti.setText("…");
+            if (lblTaskCompletati != null) lblTaskCompletati.setText("…");
+            if (lblWorkload != null) lblWorkload.setText("…");
+            pieChartPriorita.setTitle("Caricamento...");
+            barChartCategorie.setTitle("Caricamento...");
         }
     }
 
     /**
      * Carica i dati per il grafico a torta (PieChart) che mostra la distribuzione dei task per priorità.
      *
-     * @param idUtente L'ID dell'utente.
-     * @throws DAOException Se si verifica un errore durante l'interrogazione del database.
+     * @param data Mappa priorità → numero di task.
      */
-    private void loadPriorityData(int idUtente) throws DAOException {
+    private void loadPriorityData(Map<String, Integer> data) {
 
-        Map<String, Integer> data = DAOStatistics.getInstance().getTaskCountByPriority(idUtente);
         ObservableList<PieChart.Data> pieData = FXCollections.observableArrayList();
 
 
@@ -108,12 +207,10 @@ public class TasksStatisticsController {
      * Carica i dati per il grafico a barre (BarChart) che mostra il tempo speso per ogni categoria.
      * I dati temporali vengono convertiti da secondi a minuti per una migliore leggibilità.
      *
-     * @param idUtente L'ID dell'utente.
-     * @throws DAOException Se si verifica un errore durante l'interrogazione del database.
+     * @param data Mappa nome categoria → secondi spesi.
      */
-    private void loadCategoryTimeData(int idUtente) throws DAOException {
+    private void loadCategoryTimeData(Map<String, Long> data) {
 
-        Map<String, Long> data = DAOStatistics.getInstance().getTimeSpentByCategory(idUtente);
         XYChart.Series<String, Number> series = new XYChart.Series<>();
         series.setName("Tempo Speso (Minuti)");
 
@@ -137,14 +234,12 @@ public class TasksStatisticsController {
      * grafico personalizzato per {@code lblWorkload} che mostra sia il numero di task aperti
      * che un giudizio testuale (es. "Leggero", "Pesante") con colori codificati.
      *
-     * @param idUtente L'ID dell'utente.
-     * @throws DAOException Se si verifica un errore durante l'interrogazione del database.
+     * @param stats Le statistiche aggregate dell'utente.
      */
-    private void loadCompletionStats(int idUtente) throws DAOException {
+    private void loadCompletionStats(Statistiche stats) {
 
-        int[] stats = DAOStatistics.getInstance().getCompletionStats(idUtente);
-        int taskAperti = stats[0];
-        int taskCompletati = stats[1];
+        int taskAperti = stats.getTaskAperti();
+        int taskCompletati = stats.getTaskCompletati();
 
         if (lblTaskAperti != null) lblTaskAperti.setText(String.valueOf(taskAperti));
         if (lblTaskCompletati != null) lblTaskCompletati.setText(String.valueOf(taskCompletati));
@@ -0,0 +1,256 @@
+package it.unicas.project.template.address.model.dao.mysql;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Classe di Test JUnit per la coda persistente delle scritture ({@link CodaScritture}).
+ * <p>
+ * Il file della coda viene preparato dal test con i record che l'applicazione scriverebbe mentre il
+ * database non risponde; la coda viene poi "riavviata" creandone una nuova sullo stesso file.
+ * I test di caricamento non usano il database, quelli di riapplicazione sì.
+ * </p>
+ */
+public class CodaScrittureTest {
+
+    private static final int ID_UTENTE_ESISTENTE = 14; // deve essere già presente nel DB
+
+    @TempDir
+    Path cartella;
+
+    private Path file() {
+        return cartella.resolve("outbox").resolve("scritture.log");
+    }
+
+    /** Scrive il file della coda con i record indicati, già completi di lunghezza e CRC. */
+    private Path scrivi(byte[]... record) throws Exception {
+        Files.createDirectories(file().getParent());
+        ByteArrayOutputStream contenuto = new ByteArrayOutputStream();
+        for (byte[] r : record) contenuto.write(r);
+        return Files.write(file(), contenuto.toByteArray());
+    }
+
+    private static byte[] operazione(long seq, String chiave, CodaScritture.Tipo tipo, int idProvvisorio,
+                                     Map<String, String> campi) throws Exception {
+        return CodaScritture.record(CodaScritture.codificaOperazione(
+                new CodaScritture.Voce(seq, chiave, tipo, idProvvisorio, campi)));
+    }
+
+    private static Map<String, String> task(String idTask, String titolo) {
+        Map<String, String> c = new LinkedHashMap<>();
+        c.put("idTask", idTask);
+        c.put("idUtente", String.valueOf(ID_UTENTE_ESISTENTE));
+        c.put("idCategoria", null);
+        c.put("titolo", titolo);
+        c.put("descrizione", "Creato dal test della coda");
+        c.put("descrizioneCompleta", "true");
+        c.put("scadenza", null);
+        c.put("priorita", "BASSA");
+        c.put("completamento", "false");
+        return c;
+    }
+
+    private static String chiave() {
+        return UUID.randomUUID().toString();
+    }
+
+    /** Esegue un'istruzione SQL di servizio e restituisce il primo intero del risultato (se è una query). */
+    private static Integer sql(String query) throws SQLException {
+        Statement st = DAOMySQLSettings.getStatement();
+        Connection conn = st.getConnection();
+        try {
+            if (!query.startsWith("SELECT")) {
+                st.executeUpdate(query);
+                return null;
+            }
+            ResultSet rs = st.executeQuery(query);
+            Integer n = rs.next() ? rs.getInt(1) : null;
+            rs.close();
+            return n;
+        } finally {
+            DAOMySQLSettings.closeStatement(st);
+            conn.close();
+        }
+    }
+
+    /**
+     * Test record troncato: un record scritto a metà da un'interruzione viene scartato e il file
+     * accorciato fino all'ultimo record valido; le operazioni precedenti restano in coda.
+     */
+    @Test
+    public void testCodaTroncata() throws Exception {
+        String prima = chiave();
+        byte[] valido = operazione(1, prima, CodaScritture.Tipo.UPDATE_TASK, 0, task("13", "Primo"));
+        byte[] secondo = operazione(2, chiave(), CodaScritture.Tipo.UPDATE_TASK, 0, task("13", "Secondo"));
+        byte[] troncato = new byte[secondo.length / 2];
+        System.arraycopy(secondo, 0, troncato, 0, troncato.length);
+        scrivi(valido, troncato);
+
+        CodaScritture coda = new CodaScritture(file());
+
+        assertEquals(List.of(prima), coda.getChiaviInAttesa());
+        assertEquals(valido.length, Files.size(file()), "La coda rovinata viene troncata");
+    }
+
+    /**
+     * Test CRC: un record integro nella lunghezza ma con il contenuto alterato non viene caricato.
+     */
+    @Test
+    public void testRecordAlterato() throws Exception {
+        byte[] alterato = operazione(1, chiave(), CodaScritture.Tipo.DELETE_TASK, 0, task("13", "Alterato"));
+        alterato[10] ^= 1;
+        scrivi(alterato);
+
+        CodaScritture coda = new CodaScritture(file());
+
+        assertEquals(0, coda.getInAttesa());
+        assertEquals(0, Files.size(file()));
+    }
+
+    /**
+     * Test riavvio: le operazioni confermate spariscono, le altre restano nell'ordine di scrittura
+     * e le mappature degli ID provvisori vengono ricaricate.
+     */
+    @Test
+    public void testOrdineDopoRiavvio() throws Exception {
+        String a = chiave();
+        String b = chiave();
+        String c = chiave();
+        scrivi(operazione(1, a, CodaScritture.Tipo.INSERT_TASK, -2, task(null, "A")),
+                CodaScritture.record(CodaScritture.codificaMappatura(-2, 57)),
+                CodaScritture.record(CodaScritture.codificaConferma(1)),
+                operazione(2, b, CodaScritture.Tipo.UPDATE_TASK, 0, task("-2", "B")),
+                operazione(3, c, CodaScritture.Tipo.DELETE_TASK, 0, task("-2", "C")));
+
+        CodaScritture coda = new CodaScritture(file());
+
+        assertEquals(List.of(b, c), coda.getChiaviInAttesa());
+        assertEquals(57, coda.idDefinitivo(-2));
+        assertNull(coda.idDefinitivo(-3));
+    }
+
+    /**
+     * Test mappature a coda vuota: dopo il riavvio le mappature recenti si risolvono ancora, quelle
+     * scadute no, e gli ID provvisori già usati non vengono riassegnati.
+     */
+    @Test
+    public void testMappatureConservate() throws Exception {
+        long scaduta = System.currentTimeMillis()
+                - (CodaScritture.CONSERVAZIONE_MAPPATURE_GIORNI + 1) * 24L * 3600 * 1000;
+        scrivi(operazione(1, chiave(), CodaScritture.Tipo.INSERT_TASK, -2, task(null, "A")),
+                CodaScritture.record(CodaScritture.codificaMappatura(-2, 57)),
+                CodaScritture.record(CodaScritture.codificaConferma(1)),
+                operazione(2, chiave(), CodaScritture.Tipo.INSERT_TASK, -3, task(null, "B")),
+                CodaScritture.record(CodaScritture.codificaMappatura(-3, 58, scaduta)),
+                CodaScritture.record(CodaScritture.codificaConferma(2)));
+
+        CodaScritture coda = new CodaScritture(file());
+        assertEquals(0, coda.getInAttesa());
+        assertEquals(57, coda.idDefinitivo(-2));
+        assertNull(coda.idDefinitivo(-3), "Mappatura scaduta");
+
+        // Il file compattato contiene solo il contatore e la mappatura ancora valida
+        CodaScritture riavviata = new CodaScritture(file());
+        assertEquals(57, riavviata.idDefinitivo(-2));
+        assertEquals(-4, riavviata.getProssimoProvvisorio(), "Gli ID provvisori usati non tornano disponibili");
+        assertEquals(CodaScritture.record(CodaScritture.codificaContatore(-4)).length
+                + CodaScritture.record(CodaScritture.codificaMappatura(-2, 57)).length, Files.size(file()));
+    }
+
+    /**
+     * Test riapplicazione: dopo il riavvio l'inserimento e la modifica in coda vengono applicati in
+     * ordine e la modifica, scritta con l'ID provvisorio, arriva al task vero.
+     *
+     * @throws Exception In caso di errori SQL.
+     */
+    @Test
+    public void testRiapplicazioneConIdProvvisori() throws Exception {
+        String titolo = "Test coda " + UUID.randomUUID();
+        scrivi(operazione(1, chiave(), CodaScritture.Tipo.INSERT_TASK, -2, task(null, titolo)),
+                operazione(2, chiave(), CodaScritture.Tipo.UPDATE_TASK, 0, task("-2", titolo + " (modificato)")));
+
+        CodaScritture coda = new CodaScritture(file());
+        coda.riapplica();
+
+        assertEquals(0, coda.getInAttesa());
+        Integer idReale = coda.idDefinitivo(-2);
+        assertNotNull(idReale);
+        assertTrue(idReale > 0);
+        assertEquals(idReale, new CodaScritture(file()).idDefinitivo(-2),
+                "Con la coda vuota la mappatura resta nel file");
+        assertEquals(1, sql("SELECT COUNT(*) FROM Tasks WHERE idTask = " + idReale
+                + " AND titolo = '" + titolo + " (modificato)'"));
+
+        sql("DELETE FROM Tasks WHERE idTask = " + idReale);
+    }
+
+    /**
+     * Test idempotenza: un'operazione la cui chiave è già in {@code OperazioniApplicate} (commit
+     * avvenuto ma conferma locale persa) non viene ripetuta, e l'ID generato registrato viene usato
+     * per la mappatura.
+     *
+     * @throws Exception In caso di errori SQL.
+     */
+    @Test
+    public void testOperazioneGiaApplicata() throws Exception {
+        String titolo = "Test coda " + UUID.randomUUID();
+        String chiave = chiave();
+        int idTaskEsistente = 13;
+        DAOSchema.ensureCodaScritture();
+        sql("INSERT INTO " + DAOSchema.OPERAZIONI_APPLICATE + " (chiave, idGenerato) VALUES ('"
+                + chiave + "', " + idTaskEsistente + ")");
+        scrivi(operazione(1, chiave, CodaScritture.Tipo.INSERT_TASK, -2, task(null, titolo)));
+
+        CodaScritture coda = new CodaScritture(file());
+        coda.riapplica();
+
+        assertEquals(0, coda.getInAttesa());
+        assertEquals(idTaskEsistente, coda.idDefinitivo(-2));
+        assertEquals(0, sql("SELECT COUNT(*) FROM Tasks WHERE titolo = '" + titolo + "'"),
+                "L'inserimento non viene ripetuto");
+
+        sql("DELETE FROM " + DAOSchema.OPERAZIONI_APPLICATE + " WHERE chiave = '" + chiave + "'");
+    }
+
+    /**
+     * Test scarto delle dipendenze: un'operazione che usa l'ID provvisorio di un inserimento mai
+     * applicato viene scartata senza andare sul database e segnalata agli ascoltatori.
+     *
+     * @throws Exception In caso di errori SQL.
+     */
+    @Test
+    public void testScartoOperazioniDipendenti() throws Exception {
+        Map<String, String> subTask = new LinkedHashMap<>();
+        subTask.put("idSubTask", null);
+        subTask.put("idTask", "-2");
+        subTask.put("titolo", "Subtask orfano");
+        subTask.put("descrizione", null);
+        subTask.put("completamento", "false");
+        scrivi(operazione(2, chiave(), CodaScritture.Tipo.INSERT_SUBTASK, -3, subTask));
+
+        CodaScritture coda = new CodaScritture(file());
+        List<String> scarti = new ArrayList<>();
+        coda.addScartiListener(scarti::addAll);
+        coda.riapplica();
+
+        assertEquals(0, coda.getInAttesa());
+        assertEquals(1, coda.getScartate());
+        assertEquals(List.of("Inserimento del subtask \"Subtask orfano\": dipende da un inserimento non salvato"), scarti);
+        assertNull(coda.idDefinitivo(-3));
+    }
+}
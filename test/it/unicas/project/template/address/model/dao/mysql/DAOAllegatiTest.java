@@ -0,0 +1,94 @@
+package it.unicas.project.template.address.model.dao.mysql;
+
+import it.unicas.project.template.address.model.Allegati;
+import it.unicas.project.template.address.model.dao.DAOException;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Classe di Test JUnit per il conteggio dei riferimenti ai contenuti degli allegati.
+ * <p>
+ * Due allegati con lo stesso digest condividono una riga di {@code BlobAllegati}: ogni inserimento
+ * incrementa i riferimenti, ogni eliminazione li decrementa e a zero la riga viene rimossa
+ * (il file diventa così candidato alla quarantena di {@code PuliziaAllegati}).
+ * </p>
+ */
+public class DAOAllegatiTest {
+
+    private DAOAllegati dao = DAOAllegati.getInstance();
+
+    private int riferimenti(String digest) throws SQLException {
+        Statement st = DAOMySQLSettings.getStatement();
+        Connection conn = st.getConnection();
+        try {
+            ResultSet rs = st.executeQuery("SELECT riferimenti FROM " + DAOSchema.BLOB_ALLEGATI
+                    + " WHERE digest = '" + digest + "'");
+            int n = rs.next() ? rs.getInt(1) : 0;
+            rs.close();
+            return n;
+        } finally {
+            DAOMySQLSettings.closeStatement(st);
+            conn.close();
+        }
+    }
+
+    /**
+     * Test ciclo dei riferimenti: 0 → 1 → 2 → 1 → 0 (riga rimossa).
+     *
+     * @throws Exception In caso di errori SQL.
+     */
+    @Test
+    public void testRiferimentiCondivisi() throws Exception {
+        int idTaskEsistente = 13; // deve essere già presente nel DB
+        // Digest casuale (64 cifre esadecimali): nessun altro allegato lo usa
+        String digest = (UUID.randomUUID().toString() + UUID.randomUUID()).replace("-", "");
+
+        Allegati primo = new Allegati("test-a.txt", "attachments/store/xx/" + digest + ".txt", "txt", idTaskEsistente);
+        Allegati secondo = new Allegati("test-b.txt", "attachments/store/xx/" + digest + ".txt", "txt", idTaskEsistente);
+        primo.setDigest(digest);
+        secondo.setDigest(digest);
+
+        dao.insert(primo);
+        assertEquals(1, riferimenti(digest));
+        dao.insert(secondo);
+        assertEquals(2, riferimenti(digest));
+
+        List<Allegati> salvati = dao.selectByTaskId(idTaskEsistente);
+        salvati.removeIf(a -> !digest.equals(a.getDigest()));
+        assertEquals(2, salvati.size());
+
+        dao.delete(salvati.get(0).getIdAllegato());
+        assertEquals(1, riferimenti(digest));
+        dao.delete(salvati.get(1).getIdAllegato());
+        assertEquals(0, riferimenti(digest), "Riga del contenuto rimossa a zero riferimenti");
+    }
+
+    /**
+     * Test allegati senza digest (salvati prima dell'archivio): non vengono conteggiati.
+     *
+     * @throws DAOException In caso di errori SQL.
+     */
+    @Test
+    public void testAllegatoSenzaDigest() throws DAOException {
+        int idTaskEsistente = 13;
+        String nome = "test-senza-digest-" + UUID.randomUUID() + ".txt";
+        dao.insert(new Allegati(nome, "attachments/" + nome, "txt", idTaskEsistente));
+
+        Allegati salvato = dao.selectByTaskId(idTaskEsistente).stream()
+                .filter(a -> nome.equals(a.getNomeFile()))
+                .findFirst()
+                .orElse(null);
+        assertNotNull(salvato);
+        assertNull(salvato.getDigest());
+
+        dao.delete(salvato.getIdAllegato());
+    }
+}
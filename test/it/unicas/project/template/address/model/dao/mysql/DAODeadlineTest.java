@@ -70,4 +70,38 @@ public class DAODeadlineTest {
             fail("Errore inserimento futuro: " + e.getMessage());
         }
     }
+
+    /**
+     * Test Task in Scadenza.
+     * <p>
+     * Verifica che {@code selectDueBefore} restituisca il task in scadenza domani (inserito con
+     * la data in formato dd-MM-yyyy) e che i risultati siano ordinati per scadenza.
+     * </p>
+     */
+    @Test
+    public void testSelectDueBefore() {
+        Tasks task = new Tasks();
+        task.setTitolo("Task Test Promemoria");
+        task.setPriorita("media");
+        task.setIdUtente(14);
+        task.setScadenza(DateUtil.format(LocalDate.now().plusDays(1)));
+
+        try {
+            dao.insert(task);
+            try {
+                java.util.List<Tasks> urgenti = dao.selectDueBefore(14, LocalDate.now().plusDays(1), 50);
+
+                assertTrue(urgenti.stream().anyMatch(t -> t.getIdTask().equals(task.getIdTask())),
+                        "Il task in scadenza domani deve essere restituito.");
+                for (int i = 1; i < urgenti.size(); i++) {
+                    assertTrue(urgenti.get(i - 1).getScadenza().compareTo(urgenti.get(i).getScadenza()) <= 0,
+                            "I task devono essere ordinati per scadenza.");
+                }
+            } finally {
+                dao.delete(task);
+            }
+        } catch (DAOException e) {
+            fail("Errore lettura task in scadenza: " + e.getMessage());
+        }
+    }
 }
@@ -1,5 +1,7 @@
 package it.unicas.project.template.address.model.dao.mysql;
 
+import it.unicas.project.template.address.model.Statistiche;
+import it.unicas.project.template.address.model.Tasks;
 import it.unicas.project.template.address.model.dao.DAOException;
 import org.junit.jupiter.api.Test;
 import java.util.Map;
@@ -90,4 +92,90 @@ class DAOStatisticsTest {
             fail(e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Test per l'istantanea completa delle statistiche.
+     * <p>
+     * Verifica che {@code getStatisticsSnapshot}, che esegue un'unica query, restituisca
+     * gli stessi valori dei tre metodi singoli.
+     * </p>
+     */
+    @Test
+    void getStatisticsSnapshot() {
+        System.out.println("\n--- TEST: Snapshot Statistiche (Utente " + TEST_USER_ID + ") ---");
+        try {
+            Statistiche snapshot = DAOStatistics.getInstance().getStatisticsSnapshot(TEST_USER_ID);
+            int[] completamento = DAOStatistics.getInstance().getCompletionStats(TEST_USER_ID);
+
+            assertNotNull(snapshot);
+            assertEquals(completamento[0], snapshot.getTaskAperti());
+            assertEquals(completamento[1], snapshot.getTaskCompletati());
+            assertEquals(DAOStatistics.getInstance().getTaskCountByPriority(TEST_USER_ID), snapshot.getTaskPerPriorita());
+            assertEquals(DAOStatistics.getInstance().getTimeSpentByCategory(TEST_USER_ID), snapshot.getTempoPerCategoria());
+        } catch (DAOException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Test dei contatori incrementali.
+     * <p>
+     * Inserisce, completa ed elimina un task di prova verificando che i contatori in
+     * {@code StatisticheUtente} seguano ogni operazione, e che la ricostruzione completa
+     * ({@code rebuildCounters}) restituisca gli stessi valori.
+     * </p>
+     */
+    @Test
+    void contatoriIncrementali() {
+        System.out.println("\n--- TEST: Contatori incrementali (Utente " + TEST_USER_ID + ") ---");
+        DAOTasks daoTasks = (DAOTasks) DAOTasks.getInstance();
+        try {
+            int[] prima = DAOStatistics.getInstance().getCompletionStats(TEST_USER_ID);
+
+            Tasks t = new Tasks("Task Test Contatori", "", null, "BASSA", null, false, null, TEST_USER_ID, -1);
+            daoTasks.insert(t);
+            int[] dopoInsert = DAOStatistics.getInstance().getCompletionStats(TEST_USER_ID);
+            assertEquals(prima[0] + 1, dopoInsert[0]);
+
+            t.setCompletamento(true);
+            daoTasks.update(t);
+            int[] dopoUpdate = DAOStatistics.getInstance().getCompletionStats(TEST_USER_ID);
+            assertEquals(prima[0], dopoUpdate[0]);
+            assertEquals(prima[1] + 1, dopoUpdate[1]);
+
+            daoTasks.delete(t);
+            int[] dopoDelete = DAOStatistics.getInstance().getCompletionStats(TEST_USER_ID);
+            assertArrayEquals(prima, dopoDelete);
+
+            DAOStatistics.getInstance().rebuildCounters(TEST_USER_ID);
+            assertArrayEquals(dopoDelete, DAOStatistics.getInstance().getCompletionStats(TEST_USER_ID));
+        } catch (DAOException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Test del tempo per categoria filtrato per periodo.
+     * <p>
+     * Il tempo degli ultimi 7 giorni, letto dai riepiloghi giornalieri, non può superare
+     * quello calcolato su tutto lo storico per nessuna categoria.
+     * </p>
+     */
+    @Test
+    void getTimeSpentByCategoryPeriodo() {
+        System.out.println("\n--- TEST: Tempo per Categoria ultimi 7 giorni (Utente " + TEST_USER_ID + ") ---");
+        try {
+            Map<String, Long> settimana = DAOStatistics.getInstance().getTimeSpentByCategory(TEST_USER_ID, 7);
+            Map<String, Long> totale = DAOStatistics.getInstance().getTimeSpentByCategory(TEST_USER_ID, null);
+
+            assertNotNull(settimana);
+            settimana.forEach((cat, sec) -> {
+                System.out.println("Categoria: " + cat + " -> " + sec + "s (totale " + totale.get(cat) + "s)");
+                assertTrue(totale.containsKey(cat));
+                assertTrue(sec <= totale.get(cat));
+            });
+        } catch (DAOException e) {
+            fail(e.getMessage());
+        }
+    }
+}
@@ -119,6 +119,42 @@ public class DAOTasksFilterTest {
         }
     }
 
+    /**
+     * Test della proiezione ELENCO.
+     * <p>
+     * Verifica che una descrizione lunga venga letta solo come anteprima, che l'aggiornamento di un
+     * task letto così non la sovrascriva e che il testo completo sia ancora disponibile.
+     * </p>
+     *
+     * @throws DAOException In caso di errori di database.
+     */
+    @Test
+    public void testProiezioneElenco() throws DAOException {
+        String lunga = "x".repeat(DAOTasks.LUNGHEZZA_ANTEPRIMA * 3);
+        Tasks t = new Tasks("Task Descrizione Lunga", lunga, null, "media", null, false, null, 12, -1);
+
+        try {
+            dao.insert(t);
+
+            Tasks filtro = new Tasks();
+            filtro.setIdUtente(12);
+            Tasks letto = dao.select(filtro, DAOTasks.Proiezione.ELENCO, null).stream()
+                    .filter(x -> x.getIdTask().equals(t.getIdTask())).findFirst().orElse(null);
+
+            assertNotNull(letto, "Il task deve essere presente nell'elenco");
+            assertFalse(letto.isDescrizioneCompleta(), "La descrizione deve risultare troncata");
+            assertEquals(DAOTasks.LUNGHEZZA_ANTEPRIMA, letto.getDescrizione().length());
+
+            // Modifica dall'elenco (es. spunta): la descrizione sul database resta completa
+            letto.setCompletamento(true);
+            dao.update(letto);
+            assertEquals(lunga, dao.selectDescrizione(t.getIdTask()), "La descrizione completa non deve essere persa");
+
+        } finally {
+            if (t.getIdTask() > 0) dao.delete(t);
+        }
+    }
+
     /**
      * Stampa in console i dettagli dei task trovati.
      * @param lista La lista dei task.
@@ -32,8 +32,9 @@ public class DAOTimerSessionTest {
      * <li><b>Preparazione:</b> Crea un oggetto sessione associato a un task esistente.</li>
      * <li><b>Start:</b> Inserisce la sessione nel DB (dao.insert). Verifica che venga generato un ID.</li>
      * <li><b>Update (Simulazione Stop):</b> Imposta manualmente orari di inizio e fine per simulare una durata nota (3h 30m 45s).</li>
-     * <li><b>Verifica:</b> Recupera la sessione dal DB e controlla che la durata calcolata corrisponda a 12645 secondi.</li>
-     * <li><b>Cleanup:</b> Elimina la sessione di test.</li>
+     * <li><b>Verifica:</b> Recupera la sessione dal DB e controlla che la durata calcolata corrisponda a 12645 secondi
+     * e che il totale del task sia aumentato della stessa quantità.</li>
+     * <li><b>Cleanup:</b> Elimina la sessione di test e verifica che il totale del task torni al valore iniziale.</li>
      * </ol>
      *
      * @throws DAOException In caso di errori SQL.
@@ -45,6 +46,7 @@ public class DAOTimerSessionTest {
 
         // 1. PREPARAZIONE
         int idTaskEsistente = 13; // deve essere giÃ  presente nel DB
+        long totalePrima = dao.getSommaDurataPerTask(idTaskEsistente);
         TimerSessions sessione = new TimerSessions();
         sessione.setIdTask(idTaskEsistente);
         sessione.setNome("Sessione Test Formattazione");
@@ -92,9 +94,57 @@ public class DAOTimerSessionTest {
         // verifichiamo la durata (3h 30m 45s = 12645 secondi)
         long durataAttesa = (3 * 3600) + (30 * 60) + 45;
         assertEquals(durataAttesa, recuperata.getDurataSecondi());
+        assertEquals(totalePrima + durataAttesa, dao.getSommaDurataPerTask(idTaskEsistente));
 
         // 5. CLEANUP
         dao.delete(sessione);
+        assertEquals(totalePrima, dao.getSommaDurataPerTask(idTaskEsistente));
         System.out.println("5. Pulizia eseguita (Delete). Test Superato.");
     }
-}
\ No newline at end of file
+
+    /**
+     * Test della paginazione a chiave dello storico sessioni.
+     * <p>
+     * Inserisce tre sessioni concluse con lo stesso orario di inizio e verifica che, leggendo
+     * a pagine di due elementi, vengano restituite tutte una sola volta in ordine decrescente.
+     * </p>
+     *
+     * @throws DAOException In caso di errori SQL.
+     */
+    @Test
+    public void testSelectPage() throws DAOException {
+        int idTaskEsistente = 13;
+        LocalDateTime inizio = LocalDateTime.now().minusYears(50).withNano(0);
+        TimerSessions[] sessioni = new TimerSessions[3];
+
+        try {
+            for (int i = 0; i < sessioni.length; i++) {
+                sessioni[i] = new TimerSessions();
+                sessioni[i].setIdTask(idTaskEsistente);
+                sessioni[i].setNome("Sessione Test Paginazione");
+                sessioni[i].setInizio(inizio);
+                dao.insert(sessioni[i]);
+                sessioni[i].setFine(inizio.plusMinutes(1));
+                dao.update(sessioni[i]);
+            }
+
+            // Si posiziona subito dopo le sessioni di test (stesso inizio, id più alto)
+            TimerSessions cursore = new TimerSessions();
+            cursore.setInizio(inizio);
+            cursore.setIdSession(Integer.MAX_VALUE);
+
+            List<TimerSessions> pagina1 = dao.selectPage(idTaskEsistente, cursore, 2);
+            List<TimerSessions> pagina2 = dao.selectPage(idTaskEsistente, pagina1.get(pagina1.size() - 1), 2);
+
+            assertEquals(2, pagina1.size());
+            assertEquals(sessioni[2].getIdSession(), pagina1.get(0).getIdSession());
+            assertEquals(sessioni[1].getIdSession(), pagina1.get(1).getIdSession());
+            assertFalse(pagina2.isEmpty());
+            assertEquals(sessioni[0].getIdSession(), pagina2.get(0).getIdSession());
+        } finally {
+            for (TimerSessions s : sessioni) {
+                if (s != null && s.getIdSession() > 0) dao.delete(s);
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package it.unicas.project.template.address.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.concurrent.CancellationException;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Classe di Test JUnit per l'archivio degli allegati indirizzato per contenuto ({@link ArchivioAllegati}).
+ * <p>
+ * Non usa il database: l'archivio e i file di prova sono in cartelle temporanee. Il conteggio dei
+ * riferimenti, che vive sul database, è verificato da {@code DAOAllegatiTest}.
+ * </p>
+ */
+public class ArchivioAllegatiTest {
+
+    @TempDir
+    Path cartella;
+
+    private Path file(String nome, byte[] contenuto) throws Exception {
+        Path p = cartella.resolve("sorgenti").resolve(nome);
+        Files.createDirectories(p.getParent());
+        return Files.write(p, contenuto);
+    }
+
+    private static String sha256(byte[] contenuto) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(contenuto));
+    }
+
+    private long fileNellArchivio(Path radice) throws Exception {
+        try (Stream<Path> s = Files.walk(radice)) {
+            return s.filter(Files::isRegularFile).count();
+        }
+    }
+
+    /**
+     * Test deduplicazione: lo stesso contenuto con due nomi diversi viene salvato una sola volta.
+     */
+    @Test
+    public void testStessoContenutoUnSoloFile() throws Exception {
+        ArchivioAllegati archivio = new ArchivioAllegati(cartella.resolve("store"));
+        byte[] dati = "contenuto di prova".getBytes(StandardCharsets.UTF_8);
+
+        ArchivioAllegati.Blob primo = archivio.salva(file("relazione.pdf", dati));
+        ArchivioAllegati.Blob secondo = archivio.salva(file("copia della relazione.pdf", dati));
+
+        assertEquals(sha256(dati), primo.getDigest());
+        assertTrue(primo.isNuovo());
+        assertFalse(secondo.isNuovo());
+        assertEquals(primo.getDigest(), secondo.getDigest());
+        assertEquals(primo.getPercorso(), secondo.getPercorso());
+        assertEquals(dati.length, secondo.getDimensione());
+        assertEquals(1, fileNellArchivio(archivio.getRadice()), "Nessun file temporaneo rimasto");
+    }
+
+    /**
+     * Test contenuti diversi: file con lo stesso nome ma contenuto diverso restano distinti,
+     * nella sottocartella data dai primi due caratteri del digest.
+     */
+    @Test
+    public void testContenutiDiversi() throws Exception {
+        ArchivioAllegati archivio = new ArchivioAllegati(cartella.resolve("store"));
+        ArchivioAllegati.Blob a = archivio.salva(file("foto.png", new byte[] {1, 2, 3}));
+        Files.delete(cartella.resolve("sorgenti").resolve("foto.png"));
+        ArchivioAllegati.Blob b = archivio.salva(file("foto.png", new byte[] {3, 2, 1}));
+
+        assertNotEquals(a.getDigest(), b.getDigest());
+        assertTrue(b.isNuovo());
+        assertEquals(a.getDigest().substring(0, 2), a.getPercorso().getParent().getFileName().toString());
+        assertEquals(a.getDigest() + ".png", a.getPercorso().getFileName().toString());
+        assertEquals(a.getPercorso(), archivio.trova(a.getDigest()));
+        assertNull(archivio.trova(sha256(new byte[] {9})));
+    }
+
+    /**
+     * Test compressione: un file di testo viene salvato compresso e riaperto con il contenuto originale.
+     */
+    @Test
+    public void testTestoCompresso() throws Exception {
+        ArchivioAllegati archivio = new ArchivioAllegati(cartella.resolve("store"));
+        byte[] dati = "riga di log ripetuta\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+
+        ArchivioAllegati.Blob blob = archivio.salva(file("server.log", dati));
+
+        assertTrue(blob.isCompresso());
+        assertEquals("log+gz", blob.tipoFile("log"));
+        assertTrue(Files.size(blob.getPercorso()) < dati.length);
+        File aperto = archivio.perApertura(blob.getPercorso().toString(), "server.log", blob.tipoFile("log"));
+        assertEquals("server.log", aperto.getName());
+        assertArrayEquals(dati, Files.readAllBytes(aperto.toPath()));
+    }
+
+    /**
+     * Test file già compresso dall'utente: un {@code .gz} allegato torna identico, senza essere
+     * scambiato per un contenuto compresso dall'archivio.
+     */
+    @Test
+    public void testFileGzipInvariato() throws Exception {
+        ArchivioAllegati archivio = new ArchivioAllegati(cartella.resolve("store"));
+        ByteArrayOutputStream gz = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gz)) {
+            out.write("contenuto dell'archivio tar\n".repeat(2000).getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] dati = gz.toByteArray();
+        Path sorgente = file("backup.tar.gz", dati);
+
+        ArchivioAllegati.Blob blob = archivio.salva(sorgente);
+
+        assertFalse(blob.isCompresso());
+        assertEquals("gz", blob.tipoFile("gz"));
+        assertEquals(blob.getDigest() + ".gz", blob.getPercorso().getFileName().toString());
+        File aperto = archivio.perApertura(blob.getPercorso().toString(), "backup.tar.gz", blob.tipoFile("gz"));
+        assertArrayEquals(dati, Files.readAllBytes(aperto.toPath()));
+
+        assertFalse(archivio.salva(file("copia.tar.gz", dati)).isCompresso(), "Anche quando viene riusato");
+    }
+
+    /**
+     * Test suffisso riservato: un file che termina con il suffisso dei contenuti compressi non lo
+     * conserva nel nome e non viene considerato compresso.
+     */
+    @Test
+    public void testSuffissoRiservato() throws Exception {
+        ArchivioAllegati archivio = new ArchivioAllegati(cartella.resolve("store"));
+        ArchivioAllegati.Blob blob = archivio.salva(file("strano" + ArchivioAllegati.SUFFISSO_COMPRESSO, new byte[] {1, 2}));
+
+        assertFalse(blob.isCompresso());
+        assertEquals(blob.getDigest(), blob.getPercorso().getFileName().toString());
+        assertFalse(archivio.salva(file("altro.bin", new byte[] {1, 2})).isCompresso());
+    }
+
+    /**
+     * Test annullamento: una copia annullata non lascia nulla nell'archivio.
+     */
+    @Test
+    public void testAnnullamento() throws Exception {
+        ArchivioAllegati archivio = new ArchivioAllegati(cartella.resolve("store"));
+        Path sorgente = file("video.mp4", new byte[64 * 1024]);
+
+        assertThrows(CancellationException.class, () -> archivio.salva(sorgente, copiati -> {}, () -> true));
+        assertEquals(0, fileNellArchivio(archivio.getRadice()));
+    }
+}
@@ -0,0 +1,88 @@
+package it.unicas.project.template.address.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Classe di Test JUnit per la cache LRU usata dai DAO ({@link CacheLRU}).
+ */
+public class CacheLRUTest {
+
+    /**
+     * Test ordine di eviction: viene scartata la voce usata meno di recente, non la più vecchia.
+     */
+    @Test
+    public void testEvictionMenoRecente() {
+        CacheLRU<String, Integer> cache = new CacheLRU<>(3);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+
+        // La lettura rende "a" la voce più recente: la prossima a uscire è "b"
+        assertEquals(1, cache.get("a"));
+        cache.put("d", 4);
+
+        assertEquals(3, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.get("a"));
+        assertEquals(3, cache.get("c"));
+        assertEquals(4, cache.get("d"));
+        assertEquals(1, cache.getEviction());
+    }
+
+    /**
+     * Test sostituzione: reinserire una chiave non scarta altre voci.
+     */
+    @Test
+    public void testSostituzione() {
+        CacheLRU<String, Integer> cache = new CacheLRU<>(2);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("a", 10);
+
+        assertEquals(2, cache.size());
+        assertEquals(10, cache.get("a"));
+        assertEquals(2, cache.get("b"));
+        assertEquals(0, cache.getEviction());
+    }
+
+    /**
+     * Test invalidazione: remove, removeIf e clear tolgono le voci e le contano come invalidazioni.
+     */
+    @Test
+    public void testInvalidazione() {
+        CacheLRU<String, Integer> cache = new CacheLRU<>(10);
+        cache.put("utente1|aperti", 1);
+        cache.put("utente1|tutti", 2);
+        cache.put("utente2|aperti", 3);
+        cache.put("utente3|aperti", 4);
+
+        assertEquals(2, cache.removeIf(k -> k.startsWith("utente1|")));
+        assertNull(cache.get("utente1|aperti"));
+        assertEquals(3, cache.get("utente2|aperti"));
+
+        assertEquals(3, cache.remove("utente2|aperti"));
+        assertNull(cache.remove("utente2|aperti"), "Una seconda rimozione non conta");
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(4, cache.getInvalidazioni());
+        assertEquals(0, cache.getEviction());
+    }
+
+    /**
+     * Test metriche di lettura: hit e miss.
+     */
+    @Test
+    public void testHitEMiss() {
+        CacheLRU<Integer, String> cache = new CacheLRU<>(2);
+        cache.put(1, "uno");
+        cache.get(1);
+        cache.get(1);
+        cache.get(2);
+
+        assertEquals(2, cache.getHit());
+        assertEquals(1, cache.getMiss());
+    }
+}
@@ -0,0 +1,118 @@
+package it.unicas.project.template.address.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Classe di Test JUnit per il diario delle sessioni del timer ({@link DiarioTimer}).
+ * <p>
+ * Non usa il database: il file del diario viene scritto dal test come lo lascerebbe un'esecuzione
+ * interrotta e riletto creando un nuovo diario sullo stesso file. La chiusura delle sessioni
+ * ({@link DiarioTimer#recupera()}) non viene chiamata.
+ * </p>
+ */
+public class DiarioTimerTest {
+
+    private static final LocalDateTime INIZIO = LocalDateTime.of(2024, 5, 1, 9, 0, 0);
+
+    @TempDir
+    Path cartella;
+
+    private Path file() {
+        return cartella.resolve("timer").resolve("sessioni-attive.bin");
+    }
+
+    private static long millis(LocalDateTime t) {
+        return t.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Scrive il diario con il battito e le sessioni indicate, ciascuna come {idSession, idTask, istante}.
+     */
+    private Path scrivi(LocalDateTime battito, long[]... sessioni) throws Exception {
+        ByteArrayOutputStream righe = new ByteArrayOutputStream();
+        DataOutputStream r = new DataOutputStream(righe);
+        for (long[] s : sessioni) {
+            r.writeInt((int) s[0]);
+            r.writeInt((int) s[1]);
+            r.writeLong(s[2]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(righe.toByteArray());
+
+        ByteArrayOutputStream contenuto = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(contenuto);
+        out.writeInt(0x544D4431);
+        out.writeInt(1);
+        out.writeLong(millis(battito));
+        out.writeInt(sessioni.length);
+        righe.writeTo(out);
+        out.writeInt((int) crc.getValue());
+
+        Files.createDirectories(file().getParent());
+        return Files.write(file(), contenuto.toByteArray());
+    }
+
+    /**
+     * Test fine dall'ultimo battito: una sessione aperta viene chiusa all'ultimo battito (al secondo),
+     * una avviata dopo il battito al suo inizio, una già interrotta alla fine salvata.
+     */
+    @Test
+    public void testFineDalBattito() throws Exception {
+        LocalDateTime battito = INIZIO.plusMinutes(10).plusNanos(700_000_000);
+        scrivi(battito,
+                new long[] { 5, 13, millis(INIZIO) },
+                new long[] { -2, 13, millis(INIZIO.plusMinutes(20)) },
+                new long[] { 8, 0, millis(INIZIO.plusMinutes(3)) });
+
+        Map<Integer, LocalDateTime> interrotte = new DiarioTimer(file()).getInterrotte();
+
+        assertEquals(3, interrotte.size());
+        assertEquals(INIZIO.plusMinutes(10), interrotte.get(5), "Fine all'ultimo battito, senza frazioni");
+        assertEquals(INIZIO.plusMinutes(20), interrotte.get(-2), "Mai prima dell'inizio");
+        assertEquals(INIZIO.plusMinutes(3), interrotte.get(8), "Sessione già interrotta: fine invariata");
+    }
+
+    /**
+     * Test diario rovinato: un CRC non valido, un file troncato o un file estraneo vengono ignorati
+     * senza errori e il diario riparte vuoto.
+     */
+    @Test
+    public void testDiarioRovinato() throws Exception {
+        byte[] valido = Files.readAllBytes(scrivi(INIZIO.plusMinutes(1), new long[] { 5, 13, millis(INIZIO) }));
+        assertEquals(1, new DiarioTimer(file()).getInterrotte().size());
+
+        byte[] alterato = valido.clone();
+        alterato[alterato.length - 6] ^= 1;
+        Files.write(file(), alterato);
+        assertTrue(new DiarioTimer(file()).getInterrotte().isEmpty(), "CRC non valido");
+
+        byte[] troncato = new byte[valido.length - 3];
+        System.arraycopy(valido, 0, troncato, 0, troncato.length);
+        Files.write(file(), troncato);
+        assertTrue(new DiarioTimer(file()).getInterrotte().isEmpty(), "File troncato");
+
+        Files.write(file(), "non è un diario".getBytes());
+        assertTrue(new DiarioTimer(file()).getInterrotte().isEmpty(), "File estraneo");
+    }
+
+    /**
+     * Test diario assente: nessuna sessione da recuperare e nessun file creato.
+     */
+    @Test
+    public void testDiarioAssente() {
+        assertTrue(new DiarioTimer(file()).getInterrotte().isEmpty());
+        assertFalse(Files.exists(file()));
+    }
+}
@@ -0,0 +1,93 @@
+package it.unicas.project.template.address.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Classe di Test JUnit per le regole di quarantena della pulizia allegati ({@link PuliziaAllegati}).
+ * <p>
+ * Verifica la sola spazzata, che non usa il database: l'insieme dei file in uso, che in
+ * esercizio viene dalla marcatura su Allegati, è fornito direttamente dal test.
+ * </p>
+ */
+public class PuliziaAllegatiTest {
+
+    @TempDir
+    Path cartella;
+
+    /** Crea un file con la data di modifica spostata indietro della durata indicata. */
+    private Path file(Path p, Duration eta) throws Exception {
+        Files.createDirectories(p.getParent());
+        Files.write(p, new byte[] {1, 2, 3});
+        Files.setLastModifiedTime(p, FileTime.fromMillis(System.currentTimeMillis() - eta.toMillis()));
+        return p;
+    }
+
+    /**
+     * Test spazzata: un file orfano vecchio va in quarantena, uno in uso o appena creato resta.
+     */
+    @Test
+    public void testOrfaniInQuarantena() throws Exception {
+        Path radice = cartella.resolve("attachments");
+        Path orfano = file(radice.resolve("store/ab/ab12.pdf"), Duration.ofDays(2));
+        Path usato = file(radice.resolve("store/cd/cd34.pdf"), Duration.ofDays(2));
+        Path recente = file(radice.resolve("store/ef/ef56.pdf"), Duration.ofMinutes(5));
+
+        PuliziaAllegati.Risultato r = new PuliziaAllegati(radice).spazza(Set.of("cd34.pdf"), Set.of());
+
+        assertEquals(1, r.getFileInQuarantena());
+        assertFalse(Files.exists(orfano));
+        Path inQuarantena = radice.resolve("quarantine/store/ab/ab12.pdf");
+        assertTrue(Files.exists(inQuarantena), "Il percorso relativo viene conservato");
+        assertTrue(Files.getLastModifiedTime(inQuarantena).toMillis() > System.currentTimeMillis() - 60_000,
+                "La data di modifica segna l'ingresso in quarantena");
+        assertTrue(Files.exists(usato));
+        assertTrue(Files.exists(recente), "Entro la tolleranza un file non è mai orfano");
+    }
+
+    /**
+     * Test quarantena: un file tornato in uso viene ripristinato, uno scaduto eliminato.
+     */
+    @Test
+    public void testRipristinoEScadenza() throws Exception {
+        Path radice = cartella.resolve("attachments");
+        Path quarantena = radice.resolve("quarantine");
+        file(quarantena.resolve("store/ab/ab12.pdf"), Duration.ofDays(1));
+        file(quarantena.resolve("store/cd/cd34.pdf"), PuliziaAllegati.CONSERVAZIONE.plusDays(1));
+        file(quarantena.resolve("store/ef/ef56.pdf"), Duration.ofDays(1));
+
+        PuliziaAllegati.Risultato r = new PuliziaAllegati(radice).spazza(Set.of("ab12.pdf"), Set.of());
+
+        assertEquals(1, r.getFileRipristinati());
+        assertEquals(1, r.getFileEliminati());
+        assertTrue(Files.exists(radice.resolve("store/ab/ab12.pdf")));
+        assertFalse(Files.exists(quarantena.resolve("store/cd")), "Cartella vuota rimossa");
+        assertTrue(Files.exists(quarantena.resolve("store/ef/ef56.pdf")), "Ancora in conservazione");
+    }
+
+    /**
+     * Test miniature: quelle di file non più usati vengono eliminate subito, senza quarantena.
+     */
+    @Test
+    public void testMiniature() throws Exception {
+        Path radice = cartella.resolve("attachments");
+        Path usata = file(radice.resolve("thumbs/aaaa-96.png"), Duration.ofDays(2));
+        Path orfana = file(radice.resolve("thumbs/bbbb-96.png"), Duration.ofDays(2));
+
+        PuliziaAllegati.Risultato r = new PuliziaAllegati(radice).spazza(Set.of(), Set.of("aaaa"));
+
+        assertEquals(1, r.getFileEliminati());
+        assertEquals(0, r.getFileInQuarantena());
+        assertTrue(Files.exists(usata));
+        assertFalse(Files.exists(orfana));
+        assertFalse(Files.exists(radice.resolve("quarantine/thumbs")));
+    }
+}
@@ -0,0 +1,156 @@
+package it.unicas.project.template.address.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Classe di Test JUnit per il pianificatore dei promemoria ({@link ScadenzeScheduler}).
+ * <p>
+ * Usa un orologio controllato dal test: dopo ogni avanzamento gli scatti del timer vengono
+ * simulati chiamando direttamente {@code scatta()}, così nessun test dipende dal tempo reale.
+ * </p>
+ */
+public class ScadenzeSchedulerTest {
+
+    private static final ZoneId ZONA = ZoneId.of("Europe/Rome");
+    private static final LocalDate OGGI = LocalDate.of(2030, 3, 10);
+
+    /** Orologio fermo che avanza solo quando lo chiede il test. */
+    private static final class OrologioManuale extends Clock {
+        private Instant adesso;
+
+        OrologioManuale(Instant adesso) { this.adesso = adesso; }
+
+        void vai(LocalDateTime quando) { adesso = quando.atZone(ZONA).toInstant(); }
+
+        @Override public ZoneId getZone() { return ZONA; }
+        @Override public Clock withZone(ZoneId zone) { throw new UnsupportedOperationException(); }
+        @Override public Instant instant() { return adesso; }
+    }
+
+    private OrologioManuale orologio;
+    private ScadenzeScheduler scheduler;
+    private final List<String> eventi = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        orologio = new OrologioManuale(OGGI.atTime(9, 0).atZone(ZONA).toInstant());
+        scheduler = new ScadenzeScheduler(orologio);
+        scheduler.addListener(e -> eventi.add(e.getIdTask() + ":" + e.getPrecedente() + "->" + e.getNuova()));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    /** Porta l'orologio all'istante indicato e fa scattare il timer. */
+    private void avanza(LocalDateTime quando) {
+        orologio.vai(quando);
+        scheduler.scatta();
+    }
+
+    /**
+     * Test finestra immediata: un task già in scadenza oggi viene notificato subito.
+     */
+    @Test
+    public void testFinestraAllInserimento() {
+        scheduler.aggiorna(1, OGGI, false);
+        scheduler.aggiorna(2, OGGI.minusDays(3), false);
+        scheduler.aggiorna(3, OGGI.plusDays(1), false);
+        scheduler.aggiorna(4, OGGI.plusDays(5), false);
+
+        assertEquals(List.of("1:null->OGGI", "2:null->SCADUTO", "3:null->DOMANI"), eventi);
+        assertEquals(3, scheduler.getNumeroUrgenti());
+        assertNull(scheduler.getFinestra(4));
+    }
+
+    /**
+     * Test promozioni: allo scoccare di ogni mezzanotte il task passa alla finestra successiva.
+     */
+    @Test
+    public void testPromozioni() {
+        LocalDate scadenza = OGGI.plusDays(2);
+        scheduler.aggiorna(1, scadenza, false);
+        assertTrue(eventi.isEmpty());
+
+        avanza(OGGI.atTime(23, 59));
+        assertTrue(eventi.isEmpty(), "Nessun evento prima della mezzanotte");
+
+        avanza(scadenza.minusDays(1).atStartOfDay());
+        avanza(scadenza.atTime(8, 0));
+        avanza(scadenza.plusDays(1).atTime(0, 0, 1));
+        assertEquals(List.of("1:null->DOMANI", "1:DOMANI->OGGI", "1:OGGI->SCADUTO"), eventi);
+        assertEquals(ScadenzeScheduler.Finestra.SCADUTO, scheduler.getFinestra(1));
+    }
+
+    /**
+     * Test più finestre in un solo scatto: un ritardo del timer non perde passaggi intermedi.
+     */
+    @Test
+    public void testScattoInRitardo() {
+        scheduler.aggiorna(1, OGGI.plusDays(1), false);
+        scheduler.aggiorna(2, OGGI.plusDays(4), false);
+        eventi.clear();
+
+        avanza(OGGI.plusDays(3).atTime(12, 0));
+        assertEquals(List.of("1:DOMANI->OGGI", "1:OGGI->SCADUTO", "2:null->DOMANI"), eventi);
+    }
+
+    /**
+     * Test modifica della scadenza: le voci della vecchia data vengono scartate e il timer
+     * viene riarmato sulla nuova.
+     */
+    @Test
+    public void testRiarmoDopoModifica() {
+        scheduler.aggiorna(1, OGGI.plusDays(1), false);
+        scheduler.aggiorna(1, OGGI.plusDays(10), false);
+        assertEquals(List.of("1:null->DOMANI", "1:DOMANI->null"), eventi);
+        eventi.clear();
+
+        avanza(OGGI.plusDays(2).atTime(10, 0));
+        assertTrue(eventi.isEmpty(), "Le voci della scadenza precedente sono obsolete");
+
+        avanza(OGGI.plusDays(9).atStartOfDay());
+        assertEquals(List.of("1:null->DOMANI"), eventi);
+    }
+
+    /**
+     * Test aggiornamento identico: nessun evento e nessuna nuova voce.
+     */
+    @Test
+    public void testAggiornamentoSenzaCambiamenti() {
+        scheduler.aggiorna(1, OGGI, false);
+        scheduler.aggiorna(1, OGGI, false);
+        assertEquals(List.of("1:null->OGGI"), eventi);
+    }
+
+    /**
+     * Test completamento ed eliminazione: il task esce dalle finestre e i suoi ingressi futuri
+     * non vengono più notificati.
+     */
+    @Test
+    public void testCompletamentoERimozione() {
+        scheduler.aggiorna(1, OGGI.plusDays(1), false);
+        scheduler.aggiorna(2, OGGI.plusDays(1), false);
+        scheduler.aggiorna(1, OGGI.plusDays(1), true);
+        scheduler.rimuovi(2);
+        assertEquals(List.of("1:null->DOMANI", "2:null->DOMANI", "1:DOMANI->null", "2:DOMANI->null"), eventi);
+        eventi.clear();
+
+        avanza(OGGI.plusDays(3).atStartOfDay());
+        assertTrue(eventi.isEmpty());
+        assertEquals(0, scheduler.getNumeroUrgenti());
+    }
+}
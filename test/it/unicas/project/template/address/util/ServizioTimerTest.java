@@ -0,0 +1,57 @@
+package it.unicas.project.template.address.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Classe di Test JUnit per il calcolo del tempo trascorso e dell'orario di fine di {@link ServizioTimer}.
+ * <p>
+ * Verifica i soli calcoli, che non richiedono la UI: il servizio vero usa una {@code Timeline} di JavaFX.
+ * </p>
+ */
+public class ServizioTimerTest {
+
+    private static final long SECONDO = 1_000_000_000L;
+
+    /**
+     * Test secondi interi: le frazioni di secondo non vengono arrotondate per eccesso.
+     */
+    @Test
+    public void testSecondiTrascorsi() {
+        long inizio = 123_456_789L;
+        assertEquals(0, ServizioTimer.secondiTrascorsi(inizio, inizio + SECONDO - 1));
+        assertEquals(1, ServizioTimer.secondiTrascorsi(inizio, inizio + SECONDO));
+        assertEquals(2, ServizioTimer.secondiTrascorsi(inizio, inizio + 3 * SECONDO - 1));
+        assertEquals(3600, ServizioTimer.secondiTrascorsi(inizio, inizio + 3600 * SECONDO + SECONDO / 2));
+    }
+
+    /**
+     * Test contatore che supera il massimo: conta solo la differenza tra le due letture.
+     */
+    @Test
+    public void testContatoreOltreIlMassimo() {
+        long inizio = Long.MAX_VALUE - SECONDO / 2;
+        assertEquals(5, ServizioTimer.secondiTrascorsi(inizio, inizio + 5 * SECONDO));
+    }
+
+    /**
+     * Test orario di fine: è l'inizio più i secondi mostrati, così la durata salvata
+     * ({@code fine - inizio}) coincide con quella vista sul display.
+     */
+    @Test
+    public void testFineDaiSecondiMostrati() {
+        LocalDateTime inizio = LocalDateTime.of(2024, 5, 1, 23, 59, 30);
+        long secondi = ServizioTimer.secondiTrascorsi(0, 95 * SECONDO + SECONDO * 9 / 10);
+
+        LocalDateTime fine = ServizioTimer.fine(inizio, secondi);
+
+        assertEquals(LocalDateTime.of(2024, 5, 2, 0, 1, 5), fine);
+        assertEquals(ServizioTimer.formatta(secondi),
+                ServizioTimer.formatta(Duration.between(inizio, fine).getSeconds()));
+        assertEquals("00:01:35", ServizioTimer.formatta(secondi));
+    }
+}
@@ -0,0 +1,157 @@
+package it.unicas.project.template.address.util;
+
+import it.unicas.project.template.address.model.Allegati;
+import it.unicas.project.template.address.model.Categorie;
+import it.unicas.project.template.address.model.SubTasks;
+import it.unicas.project.template.address.model.Tasks;
+import it.unicas.project.template.address.model.TimerSessions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Classe di Test JUnit per la copia locale dei task ({@link SnapshotLocale}).
+ * <p>
+ * Non usa il database: scrive e rilegge i file in una cartella temporanea.
+ * </p>
+ */
+public class SnapshotLocaleTest {
+
+    @TempDir
+    Path cartella;
+
+    private Tasks task(int idTask, Integer idCategoria) {
+        Tasks t = new Tasks("Titolo " + idTask, "Descrizione", "2030-01-15", "alta", "2024-05-01",
+                idTask % 2 == 0, idTask, 7, idCategoria);
+        t.setDurataTotale(3600L * idTask);
+        t.setProgressoSubTask(4, 1);
+        return t;
+    }
+
+    /**
+     * Test andata e ritorno: quello che viene scritto viene riletto uguale, watermark compreso.
+     */
+    @Test
+    public void testScritturaELettura() throws Exception {
+        SnapshotLocale snapshot = new SnapshotLocale(cartella);
+        Categorie lavoro = new Categorie("Lavoro", 3);
+        snapshot.scrivi(7, List.of(lavoro), List.of(task(1, 3), task(2, null)), 123456789L);
+
+        SnapshotLocale.Contenuto letto = snapshot.leggi(7);
+        assertNotNull(letto);
+        assertEquals(123456789L, letto.getWatermark());
+        assertEquals(1, letto.getCategorie().size());
+        assertEquals("Lavoro", letto.getCategorie().get(0).getNomeCategoria());
+        assertEquals(2, letto.getTasks().size());
+
+        Tasks primo = letto.getTasks().get(0);
+        assertEquals(1, primo.getIdTask());
+        assertEquals("Titolo 1", primo.getTitolo());
+        assertEquals("2030-01-15", primo.getScadenza());
+        assertEquals(3, primo.getIdCategoria());
+        assertFalse(primo.getCompletamento());
+        assertEquals(3600L, primo.getDurataTotale());
+        assertEquals(4, primo.getSubTaskTotali());
+        assertEquals(1, primo.getSubTaskCompletati());
+
+        Tasks secondo = letto.getTasks().get(1);
+        assertTrue(secondo.getCompletamento());
+        assertEquals(-1, secondo.getIdCategoria(), "Categoria assente riletta come nel modello");
+    }
+
+    /**
+     * Test dettagli: descrizioni complete, subtask, sessioni (anche in corso) e allegati vengono
+     * riletti uguali; una copia senza dettagli li rilegge vuoti.
+     */
+    @Test
+    public void testDettagli() throws Exception {
+        SnapshotLocale snapshot = new SnapshotLocale(cartella);
+        LocalDateTime inizio = LocalDateTime.of(2024, 5, 1, 9, 30, 15);
+        Allegati allegato = new Allegati("relazione.pdf", "attachments/store/ab/ab12.pdf", "pdf", 1);
+        allegato.setIdAllegato(40);
+        allegato.setDigest("ab12");
+        SnapshotLocale.Dettagli dettagli = new SnapshotLocale.Dettagli(Map.of(1, "Descrizione lunga"),
+                List.of(new SubTasks("Passo", null, true, 20, 1)),
+                List.of(new TimerSessions("Mattina", inizio, inizio.plusMinutes(5), 300, 30, 1),
+                        new TimerSessions("In corso", inizio.plusHours(1), null, 0, 31, 1)),
+                List.of(allegato));
+        snapshot.scrivi(7, List.of(), List.of(task(1, null)), dettagli, 5L);
+
+        SnapshotLocale.Dettagli letti = snapshot.leggi(7).getDettagli();
+        assertEquals(Map.of(1, "Descrizione lunga"), letti.getDescrizioni());
+
+        SubTasks passo = letti.getSubTasks().get(0);
+        assertEquals(20, passo.getIdSubTask());
+        assertEquals(1, passo.getIdTask());
+        assertEquals("Passo", passo.getTitolo());
+        assertTrue(passo.getCompletamento());
+
+        assertEquals(2, letti.getSessioni().size());
+        TimerSessions mattina = letti.getSessioni().get(0);
+        assertEquals(30, mattina.getIdSession());
+        assertEquals(inizio, mattina.getInizio());
+        assertEquals(inizio.plusMinutes(5), mattina.getFine());
+        assertEquals(300, mattina.getDurataSecondi());
+        assertNull(letti.getSessioni().get(1).getFine(), "Sessione ancora aperta");
+
+        Allegati letto = letti.getAllegati().get(0);
+        assertEquals(40, letto.getIdAllegato());
+        assertEquals("attachments/store/ab/ab12.pdf", letto.getPercorsoFile());
+        assertEquals("ab12", letto.getDigest());
+
+        snapshot.scrivi(7, List.of(), List.of(task(1, null)), 6L);
+        assertTrue(snapshot.leggi(7).getDettagli().getSessioni().isEmpty());
+    }
+
+    /**
+     * Test sovrascrittura dopo una lettura: la nuova copia sostituisce la precedente.
+     */
+    @Test
+    public void testSovrascritturaDopoLettura() throws Exception {
+        SnapshotLocale snapshot = new SnapshotLocale(cartella);
+        snapshot.scrivi(7, List.of(), List.of(task(1, null)), 1L);
+        assertNotNull(snapshot.leggi(7));
+
+        snapshot.scrivi(7, List.of(), List.of(task(1, null), task(2, null)), 2L);
+        SnapshotLocale.Contenuto letto = snapshot.leggi(7);
+        assertNotNull(letto);
+        assertEquals(2L, letto.getWatermark());
+        assertEquals(2, letto.getTasks().size());
+    }
+
+    /**
+     * Test file alterato: un byte modificato invalida il CRC e la copia viene ignorata.
+     */
+    @Test
+    public void testCrcNonValido() throws Exception {
+        SnapshotLocale snapshot = new SnapshotLocale(cartella);
+        snapshot.scrivi(7, List.of(), List.of(task(1, null)), 1L);
+
+        Path file = cartella.resolve("utente-7.bin");
+        byte[] contenuto = Files.readAllBytes(file);
+        contenuto[contenuto.length / 2] ^= 0x5A;
+        Files.write(file, contenuto);
+
+        assertNull(snapshot.leggi(7));
+    }
+
+    /**
+     * Test file di un altro utente: una copia rinominata non viene accettata.
+     */
+    @Test
+    public void testFileDiAltroUtente() throws Exception {
+        SnapshotLocale snapshot = new SnapshotLocale(cartella);
+        snapshot.scrivi(7, List.of(), List.of(task(1, null)), 1L);
+        Files.copy(cartella.resolve("utente-7.bin"), cartella.resolve("utente-8.bin"));
+
+        assertNull(snapshot.leggi(8));
+        assertNull(snapshot.leggi(9), "Copia inesistente");
+    }
+}